@@ -0,0 +1,77 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.benchmark;
+
+import java.util.Random;
+
+/**
+ * Generates the data used by the benchmarks. We always use the same seed so two runs
+ * measure exactly the same inputs.
+ */
+public class BenchmarkData {
+
+    private static final long SEED = 42L;
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz0123456789";
+    private static final String[] WORDS = { "lorem", "ipsum", "dolor", "sit", "amet", "consectetur",
+            "adipiscing", "elit", "sed", "do", "eiusmod", "tempor", "incididunt", "ut", "labore", "et",
+            "dolore", "magna", "aliqua", "\u00e9l\u00e8ve", "na\u00efve", "\"quoted\"", "tab\there", "back\\slash" };
+
+    /**
+     * @param length length of the name
+     * @return a name made of lower case letters and digits
+     */
+    public static String name(int length) {
+        Random random = new Random(SEED + length);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param depth number of directories
+     * @return a path like /aaaa/bbbbbbbb/cc
+     */
+    public static String path(int depth) {
+        Random random = new Random(SEED + depth);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            sb.append("/").append(name(4 + random.nextInt(12)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param size number of characters
+     * @return some text with new lines and characters which must be escaped in JSON
+     */
+    public static String text(int size) {
+        Random random = new Random(SEED + size);
+        StringBuilder sb = new StringBuilder(size + 16);
+        int words = 0;
+        while (sb.length() < size) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+            sb.append(++words % 12 == 0 ? '\n' : ' ');
+        }
+        sb.setLength(size);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import fr.pilato.elasticsearch.crawler.fs.meta.doc.Attributes;
+import fr.pilato.elasticsearch.crawler.fs.meta.doc.Doc;
+import fr.pilato.elasticsearch.crawler.fs.meta.doc.DocParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of serializing a document to JSON for several sizes of extracted content.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class DocParserBenchmark {
+
+    /**
+     * Number of extracted characters. 100000 is the default indexed_chars limit.
+     */
+    @Param({"0", "1000", "100000"})
+    public int contentSize;
+
+    private Doc doc;
+
+    @Setup
+    public void setup() {
+        doc = new Doc();
+        doc.setContent(BenchmarkData.text(contentSize));
+        doc.getMeta().setAuthor("David Pilato");
+        doc.getMeta().setTitle("Benchmarking FS crawler");
+        doc.getMeta().setDate(new Date(1466000000000L));
+        doc.getMeta().setKeywords(Arrays.asList("fscrawler", "elasticsearch", "benchmark"));
+        doc.getFile().setFilename("benchmark.pdf");
+        doc.getFile().setContentType("application/pdf");
+        doc.getFile().setFilesize(123456L);
+        doc.getFile().setIndexedChars(contentSize);
+        doc.getFile().setLastModified(Instant.ofEpochMilli(1466000000000L));
+        doc.getFile().setIndexingDate(Instant.ofEpochMilli(1466000001000L));
+        doc.getFile().setUrl("file://" + BenchmarkData.path(8) + "/benchmark.pdf");
+        doc.getPath().setEncoded("a5d4c3bd2a2e7e9f9d5b6c1f3e8a4d2b");
+        doc.getPath().setRoot("b2e8f4a6d1c3e5f7a9b0c2d4e6f8a1b3");
+        doc.getPath().setVirtual(BenchmarkData.path(3) + "/benchmark.pdf");
+        doc.getPath().setReal(BenchmarkData.path(8) + "/benchmark.pdf");
+        Attributes attributes = new Attributes();
+        attributes.setOwner("dadoonet");
+        attributes.setGroup("staff");
+        doc.setAttributes(attributes);
+    }
+
+    @Benchmark
+    public String toJson() throws JsonProcessingException {
+        return DocParser.toJson(doc);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.benchmark;
+
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractModel;
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractorFile;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.Fs;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cost of listing a local directory. The directory is created once per trial in the temp dir,
+ * so the first measurements warm up the OS file cache and the following ones do not hit the disk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class FileAbstractorFileBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int files;
+
+    @Param({"false", "true"})
+    public boolean attributesSupport;
+
+    private Path dir;
+    private String dirName;
+    private File file;
+    private FileAbstractorFile abstractor;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("fscrawler-benchmark");
+        dirName = dir.toString();
+        for (int i = 0; i < files; i++) {
+            Path child = dir.resolve(String.format("file-%06d-%s.txt", i, BenchmarkData.name(12)));
+            Files.write(child, BenchmarkData.text(100).getBytes(StandardCharsets.UTF_8));
+        }
+        // Some sub directories like a real tree
+        for (int i = 0; i < files / 100; i++) {
+            Files.createDirectory(dir.resolve(String.format("dir-%04d", i)));
+        }
+        file = dir.resolve(String.format("file-%06d-%s.txt", 0, BenchmarkData.name(12))).toFile();
+
+        FsSettings fsSettings = FsSettings.builder("benchmark")
+                .setFs(Fs.builder().setUrl(dirName).setAttributesSupport(attributesSupport).build())
+                .build();
+        abstractor = new FileAbstractorFile(fsSettings);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public Collection<FileAbstractModel> getFiles() throws IOException {
+        return abstractor.getFiles(dirName);
+    }
+
+    @Benchmark
+    public FileAbstractModel toFileAbstractModel() {
+        return abstractor.toFileAbstractModel(dirName, file);
+    }
+}
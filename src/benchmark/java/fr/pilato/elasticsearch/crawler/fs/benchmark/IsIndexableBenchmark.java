@@ -0,0 +1,110 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.benchmark;
+
+import fr.pilato.elasticsearch.crawler.fs.util.FileMatcher;
+import fr.pilato.elasticsearch.crawler.fs.util.FsCrawlerUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of checking a file name against includes and excludes, with {@link FsCrawlerUtil#isIndexable}
+ * which compiles the rules for every call, and with a {@link FileMatcher} compiled once.
+ * The file name never matches so every pattern is evaluated, which is what happens for most files
+ * when users only include a few extensions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class IsIndexableBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int patterns;
+
+    @Param({"16", "128"})
+    public int nameLength;
+
+    private String filename;
+    private List<String> includes;
+    private List<String> excludes;
+    private List<String> empty;
+    private FileMatcher matcher;
+    private FileMatcher wildcardMatcher;
+
+    @Setup
+    public void setup() {
+        includes = new ArrayList<>();
+        excludes = new ArrayList<>();
+        for (int i = 0; i < patterns; i++) {
+            includes.add("*.ext" + i);
+            excludes.add("*_draft_" + i + "?.*");
+        }
+        empty = new ArrayList<>();
+        filename = BenchmarkData.name(nameLength) + ".bin";
+        matcher = FileMatcher.compile(includes, excludes);
+        // Rules which can not be checked with simple string comparisons
+        List<String> wildcards = new ArrayList<>();
+        for (int i = 0; i < patterns; i++) {
+            wildcards.add("*_v" + i + "_*.ext?");
+        }
+        wildcardMatcher = FileMatcher.compile(wildcards, null);
+    }
+
+    @Benchmark
+    public boolean noRules() {
+        return FsCrawlerUtil.isIndexable(filename, empty, empty);
+    }
+
+    @Benchmark
+    public boolean includes() {
+        return FsCrawlerUtil.isIndexable(filename, includes, empty);
+    }
+
+    @Benchmark
+    public boolean includesAndExcludes() {
+        return FsCrawlerUtil.isIndexable(filename, includes, excludes);
+    }
+
+    @Benchmark
+    public boolean compiled() {
+        return matcher.isIndexable(filename);
+    }
+
+    @Benchmark
+    public boolean compiledWildcards() {
+        return wildcardMatcher.isIndexable(filename);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.benchmark;
+
+import fr.pilato.elasticsearch.crawler.fs.SignTool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of computing the _id of a document from its path.
+ * We also run it with several threads as parallel crawling computes ids concurrently.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class SignToolBenchmark {
+
+    @Param({"2", "8", "32"})
+    public int depth;
+
+    @Param({SignTool.LEGACY, SignTool.MD5, SignTool.MURMUR3})
+    public String algorithm;
+
+    private String path;
+    private SignTool signTool;
+
+    @Setup
+    public void setup() {
+        path = BenchmarkData.path(depth) + "/" + BenchmarkData.name(20) + ".pdf";
+        signTool = SignTool.getInstance(algorithm);
+    }
+
+    @Benchmark
+    public String id() {
+        return signTool.id(path);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String idConcurrently() {
+        return signTool.id(path);
+    }
+}
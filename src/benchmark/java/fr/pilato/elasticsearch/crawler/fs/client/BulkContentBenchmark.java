@@ -0,0 +1,110 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.client;
+
+import fr.pilato.elasticsearch.crawler.fs.benchmark.BenchmarkData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of writing the NDJSON body of a bulk request, as done by {@link ElasticsearchClient#bulk(BulkRequest)}.
+ * The body is written to a stream which only counts bytes so we don't measure the network.
+ * With a compression level, the body is compressed with {@link GzipEncoding} and we count compressed bytes.
+ * This benchmark lives in the client package as {@link BulkContent} is package private.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class BulkContentBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int actions;
+
+    /**
+     * Size of each document in characters
+     */
+    @Param({"1000", "100000"})
+    public int documentSize;
+
+    /**
+     * gzip compression level. 0 means no compression.
+     */
+    @Param({"0", "1", "6"})
+    public int compressionLevel;
+
+    private BulkRequest bulkRequest;
+
+    @Setup
+    public void setup() {
+        bulkRequest = new BulkRequest();
+        // We generate pretty printed JSON as the new lines must be removed
+        String source = "{\n  \"content\" : \"" + BenchmarkData.text(documentSize).replace("\\", "\\\\")
+                .replace("\"", "\\\"").replace("\n", "\\n").replace("\t", "\\t") + "\"\n}";
+        for (int i = 0; i < actions; i++) {
+            bulkRequest.add(new IndexRequest("benchmark", "doc", "id" + i).source(source));
+        }
+        // One delete every 10 actions
+        for (int i = 0; i < actions / 10; i++) {
+            bulkRequest.add(new DeleteRequest("benchmark", "doc", "deleted" + i));
+        }
+    }
+
+    @Benchmark
+    public long writeTo() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        BulkContent content = new BulkContent(bulkRequest);
+        if (compressionLevel > 0) {
+            new GzipEncoding(compressionLevel, null).encode(content, out);
+        } else {
+            content.writeTo(out);
+        }
+        return out.count;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.client;
+
+import com.sun.net.httpserver.HttpServer;
+import fr.pilato.elasticsearch.crawler.fs.benchmark.BenchmarkData;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.Elasticsearch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the HTTP transports used by {@link ElasticsearchClient}. Bulks are sent by concurrent threads
+ * to a local HTTP server which answers like elasticsearch without doing anything, so we only measure the client
+ * and the connection handling. We have more threads than pooled connections, like a crawler running many
+ * concurrent bulks. The number of connections opened during a run is printed when the run ends.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+@Threads(32)
+@State(Scope.Benchmark)
+public class HttpTransportBenchmark {
+
+    private static final byte[] ROOT_RESPONSE = "{\"version\":{\"number\":\"2.3.3\"}}".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BULK_RESPONSE = "{\"took\":1,\"errors\":false,\"items\":[]}".getBytes(StandardCharsets.UTF_8);
+
+    @Param({ElasticsearchClient.TRANSPORT_NET, ElasticsearchClient.TRANSPORT_POOLED})
+    public String transport;
+
+    @Param({"10", "100"})
+    public int actions;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+
+    private ElasticsearchClient client;
+    private Elasticsearch.Node node;
+    private BulkRequest bulkRequest;
+
+    @Setup
+    public void setup() throws IOException {
+        // Otherwise the server waits for delayed ACKs and we only measure that
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 128);
+        executor = Executors.newFixedThreadPool(16);
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> {
+            // Each connection comes from a different client port
+            connections.add(exchange.getRemoteAddress());
+            try (InputStream is = exchange.getRequestBody()) {
+                byte[] buffer = new byte[8192];
+                while (is.read(buffer) != -1) {
+                    // We just consume the body
+                }
+            }
+            byte[] response = exchange.getRequestURI().getPath().equals("/_bulk") ? BULK_RESPONSE : ROOT_RESPONSE;
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
+        });
+        server.start();
+
+        client = ElasticsearchClient.builder()
+                .setTransport(transport)
+                .setMaxConnectionsPerNode(8)
+                .build();
+        node = Elasticsearch.Node.builder().setHost("127.0.0.1").setPort(server.getAddress().getPort()).build();
+        client.addNode(node);
+
+        bulkRequest = new BulkRequest();
+        String source = "{\"content\":\"" + BenchmarkData.name(1000) + "\"}";
+        for (int i = 0; i < actions; i++) {
+            bulkRequest.add(new IndexRequest("benchmark", "doc", "id" + i).source(source));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println("\n[" + transport + "] connections opened: " + connections.size());
+        client.close();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public BulkResponse bulk() throws Exception {
+        return client.bulk(node, bulkRequest);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches local directories for changes with a {@link WatchService} (inotify on Linux).
+ *
+ * Directories have to be registered one by one, which is done by the crawler while it walks the tree.
+ * Events are grouped in batches: when a first event is received, we keep on reading events until
+ * nothing happened for a short period, so a file which is being written is only reported once.
+ */
+public class DirectoryWatcher implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger(DirectoryWatcher.class);
+
+    /**
+     * We wait for this quiet period after the last event before reporting a batch
+     */
+    private static final long QUIET_PERIOD_MS = 500;
+
+    /**
+     * But we never wait more than this to report a batch
+     */
+    private static final long MAX_BATCH_DELAY_MS = 5000;
+
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private final Map<Path, WatchKey> directories = new ConcurrentHashMap<>();
+
+    public DirectoryWatcher() throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Watch a directory. Sub directories are not watched: they must be registered as well.
+     * Registering the same directory twice has no effect.
+     * @param dir directory to watch
+     * @throws IOException in case of error
+     */
+    public void register(String dir) throws IOException {
+        Path path = Paths.get(dir);
+        if (directories.containsKey(path)) {
+            return;
+        }
+        WatchKey key = path.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        keys.put(key, path);
+        directories.put(path, key);
+        logger.trace("watching [{}]", path);
+    }
+
+    /**
+     * @param path a path
+     * @return true if this path is a watched directory
+     */
+    public boolean isWatched(Path path) {
+        return directories.containsKey(path);
+    }
+
+    /**
+     * @return the number of watched directories
+     */
+    public int size() {
+        return directories.size();
+    }
+
+    /**
+     * Wait for changes
+     * @param timeout maximum time to wait for a first event, in milliseconds
+     * @return the changes. Empty if nothing happened.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Changes poll(long timeout) throws InterruptedException {
+        Changes changes = new Changes();
+        WatchKey key = watchService.poll(timeout, TimeUnit.MILLISECONDS);
+        long deadline = System.currentTimeMillis() + MAX_BATCH_DELAY_MS;
+
+        while (key != null) {
+            Path dir = keys.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    logger.debug("some events have been lost for [{}]", dir);
+                    changes.overflow = true;
+                    continue;
+                }
+                if (dir == null) {
+                    continue;
+                }
+                Path child = dir.resolve((Path) event.context());
+                logger.trace("[{}] event for [{}]", event.kind(), child);
+                if (event.kind() == ENTRY_DELETE) {
+                    changes.changed.remove(child);
+                    changes.deleted.add(child);
+                } else {
+                    changes.deleted.remove(child);
+                    changes.changed.add(child);
+                }
+            }
+
+            if (!key.reset()) {
+                // The directory is not accessible anymore
+                keys.remove(key);
+                if (dir != null) {
+                    directories.remove(dir);
+                    // We might not get the event of the parent directory in this batch
+                    changes.changed.remove(dir);
+                    changes.deleted.add(dir);
+                    changes.removedDirectories.add(dir);
+                    logger.trace("stop watching [{}]", dir);
+                }
+            }
+
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                break;
+            }
+            key = watchService.poll(Math.min(QUIET_PERIOD_MS, remaining), TimeUnit.MILLISECONDS);
+        }
+
+        return changes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    /**
+     * Changes detected within a batch of events
+     */
+    public static class Changes {
+        private final Set<Path> changed = new LinkedHashSet<>();
+        private final Set<Path> deleted = new LinkedHashSet<>();
+        private final Set<Path> removedDirectories = new LinkedHashSet<>();
+        private boolean overflow;
+
+        /**
+         * @return files or directories which have been created or modified
+         */
+        public Set<Path> getChanged() {
+            return changed;
+        }
+
+        /**
+         * @return files or directories which have been removed
+         */
+        public Set<Path> getDeleted() {
+            return deleted;
+        }
+
+        /**
+         * @return watched directories which have been removed. They are also part of {@link #getDeleted()}.
+         */
+        public Set<Path> getRemovedDirectories() {
+            return removedDirectories;
+        }
+
+        /**
+         * @return true if some events have been lost. A full scan is then needed.
+         */
+        public boolean isOverflow() {
+            return overflow;
+        }
+
+        public boolean isEmpty() {
+            return changed.isEmpty() && deleted.isEmpty() && !overflow;
+        }
+    }
+}
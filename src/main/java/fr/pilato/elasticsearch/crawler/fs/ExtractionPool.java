@@ -0,0 +1,212 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs extraction tasks (reading a file, extracting its content with Tika and
+ * sending the document to the bulk processor) in a fixed number of worker threads.
+ *
+ * Waiting tasks are buffered in a bounded queue. When the queue is full, the producer
+ * (the directory walker) is blocked until a worker is done with a task, so the number of
+ * files being processed at the same time never grows beyond {@code workers + queueSize}.
+ *
+ * Waiting tasks with the highest priority run first. Tasks with the same priority run in the order
+ * they have been submitted.
+ *
+ * When many jobs run in the same JVM, each job gets its own view of a shared pool with
+ * {@link #forJob(String, int)}. A job can not have more than its quota of files in the pool, so a job
+ * with a lot of files can not starve the others.
+ */
+public class ExtractionPool {
+
+    private static final Logger logger = LogManager.getLogger(ExtractionPool.class);
+
+    private final ExecutorService executor;
+    private final Semaphore slots;
+    private final int capacity;
+    private final AtomicLong sequence;
+
+    /**
+     * The shared pool when this pool is the view of a job. Null otherwise.
+     */
+    private final ExtractionPool parent;
+
+    public ExtractionPool(String name, int workers, int queueSize) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("extraction pool needs at least one worker");
+        }
+        this.capacity = workers + Math.max(queueSize, 0);
+        // Jobs sharing the pool get free slots in turn
+        this.slots = new Semaphore(capacity, true);
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), new ExtractionThreadFactory(name));
+        this.sequence = new AtomicLong();
+        this.parent = null;
+        logger.debug("extraction pool [{}] started with [{}] workers and a queue of [{}] files", name, workers, queueSize);
+    }
+
+    private ExtractionPool(ExtractionPool parent, int quota) {
+        this.capacity = quota;
+        this.slots = new Semaphore(quota);
+        this.executor = parent.executor;
+        this.sequence = parent.sequence;
+        this.parent = parent;
+    }
+
+    /**
+     * Create the view of a job on this pool
+     * @param name the job name
+     * @param quota the maximum number of files of this job which are waiting or running
+     * @return a pool which runs the tasks of the job in this pool
+     */
+    public ExtractionPool forJob(String name, int quota) {
+        if (quota < 1) {
+            throw new IllegalArgumentException("extraction quota must be at least one");
+        }
+        logger.debug("job [{}] can have up to [{}] files in the extraction pool", name, quota);
+        return new ExtractionPool(this, quota);
+    }
+
+    /**
+     * Submit a new task. Blocks while the queue is full.
+     * @param task the task to run
+     * @throws InterruptedException if interrupted while waiting for a free slot
+     */
+    public void submit(Runnable task) throws InterruptedException {
+        submit(task, 0);
+    }
+
+    /**
+     * Submit a new task. Blocks while the queue is full.
+     * @param task the task to run
+     * @param priority tasks with a higher priority are run first
+     * @throws InterruptedException if interrupted while waiting for a free slot
+     */
+    public void submit(Runnable task, long priority) throws InterruptedException {
+        acquire();
+        try {
+            executor.execute(new PrioritizedTask(() -> {
+                try {
+                    task.run();
+                } finally {
+                    release();
+                }
+            }, priority, sequence.incrementAndGet()));
+        } catch (RuntimeException e) {
+            release();
+            throw e;
+        }
+    }
+
+    private void acquire() throws InterruptedException {
+        slots.acquire();
+        if (parent != null) {
+            try {
+                parent.acquire();
+            } catch (InterruptedException e) {
+                slots.release();
+                throw e;
+            }
+        }
+    }
+
+    private void release() {
+        if (parent != null) {
+            parent.release();
+        }
+        slots.release();
+    }
+
+    /**
+     * Wait until all the submitted tasks have been executed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitCompletion() throws InterruptedException {
+        slots.acquire(capacity);
+        slots.release(capacity);
+    }
+
+    /**
+     * @return the number of tasks which are waiting or running
+     */
+    public int pendingTasks() {
+        return capacity - slots.availablePermits();
+    }
+
+    /**
+     * Stop the workers. Does nothing for the view of a job as the workers belong to the shared pool.
+     */
+    public void close() {
+        if (parent == null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final Runnable task;
+        private final long priority;
+        private final long sequence;
+
+        PrioritizedTask(Runnable task, long priority, long sequence) {
+            this.task = task;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            if (priority != other.priority) {
+                return Long.compare(other.priority, priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static class ExtractionThreadFactory implements ThreadFactory {
+        private final String name;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        ExtractionThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "fscrawler-extraction-" + name + "-" + counter.incrementAndGet());
+        }
+    }
+}
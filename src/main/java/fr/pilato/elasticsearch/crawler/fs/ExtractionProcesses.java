@@ -0,0 +1,280 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs;
+
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.TimeValue;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extracts content with Tika in a pool of child JVMs, so a file which makes Tika hang or run out of memory
+ * does not stop the crawler.
+ *
+ * Each process runs {@link ExtractionServer} with a limited heap. The content of a file is streamed to the
+ * stdin of an idle process which answers with the extracted text and metadata. A process which does not
+ * answer within the timeout is killed. A process which died is started again for the next file.
+ */
+public class ExtractionProcesses implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger(ExtractionProcesses.class);
+
+    public static final TimeValue DEFAULT_TIMEOUT = TimeValue.timeValueMinutes(1);
+    public static final long DEFAULT_HEAP_BYTES = 256 * 1024 * 1024;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final String name;
+    private final List<String> command;
+    private final TimeValue timeout;
+    private final List<Worker> workers = new ArrayList<>();
+    private final BlockingQueue<Worker> idle;
+    private final ScheduledExecutorService watchdog;
+    private volatile boolean closed;
+
+    /**
+     * @param name job name, used to name the threads
+     * @param processes number of processes
+     * @param heapBytes maximum heap of each process
+     * @param timeout maximum time to extract the content of a file
+     */
+    public ExtractionProcesses(String name, int processes, long heapBytes, TimeValue timeout) {
+        if (processes < 1) {
+            throw new IllegalArgumentException("extraction needs at least one process");
+        }
+        this.name = name;
+        this.timeout = timeout;
+        this.command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-Xmx" + heapBytes);
+        command.add("-Djava.awt.headless=true");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ExtractionServer.class.getName());
+
+        this.idle = new ArrayBlockingQueue<>(processes);
+        for (int i = 0; i < processes; i++) {
+            Worker worker = new Worker(i + 1);
+            workers.add(worker);
+            idle.add(worker);
+        }
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fscrawler-extraction-watchdog-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.debug("extraction processes [{}] configured with [{}] processes of [{}] bytes of heap", name,
+                processes, heapBytes);
+    }
+
+    /**
+     * Extract text from a stream in one of the processes. Blocks until a process is available.
+     * The stream is fully read but not closed.
+     * @param stream the content to parse
+     * @param metadata metadata which will be filled by Tika
+     * @param indexedChars maximum number of characters to extract. -1 to extract everything.
+     * @return the extracted text
+     * @throws TikaException if the content can not be extracted, the process died or timed out
+     * @throws IOException if the stream can not be read
+     */
+    public String extractText(InputStream stream, Metadata metadata, int indexedChars)
+            throws IOException, TikaException {
+        Worker worker;
+        try {
+            worker = idle.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for an extraction process");
+        }
+
+        boolean healthy = false;
+        try {
+            if (closed) {
+                throw new TikaException("extraction processes [" + name + "] have been closed");
+            }
+            if (!worker.isAlive()) {
+                worker.start();
+            }
+            ScheduledFuture<?> deadline = watchdog.schedule(worker::kill, timeout.millis(), TimeUnit.MILLISECONDS);
+            try {
+                String text = worker.extract(stream, metadata, indexedChars);
+                healthy = true;
+                return text;
+            } catch (TikaException e) {
+                // Tika failed but the process is fine
+                healthy = true;
+                throw e;
+            } catch (WorkerException e) {
+                if (worker.killed) {
+                    logger.warn("Extraction took more than [{}]. Process [{}] has been killed.", timeout,
+                            worker.id);
+                    throw new TikaException("extraction took more than [" + timeout + "]");
+                }
+                logger.warn("Extraction process [{}] died: {}", worker.id, e.getMessage());
+                throw new TikaException("extraction process died", e);
+            } finally {
+                deadline.cancel(false);
+            }
+        } finally {
+            if (!healthy) {
+                worker.stop();
+            }
+            idle.add(worker);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        watchdog.shutdownNow();
+        for (Worker worker : workers) {
+            worker.stop();
+        }
+    }
+
+    /**
+     * An error while talking to a process
+     */
+    private static class WorkerException extends IOException {
+        WorkerException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private class Worker {
+        private final int id;
+        private volatile Process process;
+        private DataInputStream in;
+        private DataOutputStream out;
+        private volatile boolean killed;
+
+        private Worker(int id) {
+            this.id = id;
+        }
+
+        private boolean isAlive() {
+            return process != null && !killed && process.isAlive();
+        }
+
+        private void start() throws IOException {
+            stop();
+            logger.debug("starting extraction process [{}] for [{}]", id, name);
+            killed = false;
+            process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream(), CHUNK_SIZE));
+            in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+
+            // We wait for the process to be ready, but not forever
+            ScheduledFuture<?> deadline = watchdog.schedule(this::kill, timeout.millis(), TimeUnit.MILLISECONDS);
+            try {
+                int ready = in.readInt();
+                if (ready != ExtractionServer.READY) {
+                    throw new IOException("unexpected answer from extraction process [" + id + "]");
+                }
+            } catch (IOException e) {
+                stop();
+                logger.warn("Can not start extraction process [{}]: {}", id, e.getMessage());
+                throw new IOException("can not start extraction process [" + id + "]: " + e.getMessage(), e);
+            } finally {
+                deadline.cancel(false);
+            }
+        }
+
+        private String extract(InputStream stream, Metadata metadata, int indexedChars)
+                throws IOException, TikaException {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            try {
+                out.writeInt(indexedChars);
+            } catch (IOException e) {
+                throw new WorkerException(e.getMessage(), e);
+            }
+            int read;
+            // Errors while reading the stream are not errors of the process
+            while ((read = stream.read(buffer)) != -1) {
+                if (read == 0) {
+                    continue;
+                }
+                try {
+                    out.writeInt(read);
+                    out.write(buffer, 0, read);
+                } catch (IOException e) {
+                    throw new WorkerException(e.getMessage(), e);
+                }
+            }
+
+            try {
+                out.writeInt(0);
+                out.flush();
+
+                byte status = in.readByte();
+                if (status != ExtractionServer.OK) {
+                    throw new TikaException(ExtractionServer.readString(in));
+                }
+                String text = ExtractionServer.readString(in);
+                int names = in.readInt();
+                for (int i = 0; i < names; i++) {
+                    String name = ExtractionServer.readString(in);
+                    int values = in.readInt();
+                    for (int j = 0; j < values; j++) {
+                        metadata.add(name, ExtractionServer.readString(in));
+                    }
+                }
+                return text;
+            } catch (IOException e) {
+                throw new WorkerException(e.getMessage(), e);
+            }
+        }
+
+        private void kill() {
+            killed = true;
+            Process process = this.process;
+            if (process != null) {
+                process.destroyForcibly();
+            }
+        }
+
+        private void stop() {
+            Process process = this.process;
+            if (process != null) {
+                process.destroyForcibly();
+                this.process = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs;
+
+import org.apache.tika.metadata.Metadata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Main class of the processes started by {@link ExtractionProcesses}.
+ *
+ * For each file, the process reads from stdin the maximum number of characters to extract and the content
+ * of the file in chunks:
+ * <pre>
+ * int indexedChars
+ * (int length, byte[length] data)*
+ * int 0
+ * </pre>
+ * and writes on stdout either {@link #OK}, the extracted text and the metadata, or {@link #FAILED} and an
+ * error message. The process stops when stdin is closed. It dies on any {@link Error}, like an
+ * {@link OutOfMemoryError}, so it's started again with a clean heap.
+ */
+public class ExtractionServer {
+
+    /**
+     * Written when the process is ready to extract content
+     */
+    static final int READY = 0x46534352;
+
+    static final byte OK = 0;
+    static final byte FAILED = 1;
+
+    public static void main(String[] args) throws IOException {
+        // We answer on stdout. Anything else written there (like logs) would break the protocol.
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        System.setOut(System.err);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+
+        try {
+            // Loading Tika takes a while. We don't want to count it in the time we spend on the first file.
+            TikaInstance.tika();
+            out.writeInt(READY);
+            out.flush();
+
+            while (true) {
+                int indexedChars;
+                try {
+                    indexedChars = in.readInt();
+                } catch (EOFException e) {
+                    // The crawler does not need us anymore
+                    return;
+                }
+
+                ChunkedInputStream content = new ChunkedInputStream(in);
+                Metadata metadata = new Metadata();
+                try {
+                    String text = TikaInstance.extractText(content, metadata, indexedChars);
+                    content.skipToEnd();
+                    out.writeByte(OK);
+                    writeString(out, text);
+                    String[] names = metadata.names();
+                    out.writeInt(names.length);
+                    for (String name : names) {
+                        writeString(out, name);
+                        String[] values = metadata.getValues(name);
+                        out.writeInt(values.length);
+                        for (String value : values) {
+                            writeString(out, value);
+                        }
+                    }
+                } catch (Exception e) {
+                    content.skipToEnd();
+                    out.writeByte(FAILED);
+                    writeString(out, e.toString());
+                }
+                out.flush();
+            }
+        } catch (Throwable t) {
+            // We don't know in which state we are. Better die and let the crawler start a new process.
+            t.printStackTrace();
+            Runtime.getRuntime().halt(1);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the chunks of a file until the empty chunk
+     */
+    private static class ChunkedInputStream extends InputStream {
+        private final DataInputStream in;
+        private int remaining;
+        private boolean eof;
+
+        private ChunkedInputStream(DataInputStream in) {
+            this.in = in;
+        }
+
+        private boolean nextChunk() throws IOException {
+            while (!eof && remaining == 0) {
+                remaining = in.readInt();
+                eof = remaining == 0;
+            }
+            return !eof;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!nextChunk()) {
+                return -1;
+            }
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("unexpected end of file content");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+            int read = in.read(b, off, Math.min(len, remaining));
+            if (read == -1) {
+                throw new EOFException("unexpected end of file content");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        /**
+         * Tika might not read the whole file. We need to read what is left to get the next request.
+         */
+        private void skipToEnd() throws IOException {
+            // We can't skip bytes from a pipe
+            byte[] buffer = new byte[8192];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // We just need to get to the end
+            }
+        }
+
+        @Override
+        public void close() {
+            // We must not close stdin
+        }
+    }
+}
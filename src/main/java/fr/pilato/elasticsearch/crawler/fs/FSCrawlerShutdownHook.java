@@ -24,14 +24,18 @@ package fr.pilato.elasticsearch.crawler.fs;
  */
 public class FSCrawlerShutdownHook extends Thread implements Runnable {
 
-    private final FsCrawlerImpl fsCrawler;
+    private final Runnable close;
 
     public FSCrawlerShutdownHook(FsCrawlerImpl fsCrawler) {
-        this.fsCrawler = fsCrawler;
+        this.close = fsCrawler::close;
+    }
+
+    public FSCrawlerShutdownHook(FsCrawlerDaemon daemon) {
+        this.close = daemon::close;
     }
 
     @Override
     public void run() {
-        fsCrawler.close();
+        close.run();
     }
 }
@@ -37,6 +37,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Scanner;
 
@@ -67,6 +68,13 @@ public class FsCrawler {
         @Parameter(names = "--silent", description = "Silent mode")
         private boolean silent = false;
 
+        @Parameter(names = "--daemon", description = "Run all the jobs (or the given jobs) in the same JVM")
+        private boolean daemon = false;
+
+        @Parameter(names = "--max_concurrent_scans", description = "In daemon mode, maximum number of jobs " +
+                "scanning their directories at the same time. Default to the number of processors")
+        private int maxConcurrentScans = Runtime.getRuntime().availableProcessors();
+
         @Parameter(names = "--help", description = "display current help", help = true)
         protected boolean help;
     }
@@ -115,6 +123,11 @@ public class FsCrawler {
         FsSettings fsSettings = null;
         FsSettingsFileHandler fsSettingsFileHandler = new FsSettingsFileHandler(configDir);
 
+        if (commands.daemon) {
+            runDaemon(configDir, fsSettingsFileHandler, commands);
+            return;
+        }
+
         String jobName;
 
         if (commands.jobName == null) {
@@ -122,16 +135,10 @@ public class FsCrawler {
             // We can list available jobs for him
             logger.info("No job specified. Here is the list of existing jobs:");
 
-            List<String> files = new ArrayList<>();
-            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(configDir)) {
-                for (Path path : directoryStream) {
-                    String fileName = path.getFileName().toString();
-                    if (fileName.endsWith(FsSettingsFileHandler.EXTENSION) && !fileName.endsWith(FsJobFileHandler.EXTENSION)) {
-                        files.add(fileName.substring(0, fileName.lastIndexOf(FsSettingsFileHandler.EXTENSION)));
-                        logger.info("[{}] - {}", files.size(), files.get(files.size()-1));
-                    }
-                }
-            } catch (IOException ignored) {}
+            List<String> files = listJobs(configDir);
+            for (int i = 0; i < files.size(); i++) {
+                logger.info("[{}] - {}", i + 1, files.get(i));
+            }
 
             if (files.size() > 0) {
                 int chosenFile = 0;
@@ -154,14 +161,6 @@ public class FsCrawler {
         try {
             logger.debug("Starting job [{}]...", jobName);
             fsSettings = fsSettingsFileHandler.read(jobName);
-
-            // Check default settings
-            if (fsSettings.getFs() == null) {
-                fsSettings.setFs(Fs.DEFAULT);
-            }
-            if (fsSettings.getElasticsearch() == null) {
-                fsSettings.setElasticsearch(Elasticsearch.DEFAULT);
-            }
         } catch (IOException e) {
             logger.warn("job [{}] does not exist", jobName);
 
@@ -200,6 +199,56 @@ public class FsCrawler {
         }
     }
 
+    /**
+     * Run many jobs in the same JVM
+     */
+    private static void runDaemon(Path configDir, FsSettingsFileHandler fsSettingsFileHandler, FsCrawlerCommand commands)
+            throws IOException {
+        List<String> jobNames = commands.jobName != null ? commands.jobName : listJobs(configDir);
+        List<FsSettings> jobs = new ArrayList<>();
+        for (String jobName : jobNames) {
+            try {
+                jobs.add(fsSettingsFileHandler.read(jobName));
+            } catch (IOException e) {
+                logger.warn("Can not read job [{}]: [{}]. Ignoring it.", jobName, e.getMessage());
+                logger.debug("", e);
+            }
+        }
+        if (jobs.isEmpty()) {
+            logger.info("No job exists in [{}].", configDir);
+            System.exit(1);
+        }
+
+        FsCrawlerDaemon daemon = new FsCrawlerDaemon(configDir, jobs, commands.maxConcurrentScans);
+        Runtime.getRuntime().addShutdownHook(new FSCrawlerShutdownHook(daemon));
+        if (daemon.start() == 0) {
+            logger.fatal("No job could be started");
+            daemon.close();
+            System.exit(-1);
+        }
+        // We just have to wait until the process is stopped
+        while (!daemon.isClosed()) {
+            sleep(CLOSE_POLLING_WAIT_MS);
+        }
+    }
+
+    /**
+     * @return the names of the jobs defined in the config dir
+     */
+    private static List<String> listJobs(Path configDir) {
+        List<String> files = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(configDir)) {
+            for (Path path : directoryStream) {
+                String fileName = path.getFileName().toString();
+                if (fileName.endsWith(FsSettingsFileHandler.EXTENSION) && !fileName.endsWith(FsJobFileHandler.EXTENSION)) {
+                    files.add(fileName.substring(0, fileName.lastIndexOf(FsSettingsFileHandler.EXTENSION)));
+                }
+            }
+        } catch (IOException ignored) {}
+        Collections.sort(files);
+        return files;
+    }
+
     private static void sleep(long millis) {
         try {
             Thread.sleep(millis);
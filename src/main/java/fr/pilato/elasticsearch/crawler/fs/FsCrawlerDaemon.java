@@ -0,0 +1,313 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs;
+
+import fr.pilato.elasticsearch.crawler.fs.client.BulkProcessor;
+import fr.pilato.elasticsearch.crawler.fs.client.BulkSpool;
+import fr.pilato.elasticsearch.crawler.fs.client.ElasticsearchClient;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.Elasticsearch;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.Fs;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.TimeValue;
+import fr.pilato.elasticsearch.crawler.fs.metrics.CrawlerMetrics;
+import fr.pilato.elasticsearch.crawler.fs.metrics.PrometheusExporter;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+
+/**
+ * Runs many jobs in the same JVM.
+ *
+ * Tika is already shared by all the jobs of a JVM. The daemon also shares:
+ * <ul>
+ *     <li>one elasticsearch client and one bulk processor for all the jobs which use the same
+ *     elasticsearch settings (except index and type)</li>
+ *     <li>one extraction pool. Each job can not have more than {@code extraction_threads + extraction_queue_size}
+ *     files in the pool.</li>
+ *     <li>one set of extraction processes</li>
+ *     <li>one metrics endpoint per host and port</li>
+ *     <li>a limit on the number of jobs which scan their directories at the same time. Jobs waiting for
+ *     a scan get their turn in order.</li>
+ * </ul>
+ */
+public class FsCrawlerDaemon {
+
+    private static final Logger logger = LogManager.getLogger(FsCrawlerDaemon.class);
+
+    /**
+     * Name of the metrics recorded by a shared client and bulk processor. A number is added when
+     * jobs use more than one cluster.
+     */
+    public static final String CLUSTER_METRICS_NAME = "_cluster";
+
+    private final Path config;
+    private final List<FsSettings> jobs;
+    private final Semaphore scans;
+    private final List<FsCrawlerImpl> crawlers = new ArrayList<>();
+    private final Map<String, Cluster> clusters = new LinkedHashMap<>();
+    private final Map<String, PrometheusExporter> exporters = new LinkedHashMap<>();
+
+    private final int extractionThreads;
+    private final int extractionQueueSize;
+    private final int extractionProcessCount;
+    private final long extractionHeapBytes;
+    private final TimeValue extractionTimeout;
+
+    private ExtractionPool extractionPool;
+    private ExtractionProcesses extractionProcesses;
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param config config dir
+     * @param jobs settings of the jobs to run
+     * @param maxConcurrentScans maximum number of jobs scanning their directories at the same time
+     */
+    public FsCrawlerDaemon(Path config, List<FsSettings> jobs, int maxConcurrentScans) {
+        if (maxConcurrentScans < 1) {
+            throw new IllegalArgumentException("the daemon needs to run at least one scan at a time");
+        }
+        this.config = config;
+        this.jobs = jobs;
+        this.scans = new Semaphore(maxConcurrentScans, true);
+
+        // Shared extraction resources are sized for the most demanding job
+        int threads = 0, queueSize = 0, processes = 0;
+        long heapBytes = ExtractionProcesses.DEFAULT_HEAP_BYTES;
+        TimeValue timeout = null;
+        for (FsSettings job : jobs) {
+            Fs fs = job.getFs() != null ? job.getFs() : Fs.DEFAULT;
+            threads = Math.max(threads, fs.getExtractionThreads());
+            queueSize = Math.max(queueSize, fs.getExtractionQueueSize());
+            if (fs.isIndexContent() && !fs.isJsonSupport()) {
+                processes = Math.max(processes, fs.getExtractionProcesses());
+            }
+            heapBytes = Math.max(heapBytes, fs.getExtractionHeapBytes());
+            if (fs.getExtractionTimeout() != null &&
+                    (timeout == null || fs.getExtractionTimeout().millis() > timeout.millis())) {
+                timeout = fs.getExtractionTimeout();
+            }
+        }
+        this.extractionThreads = threads;
+        this.extractionQueueSize = queueSize;
+        this.extractionProcessCount = processes;
+        this.extractionHeapBytes = heapBytes;
+        this.extractionTimeout = timeout != null ? timeout : ExtractionProcesses.DEFAULT_TIMEOUT;
+    }
+
+    /**
+     * Start all the jobs. A job which can not start is logged and ignored.
+     * @return the number of jobs which have been started
+     */
+    public synchronized int start() {
+        logger.info("Starting FS crawler daemon with [{}] jobs", jobs.size());
+        if (extractionThreads > 0) {
+            extractionPool = new ExtractionPool("daemon", extractionThreads, extractionQueueSize);
+        }
+        if (extractionProcessCount > 0) {
+            extractionProcesses = new ExtractionProcesses("daemon", extractionProcessCount, extractionHeapBytes,
+                    extractionTimeout);
+        }
+
+        for (FsSettings job : jobs) {
+            FsCrawlerImpl crawler = new FsCrawlerImpl(config, job, this);
+            try {
+                crawler.start();
+                if (!crawler.isClosed()) {
+                    crawlers.add(crawler);
+                }
+            } catch (Exception e) {
+                logger.warn("Can not start job [{}]: [{}]", job.getName(), e.getMessage());
+                logger.debug("", e);
+                crawler.close();
+            }
+        }
+        logger.info("[{}] jobs started", crawlers.size());
+        return crawlers.size();
+    }
+
+    public synchronized void close() {
+        logger.info("Closing FS crawler daemon");
+        closed = true;
+
+        crawlers.forEach(FsCrawlerImpl::close);
+        for (Cluster cluster : clusters.values()) {
+            cluster.bulkProcessor.close();
+            cluster.metrics.unregisterMBean();
+            cluster.client.close();
+        }
+        clusters.clear();
+        exporters.values().forEach(PrometheusExporter::close);
+        exporters.clear();
+        if (extractionPool != null) {
+            extractionPool.close();
+        }
+        if (extractionProcesses != null) {
+            extractionProcesses.close();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return the jobs which are running
+     */
+    public synchronized List<FsCrawlerImpl> getCrawlers() {
+        return new ArrayList<>(crawlers);
+    }
+
+    /**
+     * @return the metrics of the shared elasticsearch clients and bulk processors
+     */
+    public synchronized List<CrawlerMetrics> getClusterMetrics() {
+        return clusters.values().stream().map(Cluster::getMetrics).collect(Collectors.toList());
+    }
+
+    /**
+     * Get the client and the bulk processor shared by the jobs which use these elasticsearch settings
+     * @param settings elasticsearch settings of a job
+     * @return the shared client and bulk processor
+     * @throws IOException if we can not connect to the cluster
+     */
+    synchronized Cluster cluster(Elasticsearch settings) throws IOException {
+        String key = clusterKey(settings);
+        Cluster cluster = clusters.get(key);
+        if (cluster == null) {
+            String name = clusters.isEmpty() ? CLUSTER_METRICS_NAME : CLUSTER_METRICS_NAME + "_" + (clusters.size() + 1);
+            CrawlerMetrics metrics = new CrawlerMetrics(name);
+            ElasticsearchClient client = FsCrawlerImpl.buildClient(settings, metrics);
+            BulkProcessor bulkProcessor;
+            try {
+                bulkProcessor = FsCrawlerImpl.buildBulkProcessor(client, settings,
+                        config.resolve(name + BulkSpool.DIR_SUFFIX), metrics);
+            } catch (IOException e) {
+                client.close();
+                throw e;
+            }
+            FsCrawlerImpl.exposeClusterMetrics(metrics, client, bulkProcessor);
+            metrics.registerMBean();
+            cluster = new Cluster(client, bulkProcessor, metrics);
+            clusters.put(key, cluster);
+            logger.debug("elasticsearch client [{}] created for {}", name, settings.getNodes());
+        }
+        return cluster;
+    }
+
+    /**
+     * Two jobs can share a client and a bulk processor when only their index and type are different
+     */
+    private static String clusterKey(Elasticsearch settings) {
+        return settings.getNodes().stream().map(node -> node.getHost() + ":" + node.getPort())
+                .collect(Collectors.joining(",")) +
+                "|" + settings.getTransport() +
+                "|" + settings.getMaxConnectionsPerNode() +
+                "|" + settings.getConnectTimeout() +
+                "|" + settings.getSocketTimeout() +
+                "|" + settings.getCompressionLevel() +
+                "|" + settings.getHealthCheckInterval() +
+                "|" + settings.isSniff() +
+                "|" + settings.getBulkSize() +
+                "|" + settings.getBulkSizeBytes() +
+                "|" + settings.getFlushInterval() +
+                "|" + settings.getConcurrentRequests() +
+                "|" + settings.getSpoolSizeBytes() +
+                "|" + settings.isAdaptiveBulk() +
+                "|" + settings.getBulkSizeMin() +
+                "|" + settings.getBulkSizeMax() +
+                "|" + settings.getBulkSizeBytesMin() +
+                "|" + settings.getBulkSizeBytesMax() +
+                "|" + settings.getConcurrentRequestsMax() +
+                "|" + settings.getBulkLatencyTarget();
+    }
+
+    /**
+     * @param job job name
+     * @param quota maximum number of files of the job in the shared pool
+     * @return the view of the job on the shared extraction pool
+     */
+    synchronized ExtractionPool extractionPool(String job, int quota) {
+        return extractionPool.forJob(job, quota);
+    }
+
+    /**
+     * @return the shared extraction processes, null if no job runs Tika out of the JVM
+     */
+    ExtractionProcesses extractionProcesses() {
+        return extractionProcesses;
+    }
+
+    /**
+     * @return the metrics endpoint shared by the jobs which expose their metrics on host:port
+     */
+    synchronized PrometheusExporter exporter(String host, int port) throws IOException {
+        String key = host + ":" + port;
+        PrometheusExporter exporter = exporters.get(key);
+        if (exporter == null) {
+            exporter = new PrometheusExporter(host, port);
+            exporters.put(key, exporter);
+        }
+        return exporter;
+    }
+
+    void acquireScan() throws InterruptedException {
+        scans.acquire();
+    }
+
+    void releaseScan() {
+        scans.release();
+    }
+
+    /**
+     * Elasticsearch client and bulk processor shared by many jobs
+     */
+    static class Cluster {
+        private final ElasticsearchClient client;
+        private final BulkProcessor bulkProcessor;
+        private final CrawlerMetrics metrics;
+
+        private Cluster(ElasticsearchClient client, BulkProcessor bulkProcessor, CrawlerMetrics metrics) {
+            this.client = client;
+            this.bulkProcessor = bulkProcessor;
+            this.metrics = metrics;
+        }
+
+        ElasticsearchClient getClient() {
+            return client;
+        }
+
+        BulkProcessor getBulkProcessor() {
+            return bulkProcessor;
+        }
+
+        CrawlerMetrics getMetrics() {
+            return metrics;
+        }
+    }
+}
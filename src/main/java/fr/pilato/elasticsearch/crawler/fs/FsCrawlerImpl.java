@@ -34,19 +34,39 @@ import fr.pilato.elasticsearch.crawler.fs.meta.settings.Elasticsearch;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.Fs;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettingsFileHandler;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.Metrics;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.TimeValue;
+import fr.pilato.elasticsearch.crawler.fs.metrics.CrawlerMetrics;
+import fr.pilato.elasticsearch.crawler.fs.metrics.PrometheusExporter;
+import fr.pilato.elasticsearch.crawler.fs.state.ContentDigestInputStream;
+import fr.pilato.elasticsearch.crawler.fs.state.ExtractionCache;
+import fr.pilato.elasticsearch.crawler.fs.state.FileStateStore;
+import fr.pilato.elasticsearch.crawler.fs.state.FileStateStore.FileState;
+import fr.pilato.elasticsearch.crawler.fs.state.ScanCheckpoint;
+import fr.pilato.elasticsearch.crawler.fs.util.FileMatcher;
 import fr.pilato.elasticsearch.crawler.fs.util.FsCrawlerUtil;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.tika.io.CloseShieldInputStream;
 import org.apache.tika.metadata.Metadata;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
-
-import static fr.pilato.elasticsearch.crawler.fs.TikaInstance.tika;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static fr.pilato.elasticsearch.crawler.fs.util.FsCrawlerUtil.computeVirtualPathName;
 import static fr.pilato.elasticsearch.crawler.fs.util.FsCrawlerUtil.extractMajorVersionNumber;
 
 /**
@@ -62,8 +82,9 @@ public class FsCrawlerImpl {
 
     private static final Logger logger = LogManager.getLogger(FsCrawlerImpl.class);
 
-    private static final String PATH_ENCODED = FsCrawlerUtil.Doc.PATH + "." + FsCrawlerUtil.Doc.Path.ENCODED;
+    private static final String PATH_ROOT = FsCrawlerUtil.Doc.PATH + "." + FsCrawlerUtil.Doc.Path.ROOT;
     private static final String FILE_FILENAME = FsCrawlerUtil.Doc.FILE + "." + FsCrawlerUtil.Doc.File.FILENAME;
+    private static final String PATH_VIRTUAL = FsCrawlerUtil.Doc.PATH + "." + FsCrawlerUtil.Doc.Path.VIRTUAL;
 
 
     private volatile BulkProcessor bulkProcessor;
@@ -81,23 +102,50 @@ public class FsCrawlerImpl {
 
     private ElasticsearchClient client;
 
+    private final CrawlerMetrics metrics;
+    private PrometheusExporter metricsExporter;
+
+    /**
+     * The daemon running this job with other jobs. Null when the job runs alone.
+     */
+    private final FsCrawlerDaemon daemon;
+    private FsCrawlerDaemon.Cluster cluster;
+
     public FsCrawlerImpl(Path config, FsSettings settings) {
+        this(config, settings, null);
+    }
+
+    /**
+     * Create a crawler which shares the elasticsearch client, the bulk processor, the extraction
+     * pools and the metrics endpoint of a daemon
+     * @param config config dir
+     * @param settings job settings
+     * @param daemon the daemon running this job. Null if the job runs alone.
+     */
+    FsCrawlerImpl(Path config, FsSettings settings, FsCrawlerDaemon daemon) {
         this.config = config;
+        this.daemon = daemon;
+        this.metrics = new CrawlerMetrics(settings.getName());
         this.fsSettingsFileHandler = new FsSettingsFileHandler(config);
         this.fsJobFileHandler = new FsJobFileHandler(config);
 
         this.settings = settings;
+        // Each job gets its own copy of the default settings as we change them (url, index name)
         if (settings.getFs() == null || settings.getFs().getUrl() == null) {
             logger.warn("`url` is not set. Please define it. Falling back to default: [{}].", Fs.DEFAULT_DIR);
             if (settings.getFs() == null) {
-                settings.setFs(Fs.DEFAULT);
+                settings.setFs(Fs.builder().setUrl(Fs.DEFAULT_DIR).build());
             } else {
                 settings.getFs().setUrl(Fs.DEFAULT_DIR);
             }
+        } else if (settings.getFs() == Fs.DEFAULT) {
+            settings.setFs(Fs.builder().setUrl(Fs.DEFAULT_DIR).build());
         }
 
-        if (settings.getElasticsearch() == null) {
-            settings.setElasticsearch(Elasticsearch.DEFAULT);
+        if (settings.getElasticsearch() == null || settings.getElasticsearch() == Elasticsearch.DEFAULT) {
+            Elasticsearch.Builder elasticsearch = Elasticsearch.builder();
+            Elasticsearch.DEFAULT.getNodes().forEach(elasticsearch::addNode);
+            settings.setElasticsearch(elasticsearch.build());
         }
         if (settings.getElasticsearch().getIndex() == null) {
             // When index is not set, we fallback to the config name
@@ -137,10 +185,13 @@ public class FsCrawlerImpl {
         String elasticsearchVersion;
 
         try {
-            // Create an elasticsearch client
-            client = ElasticsearchClient.builder().build();
-
-            settings.getElasticsearch().getNodes().forEach(client::addNode);
+            if (daemon != null) {
+                // Jobs of a daemon which use the same cluster share the client and the bulk processor
+                cluster = daemon.cluster(settings.getElasticsearch());
+                client = cluster.getClient();
+            } else {
+                client = buildClient(settings.getElasticsearch(), metrics);
+            }
 
             client.createIndex(settings.getElasticsearch().getIndex(), true);
 
@@ -173,9 +224,31 @@ public class FsCrawlerImpl {
             throw e;
         }
 
-        // Creating bulk processor
-        this.bulkProcessor = BulkProcessor.simpleBulkProcessor(client, settings.getElasticsearch().getBulkSize(),
-                settings.getElasticsearch().getFlushInterval());
+        if (cluster != null) {
+            this.bulkProcessor = cluster.getBulkProcessor();
+        } else {
+            this.bulkProcessor = buildBulkProcessor(client, settings.getElasticsearch(),
+                    config.resolve(settings.getName() + BulkSpool.DIR_SUFFIX), metrics);
+            // Exposing metrics
+            exposeClusterMetrics(metrics, client, bulkProcessor);
+        }
+        metrics.registerMBean();
+        if (settings.getMetrics() != null && settings.getMetrics().getPort() > 0) {
+            String host = settings.getMetrics().getHost() != null ? settings.getMetrics().getHost() : Metrics.DEFAULT_HOST;
+            try {
+                if (daemon != null) {
+                    metricsExporter = daemon.exporter(host, settings.getMetrics().getPort());
+                    metricsExporter.add(cluster.getMetrics());
+                } else {
+                    metricsExporter = new PrometheusExporter(host, settings.getMetrics().getPort());
+                }
+                metricsExporter.add(metrics);
+            } catch (IOException e) {
+                logger.warn("Can not expose metrics on [{}:{}]: {}", host, settings.getMetrics().getPort(),
+                        e.getMessage());
+                logger.debug("", e);
+            }
+        }
 
         // We save crawler settings
         // TODO May be do that in another place?
@@ -190,9 +263,114 @@ public class FsCrawlerImpl {
         logger.info("Closing fs crawler");
         closed = true;
 
+        if (metricsExporter != null) {
+            if (daemon != null) {
+                metricsExporter.remove(metrics);
+            } else {
+                metricsExporter.close();
+            }
+            metricsExporter = null;
+        }
+        metrics.unregisterMBean();
+
+        // The daemon closes what we share with the other jobs
+        if (daemon != null) {
+            return;
+        }
+
         if (this.bulkProcessor != null) {
             this.bulkProcessor.close();
         }
+
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    /**
+     * Create an elasticsearch client and connect it to the nodes
+     * @param settings elasticsearch settings
+     * @param metrics where to record the client metrics
+     * @return the client
+     * @throws IOException if nodes can not be sniffed
+     */
+    static ElasticsearchClient buildClient(Elasticsearch settings, CrawlerMetrics metrics) throws IOException {
+        ElasticsearchClient client = ElasticsearchClient.builder()
+                .setTransport(settings.getTransport())
+                .setMaxConnectionsPerNode(settings.getMaxConnectionsPerNode())
+                .setConnectTimeout(settings.getConnectTimeout())
+                .setSocketTimeout(settings.getSocketTimeout())
+                .setCompressionLevel(settings.getCompressionLevel())
+                .setMetrics(metrics)
+                .setHealthCheckInterval(settings.getHealthCheckInterval())
+                .setSniff(settings.isSniff())
+                .build();
+
+        settings.getNodes().forEach(client::addNode);
+
+        if (settings.isSniff()) {
+            int discovered = client.sniff();
+            logger.debug("[{}] elasticsearch nodes discovered", discovered);
+        }
+        return client;
+    }
+
+    /**
+     * Create a bulk processor
+     * @param client the client used to send the bulks
+     * @param settings elasticsearch settings
+     * @param spoolDir where bulks which can not be sent are kept when the spool is enabled
+     * @param metrics where to record the bulk metrics
+     * @return the bulk processor
+     * @throws IOException if the spool can not be read
+     */
+    static BulkProcessor buildBulkProcessor(ElasticsearchClient client, Elasticsearch settings, Path spoolDir,
+                                            CrawlerMetrics metrics) throws IOException {
+        // Bulks which can not be sent are kept on disk until elasticsearch is back
+        BulkSpool spool = null;
+        if (settings.getSpoolSizeBytes() > 0) {
+            spool = new BulkSpool(spoolDir, settings.getSpoolSizeBytes());
+            metrics.setSpoolSize(spool::sizeInBytes);
+        }
+
+        // Bulk limits may follow what the cluster can take
+        AdaptiveBulkController adaptive = null;
+        if (settings.isAdaptiveBulk()) {
+            adaptive = new AdaptiveBulkController(settings.getBulkSizeMin(), settings.getBulkSizeMax(),
+                    settings.getBulkSizeBytesMin(), settings.getBulkSizeBytesMax(), settings.getConcurrentRequestsMax(),
+                    settings.getBulkLatencyTarget());
+        }
+
+        return BulkProcessor.builder(client)
+                .setBulkActions(settings.getBulkSize())
+                .setBulkSize(settings.getBulkSizeBytes())
+                .setFlushInterval(settings.getFlushInterval())
+                .setConcurrentRequests(settings.getConcurrentRequests())
+                .setMetrics(metrics)
+                .setSpool(spool)
+                .setAdaptive(adaptive)
+                .build();
+    }
+
+    static void exposeClusterMetrics(CrawlerMetrics metrics, ElasticsearchClient client, BulkProcessor bulkProcessor) {
+        metrics.setNodesActive(client::countActiveNodes);
+        metrics.setNodesTotal(client::countNodes);
+        metrics.setBulkPendingActions(bulkProcessor::pendingActions);
+        metrics.setBulkRunning(bulkProcessor::runningBulks);
+        metrics.setBulkMaxActions(bulkProcessor::getBulkActions);
+        metrics.setBulkMaxBytes(bulkProcessor::getBulkSize);
+        metrics.setBulkMaxConcurrency(bulkProcessor::getConcurrentRequests);
+    }
+
+    public CrawlerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return the port where metrics are exposed, -1 if they are not exposed over HTTP
+     */
+    public int getMetricsPort() {
+        return metricsExporter != null ? metricsExporter.getPort() : -1;
     }
 
     public boolean isClosed() {
@@ -202,69 +380,458 @@ public class FsCrawlerImpl {
     private class FSParser implements Runnable {
         private final FsSettings fsSettings;
 
+        /**
+         * Pool used to crawl directories in parallel. Null when we crawl with a single thread.
+         */
+        private final ForkJoinPool crawlerPool;
+
+        /**
+         * Pool used to extract content from files. Null when we extract content within the crawling threads.
+         */
+        private final ExtractionPool extractionPool;
+
+        /**
+         * Processes used to run Tika out of the crawler JVM. Null when we run Tika in the crawler JVM.
+         */
+        private final ExtractionProcesses extractionProcesses;
+
         private ScanStatistic stats;
 
+        /**
+         * Local state of the files we already sent to elasticsearch. Null when disabled.
+         */
+        private FileStateStore stateStore;
+
+        /**
+         * What we already extracted from files, by content. Null when disabled.
+         */
+        private ExtractionCache extractionCache;
+
+        /**
+         * Watches local directories for changes. Null when watch mode is disabled.
+         */
+        private DirectoryWatcher watcher;
+
+        /**
+         * Date of the most recent change found below each directory, by path, when we crawl
+         * recently modified directories first
+         */
+        private final Map<String, Long> activity = new ConcurrentHashMap<>();
+
+        /**
+         * Progress of the current scan. Null when checkpoints are disabled.
+         */
+        private volatile ScanCheckpoint checkpoint;
+
+        /**
+         * Bulks lost by the bulk processor when the scan started. If more bulks are lost during the scan,
+         * we stop writing checkpoints as we don't know which directories have not been fully indexed.
+         */
+        private long lostBulks;
+        private volatile boolean checkpointLost;
+
+        /**
+         * Bulks lost by the bulk processor when we last committed the local state, and whether the last commit
+         * found lost bulks. See {@link #commitState(boolean)}.
+         */
+        private long stateLostBulks;
+        private boolean stateLost;
+
+        /**
+         * Ids of the files and directories seen during the current scan. We use them to find the documents
+         * which have been removed when we don't have a local state.
+         */
+        private final Set<String> seenFiles = ConcurrentHashMap.newKeySet();
+        private final Set<String> seenFolders = ConcurrentHashMap.newKeySet();
+
+        /**
+         * First error caught by a parallel crawling or extraction task during the current scan
+         */
+        private final AtomicReference<Exception> crawlerFailure = new AtomicReference<>();
+
+        /**
+         * Includes and excludes rules, compiled once
+         */
+        private final FileMatcher fileMatcher;
+
+        /**
+         * Generates the ids of the documents
+         */
+        private final SignTool signTool;
+
+        /**
+         * Last directory id computed by each thread. All the files of a directory are usually
+         * indexed one after the other by the same thread.
+         */
+        private final ThreadLocal<String[]> lastDirectoryId = ThreadLocal.withInitial(() -> new String[2]);
+
         public FSParser(FsSettings fsSettings) {
             this.fsSettings = fsSettings;
+            this.fileMatcher = FileMatcher.compile(fsSettings.getFs().getIncludes(), fsSettings.getFs().getExcludes());
+            this.signTool = SignTool.getInstance(fsSettings.getFs().getIdHash());
             logger.info("creating fs crawler thread [{}] for [{}] every [{}]", fsSettings.getName(),
                     fsSettings.getFs().getUrl(),
                     fsSettings.getFs().getUpdateRate());
+
+            int parallelism = fsSettings.getFs().getParallelism();
+            if (parallelism > 1) {
+                logger.debug("crawling directories with [{}] threads", parallelism);
+                crawlerPool = new ForkJoinPool(parallelism);
+            } else {
+                crawlerPool = null;
+            }
+
+            int extractionThreads = fsSettings.getFs().getExtractionThreads();
+            if (extractionThreads > 0) {
+                if (daemon != null) {
+                    extractionPool = daemon.extractionPool(fsSettings.getName(),
+                            extractionThreads + Math.max(fsSettings.getFs().getExtractionQueueSize(), 0));
+                } else {
+                    extractionPool = new ExtractionPool(fsSettings.getName(), extractionThreads,
+                            fsSettings.getFs().getExtractionQueueSize());
+                }
+                metrics.setExtractionQueueDepth(extractionPool::pendingTasks);
+            } else {
+                extractionPool = null;
+            }
+
+            int processes = fsSettings.getFs().getExtractionProcesses();
+            if (processes <= 0 || !fsSettings.getFs().isIndexContent() || fsSettings.getFs().isJsonSupport()) {
+                extractionProcesses = null;
+            } else if (daemon != null) {
+                extractionProcesses = daemon.extractionProcesses();
+            } else {
+                TimeValue timeout = fsSettings.getFs().getExtractionTimeout() != null ?
+                        fsSettings.getFs().getExtractionTimeout() : ExtractionProcesses.DEFAULT_TIMEOUT;
+                long heapBytes = fsSettings.getFs().getExtractionHeapBytes() > 0 ?
+                        fsSettings.getFs().getExtractionHeapBytes() : ExtractionProcesses.DEFAULT_HEAP_BYTES;
+                logger.debug("extracting content in [{}] processes", processes);
+                extractionProcesses = new ExtractionProcesses(fsSettings.getName(), processes, heapBytes, timeout);
+            }
         }
 
         @Override
         public void run() {
-            while (true) {
-                if (closed) {
-                    return;
+            if (fsSettings.getFs().isLocalState()) {
+                try {
+                    stateStore = new FileStateStore(config, fsSettings.getName());
+                    stateLostBulks = bulkProcessor.lostBulks();
+                } catch (IOException e) {
+                    logger.warn("Can not read local state for [{}]: [{}]. Disabling local state.", fsSettings.getName(),
+                            e.getMessage());
+                    logger.debug("", e);
                 }
+            }
 
-                FileAbstractor path = null;
+            if (fsSettings.getFs().getExtractionCacheSizeBytes() > 0 && fsSettings.getFs().isIndexContent()
+                    && !fsSettings.getFs().isJsonSupport()) {
+                try {
+                    extractionCache = new ExtractionCache(config.resolve(fsSettings.getName() + ExtractionCache.DIR_SUFFIX),
+                            fsSettings.getFs().getExtractionCacheSizeBytes());
+                } catch (IOException e) {
+                    logger.warn("Can not read extraction cache for [{}]: [{}]. Disabling extraction cache.",
+                            fsSettings.getName(), e.getMessage());
+                    logger.debug("", e);
+                }
+            }
+
+            if (fsSettings.getFs().isWatch()) {
+                if (fsSettings.getServer() == null || PROTOCOL.LOCAL.equals(fsSettings.getServer().getProtocol())) {
+                    try {
+                        watcher = new DirectoryWatcher();
+                    } catch (IOException e) {
+                        logger.warn("Can not watch [{}]: [{}]. Disabling watch mode.", fsSettings.getFs().getUrl(),
+                                e.getMessage());
+                        logger.debug("", e);
+                    }
+                } else {
+                    logger.warn("Watch mode is only available for local directories. Disabling watch mode.");
+                }
+            }
+
+            try {
+                crawl();
+            } finally {
+                if (watcher != null) {
+                    try {
+                        watcher.close();
+                    } catch (IOException e) {
+                        logger.debug("Error while closing the watcher", e);
+                    }
+                }
+                if (stateStore != null) {
+                    commitState(true);
+                    try {
+                        stateStore.close();
+                    } catch (IOException e) {
+                        logger.warn("Error while writing local state: {}", e.getMessage());
+                        logger.debug("", e);
+                    }
+                }
+                if (crawlerPool != null) {
+                    crawlerPool.shutdownNow();
+                }
+                if (extractionPool != null) {
+                    extractionPool.close();
+                }
+                if (extractionProcesses != null && daemon == null) {
+                    extractionProcesses.close();
+                }
+            }
+        }
+
+        private void crawl() {
+            // The file abstractor is kept between two scans so remote connections can be reused
+            FileAbstractor path = null;
+            try {
+                while (!closed) {
+                    path = scan(path);
+                }
+            } finally {
+                closeFileAbstractor(path);
+            }
+        }
 
+        /**
+         * Run one scan and wait for the next one
+         * @param path the file abstractor used by the previous scan if any
+         * @return the file abstractor to use for the next scan, null if it must be built again
+         */
+        private FileAbstractor scan(FileAbstractor path) {
+            if (daemon != null) {
+                // We wait for our turn when too many jobs are scanning
                 try {
-                    stats = new ScanStatistic(fsSettings.getFs().getUrl());
+                    daemon.acquireScan();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return path;
+                }
+            }
+            try {
+                stats = new ScanStatistic(fsSettings.getFs().getUrl());
 
+                if (path == null) {
                     path = buildFileAbstractor();
-                    path.open();
+                }
+                path.open();
 
-                    if (!path.exists(fsSettings.getFs().getUrl())) {
-                        throw new RuntimeException(fsSettings.getFs().getUrl() + " doesn't exists.");
-                    }
+                if (!path.exists(fsSettings.getFs().getUrl())) {
+                    throw new RuntimeException(fsSettings.getFs().getUrl() + " doesn't exists.");
+                }
 
-                    String rootPathId = SignTool.sign(fsSettings.getFs().getUrl());
-                    stats.setRootPathId(rootPathId);
+                String rootPathId = signTool.id(fsSettings.getFs().getUrl());
+                stats.setRootPathId(rootPathId);
+
+                Instant scanDatenew;
+                Instant scanDate;
+                TimeValue checkpointInterval = fsSettings.getFs().getCheckpointInterval();
+                checkpoint = checkpointInterval != null ?
+                        ScanCheckpoint.load(config, fsSettings.getName(), checkpointInterval) : null;
+                if (checkpoint != null) {
+                    // The previous scan has been interrupted. We resume it.
+                    scanDatenew = checkpoint.getScanStart();
+                    scanDate = checkpoint.getLastScanDate();
+                    logger.info("Resuming scan of [{}] started at [{}]. [{}] directories have already been indexed.",
+                            fsSettings.getFs().getUrl(), scanDatenew, checkpoint.resumed());
+                } else {
+                    scanDatenew = Instant.now();
+                    scanDate = getLastDateFromMeta(fsSettings.getName());
+                    if (checkpointInterval != null) {
+                        checkpoint = ScanCheckpoint.start(config, fsSettings.getName(), checkpointInterval,
+                                scanDatenew, scanDate);
+                    }
+                }
+                lostBulks = bulkProcessor.lostBulks();
+                checkpointLost = false;
 
-                    Instant scanDatenew = Instant.now();
-                    Instant scanDate = getLastDateFromMeta(fsSettings.getName());
+                // We only index the root directory once (first run)
+                // That means that we don't have a scanDate yet
+                if (scanDate == null) {
+                    indexRootDirectory(fsSettings.getFs().getUrl());
+                }
 
-                    // We only index the root directory once (first run)
-                    // That means that we don't have a scanDate yet
-                    if (scanDate == null) {
-                        indexRootDirectory(fsSettings.getFs().getUrl());
+                if (stateStore != null) {
+                    stateStore.startScan();
+                }
+                seenFiles.clear();
+                seenFolders.clear();
+                seenFolders.add(rootPathId);
+
+                addFilesFromRoot(path, fsSettings.getFs().getUrl(), scanDate);
+
+                // The whole tree has been crawled so anything we did not see has been removed
+                if (!closed) {
+                    if (stateStore != null) {
+                        removeUnseenEntries();
+                    } else if (fsSettings.getFs().isRemoveDeleted()) {
+                        removeDeletedDocuments();
                     }
+                }
+
+                updateFsJob(fsSettings.getName(), scanDatenew);
 
-                    addFilesRecursively(path, fsSettings.getFs().getUrl(), scanDate);
+                // The next scan will be a new one
+                if (checkpoint != null && !closed) {
+                    checkpoint.delete();
+                }
+            } catch (Exception e) {
+                logger.warn("Error while indexing content from {}", fsSettings.getFs().getUrl());
+                logger.debug("", e);
+                // The connection might be broken so we open a new one for the next scan
+                closeFileAbstractor(path);
+                path = null;
+            } finally {
+                commitState(true);
+                if (daemon != null) {
+                    daemon.releaseScan();
+                }
+            }
+
+            try {
+                if (watcher == null) {
+                    logger.debug("Fs crawler is going to sleep for {}", fsSettings.getFs().getUpdateRate());
+                    Thread.sleep(fsSettings.getFs().getUpdateRate().millis());
+                } else {
+                    logger.debug("Fs crawler is going to watch [{}] directories for {}", watcher.size(),
+                            fsSettings.getFs().getUpdateRate());
+                    watch();
+                }
+            } catch (InterruptedException e1) {
+            }
+            return path;
+        }
 
-                    updateFsJob(fsSettings.getName(), scanDatenew);
+        private void closeFileAbstractor(FileAbstractor path) {
+            if (path != null) {
+                try {
+                    path.close();
+                } catch (Exception e) {
+                    logger.warn("Error while closing the connection: {}", e.getMessage());
+                    logger.debug("", e);
+                }
+            }
+        }
+
+        /**
+         * Index changes as soon as they are detected until the next full scan. We return before update_rate
+         * when some events have been lost or when a directory has been removed, so a full scan can fix
+         * the index.
+         */
+        private void watch() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + fsSettings.getFs().getUpdateRate().millis();
+            long remaining;
+            while (!closed && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                // We check from time to time if the crawler has been closed
+                DirectoryWatcher.Changes changes = watcher.poll(Math.min(remaining, 1000));
+                if (changes.isOverflow()) {
+                    logger.debug("Some changes have been lost. Running a full scan.");
+                    return;
+                }
+                if (changes.isEmpty()) {
+                    continue;
+                }
+                try {
+                    if (!applyChanges(changes)) {
+                        logger.debug("A directory has been removed. Running a full scan.");
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    throw e;
                 } catch (Exception e) {
-                    logger.warn("Error while indexing content from {}", fsSettings.getFs().getUrl());
+                    logger.warn("Error while indexing changes from {}. Running a full scan.", fsSettings.getFs().getUrl());
                     logger.debug("", e);
+                    return;
                 } finally {
-                    if (path != null) {
-                        try {
-                            path.close();
-                        } catch (Exception e) {
-                            logger.warn("Error while closing the connection: {}", e.getMessage());
-                            logger.debug("", e);
-                        }
+                    commitState(true);
+                }
+            }
+        }
+
+        /**
+         * Index or remove the files which have been changed
+         * @return false if a full scan is needed
+         */
+        private boolean applyChanges(DirectoryWatcher.Changes changes) throws Exception {
+            boolean complete = true;
+            FileAbstractorFile path = new FileAbstractorFile(fsSettings);
+            Path root = Paths.get(fsSettings.getFs().getUrl());
+
+            crawlerFailure.set(null);
+
+            for (Path deleted : changes.getDeleted()) {
+                if (watcher.isWatched(deleted) || changes.getRemovedDirectories().contains(deleted)
+                        || isKnownDirectory(deleted)) {
+                    // We would need to remove all the content of the directory
+                    complete = false;
+                    continue;
+                }
+                if (!fsSettings.getFs().isRemoveDeleted() ||
+                        !fileMatcher.isIndexable(computeVirtualPathName(stats, deleted.toString()),
+                                deleted.getFileName().toString(), false)) {
+                    continue;
+                }
+                String id = signTool.id(deleted.toString());
+                if (stateStore != null) {
+                    FileState state = stateStore.remove(id);
+                    if (state != null && state.isDirectory()) {
+                        complete = false;
+                        continue;
                     }
                 }
+                logger.debug("  - removed: {}", deleted);
+                esDelete(fsSettings.getElasticsearch().getIndex(), fsSettings.getElasticsearch().getType(), id);
+                stats.removeFile();
+                metrics.fileDeleted();
+            }
 
-                try {
-                    logger.debug("Fs crawler is going to sleep for {}", fsSettings.getFs().getUpdateRate());
-                    Thread.sleep(fsSettings.getFs().getUpdateRate().millis());
-                } catch (InterruptedException e1) {
+            for (Path changed : changes.getChanged()) {
+                File file = changed.toFile();
+                // The file might have been removed after the event
+                if (!file.exists() || !fileMatcher.isIndexable(computeVirtualPathName(stats, changed.toString()),
+                        file.getName(), file.isDirectory())) {
+                    continue;
                 }
+                // We build the parent path the same way the crawler does
+                String filepath = changed.getParent().equals(root) ?
+                        fsSettings.getFs().getUrl() : changed.getParent().toString().concat(File.separator);
+                FileAbstractModel child = path.toFileAbstractModel(filepath, file);
+                if (child.file) {
+                    if (isModified(path, child, filepath, null)) {
+                        logger.debug("  - changed: {}", changed);
+                        indexFile(path, child, filepath);
+                    }
+                } else if (child.directory && !watcher.isWatched(changed)) {
+                    logger.debug("  - new folder: {}", changed);
+                    String dirpath = child.fullpath.concat(File.separator);
+                    indexDirectory(stats, child.name, dirpath);
+                    if (stateStore != null) {
+                        stateStore.put(signTool.id(dirpath), FileState.directory(child.lastModifiedDate.toEpochMilli()));
+                    }
+                    // We index its content and start watching it
+                    addFilesRecursively(path, dirpath, null);
+                }
+            }
+
+            if (extractionPool != null) {
+                extractionPool.awaitCompletion();
+            }
+            Exception failure = crawlerFailure.getAndSet(null);
+            if (failure != null) {
+                throw failure;
+            }
+            return complete;
+        }
+
+        /**
+         * @return true if the local state knows this path as a directory. Directories are stored with a trailing
+         * separator, like the crawler builds their path.
+         */
+        private boolean isKnownDirectory(Path path) throws IOException {
+            if (stateStore == null) {
+                return false;
             }
+            FileState state = stateStore.get(signTool.id(path.toString().concat(File.separator)));
+            return state != null && state.isDirectory();
         }
 
         @SuppressWarnings("unchecked")
@@ -313,175 +880,625 @@ public class FsCrawlerImpl {
                     PROTOCOL.LOCAL + " or " + PROTOCOL.SSH);
         }
 
+        /**
+         * Crawl the whole tree, using the crawler pool if parallel crawling is enabled
+         * and the file abstractor can be used concurrently.
+         */
+        private void addFilesFromRoot(FileAbstractor path, String filepath, Instant lastScanDate)
+                throws Exception {
+            crawlerFailure.set(null);
+
+            if (crawlerPool == null || !path.isConcurrent()) {
+                if (crawlerPool != null) {
+                    logger.debug("[{}] does not support concurrent access. Crawling with a single thread.",
+                            path.getClass().getSimpleName());
+                }
+                addFilesRecursively(path, filepath, lastScanDate);
+            } else {
+                crawlerPool.invoke(new DirectoryCrawler(path, filepath, lastScanDate));
+            }
+
+            // We wait for all the files of this run to be extracted
+            if (extractionPool != null) {
+                extractionPool.awaitCompletion();
+            }
+
+            Exception failure = crawlerFailure.getAndSet(null);
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
         private void addFilesRecursively(FileAbstractor path, String filepath, Instant lastScanDate)
                 throws Exception {
 
             logger.debug("indexing [{}] content", filepath);
 
-            final Collection<FileAbstractModel> children = path.getFiles(filepath);
-            Collection<String> fsFiles = new ArrayList<>();
-            Collection<String> fsFolders = new ArrayList<>();
+            // We start watching the directory before listing it so we can't miss a change
+            if (watcher != null) {
+                watcher.register(filepath);
+            }
+
+            String dirId = null;
+            boolean completed = false;
+            if (checkpoint != null) {
+                dirId = signTool.id(filepath);
+                completed = checkpoint.isCompleted(dirId);
+                checkpoint.startDirectory(dirId);
+            }
+
+            Collection<FileAbstractModel> children = path.getFiles(filepath);
+            if (children != null && fsSettings.getFs().isRecentFirst()) {
+                children = sortByActivity(children);
+            }
+            Collection<String> subdirs = new ArrayList<>();
 
             if (children != null) {
+                metrics.filesListed(children.size());
                 for (FileAbstractModel child : children) {
                     String filename = child.name;
 
                     // https://github.com/dadoonet/fscrawler/issues/1 : Filter documents
-                    boolean isIndexable = FsCrawlerUtil.isIndexable(filename, fsSettings.getFs().getIncludes(), fsSettings.getFs().getExcludes());
+                    boolean isIndexable = fileMatcher.isIndexable(computeVirtualPathName(stats, child.fullpath), filename,
+                            child.directory);
                     logger.debug("[{}] can be indexed: [{}]", filename, isIndexable);
                     if (isIndexable) {
                         if (child.file) {
                             logger.debug("  - file: {}", filename);
-                            fsFiles.add(filename);
-                            if (lastScanDate == null
-                                    || child.lastModifiedDate.isAfter(lastScanDate)
-                                    || (child.creationDate != null && child.creationDate.isAfter(lastScanDate))) {
-                                indexFile(child, stats, filepath, path.getInputStream(child));
-                                stats.addFile();
+                            if (isTrackingSeen()) {
+                                seenFiles.add(signTool.id((new File(filepath, filename)).toString()));
+                            }
+                            if (completed) {
+                                // Indexed before the scan has been interrupted
+                                if (stateStore != null) {
+                                    stateStore.seen(signTool.id((new File(filepath, filename)).toString()));
+                                }
+                                metrics.fileSkipped();
+                                logger.debug("    - already indexed by this scan: {}", filename);
+                            } else if (isModified(path, child, filepath, lastScanDate)) {
+                                if (fsSettings.getFs().isRecentFirst()) {
+                                    recordActivity(filepath, child.lastModifiedDate);
+                                }
+                                indexFile(path, child, filepath, dirId);
                             } else {
+                                metrics.fileSkipped();
                                 logger.debug("    - not modified: creation date {} , file date {}, last scan date {}",
                                         child.creationDate, child.lastModifiedDate, lastScanDate);
                             }
                         } else if (child.directory) {
                             logger.debug("  - folder: {}", filename);
-                            fsFolders.add(filename);
-                            indexDirectory(stats, filename, child.fullpath.concat(File.separator));
-                            addFilesRecursively(path, child.fullpath.concat(File.separator), lastScanDate);
+                            if (isTrackingSeen()) {
+                                seenFolders.add(signTool.id(child.fullpath.concat(File.separator)));
+                            }
+                            if (stateStore == null) {
+                                indexDirectory(stats, filename, child.fullpath.concat(File.separator));
+                            } else {
+                                String id = signTool.id(child.fullpath.concat(File.separator));
+                                FileState state = stateStore.seen(id);
+                                if (state == null || !state.isDirectory()) {
+                                    indexDirectory(stats, filename, child.fullpath.concat(File.separator));
+                                    stateStore.put(id, FileState.directory(child.lastModifiedDate.toEpochMilli()));
+                                }
+                            }
+                            subdirs.add(child.fullpath.concat(File.separator));
                         } else {
                             logger.debug("  - other: {}", filename);
                             logger.debug("Not a file nor a dir. Skipping {}", child.fullpath);
                         }
                     } else {
+                        metrics.fileSkipped();
                         logger.debug("  - ignored file/dir: {}", filename);
                     }
+                    commitState(false);
                 }
             }
 
-            // TODO Optimize
-            // if (path.isDirectory() && path.lastModified() > lastScanDate
-            // && lastScanDate != 0) {
+            if (dirId != null) {
+                checkpoint.directoryListed(dirId);
+            }
 
-            if (fsSettings.getFs().isRemoveDeleted()) {
-                logger.debug("Looking for removed files in [{}]...", filepath);
-                Collection<String> esFiles = getFileDirectory(filepath);
+            addSubdirectories(path, subdirs, lastScanDate);
 
-                // for the delete files
-                for (String esfile : esFiles) {
-                    logger.trace("Checking file [{}]", esfile);
+            checkpointIfNeeded();
+        }
 
-                    if (FsCrawlerUtil.isIndexable(esfile, fsSettings.getFs().getIncludes(), fsSettings.getFs().getExcludes())
-                            && !fsFiles.contains(esfile)) {
-                        File file = new File(filepath, esfile);
+        /**
+         * Sort the content of a directory so the most recently modified files, and the directories with
+         * the most recent changes, come first
+         */
+        private List<FileAbstractModel> sortByActivity(Collection<FileAbstractModel> children) {
+            List<FileAbstractModel> sorted = new ArrayList<>(children);
+            Map<FileAbstractModel, Long> dates = new HashMap<>();
+            for (FileAbstractModel child : sorted) {
+                long date = child.lastModifiedDate != null ? child.lastModifiedDate.toEpochMilli() : 0;
+                if (child.directory) {
+                    date = Math.max(date, activity.getOrDefault(child.fullpath, 0L));
+                }
+                dates.put(child, date);
+            }
+            sorted.sort((c1, c2) -> Long.compare(dates.get(c2), dates.get(c1)));
+            return sorted;
+        }
 
-                        logger.trace("Removing file [{}] in elasticsearch", esfile);
-                        esDelete(fsSettings.getElasticsearch().getIndex(), fsSettings.getElasticsearch().getType(),
-                                SignTool.sign(file.getAbsolutePath()));
-                        stats.removeFile();
-                    }
+        /**
+         * Remember that a file has been modified in a directory, so this directory and its parents are
+         * crawled earlier during the next scans
+         */
+        private void recordActivity(String dirpath, Instant date) {
+            if (date == null) {
+                return;
+            }
+            String root = withoutTrailingSeparator(fsSettings.getFs().getUrl());
+            String dir = withoutTrailingSeparator(dirpath);
+            while (dir.length() > root.length() && dir.startsWith(root)) {
+                activity.merge(dir, date.toEpochMilli(), Math::max);
+                dir = dir.substring(0, dir.lastIndexOf(File.separator));
+            }
+        }
+
+        private String withoutTrailingSeparator(String dirpath) {
+            return dirpath.endsWith(File.separator) ? dirpath.substring(0, dirpath.length() - 1) : dirpath;
+        }
+
+        /**
+         * Write the directories which are complete if the last checkpoint is too old. We first wait for
+         * elasticsearch to acknowledge all the documents we sent.
+         */
+        private void checkpointIfNeeded() {
+            ScanCheckpoint checkpoint = this.checkpoint;
+            if (checkpoint == null || checkpointLost || !checkpoint.isDue()) {
+                return;
+            }
+            synchronized (checkpoint) {
+                if (checkpointLost || !checkpoint.isDue()) {
+                    return;
+                }
+                List<String> ids = checkpoint.drain();
+                bulkProcessor.flush();
+                if (bulkProcessor.lostBulks() != lostBulks) {
+                    logger.warn("Some documents of [{}] have not been indexed. Disabling checkpoints until the next scan.",
+                            fsSettings.getFs().getUrl());
+                    checkpointLost = true;
+                    return;
                 }
+                try {
+                    checkpoint.write(ids);
+                } catch (IOException e) {
+                    logger.warn("Error while writing scan checkpoint: {}", e.getMessage());
+                    logger.debug("", e);
+                }
+            }
+        }
 
-                logger.debug("Looking for removed directories in [{}]...", filepath);
-                Collection<String> esFolders = getFolderDirectory(filepath);
+        /**
+         * Commit the changes of the local state once elasticsearch acknowledged the documents they come from.
+         * If some bulks have been lost since the last commit, we forget the changes so the files are sent again
+         * by the next scan. The documents of a lost bulk may have been added after the changes of the previous
+         * commit were drained, so we also forget the changes of the commit which follows a loss.
+         * @param force false to only commit when the store has too many pending changes or too old ones
+         */
+        private void commitState(boolean force) {
+            FileStateStore stateStore = this.stateStore;
+            if (stateStore == null || (!force && !stateStore.isCommitDue())) {
+                return;
+            }
+            synchronized (stateStore) {
+                if (!force && !stateStore.isCommitDue()) {
+                    return;
+                }
+                List<String> changes = stateStore.drain();
+                bulkProcessor.flush();
+                long lost = bulkProcessor.lostBulks();
+                boolean discard = stateLost || lost != stateLostBulks;
+                stateLost = lost != stateLostBulks;
+                stateLostBulks = lost;
+                if (discard) {
+                    logger.warn("Some documents of [{}] may not have been indexed. They will be sent again by the " +
+                            "next scan.", fsSettings.getFs().getUrl());
+                    return;
+                }
+                try {
+                    stateStore.commit(changes);
+                } catch (IOException e) {
+                    logger.warn("Error while writing local state: {}", e.getMessage());
+                    logger.debug("", e);
+                }
+            }
+        }
 
-                // for the delete folder
-                for (String esfolder : esFolders) {
-                    if (FsCrawlerUtil.isIndexable(esfolder, fsSettings.getFs().getIncludes(), fsSettings.getFs().getExcludes())) {
-                        logger.trace("Checking directory [{}]", esfolder);
-                        if (!fsFolders.contains(esfolder)) {
-                            logger.trace("Removing recursively directory [{}] in elasticsearch", esfolder);
-                            removeEsDirectoryRecursively(filepath, esfolder);
-                        }
-                    }
+        /**
+         * When we don't have a local state, we need to remember what we saw to find removed documents
+         */
+        private boolean isTrackingSeen() {
+            return stateStore == null && fsSettings.getFs().isRemoveDeleted();
+        }
+
+        /**
+         * Remove from elasticsearch the files and directories of this crawler which have not been seen during
+         * the last scan. We read all the ids with a single scroll for each type.
+         */
+        private void removeDeletedDocuments() throws Exception {
+            logger.debug("Looking for removed files in [{}]...", fsSettings.getFs().getUrl());
+            SearchRequest files = SearchRequest.builder()
+                    .setQuery(PATH_ROOT + ":" + stats.getRootPathId())
+                    .setSource(FILE_FILENAME, PATH_VIRTUAL)
+                    .build();
+            client.scan(fsSettings.getElasticsearch().getIndex(), fsSettings.getElasticsearch().getType(), files, hit -> {
+                if (seenFiles.contains(hit.getId())) {
+                    return;
+                }
+                String filename = extractFilename(hit);
+                logger.trace("Checking file [{}]", filename);
+                if (fileMatcher.isIndexable(virtualPathName(extractVirtual(hit), filename), filename, false)) {
+                    logger.trace("Removing file [{}] in elasticsearch", filename);
+                    esDelete(fsSettings.getElasticsearch().getIndex(), fsSettings.getElasticsearch().getType(), hit.getId());
+                    stats.removeFile();
+                    metrics.fileDeleted();
+                }
+            });
+
+            logger.debug("Looking for removed directories in [{}]...", fsSettings.getFs().getUrl());
+            SearchRequest folders = SearchRequest.builder()
+                    .setQuery(FsCrawlerUtil.Dir.ROOT + ":" + stats.getRootPathId())
+                    .setSource(FsCrawlerUtil.Dir.REAL, FsCrawlerUtil.Dir.VIRTUAL)
+                    .build();
+            client.scan(fsSettings.getElasticsearch().getIndex(), FsCrawlerUtil.INDEX_TYPE_FOLDER, folders, hit -> {
+                if (seenFolders.contains(hit.getId())) {
+                    return;
+                }
+                Object name = hit.getSource() != null ? hit.getSource().get(FsCrawlerUtil.Dir.REAL) : null;
+                Object parent = hit.getSource() != null ? hit.getSource().get(FsCrawlerUtil.Dir.VIRTUAL) : null;
+                String dirname = name == null ? null : new File(name.toString()).getName();
+                if (dirname == null || fileMatcher.isIndexable(virtualPathName(parent, dirname), dirname, true)) {
+                    logger.trace("Removing directory [{}] in elasticsearch", name);
+                    esDelete(fsSettings.getElasticsearch().getIndex(), FsCrawlerUtil.INDEX_TYPE_FOLDER, hit.getId());
                 }
+            });
+        }
+
+        @SuppressWarnings("unchecked")
+        private Object extractVirtual(SearchResponse.Hit hit) {
+            if (hit.getSource() != null && hit.getSource().get(FsCrawlerUtil.Doc.PATH) != null) {
+                return ((Map<String, Object>) hit.getSource().get(FsCrawlerUtil.Doc.PATH)).get(FsCrawlerUtil.Doc.Path.VIRTUAL);
+            }
+            return null;
+        }
+
+        /**
+         * Compute the virtual path of an indexed file or directory from the virtual path of its parent,
+         * as stored in elasticsearch. Returns null when we don't know the parent, so path rules are ignored.
+         */
+        private String virtualPathName(Object parent, String name) {
+            if (parent == null) {
+                return null;
+            }
+            String virtual = parent.toString();
+            return virtual.endsWith("/") ? virtual + name : virtual + "/" + name;
+        }
+
+        @SuppressWarnings("unchecked")
+        private String extractFilename(SearchResponse.Hit hit) {
+            if (hit.getSource() != null
+                    && hit.getSource().get(FsCrawlerUtil.Doc.FILE) != null
+                    && ((Map<String, Object>) hit.getSource().get(FsCrawlerUtil.Doc.FILE)).get(FsCrawlerUtil.Doc.File.FILENAME) != null) {
+                return ((Map<String, Object>) hit.getSource().get(FsCrawlerUtil.Doc.FILE)).get(FsCrawlerUtil.Doc.File.FILENAME).toString();
             }
+            // Houston, we have a problem ! We can't get the old files from ES
+            logger.warn("Can't find in _source the existing filename for [{}]. Please enable _source.", hit.getId());
+            throw new RuntimeException("Mapping is incorrect: please enable _source.");
         }
 
-        // TODO Optimize it. We can probably use a search for a big array of filenames instead of
-        // Searching fo 50000 files (which is somehow limited).
-        private Collection<String> getFileDirectory(String path)
+        /**
+         * Check if a file has been added or modified since the last scan. When we have a local state, we compare
+         * the file with its known date and size and, if only the date changed, with its known content hash.
+         * Otherwise we compare its dates with the last scan date.
+         */
+        private boolean isModified(FileAbstractor path, FileAbstractModel child, String filepath, Instant lastScanDate)
                 throws Exception {
-            Collection<String> files = new ArrayList<>();
+            if (stateStore == null) {
+                return lastScanDate == null
+                        || child.lastModifiedDate.isAfter(lastScanDate)
+                        || (child.creationDate != null && child.creationDate.isAfter(lastScanDate));
+            }
 
-            // If the crawler is being closed, we return
-            if (closed) {
-                return files;
+            FileState state = stateStore.seen(signTool.id((new File(filepath, child.name)).toString()));
+            if (state == null || state.isDirectory()) {
+                return true;
+            }
+            long lastModified = child.lastModifiedDate.toEpochMilli();
+            if (state.getSize() != child.size) {
+                return true;
+            }
+            if (state.getLastModified() == lastModified) {
+                return false;
+            }
+            if (state.getHash() == null) {
+                return true;
             }
 
-            logger.trace("Querying elasticsearch for files in dir [{}:{}]", PATH_ENCODED, SignTool.sign(path));
-            SearchResponse response = client.search(
-                    fsSettings.getElasticsearch().getIndex(),
-                    fsSettings.getElasticsearch().getType(),
-                    PATH_ENCODED + ":" + SignTool.sign(path),
-                    50000, // TODO: WHAT? DID I REALLY WROTE THAT? :p
-                    FILE_FILENAME
-            );
-
-            logger.trace("Response [{}]", response.toString());
-            if (response.getHits() != null && response.getHits().getHits() != null) {
-                for (SearchResponse.Hit hit : response.getHits().getHits()) {
-                    String name;
-                    if (hit.getSource() != null
-                            && hit.getSource().get(FsCrawlerUtil.Doc.FILE) != null
-                            && ((Map<String, Object>) hit.getSource().get(FsCrawlerUtil.Doc.FILE)).get(FsCrawlerUtil.Doc.File.FILENAME) != null) {
-                        name = ((Map<String, Object>) hit.getSource().get(FsCrawlerUtil.Doc.FILE)).get(FsCrawlerUtil.Doc.File.FILENAME).toString();
-                    } else if (hit.getFields() != null
-                            && hit.getFields().get(FsCrawlerUtil.Doc.FILE) != null
-                            && ((Map<String, Object>) hit.getFields().get(FsCrawlerUtil.Doc.FILE)).get(FsCrawlerUtil.Doc.File.FILENAME) != null) {
-                        name = ((Map<String, Object>) hit.getFields().get(FsCrawlerUtil.Doc.FILE)).get(FsCrawlerUtil.Doc.File.FILENAME).toString();
+            // Only the date changed. Reading the file is cheaper than extracting it again.
+            String hash;
+            try (InputStream stream = path.getInputStream(child)) {
+                hash = FileStateStore.hash(stream);
+            }
+            if (!hash.equals(state.getHash())) {
+                return true;
+            }
+            logger.debug("    - content not modified: {}", child.name);
+            stateStore.put(signTool.id((new File(filepath, child.name)).toString()),
+                    FileState.file(lastModified, child.size, hash));
+            return false;
+        }
+
+        /**
+         * Remove from elasticsearch the files and directories which are in the local state but have not been
+         * seen during the last scan
+         */
+        private void removeUnseenEntries() throws Exception {
+            // Entries added during the scan must be in the table
+            commitState(true);
+            AtomicLong removed = new AtomicLong();
+            stateStore.forEachUnseen((id, state) -> {
+                removed.incrementAndGet();
+                try {
+                    stateStore.remove(id);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (fsSettings.getFs().isRemoveDeleted()) {
+                    if (state.isDirectory()) {
+                        esDelete(fsSettings.getElasticsearch().getIndex(), FsCrawlerUtil.INDEX_TYPE_FOLDER, id);
                     } else {
-                        // Houston, we have a problem ! We can't get the old files from ES
-                        logger.warn("Can't find in _source nor fields the existing filenames in path [{}]. " +
-                                "Please enable _source or store field [{}]", path, FILE_FILENAME);
-                        throw new RuntimeException("Mapping is incorrect: please enable _source or store field [" +
-                                FILE_FILENAME + "].");
+                        esDelete(fsSettings.getElasticsearch().getIndex(), fsSettings.getElasticsearch().getType(), id);
+                        stats.removeFile();
+                        metrics.fileDeleted();
                     }
-                    files.add(name);
+                }
+                commitState(false);
+            });
+            logger.debug("[{}] files or directories have been removed", removed.get());
+        }
+
+        /**
+         * Crawl sub directories. When running within the crawler pool, each sub directory becomes
+         * a task which can be stolen by idle crawling threads.
+         */
+        private void addSubdirectories(FileAbstractor path, Collection<String> subdirs, Instant lastScanDate)
+                throws Exception {
+            if (crawlerPool != null && ForkJoinTask.getPool() == crawlerPool) {
+                List<DirectoryCrawler> tasks = new ArrayList<>(subdirs.size());
+                for (String subdir : subdirs) {
+                    tasks.add(new DirectoryCrawler(path, subdir, lastScanDate));
+                }
+                ForkJoinTask.invokeAll(tasks);
+            } else {
+                for (String subdir : subdirs) {
+                    addFilesRecursively(path, subdir, lastScanDate);
                 }
             }
+        }
 
-            return files;
+        /**
+         * Crawl a single directory (and its sub directories) within the crawler pool
+         */
+        private class DirectoryCrawler extends RecursiveAction {
+            private final FileAbstractor path;
+            private final String filepath;
+            private final Instant lastScanDate;
+
+            DirectoryCrawler(FileAbstractor path, String filepath, Instant lastScanDate) {
+                this.path = path;
+                this.filepath = filepath;
+                this.lastScanDate = lastScanDate;
+            }
 
+            @Override
+            protected void compute() {
+                // If another thread failed, we just stop crawling
+                if (closed || crawlerFailure.get() != null) {
+                    return;
+                }
+                try {
+                    addFilesRecursively(path, filepath, lastScanDate);
+                } catch (Exception e) {
+                    logger.debug("failed to crawl [{}]", filepath);
+                    crawlerFailure.compareAndSet(null, e);
+                }
+            }
         }
 
-        private Collection<String> getFolderDirectory(String path)
+        /**
+         * Index a file which has been found out of a scan
+         */
+        private void indexFile(FileAbstractor path, FileAbstractModel child, String filepath) throws Exception {
+            indexFile(path, child, filepath, null);
+        }
+
+        /**
+         * Index a file, within the extraction pool if any
+         * @param dirId id of the directory in the scan checkpoint. Null if we don't track the progress of the scan.
+         */
+        private void indexFile(FileAbstractor path, FileAbstractModel child, String filepath, String dirId)
                 throws Exception {
-            Collection<String> files = new ArrayList<>();
+            if (dirId != null) {
+                checkpoint.startFile(dirId);
+            }
 
-            // If the crawler is being closed, we return
-            if (closed) {
-                return files;
+            if (extractionPool == null || !path.isConcurrent()) {
+                extractFile(path, child, filepath);
+                stats.addFile();
+                metrics.fileIndexed(child.size);
+                if (dirId != null) {
+                    checkpoint.fileDone(dirId);
+                }
+                return;
             }
 
-            SearchResponse response = client.search(
-                    fsSettings.getElasticsearch().getIndex(),
-                    FsCrawlerUtil.INDEX_TYPE_FOLDER,
-                    PATH_ENCODED + ":" + SignTool.sign(path),
-                    50000, // TODO: WHAT? DID I REALLY WROTE THAT? :p
-                    null
-            );
+            // If another task failed, we don't send anything more to the extraction pool
+            Exception failure = crawlerFailure.get();
+            if (failure != null) {
+                throw failure;
+            }
+
+            // Recently modified files are extracted first
+            long priority = fsSettings.getFs().isRecentFirst() && child.lastModifiedDate != null ?
+                    child.lastModifiedDate.toEpochMilli() : 0;
+
+            // This blocks until there is room in the queue
+            extractionPool.submit(() -> {
+                if (closed || crawlerFailure.get() != null) {
+                    return;
+                }
+                try {
+                    extractFile(path, child, filepath);
+                    stats.addFile();
+                    metrics.fileIndexed(child.size);
+                    if (dirId != null) {
+                        checkpoint.fileDone(dirId);
+                    }
+                } catch (Exception e) {
+                    logger.debug("failed to extract content from [{}]", child.fullpath);
+                    crawlerFailure.compareAndSet(null, e);
+                }
+            }, priority);
+        }
 
-            if (response.getHits() != null
-                    && response.getHits().getHits() != null) {
-                for (SearchResponse.Hit hit : response.getHits().getHits()) {
-                    String name = hit.getSource()
-                            .get(FILE_FILENAME).toString();
-                    files.add(name);
+        /**
+         * Read and index a file. When we have a local state, an extraction cache or when we add checksums,
+         * we compute the hash of the content while reading it and we record the new state of the file.
+         */
+        private void extractFile(FileAbstractor path, FileAbstractModel child, String filepath) throws Exception {
+            boolean hashing = fsSettings.getFs().isIndexContent()
+                    && (stateStore != null || extractionCache != null || fsSettings.getFs().isAddChecksum());
+
+            String hash = null;
+            try (InputStream stream = path.getInputStream(child)) {
+                if (!hashing) {
+                    indexFile(child, stats, filepath, stream, null, null);
+                } else {
+                    ContentDigestInputStream digest = new ContentDigestInputStream(stream);
+                    if (extractionCache != null && !fsSettings.getFs().isStoreSource()) {
+                        extractWithCache(child, filepath, digest);
+                    } else {
+                        ExtractionCache.Extraction extraction = indexFile(child, stats, filepath,
+                                new CloseShieldInputStream(digest), digest, null);
+                        // With store_source, the whole file has been read so we know its hash
+                        if (extraction != null && extractionCache != null) {
+                            cacheExtraction(child, digest, extraction);
+                        }
+                    }
+                    // Tika might stop before the end of the file. We read what is left to hash the whole content.
+                    hash = digest.drain();
                 }
             }
 
-            return files;
+            if (stateStore != null) {
+                stateStore.put(signTool.id((new File(filepath, child.name)).toString()),
+                        FileState.file(child.lastModifiedDate.toEpochMilli(), child.size, hash));
+            }
+        }
+
+        /**
+         * Read and index a file using the extraction cache, without reading the file twice.
+         *
+         * We read the beginning of the file first. If we already extracted a content with the same size which starts
+         * the same way, we only read the rest of the file to compute its hash and we use the cached extraction.
+         * We keep a local copy of what we read so Tika can still extract it if the content is not the same.
+         * Otherwise Tika reads the beginning of the file from memory and the rest from the file.
+         * Files with the same content extracted at the same time wait for each other so the content is only
+         * extracted once.
+         */
+        private void extractWithCache(FileAbstractModel child, String filepath, ContentDigestInputStream digest)
+                throws Exception {
+            byte[] prefix = digest.readPrefix();
+            String prefixHash = digest.prefixHash();
+
+            extractionCache.lock(child.size, prefixHash);
+            try {
+                ExtractionCache.Extraction extraction;
+                if (extractionCache.mightContain(child.size, prefixHash)) {
+                    Path rest = Files.createTempFile("fscrawler-", ".tmp");
+                    try {
+                        String hash;
+                        try (OutputStream copy = new BufferedOutputStream(Files.newOutputStream(rest))) {
+                            hash = digest.drain(copy);
+                        }
+                        ExtractionCache.Extraction cached = extractionCache.get(child.size, prefixHash, hash,
+                                indexedChars(child.size));
+                        if (cached != null) {
+                            indexFile(child, stats, filepath, new CloseShieldInputStream(digest), digest, cached);
+                            return;
+                        }
+                        // Same size and same beginning but not the same content. We extract our local copy.
+                        logger.debug("    - content starts like a known content: {}", child.name);
+                        try (InputStream stream = new SequenceInputStream(new ByteArrayInputStream(prefix),
+                                new BufferedInputStream(Files.newInputStream(rest)))) {
+                            extraction = indexFile(child, stats, filepath, stream, digest, null);
+                        }
+                    } finally {
+                        Files.deleteIfExists(rest);
+                    }
+                } else {
+                    InputStream content = new SequenceInputStream(new ByteArrayInputStream(prefix), digest);
+                    extraction = indexFile(child, stats, filepath, new CloseShieldInputStream(content), digest, null);
+                }
+                if (extraction != null) {
+                    cacheExtraction(child, digest, extraction);
+                }
+            } finally {
+                extractionCache.unlock(child.size, prefixHash);
+            }
+        }
+
+        private void cacheExtraction(FileAbstractModel child, ContentDigestInputStream digest,
+                                     ExtractionCache.Extraction extraction) {
+            try {
+                extractionCache.put(child.size, digest.prefixHash(), digest.drain(), indexedChars(child.size),
+                        extraction);
+            } catch (IOException e) {
+                logger.debug("Can not add [{}] to the extraction cache: {}", child.fullpath, e.getMessage());
+            }
+        }
+
+        /**
+         * @return the maximum number of characters we extract from a file
+         */
+        private int indexedChars(long size) {
+            // See #38: https://github.com/dadoonet/fscrawler/issues/38
+            int indexedChars = 100000;
+            if (fsSettings.getFs().getIndexedChars() != null) {
+                if (fsSettings.getFs().getIndexedChars().percentage()) {
+                    // We don't need to read the file to know its length
+                    indexedChars = (int) Math.round(size * fsSettings.getFs().getIndexedChars().asDouble());
+                    logger.trace("using percentage [{}] to define indexed chars: [{}]",
+                            fsSettings.getFs().getIndexedChars(), indexedChars);
+                } else {
+                    indexedChars = (int) fsSettings.getFs().getIndexedChars().value();
+                    logger.trace("indexed chars [{}]",
+                            indexedChars == -1 ? "has been disabled. All text will be extracted" : indexedChars);
+                }
+            }
+            return indexedChars;
         }
 
         /**
          * Index a file
+         * @param digest computes the hash of the content while it's read. Null if we don't need it.
+         * @param cached what we already extracted from the same content. Null if we need to run Tika.
+         * @return what Tika extracted if we had to run it and it succeeded, null otherwise
          */
-        private void indexFile(FileAbstractModel fileAbstractModel, ScanStatistic stats, String filepath, InputStream fileReader) throws Exception {
+        private ExtractionCache.Extraction indexFile(FileAbstractModel fileAbstractModel, ScanStatistic stats,
+                                                     String filepath, InputStream fileReader,
+                                                     ContentDigestInputStream digest,
+                                                     ExtractionCache.Extraction cached) throws Exception {
             final String filename = fileAbstractModel.name;
             final Instant lastmodified = fileAbstractModel.lastModifiedDate;
             final long size = fileAbstractModel.size;
 
             logger.debug("fetching content from [{}],[{}]", filepath, filename);
 
+            ExtractionCache.Extraction extracted = null;
+
             // Create the Doc object
             Doc doc = new Doc();
 
@@ -495,7 +1512,7 @@ public class FsCrawlerImpl {
             }
 
             // Path
-            doc.getPath().setEncoded(SignTool.sign(filepath));
+            doc.getPath().setEncoded(directoryId(filepath));
             doc.getPath().setRoot(stats.getRootPathId());
             doc.getPath().setVirtual(FsCrawlerUtil.computeVirtualPathName(stats, filepath));
             doc.getPath().setReal((new File(filepath, filename)).toString());
@@ -510,17 +1527,6 @@ public class FsCrawlerImpl {
             // Attributes
 
             if (fsSettings.getFs().isIndexContent()) {
-                byte[] buffer = new byte[1024];
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                int i;
-                while (-1 != (i = fileReader.read(buffer))) {
-                    bos.write(buffer, 0, i);
-                }
-                byte[] data = bos.toByteArray();
-
-                fileReader.close();
-                bos.close();
-
                 // https://github.com/dadoonet/fscrawler/issues/5 : Support JSon files
                 if (fsSettings.getFs().isJsonSupport()) {
                     String id;
@@ -531,42 +1537,59 @@ public class FsCrawlerImpl {
                             id = id.substring(0, pos);
                         }
                     } else {
-                        id = SignTool.sign((new File(filepath, filename)).toString());
+                        id = signTool.id((new File(filepath, filename)).toString());
                     }
                     esIndex(fsSettings.getElasticsearch().getIndex(),
                             fsSettings.getElasticsearch().getType(),
                             id,
-                            new String(data, "UTF-8"));
-                    return;
+                            new String(readFully(fileReader), "UTF-8"));
+                    return null;
                 } else {
                     // Extracting content with Tika
-                    // See #38: https://github.com/dadoonet/fscrawler/issues/38
-                    int indexedChars = 100000;
-                    if (fsSettings.getFs().getIndexedChars() != null) {
-                        if (fsSettings.getFs().getIndexedChars().percentage()) {
-                            indexedChars = (int) Math.round(data.length * fsSettings.getFs().getIndexedChars().asDouble());
-                            logger.trace("using percentage [{}] to define indexed chars: [{}]",
-                                    fsSettings.getFs().getIndexedChars(), indexedChars);
-                        } else {
-                            indexedChars = (int) fsSettings.getFs().getIndexedChars().value();
-                            logger.trace("indexed chars [{}]",
-                                    indexedChars == -1 ? "has been disabled. All text will be extracted" : indexedChars);
-                        }
+                    int indexedChars = indexedChars(size);
+
+                    // We only load the file in memory when we need to store its binary content.
+                    // Otherwise Tika reads the file as a stream.
+                    byte[] data = null;
+                    InputStream content = fileReader;
+                    if (fsSettings.getFs().isStoreSource()) {
+                        data = readFully(fileReader);
+                        content = new ByteArrayInputStream(data);
                     }
-                    Metadata metadata = new Metadata();
 
-                    String parsedContent = null;
-                    try {
-                        // Set the maximum length of strings returned by the parseToString method, -1 sets no limit
-                        parsedContent = tika().parseToString(new ByteArrayInputStream(data), metadata, indexedChars);
-                    } catch (Throwable e) {
-                        logger.debug("Failed to extract [" + indexedChars + "] characters of text for [" + filename + "]", e);
+                    ExtractionCache.Extraction extraction = cached;
+                    if (extraction == null && data != null && extractionCache != null && digest != null) {
+                        // We have read the whole file so we know its hash
+                        extraction = extractionCache.get(size, digest.prefixHash(), digest.hash(), indexedChars);
+                    }
+                    if (extraction != null) {
+                        metrics.extractionCacheHit();
+                        logger.debug("    - content already extracted: {}", filename);
+                    } else {
+                        if (extractionCache != null) {
+                            metrics.extractionCacheMiss();
+                        }
+                        Metadata metadata = new Metadata();
+                        try {
+                            // Set the maximum length of extracted text, -1 sets no limit
+                            long start = System.nanoTime();
+                            String parsedContent = extractionProcesses != null ?
+                                    extractionProcesses.extractText(content, metadata, indexedChars) :
+                                    TikaInstance.extractText(content, metadata, indexedChars);
+                            metrics.extraction(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                            extraction = extraction(parsedContent, metadata);
+                            extracted = extraction;
+                        } catch (Throwable e) {
+                            logger.debug("Failed to extract [" + indexedChars + "] characters of text for [" + filename + "]", e);
+                            // We don't cache failures
+                            extraction = extraction(null, metadata);
+                        }
                     }
 
                     // Adding what we found to the document we want to index
 
                     // File
-                    doc.getFile().setContentType(metadata.get(Metadata.CONTENT_TYPE));
+                    doc.getFile().setContentType(extraction.getContentType());
 
                     // We only add `indexed_chars` if we have other value than default or -1
                     if (fsSettings.getFs().getIndexedChars() != null && fsSettings.getFs().getIndexedChars().value() != -1) {
@@ -574,22 +1597,22 @@ public class FsCrawlerImpl {
                     }
 
                     if (fsSettings.getFs().isAddFilesize()) {
-                        if (metadata.get(Metadata.CONTENT_LENGTH) != null) {
+                        if (extraction.getContentLength() != null) {
                             // We try to get CONTENT_LENGTH from Tika first
-                            doc.getFile().setFilesize(Long.parseLong(metadata.get(Metadata.CONTENT_LENGTH)));
+                            doc.getFile().setFilesize(Long.parseLong(extraction.getContentLength()));
                         }
                     }
 
                     // Meta
-                    doc.getMeta().setAuthor(metadata.get(Metadata.AUTHOR));
-                    doc.getMeta().setTitle(metadata.get(Metadata.TITLE));
+                    doc.getMeta().setAuthor(extraction.getAuthor());
+                    doc.getMeta().setTitle(extraction.getTitle());
                     // TODO Fix that as the date we get from Tika might be not parseable as a Date
                     // doc.getMeta().setDate(metadata.get(Metadata.DATE));
-                    doc.getMeta().setKeywords(commaDelimitedListToStringArray(metadata.get(Metadata.KEYWORDS)));
+                    doc.getMeta().setKeywords(commaDelimitedListToStringArray(extraction.getKeywords()));
                     // Meta
 
                     // Doc content
-                    doc.setContent(parsedContent);
+                    doc.setContent(extraction.getContent());
 
                     // Doc as binary attachment
                     if (fsSettings.getFs().isStoreSource()) {
@@ -597,13 +1620,30 @@ public class FsCrawlerImpl {
                     }
                     // End of our document
                 }
+
+                if (digest != null && fsSettings.getFs().isAddChecksum()) {
+                    // Tika might stop before the end of the file. We read what is left to hash the whole content.
+                    doc.getFile().setChecksum(digest.drain());
+                }
             }
 
             // We index
             esIndex(fsSettings.getElasticsearch().getIndex(),
                     fsSettings.getElasticsearch().getType(),
-                    SignTool.sign((new File(filepath, filename)).toString()),
+                    signTool.id((new File(filepath, filename)).toString()),
                     doc);
+            return extracted;
+        }
+
+        private ExtractionCache.Extraction extraction(String content, Metadata metadata) {
+            ExtractionCache.Extraction extraction = new ExtractionCache.Extraction();
+            extraction.setContent(content);
+            extraction.setContentType(metadata.get(Metadata.CONTENT_TYPE));
+            extraction.setContentLength(metadata.get(Metadata.CONTENT_LENGTH));
+            extraction.setAuthor(metadata.get(Metadata.AUTHOR));
+            extraction.setTitle(metadata.get(Metadata.TITLE));
+            extraction.setKeywords(metadata.get(Metadata.KEYWORDS));
+            return extraction;
         }
 
         private void indexDirectory(String id, String name, String root, String virtual, String encoded)
@@ -625,52 +1665,35 @@ public class FsCrawlerImpl {
          */
         private void indexDirectory(ScanStatistic stats, String filename, String filepath)
                 throws Exception {
-            indexDirectory(SignTool.sign(filepath),
+            indexDirectory(signTool.id(filepath),
                     filename,
                     stats.getRootPathId(),
                     FsCrawlerUtil.computeVirtualPathName(stats,
                             filepath.substring(0, filepath.lastIndexOf(File.separator))),
-                    SignTool.sign(filepath.substring(0, filepath.lastIndexOf(File.separator))));
+                    directoryId(filepath.substring(0, filepath.lastIndexOf(File.separator))));
+        }
+
+        /**
+         * Id of a directory, which is the same for all its files and sub directories
+         */
+        private String directoryId(String dirpath) {
+            String[] last = lastDirectoryId.get();
+            if (!dirpath.equals(last[0])) {
+                last[1] = signTool.id(dirpath);
+                last[0] = dirpath;
+            }
+            return last[1];
         }
 
         /**
          * Add the root directory as a folder
          */
         private void indexRootDirectory(String path) throws Exception {
-            indexDirectory(SignTool.sign(path),
+            indexDirectory(signTool.id(path),
                     path,
                     stats.getRootPathId(),
                     null,
-                    SignTool.sign(path));
-        }
-
-        /**
-         * Remove a full directory and sub dirs recursively
-         */
-        private void removeEsDirectoryRecursively(String path, String name)
-                throws Exception {
-
-            String fullPath = path.concat(File.separator).concat(name);
-
-            logger.debug("Delete folder " + fullPath);
-            Collection<String> listFile = getFileDirectory(fullPath);
-
-            for (String esfile : listFile) {
-                esDelete(
-                        fsSettings.getElasticsearch().getIndex(),
-                        fsSettings.getElasticsearch().getType(),
-                        SignTool.sign(fullPath.concat(File.separator).concat(esfile)));
-            }
-
-            Collection<String> listFolder = getFolderDirectory(fullPath);
-
-            for (String esfolder : listFolder) {
-                removeEsDirectoryRecursively(fullPath, esfolder);
-            }
-
-            esDelete(fsSettings.getElasticsearch().getIndex(), FsCrawlerUtil.INDEX_TYPE_FOLDER,
-                    SignTool.sign(fullPath));
-
+                    signTool.id(path));
         }
 
         /**
@@ -765,5 +1788,15 @@ public class FsCrawlerImpl {
         return str != null && str.length() > 0;
     }
 
+    private static byte[] readFully(InputStream stream) throws IOException {
+        byte[] buffer = new byte[8192];
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        int i;
+        while (-1 != (i = stream.read(buffer))) {
+            bos.write(buffer, 0, i);
+        }
+        return bos.toByteArray();
+    }
+
 
 }
@@ -19,55 +19,54 @@
 
 package fr.pilato.elasticsearch.crawler.fs;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
- * Provide Scan Statistics
+ * Provide Scan Statistics. Counters can be safely updated by
+ * concurrent crawling threads.
  *
  * @author David Pilato (aka dadoonet)
  */
 public class ScanStatistic {
-    private int nbDocScan = 0;
-    private int nbDocDeleted = 0;
+    private final AtomicInteger nbDocScan = new AtomicInteger();
+    private final AtomicInteger nbDocDeleted = new AtomicInteger();
     private String rootPath;
     private String rootPathId;
 
     public ScanStatistic() {
         this.rootPath = "/";
-        this.nbDocScan = 0;
-        this.nbDocDeleted = 0;
     }
 
     public ScanStatistic(String rootPath) {
         this.rootPath = rootPath;
-        this.nbDocScan = 0;
-        this.nbDocDeleted = 0;
     }
 
     /**
      * @return the nbDocScan
      */
     public int getNbDocScan() {
-        return nbDocScan;
+        return nbDocScan.get();
     }
 
     /**
      * @param nbDocScan the nbDocScan to set
      */
     public void setNbDocScan(int nbDocScan) {
-        this.nbDocScan = nbDocScan;
+        this.nbDocScan.set(nbDocScan);
     }
 
     /**
      * @return the nbDocDeleted
      */
     public int getNbDocDeleted() {
-        return nbDocDeleted;
+        return nbDocDeleted.get();
     }
 
     /**
      * @param nbDocDeleted the nbDocDeleted to set
      */
     public void setNbDocDeleted(int nbDocDeleted) {
-        this.nbDocDeleted = nbDocDeleted;
+        this.nbDocDeleted.set(nbDocDeleted);
     }
 
     /**
@@ -102,14 +101,14 @@ public class ScanStatistic {
      * Increment statistic for new files
      */
     public void addFile() {
-        this.nbDocScan++;
+        this.nbDocScan.incrementAndGet();
     }
 
     /**
      * Increment statistic for deleted files
      */
     public void removeFile() {
-        this.nbDocDeleted++;
+        this.nbDocDeleted.incrementAndGet();
     }
 
 }
@@ -19,29 +19,209 @@
 
 package fr.pilato.elasticsearch.crawler.fs;
 
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 /**
  * Utility class to sign *things*
  *
+ * Three algorithms are available to generate ids:
+ * <ul>
+ *     <li>{@link #LEGACY}: the ids generated by previous versions. This is a MD5 of the platform encoded bytes
+ *     where every byte is written in hexadecimal without its leading zero.</li>
+ *     <li>{@link #MD5}: MD5 of the UTF-8 bytes, written as 32 hexadecimal characters.</li>
+ *     <li>{@link #MURMUR3}: 128 bits MurmurHash3 of the UTF-8 bytes, written as 32 hexadecimal characters.
+ *     This is not a cryptographic hash but it is much faster than MD5.</li>
+ * </ul>
+ *
+ * Instances are thread safe.
+ *
  * @author David Pilato (aka dadoonet)
  */
 public class SignTool {
 
+    public static final String LEGACY = "legacy";
+    public static final String MD5 = "md5";
+    public static final String MURMUR3 = "murmur3";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // MessageDigest is not thread safe so we keep one per thread
+    private static final ThreadLocal<MessageDigest> MD5_DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    });
+
+    private static final SignTool LEGACY_TOOL = new SignTool(LEGACY);
+    private static final SignTool MD5_TOOL = new SignTool(MD5);
+    private static final SignTool MURMUR3_TOOL = new SignTool(MURMUR3);
+
+    private final String algorithm;
+
+    private SignTool(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * @param algorithm {@link #LEGACY}, {@link #MD5} or {@link #MURMUR3}. null means {@link #LEGACY}.
+     * @return the tool for this algorithm
+     */
+    public static SignTool getInstance(String algorithm) {
+        if (algorithm == null || LEGACY.equalsIgnoreCase(algorithm)) {
+            return LEGACY_TOOL;
+        }
+        if (MD5.equalsIgnoreCase(algorithm)) {
+            return MD5_TOOL;
+        }
+        if (MURMUR3.equalsIgnoreCase(algorithm)) {
+            return MURMUR3_TOOL;
+        }
+        throw new IllegalArgumentException(algorithm + " is not supported. Please use " + LEGACY + ", " + MD5 +
+                " or " + MURMUR3);
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Generate an id
+     * @param toSign the text to sign, usually a path
+     * @return the id
+     */
+    public String id(String toSign) {
+        switch (algorithm) {
+            case MD5:
+                return toHex(md5(toSign.getBytes(StandardCharsets.UTF_8)), true);
+            case MURMUR3:
+                return toHex(murmur3(toSign.getBytes(StandardCharsets.UTF_8)));
+            default:
+                return toHex(md5(toSign.getBytes(Charset.defaultCharset())), false);
+        }
+    }
+
+    /**
+     * Generate an id with the {@link #LEGACY} algorithm
+     */
     public static String sign(String toSign) throws NoSuchAlgorithmException {
+        return LEGACY_TOOL.id(toSign);
+    }
+
+    private static byte[] md5(byte[] bytes) {
+        MessageDigest md = MD5_DIGEST.get();
+        md.reset();
+        return md.digest(bytes);
+    }
+
+    private static String toHex(byte[] bytes, boolean leadingZeros) {
+        char[] chars = new char[bytes.length * 2];
+        int pos = 0;
+        for (byte b : bytes) {
+            int high = (b >> 4) & 0xf;
+            // Previous versions were not writing the leading zero
+            if (high != 0 || leadingZeros) {
+                chars[pos++] = HEX[high];
+            }
+            chars[pos++] = HEX[b & 0xf];
+        }
+        return new String(chars, 0, pos);
+    }
+
+    private static String toHex(long[] values) {
+        char[] chars = new char[values.length * 16];
+        int pos = 0;
+        for (long value : values) {
+            for (int shift = 60; shift >= 0; shift -= 4) {
+                chars[pos++] = HEX[(int) (value >>> shift) & 0xf];
+            }
+        }
+        return new String(chars);
+    }
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    /**
+     * MurmurHash3 x64 128 bits with a seed of 0
+     */
+    @SuppressWarnings("fallthrough")
+    static long[] murmur3(byte[] data) {
+        long h1 = 0;
+        long h2 = 0;
+        int length = data.length;
+        int blocks = length / 16;
 
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        md.update(toSign.getBytes());
+        for (int i = 0; i < blocks; i++) {
+            long k1 = getLong(data, i * 16);
+            long k2 = getLong(data, i * 16 + 8);
 
-        String key = "";
-        byte b[] = md.digest();
-        for (byte aB : b) {
-            long t = aB < 0 ? 256 + aB : aB;
-            key += Long.toHexString(t);
+            k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
         }
 
-        return key;
+        // Tail
+        int offset = blocks * 16;
+        long k1 = 0;
+        long k2 = 0;
+        switch (length & 15) {
+            case 15: k2 ^= ((long) data[offset + 14] & 0xff) << 48;
+            case 14: k2 ^= ((long) data[offset + 13] & 0xff) << 40;
+            case 13: k2 ^= ((long) data[offset + 12] & 0xff) << 32;
+            case 12: k2 ^= ((long) data[offset + 11] & 0xff) << 24;
+            case 11: k2 ^= ((long) data[offset + 10] & 0xff) << 16;
+            case 10: k2 ^= ((long) data[offset + 9] & 0xff) << 8;
+            case 9:
+                k2 ^= ((long) data[offset + 8] & 0xff);
+                k2 *= C2; k2 = Long.rotateLeft(k2, 33); k2 *= C1; h2 ^= k2;
+            case 8: k1 ^= ((long) data[offset + 7] & 0xff) << 56;
+            case 7: k1 ^= ((long) data[offset + 6] & 0xff) << 48;
+            case 6: k1 ^= ((long) data[offset + 5] & 0xff) << 40;
+            case 5: k1 ^= ((long) data[offset + 4] & 0xff) << 32;
+            case 4: k1 ^= ((long) data[offset + 3] & 0xff) << 24;
+            case 3: k1 ^= ((long) data[offset + 2] & 0xff) << 16;
+            case 2: k1 ^= ((long) data[offset + 1] & 0xff) << 8;
+            case 1:
+                k1 ^= ((long) data[offset] & 0xff);
+                k1 *= C1; k1 = Long.rotateLeft(k1, 31); k1 *= C2; h1 ^= k1;
+        }
+
+        // Finalization
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new long[] { h1, h2 };
+    }
+
+    private static long getLong(byte[] data, int offset) {
+        return ((long) data[offset] & 0xff)
+                | (((long) data[offset + 1] & 0xff) << 8)
+                | (((long) data[offset + 2] & 0xff) << 16)
+                | (((long) data[offset + 3] & 0xff) << 24)
+                | (((long) data[offset + 4] & 0xff) << 32)
+                | (((long) data[offset + 5] & 0xff) << 40)
+                | (((long) data[offset + 6] & 0xff) << 48)
+                | (((long) data[offset + 7] & 0xff) << 56);
     }
 
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
 }
@@ -21,6 +21,16 @@ package fr.pilato.elasticsearch.crawler.fs;
 
 
 import org.apache.tika.Tika;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.io.InputStream;
 
 /**
  *
@@ -32,4 +42,34 @@ public class TikaInstance {
     public static Tika tika() {
         return tika;
     }
+
+    /**
+     * Extract text from a stream. The stream is read while Tika is parsing it so the
+     * content is never fully loaded in memory. Only the extracted text is kept.
+     * The stream is not closed.
+     * @param stream the content to parse
+     * @param metadata metadata which will be filled by Tika
+     * @param indexedChars maximum number of characters to extract. -1 to extract everything.
+     * @return the extracted text
+     */
+    public static String extractText(InputStream stream, Metadata metadata, int indexedChars)
+            throws IOException, TikaException {
+        WriteOutContentHandler handler = new WriteOutContentHandler(indexedChars);
+        try {
+            ParseContext context = new ParseContext();
+            context.set(Parser.class, tika.getParser());
+            tika.getParser().parse(stream, new BodyContentHandler(handler), metadata, context);
+        } catch (SAXException e) {
+            if (!handler.isWriteLimitReached(e)) {
+                throw new TikaException("Unexpected SAX processing failure", e);
+            }
+        } catch (TikaException e) {
+            // Some parsers wrap the limit exception in a way we can not detect anymore (see OpenDocumentParser).
+            // If we already have all the text we asked for, we don't care about the end of the document.
+            if (indexedChars < 0 || handler.toString().length() < indexedChars) {
+                throw e;
+            }
+        }
+        return handler.toString();
+    }
 }
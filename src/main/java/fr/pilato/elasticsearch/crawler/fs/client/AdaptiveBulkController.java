@@ -0,0 +1,187 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.client;
+
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.TimeValue;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Adapts the size of the bulks and the number of bulks executed at the same time to what elasticsearch can take.
+ *
+ * It follows an additive increase / multiplicative decrease loop:
+ * <ul>
+ *     <li>When a full bulk is executed within the target latency without any rejection, the bulks grow by a
+ *     twentieth of the allowed range. When the bulks can not grow anymore, one more bulk can be executed at
+ *     the same time.</li>
+ *     <li>When a bulk takes longer than the target latency, the size of the bulks is halved.</li>
+ *     <li>When elasticsearch rejects a bulk or some of its actions because it is overloaded or unavailable,
+ *     the size of the bulks and the number of bulks executed at the same time are halved.</li>
+ * </ul>
+ * Bulks which were started before the last decrease do not decrease the limits again as they were sized
+ * with the previous limits.
+ */
+public class AdaptiveBulkController {
+
+    private static final Logger logger = LogManager.getLogger(AdaptiveBulkController.class);
+
+    public static final int DEFAULT_MIN_ACTIONS = 10;
+    public static final int DEFAULT_MAX_ACTIONS = 5000;
+    public static final long DEFAULT_MIN_BYTES = 1024 * 1024;
+    public static final long DEFAULT_MAX_BYTES = 20 * 1024 * 1024;
+    public static final int DEFAULT_MAX_CONCURRENCY = 4;
+    public static final TimeValue DEFAULT_TARGET_LATENCY = TimeValue.timeValueSeconds(1);
+
+    private final int minActions;
+    private final int maxActions;
+    private final long minBytes;
+    private final long maxBytes;
+    private final int maxConcurrency;
+    private final long targetLatencyMillis;
+
+    private volatile int actions;
+    private volatile long bytes;
+    private volatile int concurrency;
+    private long generation;
+
+    /**
+     * @param minActions minimum number of actions per bulk. 0 or less for the default.
+     * @param maxActions maximum number of actions per bulk. 0 or less for the default.
+     * @param minBytes minimum estimated size of a bulk. 0 or less for the default.
+     * @param maxBytes maximum estimated size of a bulk. 0 or less for the default.
+     * @param maxConcurrency maximum number of bulks executed at the same time. 0 or less for the default.
+     * @param targetLatency time above which a bulk is considered as too slow. null for the default.
+     */
+    public AdaptiveBulkController(int minActions, int maxActions, long minBytes, long maxBytes, int maxConcurrency,
+                                  TimeValue targetLatency) {
+        this.minActions = minActions > 0 ? minActions : DEFAULT_MIN_ACTIONS;
+        this.maxActions = Math.max(this.minActions, maxActions > 0 ? maxActions : DEFAULT_MAX_ACTIONS);
+        this.minBytes = minBytes > 0 ? minBytes : DEFAULT_MIN_BYTES;
+        this.maxBytes = Math.max(this.minBytes, maxBytes > 0 ? maxBytes : DEFAULT_MAX_BYTES);
+        this.maxConcurrency = maxConcurrency > 0 ? maxConcurrency : DEFAULT_MAX_CONCURRENCY;
+        this.targetLatencyMillis = (targetLatency != null ? targetLatency : DEFAULT_TARGET_LATENCY).millis();
+        this.actions = this.minActions;
+        this.bytes = this.minBytes;
+    }
+
+    /**
+     * Set the initial limits within the bounds.
+     * @param actions initial number of actions per bulk. -1 to start with the maximum.
+     * @param bytes initial estimated size of a bulk. 0 or less to start with the maximum.
+     * @param concurrency initial number of bulks executed at the same time. 0 when bulks are executed in
+     *                    a blocking fashion: it then stays at 0.
+     */
+    synchronized void start(int actions, long bytes, int concurrency) {
+        this.actions = actions > 0 ? (int) clamp(actions, minActions, maxActions) : maxActions;
+        this.bytes = bytes > 0 ? clamp(bytes, minBytes, maxBytes) : maxBytes;
+        this.concurrency = concurrency > 0 ? (int) clamp(concurrency, 1, maxConcurrency) : 0;
+        logger.debug("Bulks start with {} actions, {} bytes and {} concurrent requests", this.actions, this.bytes,
+                this.concurrency);
+    }
+
+    /**
+     * @return an identifier of the current limits, to give back to {@link #onBulk(long, boolean, long, boolean)}
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * Adapt the limits after a bulk has been executed
+     * @param generation value of {@link #generation()} when the bulk was cut
+     * @param full true if the bulk reached the limits. Bulks sent by the flush interval do not tell anything
+     *             about bigger bulks.
+     * @param tookMillis time to execute the bulk
+     * @param rejected true if the bulk, or some of its actions, were rejected because elasticsearch
+     *                 is overloaded or unavailable
+     */
+    synchronized void onBulk(long generation, boolean full, long tookMillis, boolean rejected) {
+        if (rejected || tookMillis > targetLatencyMillis) {
+            if (generation == this.generation) {
+                decrease(rejected, tookMillis);
+            }
+            return;
+        }
+
+        if (!full) {
+            return;
+        }
+        if (actions < maxActions || bytes < maxBytes) {
+            actions = (int) Math.min(maxActions, (long) actions + Math.max(1, (maxActions - minActions) / 20));
+            bytes = Math.min(maxBytes, bytes + Math.max(1, (maxBytes - minBytes) / 20));
+        } else if (concurrency > 0 && concurrency < maxConcurrency) {
+            concurrency++;
+        } else {
+            return;
+        }
+        logger.debug("Bulk executed in [{}] ms. Bulks are now limited to {} actions, {} bytes and {} concurrent " +
+                "requests", tookMillis, actions, bytes, concurrency);
+    }
+
+    private void decrease(boolean rejected, long tookMillis) {
+        int newActions = Math.max(minActions, actions / 2);
+        long newBytes = Math.max(minBytes, bytes / 2);
+        int newConcurrency = rejected && concurrency > 0 ? Math.max(1, concurrency / 2) : concurrency;
+        generation++;
+        if (newActions == actions && newBytes == bytes && newConcurrency == concurrency) {
+            return;
+        }
+        actions = newActions;
+        bytes = newBytes;
+        concurrency = newConcurrency;
+        if (rejected) {
+            logger.info("Elasticsearch rejected a bulk. Bulks are now limited to {} actions, {} bytes and {} " +
+                    "concurrent requests", actions, bytes, concurrency);
+        } else {
+            logger.info("Bulk executed in [{}] ms, more than [{}] ms. Bulks are now limited to {} actions, {} bytes " +
+                    "and {} concurrent requests", tookMillis, targetLatencyMillis, actions, bytes, concurrency);
+        }
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * @return current maximum number of actions per bulk
+     */
+    public int getActions() {
+        return actions;
+    }
+
+    /**
+     * @return current maximum estimated size of a bulk
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return current maximum number of bulks executed at the same time. 0 when bulks are executed in a
+     * blocking fashion.
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+}
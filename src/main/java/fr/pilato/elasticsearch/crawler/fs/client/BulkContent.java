@@ -0,0 +1,99 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.client;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.api.client.http.AbstractHttpContent;
+import fr.pilato.elasticsearch.crawler.fs.meta.MetaParser;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a bulk request body (new line delimited json) directly to the HTTP output stream
+ * so we never have to build the whole body in memory.
+ */
+class BulkContent extends AbstractHttpContent {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    // We don't want to flush the stream after each action line
+    private static final ObjectWriter HEADER_WRITER =
+            MetaParser.mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    private final BulkRequest bulkRequest;
+
+    BulkContent(BulkRequest bulkRequest) {
+        super("application/json");
+        this.bulkRequest = bulkRequest;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        try (JsonGenerator generator = MetaParser.mapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            // We are writing the new lines ourselves and we let the caller close the stream
+            generator.setRootValueSeparator(null);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+            char[] buffer = new char[CHUNK_SIZE];
+            for (SingleBulkRequest request : bulkRequest.getRequests()) {
+                generator.writeStartObject();
+                generator.writeFieldName(request instanceof DeleteRequest ? "delete" : "index");
+                HEADER_WRITER.writeValue(generator, request);
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+                if (request instanceof IndexRequest) {
+                    // Index Request: header line + body
+                    writeSource(generator, ((IndexRequest) request).content(), buffer);
+                    generator.writeRaw('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Write a json source on a single line. New lines are removed.
+     */
+    private static void writeSource(JsonGenerator generator, String source, char[] buffer) throws IOException {
+        int length = 0;
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c == '\n' || c == '\r') {
+                continue;
+            }
+            buffer[length++] = c;
+            if (length == buffer.length) {
+                generator.writeRaw(buffer, 0, length);
+                length = 0;
+            }
+        }
+        if (length > 0) {
+            generator.writeRaw(buffer, 0, length);
+        }
+    }
+
+    @Override
+    public boolean retrySupported() {
+        return true;
+    }
+}
@@ -19,35 +19,109 @@
 
 package fr.pilato.elasticsearch.crawler.fs.client;
 
+import com.google.api.client.http.HttpResponseException;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.TimeValue;
+import fr.pilato.elasticsearch.crawler.fs.metrics.CrawlerMetrics;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Bulk processor
+ * Bulk processor.
+ *
+ * A bulk is executed when it contains bulkActions requests, when its estimated size reaches bulkSize
+ * bytes or every flushInterval.
+ *
+ * When concurrentRequests is 0, bulks are executed in a blocking fashion by the thread which
+ * adds the request that fills the bulk. Otherwise up to concurrentRequests bulks are executed
+ * in the background while new requests are added. When all the slots are in use, adding a new
+ * request which needs a bulk to be executed blocks until a running bulk is done.
+ *
+ * With a {@link BulkSpool}, bulks which fail because elasticsearch is not available, and actions which are
+ * rejected because elasticsearch is overloaded, are written to the spool and sent again by a background thread,
+ * waiting longer after each failure. While the spool is not empty, new bulks are also written to the spool so
+ * actions are always sent in order. The results of the concurrent bulks are handled in the order the bulks have
+ * been created: when a bulk is spooled, the bulks created after it which were already running are spooled after
+ * it, even if they succeeded, so the most recent action on a document is always the last one to be executed.
+ * Adding a request blocks while the spool is full.
+ *
+ * With an {@link AdaptiveBulkController}, bulkActions, bulkSize and concurrentRequests are only the initial
+ * limits. The controller changes them after each bulk depending on its latency and on the rejections.
  */
 public class BulkProcessor {
 
     private static final Logger logger = LogManager.getLogger(BulkProcessor.class);
 
+    static final long INITIAL_BACKOFF_MILLIS = 1000;
+    static final long MAX_BACKOFF_MILLIS = TimeValue.timeValueMinutes(5).millis();
+    /**
+     * How often we look for new bulks in an empty spool
+     */
+    private static final long SPOOL_CHECK_MILLIS = 1000;
+
     private final int bulkActions;
+    private final long bulkSize;
+    private final int concurrentRequests;
     private final ElasticsearchClient client;
     private final Listener listener;
+    private final CrawlerMetrics metrics;
+    private final BulkSpool spool;
+    private final AdaptiveBulkController adaptive;
+    private final ScheduledExecutorService replayer;
+    private long backoffMillis;
     private BulkRequest bulkRequest;
     private final ScheduledExecutorService executor;
+    private final ExecutorService bulkExecutor;
+    private final Object slots = new Object();
+    private int running;
     private volatile boolean closed = false;
     private final AtomicLong executionIdGen = new AtomicLong();
-
-    private BulkProcessor(ElasticsearchClient client, Listener listener, int bulkActions, TimeValue flushInterval) {
+    private final AtomicLong lostBulks = new AtomicLong();
+    private final AtomicLong spooledBulks = new AtomicLong();
+    private final Object turns = new Object();
+    private long lastHandled;
+
+    private BulkProcessor(ElasticsearchClient client, Listener listener, int bulkActions, long bulkSize,
+                          TimeValue flushInterval, int concurrentRequests, CrawlerMetrics metrics, BulkSpool spool,
+                          AdaptiveBulkController adaptive) {
         this.bulkActions = bulkActions;
+        this.bulkSize = bulkSize;
+        this.concurrentRequests = Math.max(concurrentRequests, 0);
         this.bulkRequest = new BulkRequest();
         this.client = client;
         this.listener = listener;
+        this.metrics = metrics;
+        this.spool = spool;
+        this.adaptive = adaptive;
+        if (adaptive != null) {
+            adaptive.start(bulkActions, bulkSize, this.concurrentRequests);
+        }
+
+        if (spool != null) {
+            replayer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "fscrawler-spool-replayer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            replayer.execute(this::replay);
+        } else {
+            replayer = null;
+        }
+
+        if (this.concurrentRequests > 0) {
+            bulkExecutor = Executors.newFixedThreadPool(adaptive != null ? adaptive.getMaxConcurrency() :
+                    this.concurrentRequests);
+        } else {
+            bulkExecutor = null;
+        }
 
         if (flushInterval != null) {
             executor = Executors.newScheduledThreadPool(1);
@@ -57,7 +131,11 @@ public class BulkProcessor {
         }
     }
 
-    public void close() {
+    /**
+     * Closes the processor. Pending requests are flushed and we wait for all the running bulks to be executed.
+     * Bulks which are still in the spool will be sent by the next processor using the same spool.
+     */
+    public synchronized void close() {
         if (closed) {
             return;
         }
@@ -70,6 +148,83 @@ public class BulkProcessor {
         if (bulkRequest.numberOfActions() > 0) {
             execute();
         }
+
+        if (bulkExecutor != null) {
+            // We wait for all the running bulks
+            awaitRunningBulks();
+            bulkExecutor.shutdown();
+        }
+
+        if (replayer != null) {
+            replayer.shutdownNow();
+            try {
+                // We let the running replay finish so the spool reflects what has been sent
+                replayer.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Send the pending actions and wait until all the running bulks have been executed. When this method
+     * returns, every action added before has been acknowledged by elasticsearch, written to the spool or
+     * counted in {@link #lostBulks()}.
+     */
+    public void flush() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            if (bulkRequest.numberOfActions() > 0) {
+                execute();
+            }
+        }
+        awaitRunningBulks();
+    }
+
+    private void awaitRunningBulks() {
+        boolean interrupted = false;
+        synchronized (slots) {
+            while (running > 0) {
+                try {
+                    slots.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Wait for a free slot to execute a bulk in the background
+     */
+    private void acquireSlot() throws InterruptedException {
+        synchronized (slots) {
+            while (running >= getConcurrentRequests()) {
+                slots.wait();
+            }
+            running++;
+        }
+    }
+
+    private void releaseSlot() {
+        synchronized (slots) {
+            running--;
+            slots.notifyAll();
+        }
+    }
+
+    /**
+     * @return the number of bulks, or parts of bulks, which have not been indexed and will not be sent again
+     * because of an error which might not happen next time (elasticsearch unavailable or overloaded without
+     * a spool). Actions refused by elasticsearch, like documents which do not match the mapping, are not counted.
+     */
+    public long lostBulks() {
+        return lostBulks.get();
     }
 
     /**
@@ -91,9 +246,32 @@ public class BulkProcessor {
      * Adds either a delete or an index request.
      */
     private BulkProcessor add(SingleBulkRequest request) {
+        awaitSpool();
         return internalAdd(request);
     }
 
+    /**
+     * Slow down the caller while the spool is full
+     */
+    private void awaitSpool() {
+        if (spool == null) {
+            return;
+        }
+        boolean warned = false;
+        while (!closed && spool.isFull()) {
+            if (!warned) {
+                logger.warn("Spool [{}] is full. Waiting for elasticsearch to index spooled documents.", spool.getDir());
+                warned = true;
+            }
+            try {
+                spool.awaitNotFull(SPOOL_CHECK_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
     private void ensureOpen() {
         if (closed) {
             throw new IllegalStateException("bulk process already closed");
@@ -114,7 +292,7 @@ public class BulkProcessor {
         }
     }
 
-    private void executeWhenNeeded() {
+    private synchronized void executeWhenNeeded() {
         ensureOpen();
         if (bulkRequest.numberOfActions() > 0) {
             execute();
@@ -122,34 +300,365 @@ public class BulkProcessor {
     }
 
     private void execute() {
+        // The adaptive limits may change while the bulk waits for a slot so we check them now
+        final boolean full = isOverTheLimit();
+        final long generation = adaptive != null ? adaptive.generation() : 0;
         final BulkRequest bulkRequest = this.bulkRequest;
         this.bulkRequest = new BulkRequest();
         final long executionId = executionIdGen.incrementAndGet();
+        final long spooled = spooledBulks.get();
+
+        if (spool != null && !spool.isEmpty()) {
+            // Older actions are waiting in the spool. We send this bulk after them.
+            logger.debug("Spooling bulk composed of {} actions", bulkRequest.numberOfActions());
+            awaitTurn(executionId);
+            try {
+                toSpool(bulkRequest);
+            } finally {
+                endTurn(executionId);
+            }
+            return;
+        }
+
+        if (bulkExecutor == null) {
+            executeBlocking(executionId, bulkRequest, generation, full, spooled);
+        } else {
+            executeAsync(executionId, bulkRequest, generation, full, spooled);
+        }
+    }
 
-        // execute in a blocking fashion...
+    private void executeBlocking(long executionId, BulkRequest bulkRequest, long generation, boolean full,
+                                 long spooled) {
         boolean afterCalled = false;
+        boolean sent = false;
         try {
             listener.beforeBulk(executionId, bulkRequest);
-            BulkResponse bulkItemResponses = client.bulk(bulkRequest);
+            sent = true;
+            BulkResponse bulkItemResponses = send(executionId, bulkRequest, generation, full, spooled);
             afterCalled = true;
             listener.afterBulk(executionId, bulkRequest, bulkItemResponses);
         } catch (Exception e) {
+            if (!sent) {
+                skipTurn(executionId);
+            }
             if (!afterCalled) {
                 listener.afterBulk(executionId, bulkRequest, e);
             }
         }
     }
 
+    private void executeAsync(long executionId, BulkRequest bulkRequest, long generation, boolean full,
+                              long spooled) {
+        boolean bulkRequestSetupSuccessful = false;
+        boolean acquired = false;
+        try {
+            listener.beforeBulk(executionId, bulkRequest);
+            // We wait for a free slot
+            acquireSlot();
+            acquired = true;
+            bulkExecutor.execute(() -> {
+                try {
+                    BulkResponse bulkItemResponses = send(executionId, bulkRequest, generation, full, spooled);
+                    listener.afterBulk(executionId, bulkRequest, bulkItemResponses);
+                } catch (Exception e) {
+                    listener.afterBulk(executionId, bulkRequest, e);
+                } finally {
+                    releaseSlot();
+                }
+            });
+            bulkRequestSetupSuccessful = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            lostBulks.incrementAndGet();
+            skipTurn(executionId);
+            listener.afterBulk(executionId, bulkRequest, e);
+        } catch (Exception e) {
+            lostBulks.incrementAndGet();
+            skipTurn(executionId);
+            listener.afterBulk(executionId, bulkRequest, e);
+        } finally {
+            if (!bulkRequestSetupSuccessful && acquired) {
+                // if we fail on client.bulk() release the slot
+                releaseSlot();
+            }
+        }
+    }
+
+    /**
+     * Send a bulk and spool what needs to be sent again
+     * @param executionId id of the bulk, which gives the order the bulks have been created
+     * @param generation generation of the adaptive limits when the bulk was cut
+     * @param full true if the bulk was cut because it reached the limits
+     * @param spooled number of bulks spooled when the bulk was cut
+     */
+    private BulkResponse send(long executionId, BulkRequest bulkRequest, long generation, boolean full, long spooled)
+            throws Exception {
+        long start = System.nanoTime();
+        BulkResponse response;
+        try {
+            response = bulk(bulkRequest);
+        } catch (Exception e) {
+            if (adaptive != null && isRetryable(e)) {
+                adaptive.onBulk(generation, full, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), true);
+            }
+            awaitTurn(executionId);
+            try {
+                if (spool != null && isRetryable(e)) {
+                    toSpool(bulkRequest);
+                } else if (isRetryable(e)) {
+                    lostBulks.incrementAndGet();
+                }
+            } finally {
+                endTurn(executionId);
+            }
+            throw e;
+        }
+        BulkRequest retry = retryableActions(bulkRequest, response);
+        if (adaptive != null) {
+            adaptive.onBulk(generation, full, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                    retry.numberOfActions() > 0);
+        }
+        awaitTurn(executionId);
+        try {
+            if (spool != null && spooledBulks.get() != spooled) {
+                // An older bulk has been spooled while this one was running. It will be executed again
+                // after this one so we send this one again after it.
+                logger.debug("Spooling bulk composed of {} actions after an older failed bulk",
+                        bulkRequest.numberOfActions());
+                toSpool(bulkRequest);
+            } else if (retry.numberOfActions() > 0) {
+                if (spool != null) {
+                    toSpool(retry);
+                } else {
+                    lostBulks.incrementAndGet();
+                }
+            }
+        } finally {
+            endTurn(executionId);
+        }
+        return response;
+    }
+
+    /**
+     * Wait until the results of all the bulks created before this one have been handled
+     */
+    private void awaitTurn(long executionId) {
+        boolean interrupted = false;
+        synchronized (turns) {
+            while (lastHandled < executionId - 1) {
+                try {
+                    turns.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void endTurn(long executionId) {
+        synchronized (turns) {
+            lastHandled = executionId;
+            turns.notifyAll();
+        }
+    }
+
+    private void skipTurn(long executionId) {
+        awaitTurn(executionId);
+        endTurn(executionId);
+    }
+
+    private void toSpool(BulkRequest bulkRequest) {
+        try {
+            spool.write(bulkRequest);
+            spooledBulks.incrementAndGet();
+        } catch (IOException e) {
+            lostBulks.incrementAndGet();
+            logger.error("Failed to write [{}] actions to spool [{}]. They won't be sent: {}",
+                    bulkRequest.numberOfActions(), spool.getDir(), e.getMessage());
+            logger.debug("", e);
+        }
+    }
+
+    /**
+     * @return true if the bulk may succeed later. Requests refused by elasticsearch are not sent again,
+     * unless elasticsearch is overloaded or unavailable.
+     */
+    private static boolean isRetryable(Exception e) {
+        if (e instanceof HttpResponseException) {
+            int status = ((HttpResponseException) e).getStatusCode();
+            return status == 429 || status >= 500;
+        }
+        return e instanceof IOException;
+    }
+
+    /**
+     * @return actions of a bulk which failed and may succeed later
+     */
+    private static BulkRequest retryableActions(BulkRequest bulkRequest, BulkResponse response) {
+        BulkRequest retry = new BulkRequest();
+        BulkResponse.BulkItemResponse[] items = response.getItems();
+        List<SingleBulkRequest> requests = bulkRequest.getRequests();
+        // Items are in the same order as the requests
+        for (int i = 0; i < items.length && i < requests.size(); i++) {
+            if (items[i].isRetryable()) {
+                retry.add(requests.get(i));
+            }
+        }
+        return retry;
+    }
+
+    /**
+     * Send the oldest bulk of the spool. Runs in the replayer thread and schedules its next run.
+     */
+    private void replay() {
+        long delay = SPOOL_CHECK_MILLIS;
+        Long segment = spool.oldest();
+        if (segment != null) {
+            try {
+                delay = replaySegment(segment);
+            } catch (Exception e) {
+                logger.warn("Failed to send spooled bulk [{}]: {}", segment, e.getMessage());
+                logger.debug("", e);
+                delay = backoff();
+            }
+        }
+        if (!replayer.isShutdown()) {
+            try {
+                replayer.schedule(this::replay, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // We are closing
+            }
+        }
+    }
+
+    /**
+     * @return how long to wait before the next replay
+     */
+    private long replaySegment(long segment) throws IOException {
+        BulkRequest bulkRequest;
+        try {
+            bulkRequest = spool.read(segment);
+        } catch (IOException e) {
+            logger.error("Can not read spooled bulk [{}]. Moving it aside: {}", segment, e.getMessage());
+            spool.discard(segment);
+            return 0;
+        }
+
+        BulkResponse response;
+        try {
+            response = bulk(bulkRequest);
+        } catch (Exception e) {
+            if (isRetryable(e)) {
+                long delay = backoff();
+                logger.debug("Failed to send spooled bulk [{}]. Trying again in [{}] ms: {}", segment, delay,
+                        e.getMessage());
+                return delay;
+            }
+            logger.error("Elasticsearch refused spooled bulk [{}] composed of {} actions. Removing it: {}",
+                    segment, bulkRequest.numberOfActions(), e.getMessage());
+            spool.remove(segment);
+            return 0;
+        }
+
+        if (response.hasFailures()) {
+            logger.warn("There was failures while executing spooled bulk [{}]: {}", segment, response.buildFailureMessage());
+        }
+        BulkRequest retry = retryableActions(bulkRequest, response);
+        if (retry.numberOfActions() > 0) {
+            // We keep the segment so the remaining actions are still sent before the newer ones
+            spool.replace(segment, retry);
+            return backoff();
+        }
+        spool.remove(segment);
+        logger.debug("Spooled bulk [{}] composed of {} actions has been sent", segment, bulkRequest.numberOfActions());
+        backoffMillis = 0;
+        return 0;
+    }
+
+    /**
+     * @return the next delay before sending a spooled bulk again. It doubles after each failure.
+     */
+    private long backoff() {
+        backoffMillis = backoffMillis == 0 ? INITIAL_BACKOFF_MILLIS : Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+        return backoffMillis;
+    }
+
+    private BulkResponse bulk(BulkRequest bulkRequest) throws Exception {
+        if (metrics == null) {
+            return client.bulk(bulkRequest);
+        }
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            BulkResponse response = client.bulk(bulkRequest);
+            failed = response.hasFailures();
+            return response;
+        } finally {
+            metrics.bulk(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), bulkRequest.estimatedSizeInBytes(),
+                    failed);
+        }
+    }
+
+    /**
+     * @return the number of actions waiting for the next bulk
+     */
+    public int pendingActions() {
+        return bulkRequest.numberOfActions();
+    }
+
+    /**
+     * @return the number of bulks being executed in the background
+     */
+    public int runningBulks() {
+        synchronized (slots) {
+            return running;
+        }
+    }
+
+    /**
+     * @return the current maximum number of actions of a bulk. -1 if there is no limit.
+     */
+    public int getBulkActions() {
+        return adaptive != null ? adaptive.getActions() : bulkActions;
+    }
+
+    /**
+     * @return the current maximum estimated size of a bulk. 0 or less if there is no limit.
+     */
+    public long getBulkSize() {
+        return adaptive != null ? adaptive.getBytes() : bulkSize;
+    }
+
+    /**
+     * @return the current number of bulks which can be executed in the background
+     */
+    public int getConcurrentRequests() {
+        return adaptive != null ? adaptive.getConcurrency() : concurrentRequests;
+    }
+
     private boolean isOverTheLimit() {
-        return (bulkActions != -1) && (bulkRequest.numberOfActions() >= bulkActions);
+        int bulkActions = getBulkActions();
+        if ((bulkActions != -1) && (bulkRequest.numberOfActions() >= bulkActions)) {
+            return true;
+        }
+        long bulkSize = getBulkSize();
+        return (bulkSize > 0) && (bulkRequest.estimatedSizeInBytes() >= bulkSize);
     }
 
-    static class Builder {
+    public static class Builder {
 
         private int bulkActions;
+        private long bulkSize = -1;
         private TimeValue flushInterval;
+        private int concurrentRequests;
         private final ElasticsearchClient client;
         private final Listener listener;
+        private CrawlerMetrics metrics;
+        private BulkSpool spool;
+        private AdaptiveBulkController adaptive;
 
         public Builder(ElasticsearchClient client, Listener listener) {
             this.client = client;
@@ -166,8 +675,34 @@ public class BulkProcessor {
             return this;
         }
 
+        public Builder setBulkSize(long bulkSize) {
+            this.bulkSize = bulkSize;
+            return this;
+        }
+
+        public Builder setConcurrentRequests(int concurrentRequests) {
+            this.concurrentRequests = concurrentRequests;
+            return this;
+        }
+
+        public Builder setMetrics(CrawlerMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public Builder setSpool(BulkSpool spool) {
+            this.spool = spool;
+            return this;
+        }
+
+        public Builder setAdaptive(AdaptiveBulkController adaptive) {
+            this.adaptive = adaptive;
+            return this;
+        }
+
         public BulkProcessor build() {
-            return new BulkProcessor(client, listener, bulkActions, flushInterval);
+            return new BulkProcessor(client, listener, bulkActions, bulkSize, flushInterval, concurrentRequests,
+                    metrics, spool, adaptive);
         }
     }
 
@@ -175,6 +710,15 @@ public class BulkProcessor {
         return new Builder(client, listener);
     }
 
+    /**
+     * Build a bulk processor which logs the bulks and their failures
+     * @param client elasticsearch client
+     * @return the builder
+     */
+    public static Builder builder(ElasticsearchClient client) {
+        return new Builder(client, new LoggingListener());
+    }
+
     public interface Listener {
 
         void beforeBulk(long executionId, BulkRequest request);
@@ -184,42 +728,47 @@ public class BulkProcessor {
         void afterBulk(long executionId, BulkRequest request, Throwable failure);
     }
     /**
-     * Build an simple elasticsearch bulk processor
+     * Build an simple elasticsearch bulk processor which executes bulks in a blocking fashion
      * @param client elasticsearch client
      * @param bulkSize bulk size
      * @param flushInterval flush interval in milliseconds
      * @return a bulk processor
      */
     public static BulkProcessor simpleBulkProcessor(ElasticsearchClient client, int bulkSize, TimeValue flushInterval) {
-        return builder(client, new Listener() {
-            @Override
-            public void beforeBulk(long executionId, BulkRequest request) {
-                logger.debug("Going to execute new bulk composed of {} actions", request.numberOfActions());
-            }
-
-            @Override
-            public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
-                logger.debug("Executed bulk composed of {} actions", request.numberOfActions());
-                if (response.hasFailures()) {
-                    logger.warn("There was failures while executing bulk", response.buildFailureMessage());
-                    if (logger.isDebugEnabled()) {
-                        for (BulkResponse.BulkItemResponse item : response.getItems()) {
-                            if (item.isFailed()) {
-                                logger.debug("Error for {}/{}/{} for {} operation: {}", item.getIndex(),
-                                        item.getType(), item.getId(), item.getOpType(), item.getFailureMessage());
-                            }
+        return builder(client)
+                .setBulkActions(bulkSize)
+                .setFlushInterval(flushInterval)
+                .build();
+    }
+
+    /**
+     * Logs the bulks and their failures
+     */
+    private static class LoggingListener implements Listener {
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            logger.debug("Going to execute new bulk composed of {} actions", request.numberOfActions());
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            logger.debug("Executed bulk composed of {} actions", request.numberOfActions());
+            if (response.hasFailures()) {
+                logger.warn("There was failures while executing bulk", response.buildFailureMessage());
+                if (logger.isDebugEnabled()) {
+                    for (BulkResponse.BulkItemResponse item : response.getItems()) {
+                        if (item.isFailed()) {
+                            logger.debug("Error for {}/{}/{} for {} operation: {}", item.getIndex(),
+                                    item.getType(), item.getId(), item.getOpType(), item.getFailureMessage());
                         }
                     }
                 }
             }
+        }
 
-            @Override
-            public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
-                logger.warn("Error executing bulk", failure);
-            }
-        })
-                .setBulkActions(bulkSize)
-                .setFlushInterval(flushInterval)
-                .build();
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            logger.warn("Error executing bulk", failure);
+        }
     }
 }
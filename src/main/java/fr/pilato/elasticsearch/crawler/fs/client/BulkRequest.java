@@ -25,14 +25,31 @@ import java.util.List;
 
 public class BulkRequest {
 
+    /**
+     * Estimated size of the action line for each request
+     */
+    private static final int REQUEST_OVERHEAD = 50;
+
     private final List<SingleBulkRequest> requests = Lists.newArrayList();
+    private long estimatedSizeInBytes;
 
     public int numberOfActions() {
         return requests.size();
     }
 
+    /**
+     * @return the estimated size of the bulk body in bytes
+     */
+    public long estimatedSizeInBytes() {
+        return estimatedSizeInBytes;
+    }
+
     public void add(SingleBulkRequest request) {
         requests.add(request);
+        estimatedSizeInBytes += REQUEST_OVERHEAD;
+        if (request instanceof IndexRequest && ((IndexRequest) request).content() != null) {
+            estimatedSizeInBytes += ((IndexRequest) request).content().length();
+        }
     }
 
     public List<SingleBulkRequest> getRequests() {
@@ -19,10 +19,16 @@
 
 package fr.pilato.elasticsearch.crawler.fs.client;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import fr.pilato.elasticsearch.crawler.fs.meta.MetaParser;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
 
 public class BulkResponse {
 
@@ -30,6 +36,53 @@ public class BulkResponse {
 
     private BulkItemResponse[] items;
 
+    public BulkResponse() {
+        items = new BulkItemResponse[0];
+    }
+
+    BulkResponse(BulkItemResponse[] items) {
+        this.items = items;
+    }
+
+    /**
+     * Read a bulk response. Items are in the same order as the requests of the bulk.
+     * @param content the response sent by elasticsearch
+     * @return the bulk response
+     * @throws IOException in case of error
+     */
+    static BulkResponse parse(InputStream content) throws IOException {
+        JsonNode json = MetaParser.mapper.readTree(content);
+        JsonNode items = json.path("items");
+        BulkItemResponse[] responses = new BulkItemResponse[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            // Each item looks like {"index":{"_index":"docs","_type":"doc","_id":"1","status":201}}
+            Iterator<Map.Entry<String, JsonNode>> fields = items.get(i).fields();
+            BulkItemResponse response = new BulkItemResponse();
+            if (fields.hasNext()) {
+                Map.Entry<String, JsonNode> action = fields.next();
+                JsonNode item = action.getValue();
+                response.setOpType(action.getKey());
+                response.setIndex(text(item, "_index"));
+                response.setType(text(item, "_type"));
+                response.setId(text(item, "_id"));
+                response.setStatus(item.path("status").asInt());
+                // Deleting a missing document is not an error even if its status is 404
+                JsonNode error = item.get("error");
+                if (error != null && !error.isNull()) {
+                    response.setFailed(true);
+                    response.setFailureMessage(error.isObject() ?
+                            error.path("type").asText() + ": " + error.path("reason").asText() : error.asText());
+                }
+            }
+            responses[i] = response;
+        }
+        return new BulkResponse(responses);
+    }
+
+    private static String text(JsonNode node, String field) {
+        return node.hasNonNull(field) ? node.get(field).asText() : null;
+    }
+
     public boolean hasFailures() {
         for (BulkItemResponse item : items) {
             if (item.failed) {
@@ -69,6 +122,7 @@ public class BulkResponse {
         private String id;
         private String opType;
         private String failureMessage;
+        private int status;
 
         public boolean isFailed() {
             return failed;
@@ -94,6 +148,21 @@ public class BulkResponse {
             return failureMessage;
         }
 
+        /**
+         * @return the HTTP status of this action
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return true if the action failed and may succeed if we send it again later, like when
+         * elasticsearch rejects it because it is overloaded
+         */
+        public boolean isRetryable() {
+            return failed && (status == 429 || status >= 500);
+        }
+
         public void setFailed(boolean failed) {
             this.failed = failed;
         }
@@ -118,6 +187,10 @@ public class BulkResponse {
             this.failureMessage = failureMessage;
         }
 
+        public void setStatus(int status) {
+            this.status = status;
+        }
+
         @Override
         public String toString() {
             final StringBuilder sb = new StringBuilder("BulkItemResponse{");
@@ -126,6 +199,7 @@ public class BulkResponse {
             sb.append(", type='").append(type).append('\'');
             sb.append(", id='").append(id).append('\'');
             sb.append(", opType=").append(opType);
+            sb.append(", status=").append(status);
             sb.append(", failureMessage='").append(failureMessage).append('\'');
             sb.append('}');
             return sb.toString();
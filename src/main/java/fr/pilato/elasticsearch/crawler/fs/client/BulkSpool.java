@@ -0,0 +1,275 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.client;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import fr.pilato.elasticsearch.crawler.fs.meta.MetaParser;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Durable queue of the bulks which could not be sent to elasticsearch.
+ *
+ * Each bulk is a segment file in the spool directory, ~/.fscrawler/{job_name}_spool, which contains the bulk
+ * body as it is sent to elasticsearch (new line delimited json). Segments are written to a temporary file,
+ * synced to disk and renamed, so a segment is either complete or missing. They are named after an increasing
+ * sequence number and read back in the same order they have been written. It is up to the caller to write
+ * the bulks in the order they must be executed.
+ *
+ * The size of the spool is capped. A full spool still accepts new bulks: it is up to the caller to stop
+ * adding documents until {@link #isFull()} is false again.
+ */
+public class BulkSpool {
+
+    private static final Logger logger = LogManager.getLogger(BulkSpool.class);
+
+    public static final String DIR_SUFFIX = "_spool";
+
+    private static final String EXTENSION = ".ndjson";
+    private static final String TMP_EXTENSION = ".tmp";
+    private static final String CORRUPTED_EXTENSION = ".corrupted";
+
+    private final Path dir;
+    private final long maxSizeInBytes;
+    // Sequence number -> size in bytes
+    private final ConcurrentSkipListMap<Long, Long> segments = new ConcurrentSkipListMap<>();
+    private final AtomicLong sizeInBytes = new AtomicLong();
+    private long nextSequence;
+
+    /**
+     * Open a spool. Segments left by a previous run are kept and will be read first.
+     * @param dir spool directory. Created if needed.
+     * @param maxSizeInBytes size from which the spool is considered as full
+     * @throws IOException in case of error
+     */
+    public BulkSpool(Path dir, long maxSizeInBytes) throws IOException {
+        this.dir = dir;
+        this.maxSizeInBytes = maxSizeInBytes;
+        Files.createDirectories(dir);
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                String filename = file.getFileName().toString();
+                if (filename.endsWith(TMP_EXTENSION)) {
+                    // We stopped while writing this segment. The bulk has been lost with the process.
+                    Files.delete(file);
+                } else if (filename.endsWith(EXTENSION)) {
+                    try {
+                        long sequence = Long.parseLong(filename.substring(0, filename.length() - EXTENSION.length()));
+                        long size = Files.size(file);
+                        segments.put(sequence, size);
+                        sizeInBytes.addAndGet(size);
+                        nextSequence = Math.max(nextSequence, sequence + 1);
+                    } catch (NumberFormatException e) {
+                        logger.debug("ignoring [{}] in spool [{}]", filename, dir);
+                    }
+                }
+            }
+        }
+        if (!segments.isEmpty()) {
+            logger.info("[{}] bulks waiting to be sent to elasticsearch found in [{}]", segments.size(), dir);
+        }
+    }
+
+    private Path segment(long sequence) {
+        // Zero padded so files are listed in order
+        return dir.resolve(String.format("%020d", sequence) + EXTENSION);
+    }
+
+    /**
+     * Add a bulk at the end of the spool
+     * @param request the bulk
+     * @throws IOException in case of error
+     */
+    public synchronized void write(BulkRequest request) throws IOException {
+        long sequence = nextSequence++;
+        long size = writeSegment(sequence, request);
+        segments.put(sequence, size);
+        sizeInBytes.addAndGet(size);
+        logger.debug("[{}] actions written to spool segment [{}]", request.numberOfActions(), sequence);
+    }
+
+    /**
+     * Replace the content of a segment, when only some of its actions have to be sent again
+     * @param sequence the segment
+     * @param request actions which have to be kept
+     * @throws IOException in case of error
+     */
+    public synchronized void replace(long sequence, BulkRequest request) throws IOException {
+        Long previous = segments.get(sequence);
+        if (previous == null) {
+            throw new IOException("unknown spool segment [" + sequence + "]");
+        }
+        long size = writeSegment(sequence, request);
+        segments.put(sequence, size);
+        sizeInBytes.addAndGet(size - previous);
+        notifyAll();
+    }
+
+    private long writeSegment(long sequence, BulkRequest request) throws IOException {
+        Path target = segment(sequence);
+        Path tmp = target.resolveSibling(target.getFileName() + TMP_EXTENSION);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+            new BulkContent(request).writeTo(out);
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Files.size(target);
+    }
+
+    /**
+     * @return the sequence number of the oldest segment or null if the spool is empty
+     */
+    public Long oldest() {
+        Map.Entry<Long, Long> first = segments.firstEntry();
+        return first != null ? first.getKey() : null;
+    }
+
+    /**
+     * Read a segment
+     * @param sequence the segment
+     * @return the bulk stored in the segment
+     * @throws IOException in case of error, including when the segment is malformed
+     */
+    public BulkRequest read(long sequence) throws IOException {
+        BulkRequest request = new BulkRequest();
+        try (BufferedReader reader = Files.newBufferedReader(segment(sequence), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                // {"index":{"_index":"docs","_type":"doc","_id":"1"}} followed by the source, or {"delete":{...}}
+                JsonNode header = MetaParser.mapper.readTree(line);
+                if (header == null || !header.isObject() || header.size() != 1) {
+                    throw new IOException("malformed action [" + line + "]");
+                }
+                Map.Entry<String, JsonNode> action = header.fields().next();
+                String index = text(action.getValue(), "_index");
+                String type = text(action.getValue(), "_type");
+                String id = text(action.getValue(), "_id");
+                if ("delete".equals(action.getKey())) {
+                    request.add(new DeleteRequest(index, type, id));
+                } else if ("index".equals(action.getKey())) {
+                    String source = reader.readLine();
+                    if (source == null) {
+                        throw new IOException("missing source for [" + index + "/" + type + "/" + id + "]");
+                    }
+                    request.add(new IndexRequest(index, type, id).source(source));
+                } else {
+                    throw new IOException("unknown action [" + action.getKey() + "]");
+                }
+            }
+        }
+        return request;
+    }
+
+    private static String text(JsonNode node, String field) {
+        return node.hasNonNull(field) ? node.get(field).asText() : null;
+    }
+
+    /**
+     * Remove a segment which has been sent
+     * @param sequence the segment
+     * @throws IOException in case of error
+     */
+    public synchronized void remove(long sequence) throws IOException {
+        Long size = segments.remove(sequence);
+        Files.deleteIfExists(segment(sequence));
+        if (size != null) {
+            sizeInBytes.addAndGet(-size);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Move aside a segment we can not read, so we can look at it later
+     * @param sequence the segment
+     * @throws IOException in case of error
+     */
+    public synchronized void discard(long sequence) throws IOException {
+        Path segment = segment(sequence);
+        Files.move(segment, segment.resolveSibling(segment.getFileName() + CORRUPTED_EXTENSION),
+                StandardCopyOption.REPLACE_EXISTING);
+        Long size = segments.remove(sequence);
+        if (size != null) {
+            sizeInBytes.addAndGet(-size);
+        }
+        notifyAll();
+    }
+
+    public boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    public boolean isFull() {
+        return sizeInBytes.get() >= maxSizeInBytes;
+    }
+
+    /**
+     * Wait until some room is available in the spool
+     * @param millis maximum time to wait
+     * @return true if the spool is not full anymore
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized boolean awaitNotFull(long millis) throws InterruptedException {
+        if (isFull()) {
+            wait(millis);
+        }
+        return !isFull();
+    }
+
+    /**
+     * @return the size of all the segments in bytes
+     */
+    public long sizeInBytes() {
+        return sizeInBytes.get();
+    }
+
+    /**
+     * @return the number of bulks waiting in the spool
+     */
+    public int segments() {
+        return segments.size();
+    }
+
+    public Path getDir() {
+        return dir;
+    }
+}
@@ -21,6 +21,7 @@ package fr.pilato.elasticsearch.crawler.fs.client;
 
 
 import com.google.api.client.http.*;
+import com.google.api.client.http.apache.ApacheHttpTransport;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.http.json.JsonHttpContent;
 import com.google.api.client.json.GenericJson;
@@ -28,18 +29,33 @@ import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.JsonObjectParser;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.client.util.Key;
-import fr.pilato.elasticsearch.crawler.fs.meta.MetaParser;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.Elasticsearch.Node;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.TimeValue;
+import fr.pilato.elasticsearch.crawler.fs.metrics.CrawlerMetrics;
 import org.apache.logging.log4j.LogManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.ConnectException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * Simple Elasticsearch client over HTTP.
@@ -47,80 +63,137 @@ import java.util.concurrent.atomic.AtomicInteger;
  */
 public class ElasticsearchClient {
 
+    /**
+     * Transport based on HttpURLConnection, shared by all the clients
+     */
+    public static final String TRANSPORT_NET = "net";
+    /**
+     * Transport based on Apache HttpClient with a pool of keep-alive connections per client
+     */
+    public static final String TRANSPORT_POOLED = "pooled";
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_NODE = 10;
+    public static final TimeValue DEFAULT_TIMEOUT = TimeValue.timeValueSeconds(20);
+    public static final TimeValue DEFAULT_HEALTH_CHECK_INTERVAL = TimeValue.timeValueSeconds(10);
+
     static final HttpTransport HTTP_TRANSPORT = new NetHttpTransport();
     static final JsonFactory JSON_FACTORY = new JacksonFactory();
+    private final HttpTransport httpTransport;
     private final HttpRequestFactory requestFactory;
     private final AtomicInteger counter;
+    private final int compressionLevel;
+    private final CrawlerMetrics metrics;
 
     public static final int NODE_SKIP_BEFORE_RETRY = 10;
 
+    private static final int SCROLL_SIZE = 1000;
+    private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
     private static final Logger logger = LogManager.getLogger(ElasticsearchClient.class);
 
-    private final List<Node> nodes;
+    private final NodeSelector nodeSelector;
+    private final boolean sniff;
+    private final ScheduledExecutorService healthChecker;
 
-    private ElasticsearchClient() {
-        nodes = new ArrayList<>();
+    private ElasticsearchClient(HttpTransport httpTransport, TimeValue connectTimeout, TimeValue socketTimeout,
+                                int compressionLevel, CrawlerMetrics metrics, TimeValue healthCheckInterval,
+                                boolean sniff) {
+        nodeSelector = new NodeSelector(this::isActive);
+        this.sniff = sniff;
 
+        this.httpTransport = httpTransport;
+        this.compressionLevel = compressionLevel;
+        this.metrics = metrics;
         requestFactory =
-                HTTP_TRANSPORT.createRequestFactory(new HttpRequestInitializer() {
+                httpTransport.createRequestFactory(new HttpRequestInitializer() {
                     @Override
                     public void initialize(HttpRequest request) {
                         request.setParser(new JsonObjectParser(JSON_FACTORY));
+                        request.setConnectTimeout((int) connectTimeout.millis());
+                        request.setReadTimeout((int) socketTimeout.millis());
                     }
                 });
 
         counter = new AtomicInteger();
+
+        if (healthCheckInterval != null && healthCheckInterval.millis() > 0) {
+            healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "fscrawler-node-checker");
+                thread.setDaemon(true);
+                return thread;
+            });
+            healthChecker.scheduleWithFixedDelay(this::checkNodes, healthCheckInterval.millis(),
+                    healthCheckInterval.millis(), TimeUnit.MILLISECONDS);
+        } else {
+            healthChecker = null;
+        }
+    }
+
+    /**
+     * Build a transport which keeps connections alive and reuses them across requests.
+     * @param maxConnectionsPerNode maximum number of connections opened to a single node
+     * @param connectTimeout how long we wait for a connection, either a new one or one from the pool
+     */
+    private static HttpTransport pooledTransport(int maxConnectionsPerNode, TimeValue connectTimeout) {
+        HttpParams params = new BasicHttpParams();
+        // Elasticsearch may close idle connections so we check them before reusing them
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+        HttpConnectionParams.setSocketBufferSize(params, 8192);
+        HttpConnectionParams.setTcpNoDelay(params, true);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnectionsPerNode));
+        // Nodes are added after the client is built so we only limit connections per node
+        ConnManagerParams.setMaxTotalConnections(params, Integer.MAX_VALUE);
+        ConnManagerParams.setTimeout(params, connectTimeout.millis());
+
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+        DefaultHttpClient httpClient = new DefaultHttpClient(new ThreadSafeClientConnManager(params, registry), params);
+        httpClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
+        return new ApacheHttpTransport(httpClient);
+    }
+
+    /**
+     * Release the connections kept by the client
+     */
+    public void close() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+        }
+        try {
+            // The shared transport does not keep anything
+            if (httpTransport != HTTP_TRANSPORT) {
+                httpTransport.shutdown();
+            }
+        } catch (IOException e) {
+            logger.warn("failed to close http transport: {}", e.getMessage());
+        }
     }
 
     public Node getNode(int node) {
-        return nodes.get(node);
+        return nodeSelector.nodes().get(node);
     }
 
     public Node findNextNode() throws IOException {
-        Node node = null;
-
         // We have no node! WTF?
-        if (nodes.size() == 0) {
+        if (nodeSelector.nodes().isEmpty()) {
             throw new IOException("no node has been declared. Check your code and call addNode(Node).");
         }
 
-        // If we have only one node, just return it if active!
-        if (nodes.size() == 1) {
-            node = nodes.get(0);
-        } else {
-            AtomicInteger localTries = new AtomicInteger();
-            // Get a random running node from the list
-            int nextNode = nodes.size() > 1 ? new Random().nextInt(nodes.size()) : 0;
-            while (node == null && localTries.incrementAndGet() < 10) {
-                logger.trace("Trying node #{}", nextNode);
-                node = nodes.get(nextNode);
-                if (!node.active()) {
-                    logger.trace("Nonactive node #{}", nextNode);
-                    checkAndSetActive(node);
-
-                    // If the node is still inactive, let's try the next one
-                    if (!node.active()) {
-                        node = null;
-                        nextNode++;
-                        if (nextNode >= nodes.size()) {
-                            nextNode = 0;
-                        }
-                    }
-                }
-            }
-        }
-
-        if (node == null || !node.active()) {
+        Node node = nodeSelector.select();
+        if (node == null) {
             throw new IOException(buildErrorMessage());
         }
 
+        logger.trace("selected node [{}]", node);
         return node;
     }
 
     private String buildErrorMessage() {
         StringBuilder sb = new StringBuilder("no active node found. Start an elasticsearch cluster first! ");
         sb.append("Expecting something running at ");
-        for (Node node : nodes) {
+        for (Node node : nodeSelector.nodes()) {
             sb.append("[").append(node.getHost()).append(":").append(node.getPort()).append("]");
         }
         return sb.toString();
@@ -142,7 +215,7 @@ public class ElasticsearchClient {
     public ElasticsearchClient addNode(Node node) {
         // We first check if the node is responding
         checkAndSetActive(node);
-        nodes.add(node);
+        nodeSelector.add(node);
         return this;
     }
 
@@ -150,6 +223,133 @@ public class ElasticsearchClient {
         createIndex(index, false);
     }
 
+    /**
+     * @return the number of known nodes, declared or discovered
+     */
+    public int countNodes() {
+        return nodeSelector.nodes().size();
+    }
+
+    /**
+     * @return the number of nodes which are considered as active
+     */
+    public int countActiveNodes() {
+        return nodeSelector.countActive();
+    }
+
+    /**
+     * @return the average latency of the requests sent to a node in milliseconds
+     */
+    public double getLatency(Node node) {
+        return nodeSelector.latencyMillis(node);
+    }
+
+    /**
+     * @return the number of requests currently running on a node
+     */
+    public int getInFlight(Node node) {
+        return nodeSelector.inFlight(node);
+    }
+
+    /**
+     * Ask the cluster for its HTTP nodes and add the ones we don't know yet
+     * @return the number of nodes which have been added
+     * @throws IOException in case of error
+     */
+    public int sniff() throws IOException {
+        Node node = findNextNode();
+        logger.debug("sniffing nodes with node [{}]", node);
+        GenericUrl genericUrl = buildUrl(node);
+        genericUrl.appendRawPath("/_nodes/http");
+        GenericJson json;
+        try {
+            json = execute(node, requestFactory.buildGetRequest(genericUrl)).parseAs(GenericJson.class);
+        } catch (HttpResponseException|ConnectException e) {
+            nodeSelector.failed(node);
+            logger.debug("caught exception. disabling node [{}]", node);
+            throw e;
+        }
+
+        int added = 0;
+        for (Object clusterNode : extractFromPath(json, "nodes").values()) {
+            Object http = ((Map) clusterNode).get("http");
+            // Nodes with HTTP disabled have no http section
+            if (!(http instanceof Map) || ((Map) http).get("publish_address") == null) {
+                continue;
+            }
+            Node discovered = parsePublishAddress(((Map) http).get("publish_address").toString());
+            if (discovered != null && nodeSelector.add(discovered)) {
+                checkAndSetActive(discovered);
+                logger.debug("discovered node [{}]", discovered);
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Read a publish address which looks like {@code 10.0.0.1:9200}, {@code [::1]:9200} or
+     * {@code hostname/10.0.0.1:9200}
+     * @return the node or null if we can't read the address
+     */
+    static Node parsePublishAddress(String address) {
+        String hostAndPort = address.substring(address.lastIndexOf('/') + 1);
+        int colon = hostAndPort.lastIndexOf(':');
+        if (colon <= 0) {
+            logger.debug("can not read publish address [{}]", address);
+            return null;
+        }
+        String host = hostAndPort.substring(0, colon);
+        if (host.startsWith("[") && host.endsWith("]")) {
+            host = host.substring(1, host.length() - 1);
+        }
+        try {
+            return Node.builder().setHost(host).setPort(Integer.parseInt(hostAndPort.substring(colon + 1))).build();
+        } catch (NumberFormatException e) {
+            logger.debug("can not read publish address [{}]", address);
+            return null;
+        }
+    }
+
+    /**
+     * Run by the background thread: discover new nodes if needed and check all of them
+     */
+    private void checkNodes() {
+        try {
+            if (sniff && nodeSelector.countActive() > 0) {
+                try {
+                    sniff();
+                } catch (IOException e) {
+                    logger.debug("failed to sniff nodes: {}", e.getMessage());
+                }
+            }
+            nodeSelector.checkNodes();
+        } catch (RuntimeException e) {
+            // We don't want to stop checking nodes
+            logger.warn("failed to check nodes: {}", e.getMessage());
+            logger.debug("", e);
+        }
+    }
+
+    /**
+     * Execute a request and track its latency
+     */
+    private HttpResponse execute(Node node, HttpRequest request) throws IOException {
+        long start = nodeSelector.begin(node);
+        boolean success = false;
+        try {
+            HttpResponse response = request.execute();
+            success = true;
+            return response;
+        } catch (HttpResponseException e) {
+            // The node answered
+            success = true;
+            throw e;
+        } finally {
+            nodeSelector.end(node, start, success);
+        }
+    }
+
     public boolean isActive(Node node) {
         logger.debug("is node [{}] active?", node);
         boolean active = false;
@@ -179,7 +379,7 @@ public class ElasticsearchClient {
 
         HttpResponse httpResponse;
         try {
-            httpResponse = request.execute();
+            httpResponse = execute(node, request);
         } catch (HttpResponseException e) {
             if (e.getStatusCode() == 400 && e.getContent().contains("index_already_exists_exception")) {
                 if (!ignoreErrors) {
@@ -188,11 +388,11 @@ public class ElasticsearchClient {
                 logger.trace("index already exists. Ignoring error...");
                 return;
             }
-            node.active(false);
+            nodeSelector.failed(node);
             logger.debug("caught exception. disabling node [{}]", node);
             throw e;
         } catch (ConnectException e) {
-            node.active(false);
+            nodeSelector.failed(node);
             logger.debug("caught exception. disabling node [{}]", node);
             throw e;
         }
@@ -204,35 +404,27 @@ public class ElasticsearchClient {
     }
 
     public BulkResponse bulk(Node node, BulkRequest bulkRequest) throws Exception {
-        StringBuffer sbf = new StringBuffer();
-        for (SingleBulkRequest request : bulkRequest.getRequests()) {
-            sbf.append("{");
-            String header = MetaParser.mapper.writeValueAsString(request);
-            if (request instanceof DeleteRequest) {
-                sbf.append("\"delete\":").append(header).append("}\n");
-            }
-            if (request instanceof IndexRequest) {
-                sbf.append("\"index\":").append(header).append("}\n");
-                // Index Request: header line + body
-                sbf.append(((IndexRequest) request).content().replaceAll("\n", "")).append("\n");
-            }
-        }
-
-        logger.trace("going to send a bulk");
-        logger.trace("{}", sbf);
+        logger.trace("going to send a bulk of [{}] actions, about [{}] bytes", bulkRequest.numberOfActions(),
+                bulkRequest.estimatedSizeInBytes());
 
         GenericUrl genericUrl = buildUrl(node);
         genericUrl.appendRawPath("/_bulk");
-        HttpRequest request = requestFactory.buildPostRequest(genericUrl,
-                ByteArrayContent.fromString("application/json", sbf.toString()));
+        HttpRequest request = requestFactory.buildPostRequest(genericUrl, new BulkContent(bulkRequest));
+        if (compressionLevel > 0) {
+            // The body is compressed while it is written so we still don't build it in memory
+            request.setEncoding(new GzipEncoding(compressionLevel, metrics));
+        }
 
         try {
-            HttpResponse httpResponse = request.execute();
-            BulkResponse response = httpResponse.parseAs(BulkResponse.class);
+            HttpResponse httpResponse = execute(node, request);
+            BulkResponse response;
+            try (InputStream content = httpResponse.getContent()) {
+                response = BulkResponse.parse(content);
+            }
             logger.debug("bulk response: {}", response);
             return response;
         } catch (HttpResponseException|ConnectException e) {
-            node.active(false);
+            nodeSelector.failed(node);
             logger.debug("caught exception. disabling node [{}]", node);
             throw e;
         }
@@ -252,10 +444,10 @@ public class ElasticsearchClient {
                 ByteArrayContent.fromString("application/json", mapping));
 
         try {
-            HttpResponse httpResponse = request.execute();
+            HttpResponse httpResponse = execute(node, request);
             logger.trace("put mapping response: {}", httpResponse.parseAsString());
         } catch (HttpResponseException|ConnectException e) {
-            node.active(false);
+            nodeSelector.failed(node);
             logger.debug("caught exception. disabling node [{}]", node);
             throw e;
         }
@@ -274,7 +466,7 @@ public class ElasticsearchClient {
         String version = null;
         GenericUrl genericUrl = buildUrl(node);
         genericUrl.appendRawPath("/");
-        HttpResponse httpResponse = requestFactory.buildGetRequest(genericUrl).execute();
+        HttpResponse httpResponse = execute(node, requestFactory.buildGetRequest(genericUrl));
         GenericJson json = httpResponse.parseAs(GenericJson.class);
         logger.debug("get server response: {}", json);
         Object oVersion = extractFromPath(json, "version").get("number");
@@ -286,6 +478,8 @@ public class ElasticsearchClient {
     public static class ElasticsearchUrl extends GenericUrl {
         @Key
         public String q;
+        @Key
+        public String scroll;
     }
 
     public SearchResponse search(String index, String type, String query) throws IOException {
@@ -293,7 +487,11 @@ public class ElasticsearchClient {
     }
 
     public SearchResponse search(String index, String type, String query, Integer size, String field) throws IOException {
-        return search(index, type, SearchRequest.builder().setQuery(query).setSize(size).setFields(field).build());
+        SearchRequest.Builder builder = SearchRequest.builder().setQuery(query).setSize(size);
+        if (field != null) {
+            builder.setFields(field);
+        }
+        return search(index, type, builder.build());
     }
 
     public SearchResponse search(Node node, String index, String type, SearchRequest searchRequest) throws IOException {
@@ -306,15 +504,18 @@ public class ElasticsearchClient {
         if (searchRequest.getQuery() !=  null) {
             genericUrl.q = searchRequest.getQuery();
         }
+        if (searchRequest.getScroll() != null) {
+            genericUrl.scroll = searchRequest.getScroll().millis() + "ms";
+        }
         HttpRequest request = requestFactory.buildPostRequest(genericUrl, new JsonHttpContent(JSON_FACTORY, searchRequest));
         try {
-            HttpResponse httpResponse = request.execute();
+            HttpResponse httpResponse = execute(node, request);
             SearchResponse response = httpResponse.parseAs(SearchResponse.class);
             logger.debug("search response: {}", response);
 
             return response;
         } catch (HttpResponseException|ConnectException e) {
-            node.active(false);
+            nodeSelector.failed(node);
             logger.debug("caught exception. disabling node [{}]", node);
             throw e;
         }
@@ -324,6 +525,110 @@ public class ElasticsearchClient {
         return search(findNextNode(), index, type, searchRequest);
     }
 
+    /**
+     * Read the next page of a scroll
+     * @param node node to use
+     * @param scrollId scroll id returned by the previous search or scroll request
+     * @param keepAlive how long the scroll is kept alive until the next request
+     * @return the next hits. The response contains no hit when the scroll is exhausted.
+     * @throws IOException in case of error
+     */
+    public SearchResponse scroll(Node node, String scrollId, TimeValue keepAlive) throws IOException {
+        logger.debug("scroll [{}] with node [{}]", scrollId, node);
+
+        GenericUrl genericUrl = buildUrl(node);
+        genericUrl.appendRawPath("/_search/scroll");
+        GenericJson body = new GenericJson();
+        body.put("scroll", keepAlive.millis() + "ms");
+        body.put("scroll_id", scrollId);
+        HttpRequest request = requestFactory.buildPostRequest(genericUrl, new JsonHttpContent(JSON_FACTORY, body));
+        try {
+            HttpResponse httpResponse = execute(node, request);
+            SearchResponse response = httpResponse.parseAs(SearchResponse.class);
+            logger.trace("scroll response: {}", response);
+            return response;
+        } catch (HttpResponseException|ConnectException e) {
+            nodeSelector.failed(node);
+            logger.debug("caught exception. disabling node [{}]", node);
+            throw e;
+        }
+    }
+
+    public SearchResponse scroll(String scrollId, TimeValue keepAlive) throws IOException {
+        return scroll(findNextNode(), scrollId, keepAlive);
+    }
+
+    /**
+     * Release the resources of a scroll
+     * @param scrollId scroll id
+     * @throws IOException in case of error
+     */
+    public void clearScroll(String scrollId) throws IOException {
+        logger.debug("clear scroll [{}]", scrollId);
+
+        Node node = findNextNode();
+        GenericUrl genericUrl = buildUrl(node);
+        genericUrl.appendRawPath("/_search/scroll/" + scrollId);
+        try {
+            // We need to read the response so the connection can be reused
+            execute(node, requestFactory.buildDeleteRequest(genericUrl)).ignore();
+        } catch (HttpResponseException e) {
+            // The scroll might have already expired
+            if (e.getStatusCode() != 404) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Read all the hits matching a search request, page by page, using a scroll.
+     * Hits are sorted by _doc unless the request defines another sort.
+     * @param index index name
+     * @param type type name
+     * @param searchRequest the search request. Its size is the size of each page.
+     * @param consumer called for each hit
+     * @return the number of hits read
+     * @throws IOException in case of error
+     */
+    public long scan(String index, String type, SearchRequest searchRequest, Consumer<SearchResponse.Hit> consumer)
+            throws IOException {
+        TimeValue keepAlive = searchRequest.getScroll() != null ? searchRequest.getScroll() : SCROLL_KEEP_ALIVE;
+        SearchRequest request = new SearchRequest(searchRequest.getQuery(), searchRequest.getFields(),
+                searchRequest.getSize() != null ? searchRequest.getSize() : SCROLL_SIZE,
+                searchRequest.getSource(), searchRequest.getSort() != null ? searchRequest.getSort() : new String[]{"_doc"},
+                keepAlive);
+
+        long total = 0;
+        SearchResponse response = search(index, type, request);
+        String scrollId = response.getScrollId();
+        try {
+            while (response.getHits() != null && response.getHits().getHits() != null
+                    && !response.getHits().getHits().isEmpty()) {
+                for (SearchResponse.Hit hit : response.getHits().getHits()) {
+                    consumer.accept(hit);
+                    total++;
+                }
+                if (scrollId == null) {
+                    break;
+                }
+                response = scroll(scrollId, keepAlive);
+                if (response.getScrollId() != null) {
+                    scrollId = response.getScrollId();
+                }
+            }
+        } finally {
+            if (scrollId != null) {
+                try {
+                    clearScroll(scrollId);
+                } catch (IOException e) {
+                    logger.debug("failed to clear scroll [{}]: {}", scrollId, e.getMessage());
+                }
+            }
+        }
+        logger.debug("scanned [{}] hits in [{}]/[{}]", total, index, type);
+        return total;
+    }
+
     public boolean isExistingType(Node node, String index, String type) throws IOException {
         logger.debug("is existing type [{}]/[{}]", index, type);
 
@@ -331,7 +636,7 @@ public class ElasticsearchClient {
         genericUrl.appendRawPath("/" + index);
         HttpRequest request = requestFactory.buildGetRequest(genericUrl);
         try {
-            HttpResponse httpResponse = request.execute();
+            HttpResponse httpResponse = execute(node, request);
             GenericJson json = httpResponse.parseAs(GenericJson.class);
             logger.debug("get index metadata response: {}", json);
 
@@ -342,10 +647,10 @@ public class ElasticsearchClient {
                 logger.debug("type [{}]/[{}] does not exist", index, type);
                 return false;
             }
-            node.active(false);
+            nodeSelector.failed(node);
             throw e;
         } catch (ConnectException e) {
-            node.active(false);
+            nodeSelector.failed(node);
             logger.debug("caught exception. disabling node [{}]", node);
             throw e;
         }
@@ -356,9 +661,89 @@ public class ElasticsearchClient {
     }
 
     public static class Builder {
+        private String transport = TRANSPORT_NET;
+        private int maxConnectionsPerNode = DEFAULT_MAX_CONNECTIONS_PER_NODE;
+        private TimeValue connectTimeout = DEFAULT_TIMEOUT;
+        private TimeValue socketTimeout = DEFAULT_TIMEOUT;
+        private int compressionLevel = 0;
+        private CrawlerMetrics metrics;
+        private TimeValue healthCheckInterval = DEFAULT_HEALTH_CHECK_INTERVAL;
+        private boolean sniff = false;
+
+        /**
+         * @param transport {@link #TRANSPORT_NET} or {@link #TRANSPORT_POOLED}. Null means {@link #TRANSPORT_NET}.
+         */
+        public Builder setTransport(String transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        public Builder setMaxConnectionsPerNode(int maxConnectionsPerNode) {
+            this.maxConnectionsPerNode = maxConnectionsPerNode;
+            return this;
+        }
+
+        public Builder setConnectTimeout(TimeValue connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public Builder setSocketTimeout(TimeValue socketTimeout) {
+            this.socketTimeout = socketTimeout;
+            return this;
+        }
+
+        /**
+         * @param compressionLevel gzip level used to compress bulk bodies, from 1 to 9. 0 disables compression.
+         */
+        public Builder setCompressionLevel(int compressionLevel) {
+            this.compressionLevel = compressionLevel;
+            return this;
+        }
+
+        /**
+         * @param metrics where to record the compression ratio of bulk bodies
+         */
+        public Builder setMetrics(CrawlerMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        /**
+         * @param healthCheckInterval how often all the nodes are checked in the background. 0 disables the checks.
+         */
+        public Builder setHealthCheckInterval(TimeValue healthCheckInterval) {
+            this.healthCheckInterval = healthCheckInterval;
+            return this;
+        }
+
+        /**
+         * @param sniff true if the nodes of the cluster should be discovered when we check the nodes
+         */
+        public Builder setSniff(boolean sniff) {
+            this.sniff = sniff;
+            return this;
+        }
 
         public ElasticsearchClient build() {
-            return new ElasticsearchClient();
+            if (compressionLevel < 0 || compressionLevel > 9) {
+                throw new IllegalArgumentException("compression level must be between 0 and 9. Got [" +
+                        compressionLevel + "].");
+            }
+            TimeValue connectTimeout = this.connectTimeout != null ? this.connectTimeout : DEFAULT_TIMEOUT;
+            TimeValue socketTimeout = this.socketTimeout != null ? this.socketTimeout : DEFAULT_TIMEOUT;
+            HttpTransport httpTransport;
+            if (transport == null || TRANSPORT_NET.equals(transport)) {
+                httpTransport = HTTP_TRANSPORT;
+            } else if (TRANSPORT_POOLED.equals(transport)) {
+                httpTransport = pooledTransport(maxConnectionsPerNode > 0 ? maxConnectionsPerNode :
+                        DEFAULT_MAX_CONNECTIONS_PER_NODE, connectTimeout);
+            } else {
+                throw new IllegalArgumentException("unknown transport [" + transport + "]. Expecting [" + TRANSPORT_NET +
+                        "] or [" + TRANSPORT_POOLED + "].");
+            }
+            return new ElasticsearchClient(httpTransport, connectTimeout, socketTimeout, compressionLevel, metrics,
+                    healthCheckInterval != null ? healthCheckInterval : DEFAULT_HEALTH_CHECK_INTERVAL, sniff);
         }
 
     }
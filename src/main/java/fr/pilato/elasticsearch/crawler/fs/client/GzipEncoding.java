@@ -0,0 +1,102 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.client;
+
+import com.google.api.client.http.HttpEncoding;
+import com.google.api.client.util.StreamingContent;
+import fr.pilato.elasticsearch.crawler.fs.metrics.CrawlerMetrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses a request body with gzip while it is written to the HTTP output stream.
+ * Unlike {@link com.google.api.client.http.GZipEncoding}, the compression level can be set
+ * and the number of bytes before and after compression are recorded.
+ */
+class GzipEncoding implements HttpEncoding {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int level;
+    private final CrawlerMetrics metrics;
+
+    /**
+     * @param level compression level, from 1 (fastest) to 9 (smallest)
+     * @param metrics where to record the compression ratio. Can be null.
+     */
+    GzipEncoding(int level, CrawlerMetrics metrics) {
+        this.level = level;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public String getName() {
+        return "gzip";
+    }
+
+    @Override
+    public void encode(StreamingContent content, OutputStream out) throws IOException {
+        CountingOutputStream compressed = new CountingOutputStream(out);
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed, BUFFER_SIZE) {
+            {
+                def.setLevel(level);
+            }
+        };
+        CountingOutputStream uncompressed = new CountingOutputStream(gzip);
+        try {
+            content.writeTo(uncompressed);
+        } finally {
+            // Writes the gzip trailer and releases the deflater. The HTTP stream itself is closed by the transport.
+            gzip.close();
+        }
+        if (metrics != null) {
+            metrics.bulkCompression(uncompressed.count, compressed.count);
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // We let the transport close the HTTP stream
+            flush();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.client;
+
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.Elasticsearch.Node;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Chooses the node which will run the next request. We pick the least loaded active node, which is the
+ * one with the smallest expected wait: its average latency multiplied by the number of requests it is already
+ * running. Nodes with the same load are used in turn.
+ * <p>
+ * Nodes are marked as inactive as soon as a request fails. They are checked again by {@link #checkNodes()}
+ * which is meant to be called regularly from a background thread, so requests never wait for a dead node
+ * to answer, unless there is no active node at all.
+ */
+class NodeSelector {
+
+    /**
+     * Weight of the last request in the average latency
+     */
+    private static final double EWMA_ALPHA = 0.3;
+
+    private final List<Node> nodes = new CopyOnWriteArrayList<>();
+    private final Map<Node, NodeState> states = new ConcurrentHashMap<>();
+    private final AtomicInteger counter = new AtomicInteger();
+    private final Predicate<Node> probe;
+
+    /**
+     * @param probe returns true if a node answers
+     */
+    NodeSelector(Predicate<Node> probe) {
+        this.probe = probe;
+    }
+
+    private static class NodeState {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile double latencyNanos;
+        private volatile long lastFailure;
+    }
+
+    /**
+     * Add a node if we don't know it yet
+     * @return true if the node has been added
+     */
+    synchronized boolean add(Node node) {
+        if (states.containsKey(node)) {
+            return false;
+        }
+        states.put(node, new NodeState());
+        nodes.add(node);
+        return true;
+    }
+
+    List<Node> nodes() {
+        return nodes;
+    }
+
+    int countActive() {
+        int active = 0;
+        for (Node node : nodes) {
+            if (node.active()) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    /**
+     * @return the least loaded active node or null if no node is active
+     */
+    Node select() {
+        Node selected = selectActive();
+        if (selected == null) {
+            // Nothing is running or no one has checked yet. We have no other choice than waiting for the nodes.
+            for (Node node : nodes) {
+                check(node);
+            }
+            selected = selectActive();
+        }
+        return selected;
+    }
+
+    private Node selectActive() {
+        int size = nodes.size();
+        if (size == 0) {
+            return null;
+        }
+        // We start from a different node each time so nodes with the same load are used in turn
+        int start = Math.floorMod(counter.getAndIncrement(), size);
+        Node selected = null;
+        double selectedLoad = Double.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            Node node = nodes.get((start + i) % size);
+            if (!node.active()) {
+                continue;
+            }
+            NodeState state = states.get(node);
+            double load = (state.latencyNanos + 1) * (state.inFlight.get() + 1);
+            if (load < selectedLoad) {
+                selected = node;
+                selectedLoad = load;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * A request is about to be sent to a node
+     * @return the start time to give back to {@link #end(Node, long, boolean)}
+     */
+    long begin(Node node) {
+        NodeState state = states.get(node);
+        if (state != null) {
+            state.inFlight.incrementAndGet();
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * A request sent to a node is done
+     * @param node the node
+     * @param start value returned by {@link #begin(Node)}
+     * @param success false if we did not get any response. The latency is only computed for successful requests.
+     */
+    void end(Node node, long start, boolean success) {
+        NodeState state = states.get(node);
+        if (state == null) {
+            return;
+        }
+        state.inFlight.decrementAndGet();
+        if (success) {
+            long latency = System.nanoTime() - start;
+            double previous = state.latencyNanos;
+            state.latencyNanos = previous == 0 ? latency : EWMA_ALPHA * latency + (1 - EWMA_ALPHA) * previous;
+        }
+    }
+
+    /**
+     * A node failed. It won't be used until a check says it's back.
+     */
+    void failed(Node node) {
+        NodeState state = states.get(node);
+        if (state != null) {
+            state.lastFailure = System.nanoTime();
+        }
+        node.active(false);
+    }
+
+    /**
+     * Check all the nodes and update their status
+     */
+    void checkNodes() {
+        for (Node node : nodes) {
+            check(node);
+        }
+    }
+
+    private void check(Node node) {
+        long started = System.nanoTime();
+        boolean active = probe.test(node);
+        NodeState state = states.get(node);
+        // A request may have failed while we were checking the node. We trust the most recent information.
+        if (active && state != null && state.lastFailure - started > 0) {
+            return;
+        }
+        node.active(active);
+    }
+
+    /**
+     * @return the average latency of a node in milliseconds, 0 if the node has not been used yet
+     */
+    double latencyMillis(Node node) {
+        NodeState state = states.get(node);
+        return state != null ? state.latencyNanos / 1_000_000.0 : 0;
+    }
+
+    /**
+     * @return the number of requests currently running on a node
+     */
+    int inFlight(Node node) {
+        NodeState state = states.get(node);
+        return state != null ? state.inFlight.get() : 0;
+    }
+}
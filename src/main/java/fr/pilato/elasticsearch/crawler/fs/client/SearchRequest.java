@@ -19,21 +19,38 @@
 
 package fr.pilato.elasticsearch.crawler.fs.client;
 
+import com.google.api.client.util.Key;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.TimeValue;
+
 import java.util.Arrays;
 
 public class SearchRequest {
     private final String query;
+    @Key
     private final String[] fields;
+    @Key
     private final Integer size;
+    @Key("_source")
+    private final String[] source;
+    @Key
+    private final String[] sort;
+    private final TimeValue scroll;
 
     public static Builder builder() {
         return new Builder();
     }
 
     public SearchRequest(String query, String[] fields, Integer size) {
+        this(query, fields, size, null, null, null);
+    }
+
+    public SearchRequest(String query, String[] fields, Integer size, String[] source, String[] sort, TimeValue scroll) {
         this.query = query;
         this.fields = fields;
         this.size = size;
+        this.source = source;
+        this.sort = sort;
+        this.scroll = scroll;
     }
 
     public Integer getSize() {
@@ -48,12 +65,27 @@ public class SearchRequest {
         return fields;
     }
 
+    public String[] getSource() {
+        return source;
+    }
+
+    public String[] getSort() {
+        return sort;
+    }
+
+    public TimeValue getScroll() {
+        return scroll;
+    }
+
     @Override
     public String   toString() {
         final StringBuilder sb = new StringBuilder("SearchRequest{");
         sb.append("query=").append(query);
         sb.append(", fields=").append(fields == null ? "null" : Arrays.asList(fields).toString());
         sb.append(", size=").append(size);
+        sb.append(", source=").append(source == null ? "null" : Arrays.asList(source).toString());
+        sb.append(", sort=").append(sort == null ? "null" : Arrays.asList(sort).toString());
+        sb.append(", scroll=").append(scroll);
         sb.append('}');
         return sb.toString();
     }
@@ -62,6 +94,9 @@ public class SearchRequest {
         private String query;
         private String[] fields;
         private Integer size;
+        private String[] source;
+        private String[] sort;
+        private TimeValue scroll;
 
         public Builder setQuery(String query) {
             this.query = query;
@@ -78,8 +113,33 @@ public class SearchRequest {
             return this;
         }
 
+        /**
+         * Only return some fields of the _source
+         * @param source fields to return
+         * @return this builder
+         */
+        public Builder setSource(String... source) {
+            this.source = source;
+            return this;
+        }
+
+        public Builder setSort(String... sort) {
+            this.sort = sort;
+            return this;
+        }
+
+        /**
+         * Open a scroll which is kept alive for the given time between two requests
+         * @param scroll keep alive
+         * @return this builder
+         */
+        public Builder setScroll(TimeValue scroll) {
+            this.scroll = scroll;
+            return this;
+        }
+
         public SearchRequest build() {
-            return new SearchRequest(query, fields, size);
+            return new SearchRequest(query, fields, size, source, sort, scroll);
         }
     }
 }
@@ -30,6 +30,9 @@ import java.util.Map;
  */
 public class SearchResponse extends GenericJson {
 
+    @Key("_scroll_id")
+    private String scrollId;
+
     @Key
     private Hits hits;
 
@@ -37,10 +40,18 @@ public class SearchResponse extends GenericJson {
         return hits;
     }
 
+    /**
+     * @return the scroll id if the search opened a scroll
+     */
+    public String getScrollId() {
+        return scrollId;
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("SearchResponse{");
-        sb.append("hits=").append(hits);
+        sb.append("scrollId=").append(scrollId);
+        sb.append(", hits=").append(hits);
         sb.append('}');
         return sb.toString();
     }
@@ -73,11 +84,17 @@ public class SearchResponse extends GenericJson {
 
     public static class Hit extends GenericJson {
 
+        @Key("_id")
+        private String id;
         @Key("_source")
         private Map<String, Object> source;
         @Key("_fields")
         private Map<String, Object> fields;
 
+        public String getId() {
+            return id;
+        }
+
         public Map<String, Object> getSource() {
             return source;
         }
@@ -89,7 +106,8 @@ public class SearchResponse extends GenericJson {
         @Override
         public String toString() {
             final StringBuilder sb = new StringBuilder("Hit{");
-            sb.append("source=").append(source);
+            sb.append("id=").append(id);
+            sb.append(", source=").append(source);
             sb.append(", fields=").append(fields);
             sb.append('}');
             return sb.toString();
@@ -43,6 +43,14 @@ public abstract class FileAbstractor<T> {
 
     public abstract void close() throws Exception;
 
+    /**
+     * Tells if this abstractor can be called by several crawling threads at the same time.
+     * @return true if it is safe to list directories and read files concurrently
+     */
+    public boolean isConcurrent() {
+        return false;
+    }
+
     public FileAbstractor(FsSettings fsSettings) {
         this.fsSettings = fsSettings;
     }
@@ -20,33 +20,79 @@
 package fr.pilato.elasticsearch.crawler.fs.fileabstractor;
 
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
-import fr.pilato.elasticsearch.crawler.fs.util.FsCrawlerUtil;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 
+/**
+ * Local file system.
+ *
+ * Each entry is read with a single stat call: we read the posix attributes when they are available
+ * and fall back to the basic attributes otherwise. Owner and group names are only resolved when
+ * attributes support is enabled.
+ */
 public class FileAbstractorFile extends FileAbstractor<File> {
+
+    private static final boolean POSIX = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
     public FileAbstractorFile(FsSettings fsSettings) {
         super(fsSettings);
     }
 
     @Override
     public FileAbstractModel toFileAbstractModel(String path, File file) {
+        try {
+            return toFileAbstractModel(path, file.toPath());
+        } catch (IOException e) {
+            // The file might have been removed
+            logger.debug("Can not read attributes of [{}]: {}", file, e.getMessage());
+            FileAbstractModel model = new FileAbstractModel();
+            model.name = file.getName();
+            model.path = path;
+            model.fullpath = file.getAbsolutePath();
+            return model;
+        }
+    }
+
+    private FileAbstractModel toFileAbstractModel(String path, Path file) throws IOException {
+        Class<? extends BasicFileAttributes> type = POSIX ? PosixFileAttributes.class : BasicFileAttributes.class;
+        BasicFileAttributes attributes = Files.readAttributes(file, type);
+
         FileAbstractModel model = new FileAbstractModel();
-        model.name = file.getName();
-        model.file = file.isFile();
-        model.directory = !model.file;
-        model.lastModifiedDate = Instant.ofEpochMilli(file.lastModified());
-        model.creationDate = FsCrawlerUtil.getCreationTime(file);
+        model.name = file.getFileName().toString();
+        model.file = attributes.isRegularFile();
+        model.directory = attributes.isDirectory();
+        model.lastModifiedDate = Instant.ofEpochMilli(attributes.lastModifiedTime().toMillis());
+        model.creationDate = attributes.creationTime() != null ?
+                Instant.ofEpochMilli(attributes.creationTime().toMillis()) : null;
         model.path = path;
-        model.fullpath = file.getAbsolutePath();
-        model.size = file.length();
-        model.owner = FsCrawlerUtil.getOwnerName(file);
-        model.group = FsCrawlerUtil.getGroupName(file);
+        model.fullpath = file.toAbsolutePath().toString();
+        model.size = attributes.size();
+
+        if (fsSettings.getFs() != null && fsSettings.getFs().isAttributesSupport()) {
+            if (attributes instanceof PosixFileAttributes) {
+                model.owner = ((PosixFileAttributes) attributes).owner().getName();
+                model.group = ((PosixFileAttributes) attributes).group().getName();
+            } else {
+                try {
+                    model.owner = Files.getOwner(file).getName();
+                } catch (IOException | UnsupportedOperationException e) {
+                    logger.warn("Failed to determine 'owner' of {}: {}", file, e.getMessage());
+                }
+            }
+        }
 
         return model;
     }
@@ -57,15 +103,20 @@ public class FileAbstractorFile extends FileAbstractor<File> {
     }
 
     @Override
-    public Collection<FileAbstractModel> getFiles(String dir) {
+    public Collection<FileAbstractModel> getFiles(String dir) throws IOException {
         if (logger.isDebugEnabled()) logger.debug("Listing local files from {}", dir);
-        File[] files = new File(dir).listFiles();
-
-        Collection<FileAbstractModel> result = new ArrayList<>(files.length);
-
-        // Iterate other files
-        for (File file : files) {
-            result.add(toFileAbstractModel(dir, file));
+        Collection<FileAbstractModel> result = new ArrayList<>();
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(dir))) {
+            // Iterate other files
+            for (Path file : files) {
+                try {
+                    result.add(toFileAbstractModel(dir, file));
+                } catch (IOException e) {
+                    // The file might have been removed since we listed the directory
+                    logger.debug("Can not read attributes of [{}]: {}", file, e.getMessage());
+                }
+            }
         }
 
         if (logger.isDebugEnabled()) logger.debug("{} local files found", result.size());
@@ -77,6 +128,11 @@ public class FileAbstractorFile extends FileAbstractor<File> {
         return new File(dir).exists();
     }
 
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+
     @Override
     public void open() throws Exception {
 
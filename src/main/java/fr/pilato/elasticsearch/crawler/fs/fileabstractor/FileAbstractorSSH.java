@@ -19,13 +19,12 @@
 
 package fr.pilato.elasticsearch.crawler.fs.fileabstractor;
 
-import com.jcraft.jsch.Channel;
 import com.jcraft.jsch.ChannelSftp;
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpException;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
-import fr.pilato.elasticsearch.crawler.fs.meta.settings.Server;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.time.Instant;
 import java.util.ArrayList;
@@ -33,9 +32,16 @@ import java.util.Collection;
 import java.util.Vector;
 import java.util.stream.Collectors;
 
+/**
+ * Remote file system over SFTP.
+ *
+ * Operations use channels from a {@link SftpChannelPool}, so several directories can be listed and several
+ * files can be downloaded at the same time. The connection is kept open between two scans: {@link #open()}
+ * only connects if needed and {@link #close()} disconnects.
+ */
 public class FileAbstractorSSH extends FileAbstractor<ChannelSftp.LsEntry> {
 
-    private ChannelSftp sftp;
+    private volatile SftpChannelPool pool;
 
     public FileAbstractorSSH(FsSettings fsSettings) {
         super(fsSettings);
@@ -58,7 +64,30 @@ public class FileAbstractorSSH extends FileAbstractor<ChannelSftp.LsEntry> {
 
     @Override
     public InputStream getInputStream(FileAbstractModel file) throws Exception {
-        return sftp.get(file.fullpath);
+        ChannelSftp sftp = pool.borrow();
+        InputStream stream;
+        try {
+            stream = sftp.get(file.fullpath);
+        } catch (Exception e) {
+            giveBack(sftp, e);
+            throw e;
+        }
+        // The channel is busy until the stream has been closed
+        return new FilterInputStream(stream) {
+            private boolean released = false;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!released) {
+                        released = true;
+                        pool.release(sftp);
+                    }
+                }
+            }
+        };
     }
 
     @Override
@@ -66,7 +95,14 @@ public class FileAbstractorSSH extends FileAbstractor<ChannelSftp.LsEntry> {
         if (logger.isDebugEnabled()) logger.debug("Listing local files from {}", dir);
         Vector<ChannelSftp.LsEntry> ls;
 
-        ls = sftp.ls(dir);
+        ChannelSftp sftp = pool.borrow();
+        try {
+            ls = sftp.ls(dir);
+        } catch (Exception e) {
+            giveBack(sftp, e);
+            throw e;
+        }
+        pool.release(sftp);
         if (ls == null) return null;
 
         Collection<FileAbstractModel> result = new ArrayList<>(ls.size());
@@ -83,53 +119,53 @@ public class FileAbstractorSSH extends FileAbstractor<ChannelSftp.LsEntry> {
 
     @Override
     public boolean exists(String dir) throws Exception {
+        ChannelSftp sftp = pool.borrow();
         try {
             sftp.ls(dir);
         } catch (Exception e) {
+            giveBack(sftp, e);
             return false;
         }
+        pool.release(sftp);
         return true;
     }
 
-    @Override
-    public void open() throws Exception {
-        sftp = openSSHConnection(fsSettings.getServer());
+    /**
+     * Give a channel back to the pool after an error. The channel can be used again if the error
+     * comes from the server (like a missing file).
+     */
+    private void giveBack(ChannelSftp sftp, Exception e) {
+        if (e instanceof SftpException && sftp.isConnected()) {
+            pool.release(sftp);
+        } else {
+            pool.invalidate(sftp);
+        }
     }
 
     @Override
-    public void close() throws Exception {
-        sftp.getSession().disconnect();
-        sftp.disconnect();
+    public boolean isConcurrent() {
+        return true;
     }
 
-    public ChannelSftp openSSHConnection(Server server) throws Exception {
-        if (logger.isDebugEnabled()) logger.debug("Opening SSH connection to {}@{}", server.getUsername(),
-                server.getHostname());
-
-        JSch jsch = new JSch();
-        Session session = jsch.getSession(server.getUsername(), server.getHostname(), server.getPort());
-        java.util.Properties config = new java.util.Properties();
-        config.put("StrictHostKeyChecking", "no");
-        if (server.getPemPath() != null) {
-            jsch.addIdentity(server.getPemPath());
+    @Override
+    public void open() throws Exception {
+        if (pool != null && pool.isConnected()) {
+            logger.debug("Reusing SSH connection to {}", fsSettings.getServer().getHostname());
+            return;
         }
-        session.setConfig(config);
-        if (server.getPassword() != null) {
-            session.setPassword(server.getPassword());
+        if (pool != null) {
+            pool.close();
         }
-        session.connect();
-
-        //Open a new session for SFTP.
-        Channel channel = session.openChannel("sftp");
-        channel.connect();
+        pool = new SftpChannelPool(fsSettings.getServer());
+        // We check that we can connect
+        pool.release(pool.borrow());
+    }
 
-        //checking SSH client connection.
-        if (!channel.isConnected()) {
-            logger.warn("Cannot connect with SSH to {}@{}", server.getUsername(),
-                    server.getHostname());
-            throw new RuntimeException("Can not connect to " + server.getUsername() + "@" + server.getHostname());
+    @Override
+    public void close() throws Exception {
+        if (pool != null) {
+            pool.close();
+            pool = null;
         }
-        if (logger.isDebugEnabled()) logger.debug("SSH connection successful");
-        return (ChannelSftp) channel;
     }
 }
@@ -0,0 +1,194 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.fileabstractor;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.Server;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Pool of SFTP channels spread over one or more SSH sessions.
+ *
+ * A channel can only run one operation at a time, and a download holds its channel until the stream
+ * is closed. So we lend at most {@code channels} channels at the same time. Sessions and channels
+ * are opened lazily and are kept open until the pool is closed.
+ */
+public class SftpChannelPool {
+
+    private static final Logger logger = LogManager.getLogger(SftpChannelPool.class);
+
+    /**
+     * We send a keep alive message to the server every 30 seconds, so idle sessions are not dropped between two scans
+     */
+    private static final int SERVER_ALIVE_INTERVAL_MS = 30000;
+
+    private final Server server;
+    private final JSch jsch;
+    private final Session[] sessions;
+    private final Semaphore permits;
+    private final ConcurrentLinkedQueue<ChannelSftp> idle = new ConcurrentLinkedQueue<>();
+    private final List<ChannelSftp> channels = new ArrayList<>();
+    private int nextSession;
+    private volatile boolean closed;
+
+    public SftpChannelPool(Server server) throws JSchException {
+        this.server = server;
+        this.jsch = new JSch();
+        if (server.getPemPath() != null) {
+            jsch.addIdentity(server.getPemPath());
+        }
+        this.sessions = new Session[Math.max(server.getSessions(), 1)];
+        this.permits = new Semaphore(Math.max(server.getChannels(), 1));
+    }
+
+    /**
+     * Borrow a channel. Blocks until a channel is available.
+     * @return a connected channel which must be given back with {@link #release(ChannelSftp)}
+     * or {@link #invalidate(ChannelSftp)}
+     * @throws Exception if we can not connect to the server
+     */
+    public ChannelSftp borrow() throws Exception {
+        if (closed) {
+            throw new IllegalStateException("SFTP pool for " + server.getHostname() + " is closed");
+        }
+        permits.acquire();
+        try {
+            ChannelSftp channel;
+            while ((channel = idle.poll()) != null) {
+                if (channel.isConnected() && channel.getSession().isConnected()) {
+                    return channel;
+                }
+                logger.debug("dropping disconnected SFTP channel");
+                forget(channel);
+            }
+            return openChannel();
+        } catch (Exception e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Give back a channel which can be used again
+     * @param channel the channel
+     */
+    public void release(ChannelSftp channel) {
+        if (closed) {
+            channel.disconnect();
+        } else {
+            idle.offer(channel);
+        }
+        permits.release();
+    }
+
+    /**
+     * Give back a channel which is broken
+     * @param channel the channel
+     */
+    public void invalidate(ChannelSftp channel) {
+        forget(channel);
+        channel.disconnect();
+        permits.release();
+    }
+
+    /**
+     * @return true if at least one session is connected
+     */
+    public synchronized boolean isConnected() {
+        for (Session session : sessions) {
+            if (session != null && session.isConnected()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void forget(ChannelSftp channel) {
+        channels.remove(channel);
+    }
+
+    private synchronized ChannelSftp openChannel() throws JSchException {
+        // We use sessions in a round robin fashion
+        int index = nextSession;
+        nextSession = (nextSession + 1) % sessions.length;
+        Session session = sessions[index];
+        if (session == null || !session.isConnected()) {
+            session = openSession();
+            sessions[index] = session;
+        }
+
+        ChannelSftp channel = (ChannelSftp) session.openChannel("sftp");
+        channel.connect();
+
+        //checking SSH client connection.
+        if (!channel.isConnected()) {
+            logger.warn("Cannot connect with SSH to {}@{}", server.getUsername(),
+                    server.getHostname());
+            throw new RuntimeException("Can not connect to " + server.getUsername() + "@" + server.getHostname());
+        }
+        channels.add(channel);
+        logger.debug("SFTP channel [{}] opened on session [{}]", channels.size(), index);
+        return channel;
+    }
+
+    private Session openSession() throws JSchException {
+        if (logger.isDebugEnabled()) logger.debug("Opening SSH connection to {}@{}", server.getUsername(),
+                server.getHostname());
+
+        Session session = jsch.getSession(server.getUsername(), server.getHostname(), server.getPort());
+        java.util.Properties config = new java.util.Properties();
+        config.put("StrictHostKeyChecking", "no");
+        session.setConfig(config);
+        if (server.getPassword() != null) {
+            session.setPassword(server.getPassword());
+        }
+        session.setServerAliveInterval(SERVER_ALIVE_INTERVAL_MS);
+        session.connect();
+        if (logger.isDebugEnabled()) logger.debug("SSH connection successful");
+        return session;
+    }
+
+    /**
+     * Close all channels and sessions
+     */
+    public synchronized void close() {
+        closed = true;
+        for (ChannelSftp channel : channels) {
+            channel.disconnect();
+        }
+        channels.clear();
+        idle.clear();
+        for (int i = 0; i < sessions.length; i++) {
+            if (sessions[i] != null) {
+                sessions[i].disconnect();
+                sessions[i] = null;
+            }
+        }
+    }
+}
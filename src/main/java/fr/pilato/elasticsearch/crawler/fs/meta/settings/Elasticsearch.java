@@ -19,6 +19,8 @@
 
 package fr.pilato.elasticsearch.crawler.fs.meta.settings;
 
+import fr.pilato.elasticsearch.crawler.fs.client.AdaptiveBulkController;
+import fr.pilato.elasticsearch.crawler.fs.client.ElasticsearchClient;
 import fr.pilato.elasticsearch.crawler.fs.util.FsCrawlerUtil;
 
 import java.util.ArrayList;
@@ -30,12 +32,34 @@ public class Elasticsearch {
 
     }
 
-    private Elasticsearch(List<Node> nodes, String index, String type, int bulkSize, TimeValue flushInterval) {
+    private Elasticsearch(List<Node> nodes, String index, String type, int bulkSize, TimeValue flushInterval,
+                          int concurrentRequests, long bulkSizeBytes, String transport, int maxConnectionsPerNode,
+                          TimeValue connectTimeout, TimeValue socketTimeout, int compressionLevel,
+                          TimeValue healthCheckInterval, boolean sniff, long spoolSizeBytes, boolean adaptiveBulk,
+                          int bulkSizeMin, int bulkSizeMax, long bulkSizeBytesMin, long bulkSizeBytesMax,
+                          int concurrentRequestsMax, TimeValue bulkLatencyTarget) {
         this.nodes = nodes;
         this.index = index;
         this.type = type;
         this.bulkSize = bulkSize;
         this.flushInterval = flushInterval;
+        this.concurrentRequests = concurrentRequests;
+        this.bulkSizeBytes = bulkSizeBytes;
+        this.transport = transport;
+        this.maxConnectionsPerNode = maxConnectionsPerNode;
+        this.connectTimeout = connectTimeout;
+        this.socketTimeout = socketTimeout;
+        this.compressionLevel = compressionLevel;
+        this.healthCheckInterval = healthCheckInterval;
+        this.sniff = sniff;
+        this.spoolSizeBytes = spoolSizeBytes;
+        this.adaptiveBulk = adaptiveBulk;
+        this.bulkSizeMin = bulkSizeMin;
+        this.bulkSizeMax = bulkSizeMax;
+        this.bulkSizeBytesMin = bulkSizeBytesMin;
+        this.bulkSizeBytesMax = bulkSizeBytesMax;
+        this.concurrentRequestsMax = concurrentRequestsMax;
+        this.bulkLatencyTarget = bulkLatencyTarget;
     }
 
     public static Builder builder() {
@@ -144,6 +168,23 @@ public class Elasticsearch {
     private String type;
     private int bulkSize;
     private TimeValue flushInterval;
+    private int concurrentRequests;
+    private long bulkSizeBytes;
+    private String transport;
+    private int maxConnectionsPerNode;
+    private TimeValue connectTimeout;
+    private TimeValue socketTimeout;
+    private int compressionLevel;
+    private TimeValue healthCheckInterval;
+    private boolean sniff;
+    private long spoolSizeBytes;
+    private boolean adaptiveBulk;
+    private int bulkSizeMin;
+    private int bulkSizeMax;
+    private long bulkSizeBytesMin;
+    private long bulkSizeBytesMax;
+    private int concurrentRequestsMax;
+    private TimeValue bulkLatencyTarget;
 
     public List<Node> getNodes() {
         return nodes;
@@ -185,12 +226,165 @@ public class Elasticsearch {
         this.flushInterval = flushInterval;
     }
 
+    public int getConcurrentRequests() {
+        return concurrentRequests;
+    }
+
+    public void setConcurrentRequests(int concurrentRequests) {
+        this.concurrentRequests = concurrentRequests;
+    }
+
+    public long getBulkSizeBytes() {
+        return bulkSizeBytes;
+    }
+
+    public void setBulkSizeBytes(long bulkSizeBytes) {
+        this.bulkSizeBytes = bulkSizeBytes;
+    }
+
+    public String getTransport() {
+        return transport;
+    }
+
+    public void setTransport(String transport) {
+        this.transport = transport;
+    }
+
+    public int getMaxConnectionsPerNode() {
+        return maxConnectionsPerNode;
+    }
+
+    public void setMaxConnectionsPerNode(int maxConnectionsPerNode) {
+        this.maxConnectionsPerNode = maxConnectionsPerNode;
+    }
+
+    public TimeValue getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(TimeValue connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public TimeValue getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    public void setSocketTimeout(TimeValue socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public TimeValue getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+    public void setHealthCheckInterval(TimeValue healthCheckInterval) {
+        this.healthCheckInterval = healthCheckInterval;
+    }
+
+    public boolean isSniff() {
+        return sniff;
+    }
+
+    public void setSniff(boolean sniff) {
+        this.sniff = sniff;
+    }
+
+    public long getSpoolSizeBytes() {
+        return spoolSizeBytes;
+    }
+
+    public void setSpoolSizeBytes(long spoolSizeBytes) {
+        this.spoolSizeBytes = spoolSizeBytes;
+    }
+
+    public boolean isAdaptiveBulk() {
+        return adaptiveBulk;
+    }
+
+    public void setAdaptiveBulk(boolean adaptiveBulk) {
+        this.adaptiveBulk = adaptiveBulk;
+    }
+
+    public int getBulkSizeMin() {
+        return bulkSizeMin;
+    }
+
+    public void setBulkSizeMin(int bulkSizeMin) {
+        this.bulkSizeMin = bulkSizeMin;
+    }
+
+    public int getBulkSizeMax() {
+        return bulkSizeMax;
+    }
+
+    public void setBulkSizeMax(int bulkSizeMax) {
+        this.bulkSizeMax = bulkSizeMax;
+    }
+
+    public long getBulkSizeBytesMin() {
+        return bulkSizeBytesMin;
+    }
+
+    public void setBulkSizeBytesMin(long bulkSizeBytesMin) {
+        this.bulkSizeBytesMin = bulkSizeBytesMin;
+    }
+
+    public long getBulkSizeBytesMax() {
+        return bulkSizeBytesMax;
+    }
+
+    public void setBulkSizeBytesMax(long bulkSizeBytesMax) {
+        this.bulkSizeBytesMax = bulkSizeBytesMax;
+    }
+
+    public int getConcurrentRequestsMax() {
+        return concurrentRequestsMax;
+    }
+
+    public void setConcurrentRequestsMax(int concurrentRequestsMax) {
+        this.concurrentRequestsMax = concurrentRequestsMax;
+    }
+
+    public TimeValue getBulkLatencyTarget() {
+        return bulkLatencyTarget;
+    }
+
+    public void setBulkLatencyTarget(TimeValue bulkLatencyTarget) {
+        this.bulkLatencyTarget = bulkLatencyTarget;
+    }
+
     public static class Builder {
         private List<Node> nodes;
         private String index;
         private String type = FsCrawlerUtil.INDEX_TYPE_DOC;
         private int bulkSize = 100;
         private TimeValue flushInterval = TimeValue.timeValueSeconds(5);
+        private int concurrentRequests = 1;
+        private long bulkSizeBytes = 5 * 1024 * 1024;
+        private String transport = ElasticsearchClient.TRANSPORT_NET;
+        private int maxConnectionsPerNode = 10;
+        private TimeValue connectTimeout = TimeValue.timeValueSeconds(20);
+        private TimeValue socketTimeout = TimeValue.timeValueSeconds(20);
+        private int compressionLevel = 0;
+        private TimeValue healthCheckInterval = TimeValue.timeValueSeconds(10);
+        private boolean sniff = false;
+        private long spoolSizeBytes = 0;
+        private boolean adaptiveBulk = false;
+        private int bulkSizeMin = AdaptiveBulkController.DEFAULT_MIN_ACTIONS;
+        private int bulkSizeMax = AdaptiveBulkController.DEFAULT_MAX_ACTIONS;
+        private long bulkSizeBytesMin = AdaptiveBulkController.DEFAULT_MIN_BYTES;
+        private long bulkSizeBytesMax = AdaptiveBulkController.DEFAULT_MAX_BYTES;
+        private int concurrentRequestsMax = AdaptiveBulkController.DEFAULT_MAX_CONCURRENCY;
+        private TimeValue bulkLatencyTarget = AdaptiveBulkController.DEFAULT_TARGET_LATENCY;
 
         public Builder setNodes(List<Node> nodes) {
             this.nodes = nodes;
@@ -225,8 +419,96 @@ public class Elasticsearch {
             return this;
         }
 
+        public Builder setConcurrentRequests(int concurrentRequests) {
+            this.concurrentRequests = concurrentRequests;
+            return this;
+        }
+
+        public Builder setBulkSizeBytes(long bulkSizeBytes) {
+            this.bulkSizeBytes = bulkSizeBytes;
+            return this;
+        }
+
+        public Builder setTransport(String transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        public Builder setMaxConnectionsPerNode(int maxConnectionsPerNode) {
+            this.maxConnectionsPerNode = maxConnectionsPerNode;
+            return this;
+        }
+
+        public Builder setConnectTimeout(TimeValue connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public Builder setSocketTimeout(TimeValue socketTimeout) {
+            this.socketTimeout = socketTimeout;
+            return this;
+        }
+
+        public Builder setCompressionLevel(int compressionLevel) {
+            this.compressionLevel = compressionLevel;
+            return this;
+        }
+
+        public Builder setHealthCheckInterval(TimeValue healthCheckInterval) {
+            this.healthCheckInterval = healthCheckInterval;
+            return this;
+        }
+
+        public Builder setSniff(boolean sniff) {
+            this.sniff = sniff;
+            return this;
+        }
+
+        public Builder setSpoolSizeBytes(long spoolSizeBytes) {
+            this.spoolSizeBytes = spoolSizeBytes;
+            return this;
+        }
+
+        public Builder setAdaptiveBulk(boolean adaptiveBulk) {
+            this.adaptiveBulk = adaptiveBulk;
+            return this;
+        }
+
+        public Builder setBulkSizeMin(int bulkSizeMin) {
+            this.bulkSizeMin = bulkSizeMin;
+            return this;
+        }
+
+        public Builder setBulkSizeMax(int bulkSizeMax) {
+            this.bulkSizeMax = bulkSizeMax;
+            return this;
+        }
+
+        public Builder setBulkSizeBytesMin(long bulkSizeBytesMin) {
+            this.bulkSizeBytesMin = bulkSizeBytesMin;
+            return this;
+        }
+
+        public Builder setBulkSizeBytesMax(long bulkSizeBytesMax) {
+            this.bulkSizeBytesMax = bulkSizeBytesMax;
+            return this;
+        }
+
+        public Builder setConcurrentRequestsMax(int concurrentRequestsMax) {
+            this.concurrentRequestsMax = concurrentRequestsMax;
+            return this;
+        }
+
+        public Builder setBulkLatencyTarget(TimeValue bulkLatencyTarget) {
+            this.bulkLatencyTarget = bulkLatencyTarget;
+            return this;
+        }
+
         public Elasticsearch build() {
-            return new Elasticsearch(nodes, index, type, bulkSize, flushInterval);
+            return new Elasticsearch(nodes, index, type, bulkSize, flushInterval, concurrentRequests, bulkSizeBytes,
+                    transport, maxConnectionsPerNode, connectTimeout, socketTimeout, compressionLevel,
+                    healthCheckInterval, sniff, spoolSizeBytes, adaptiveBulk, bulkSizeMin, bulkSizeMax,
+                    bulkSizeBytesMin, bulkSizeBytesMax, concurrentRequestsMax, bulkLatencyTarget);
         }
     }
 
@@ -238,9 +520,28 @@ public class Elasticsearch {
         Elasticsearch that = (Elasticsearch) o;
 
         if (bulkSize != that.bulkSize) return false;
+        if (concurrentRequests != that.concurrentRequests) return false;
+        if (bulkSizeBytes != that.bulkSizeBytes) return false;
+        if (maxConnectionsPerNode != that.maxConnectionsPerNode) return false;
+        if (compressionLevel != that.compressionLevel) return false;
+        if (sniff != that.sniff) return false;
+        if (spoolSizeBytes != that.spoolSizeBytes) return false;
+        if (adaptiveBulk != that.adaptiveBulk) return false;
+        if (bulkSizeMin != that.bulkSizeMin) return false;
+        if (bulkSizeMax != that.bulkSizeMax) return false;
+        if (bulkSizeBytesMin != that.bulkSizeBytesMin) return false;
+        if (bulkSizeBytesMax != that.bulkSizeBytesMax) return false;
+        if (concurrentRequestsMax != that.concurrentRequestsMax) return false;
         if (nodes != null ? !nodes.equals(that.nodes) : that.nodes != null) return false;
         if (index != null ? !index.equals(that.index) : that.index != null) return false;
         if (type != null ? !type.equals(that.type) : that.type != null) return false;
+        if (transport != null ? !transport.equals(that.transport) : that.transport != null) return false;
+        if (connectTimeout != null ? !connectTimeout.equals(that.connectTimeout) : that.connectTimeout != null) return false;
+        if (socketTimeout != null ? !socketTimeout.equals(that.socketTimeout) : that.socketTimeout != null) return false;
+        if (healthCheckInterval != null ? !healthCheckInterval.equals(that.healthCheckInterval) :
+                that.healthCheckInterval != null) return false;
+        if (bulkLatencyTarget != null ? !bulkLatencyTarget.equals(that.bulkLatencyTarget) :
+                that.bulkLatencyTarget != null) return false;
         return !(flushInterval != null ? !flushInterval.equals(that.flushInterval) : that.flushInterval != null);
 
     }
@@ -252,6 +553,23 @@ public class Elasticsearch {
         result = 31 * result + (type != null ? type.hashCode() : 0);
         result = 31 * result + bulkSize;
         result = 31 * result + (flushInterval != null ? flushInterval.hashCode() : 0);
+        result = 31 * result + concurrentRequests;
+        result = 31 * result + (int) (bulkSizeBytes ^ (bulkSizeBytes >>> 32));
+        result = 31 * result + (transport != null ? transport.hashCode() : 0);
+        result = 31 * result + maxConnectionsPerNode;
+        result = 31 * result + (connectTimeout != null ? connectTimeout.hashCode() : 0);
+        result = 31 * result + (socketTimeout != null ? socketTimeout.hashCode() : 0);
+        result = 31 * result + compressionLevel;
+        result = 31 * result + (healthCheckInterval != null ? healthCheckInterval.hashCode() : 0);
+        result = 31 * result + (sniff ? 1 : 0);
+        result = 31 * result + (int) (spoolSizeBytes ^ (spoolSizeBytes >>> 32));
+        result = 31 * result + (adaptiveBulk ? 1 : 0);
+        result = 31 * result + bulkSizeMin;
+        result = 31 * result + bulkSizeMax;
+        result = 31 * result + (int) (bulkSizeBytesMin ^ (bulkSizeBytesMin >>> 32));
+        result = 31 * result + (int) (bulkSizeBytesMax ^ (bulkSizeBytesMax >>> 32));
+        result = 31 * result + concurrentRequestsMax;
+        result = 31 * result + (bulkLatencyTarget != null ? bulkLatencyTarget.hashCode() : 0);
         return result;
     }
 }
@@ -19,6 +19,9 @@
 
 package fr.pilato.elasticsearch.crawler.fs.meta.settings;
 
+import fr.pilato.elasticsearch.crawler.fs.ExtractionProcesses;
+import fr.pilato.elasticsearch.crawler.fs.SignTool;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -35,6 +38,19 @@ public class Fs {
     private boolean indexContent;
     private Percentage indexedChars;
     private boolean attributesSupport;
+    private int parallelism;
+    private int extractionThreads;
+    private int extractionQueueSize;
+    private boolean localState;
+    private boolean watch;
+    private String idHash;
+    private long extractionCacheSizeBytes;
+    private int extractionProcesses;
+    private TimeValue extractionTimeout;
+    private long extractionHeapBytes;
+    private boolean addChecksum;
+    private TimeValue checkpointInterval;
+    private boolean recentFirst;
 
     public static Builder builder() {
         return new Builder();
@@ -56,6 +72,19 @@ public class Fs {
         private boolean indexContent = true;
         private Percentage indexedChars = null;
         private boolean attributesSupport = false;
+        private int parallelism = 1;
+        private int extractionThreads = 0;
+        private int extractionQueueSize = 100;
+        private boolean localState = false;
+        private boolean watch = false;
+        private String idHash = SignTool.LEGACY;
+        private long extractionCacheSizeBytes = 0;
+        private int extractionProcesses = 0;
+        private TimeValue extractionTimeout = ExtractionProcesses.DEFAULT_TIMEOUT;
+        private long extractionHeapBytes = ExtractionProcesses.DEFAULT_HEAP_BYTES;
+        private boolean addChecksum = false;
+        private TimeValue checkpointInterval = null;
+        private boolean recentFirst = false;
 
         public Builder setUrl(String url) {
             this.url = url;
@@ -143,9 +172,77 @@ public class Fs {
             return this;
         }
 
+        public Builder setParallelism(int parallelism) {
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        public Builder setExtractionThreads(int extractionThreads) {
+            this.extractionThreads = extractionThreads;
+            return this;
+        }
+
+        public Builder setExtractionQueueSize(int extractionQueueSize) {
+            this.extractionQueueSize = extractionQueueSize;
+            return this;
+        }
+
+        public Builder setLocalState(boolean localState) {
+            this.localState = localState;
+            return this;
+        }
+
+        public Builder setWatch(boolean watch) {
+            this.watch = watch;
+            return this;
+        }
+
+        public Builder setIdHash(String idHash) {
+            this.idHash = idHash;
+            return this;
+        }
+
+        public Builder setExtractionCacheSizeBytes(long extractionCacheSizeBytes) {
+            this.extractionCacheSizeBytes = extractionCacheSizeBytes;
+            return this;
+        }
+
+        public Builder setExtractionProcesses(int extractionProcesses) {
+            this.extractionProcesses = extractionProcesses;
+            return this;
+        }
+
+        public Builder setExtractionTimeout(TimeValue extractionTimeout) {
+            this.extractionTimeout = extractionTimeout;
+            return this;
+        }
+
+        public Builder setExtractionHeapBytes(long extractionHeapBytes) {
+            this.extractionHeapBytes = extractionHeapBytes;
+            return this;
+        }
+
+        public Builder setAddChecksum(boolean addChecksum) {
+            this.addChecksum = addChecksum;
+            return this;
+        }
+
+        public Builder setCheckpointInterval(TimeValue checkpointInterval) {
+            this.checkpointInterval = checkpointInterval;
+            return this;
+        }
+
+        public Builder setRecentFirst(boolean recentFirst) {
+            this.recentFirst = recentFirst;
+            return this;
+        }
+
         public Fs build() {
             return new Fs(url, updateRate, includes, excludes, jsonSupport, filenameAsId, addFilesize,
-                    removeDeleted, storeSource, indexedChars, indexContent, attributesSupport);
+                    removeDeleted, storeSource, indexedChars, indexContent, attributesSupport, parallelism,
+                    extractionThreads, extractionQueueSize, localState, watch, idHash,
+                    extractionCacheSizeBytes, extractionProcesses, extractionTimeout, extractionHeapBytes,
+                    addChecksum, checkpointInterval, recentFirst);
         }
     }
 
@@ -155,7 +252,10 @@ public class Fs {
 
     Fs(String url, TimeValue updateRate, List<String> includes, List<String> excludes, boolean jsonSupport,
        boolean filenameAsId, boolean addFilesize, boolean removeDeleted, boolean storeSource, Percentage indexedChars,
-       boolean indexContent, boolean attributesSupport) {
+       boolean indexContent, boolean attributesSupport, int parallelism, int extractionThreads,
+       int extractionQueueSize, boolean localState, boolean watch, String idHash, long extractionCacheSizeBytes,
+       int extractionProcesses, TimeValue extractionTimeout, long extractionHeapBytes, boolean addChecksum,
+       TimeValue checkpointInterval, boolean recentFirst) {
         this.url = url;
         this.updateRate = updateRate;
         this.includes = includes;
@@ -168,6 +268,19 @@ public class Fs {
         this.indexedChars = indexedChars;
         this.indexContent = indexContent;
         this.attributesSupport = attributesSupport;
+        this.parallelism = parallelism;
+        this.extractionThreads = extractionThreads;
+        this.extractionQueueSize = extractionQueueSize;
+        this.localState = localState;
+        this.watch = watch;
+        this.idHash = idHash;
+        this.extractionCacheSizeBytes = extractionCacheSizeBytes;
+        this.extractionProcesses = extractionProcesses;
+        this.extractionTimeout = extractionTimeout;
+        this.extractionHeapBytes = extractionHeapBytes;
+        this.addChecksum = addChecksum;
+        this.checkpointInterval = checkpointInterval;
+        this.recentFirst = recentFirst;
     }
 
     public String getUrl() {
@@ -266,6 +379,110 @@ public class Fs {
         this.attributesSupport = attributesSupport;
     }
 
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int getExtractionThreads() {
+        return extractionThreads;
+    }
+
+    public void setExtractionThreads(int extractionThreads) {
+        this.extractionThreads = extractionThreads;
+    }
+
+    public int getExtractionQueueSize() {
+        return extractionQueueSize;
+    }
+
+    public void setExtractionQueueSize(int extractionQueueSize) {
+        this.extractionQueueSize = extractionQueueSize;
+    }
+
+    public boolean isLocalState() {
+        return localState;
+    }
+
+    public void setLocalState(boolean localState) {
+        this.localState = localState;
+    }
+
+    public boolean isWatch() {
+        return watch;
+    }
+
+    public void setWatch(boolean watch) {
+        this.watch = watch;
+    }
+
+    public String getIdHash() {
+        return idHash;
+    }
+
+    public void setIdHash(String idHash) {
+        this.idHash = idHash;
+    }
+
+    public long getExtractionCacheSizeBytes() {
+        return extractionCacheSizeBytes;
+    }
+
+    public void setExtractionCacheSizeBytes(long extractionCacheSizeBytes) {
+        this.extractionCacheSizeBytes = extractionCacheSizeBytes;
+    }
+
+    public int getExtractionProcesses() {
+        return extractionProcesses;
+    }
+
+    public void setExtractionProcesses(int extractionProcesses) {
+        this.extractionProcesses = extractionProcesses;
+    }
+
+    public TimeValue getExtractionTimeout() {
+        return extractionTimeout;
+    }
+
+    public void setExtractionTimeout(TimeValue extractionTimeout) {
+        this.extractionTimeout = extractionTimeout;
+    }
+
+    public long getExtractionHeapBytes() {
+        return extractionHeapBytes;
+    }
+
+    public void setExtractionHeapBytes(long extractionHeapBytes) {
+        this.extractionHeapBytes = extractionHeapBytes;
+    }
+
+    public boolean isAddChecksum() {
+        return addChecksum;
+    }
+
+    public void setAddChecksum(boolean addChecksum) {
+        this.addChecksum = addChecksum;
+    }
+
+    public TimeValue getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public void setCheckpointInterval(TimeValue checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    public boolean isRecentFirst() {
+        return recentFirst;
+    }
+
+    public void setRecentFirst(boolean recentFirst) {
+        this.recentFirst = recentFirst;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -280,10 +497,23 @@ public class Fs {
         if (storeSource != fs.storeSource) return false;
         if (indexContent != fs.indexContent) return false;
         if (attributesSupport != fs.attributesSupport) return false;
+        if (parallelism != fs.parallelism) return false;
+        if (extractionThreads != fs.extractionThreads) return false;
+        if (extractionQueueSize != fs.extractionQueueSize) return false;
+        if (localState != fs.localState) return false;
+        if (watch != fs.watch) return false;
+        if (extractionCacheSizeBytes != fs.extractionCacheSizeBytes) return false;
+        if (extractionProcesses != fs.extractionProcesses) return false;
+        if (extractionHeapBytes != fs.extractionHeapBytes) return false;
+        if (addChecksum != fs.addChecksum) return false;
+        if (recentFirst != fs.recentFirst) return false;
         if (url != null ? !url.equals(fs.url) : fs.url != null) return false;
         if (updateRate != null ? !updateRate.equals(fs.updateRate) : fs.updateRate != null) return false;
         if (includes != null ? !includes.equals(fs.includes) : fs.includes != null) return false;
         if (excludes != null ? !excludes.equals(fs.excludes) : fs.excludes != null) return false;
+        if (idHash != null ? !idHash.equals(fs.idHash) : fs.idHash != null) return false;
+        if (extractionTimeout != null ? !extractionTimeout.equals(fs.extractionTimeout) : fs.extractionTimeout != null) return false;
+        if (checkpointInterval != null ? !checkpointInterval.equals(fs.checkpointInterval) : fs.checkpointInterval != null) return false;
         return !(indexedChars != null ? !indexedChars.equals(fs.indexedChars) : fs.indexedChars != null);
 
     }
@@ -302,6 +532,19 @@ public class Fs {
         result = 31 * result + (indexContent ? 1 : 0);
         result = 31 * result + (indexedChars != null ? indexedChars.hashCode() : 0);
         result = 31 * result + (attributesSupport ? 1 : 0);
+        result = 31 * result + parallelism;
+        result = 31 * result + extractionThreads;
+        result = 31 * result + extractionQueueSize;
+        result = 31 * result + (localState ? 1 : 0);
+        result = 31 * result + (watch ? 1 : 0);
+        result = 31 * result + (idHash != null ? idHash.hashCode() : 0);
+        result = 31 * result + (int) (extractionCacheSizeBytes ^ (extractionCacheSizeBytes >>> 32));
+        result = 31 * result + extractionProcesses;
+        result = 31 * result + (extractionTimeout != null ? extractionTimeout.hashCode() : 0);
+        result = 31 * result + (int) (extractionHeapBytes ^ (extractionHeapBytes >>> 32));
+        result = 31 * result + (addChecksum ? 1 : 0);
+        result = 31 * result + (checkpointInterval != null ? checkpointInterval.hashCode() : 0);
+        result = 31 * result + (recentFirst ? 1 : 0);
         return result;
     }
 }
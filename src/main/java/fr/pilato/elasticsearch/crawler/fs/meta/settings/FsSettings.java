@@ -25,16 +25,18 @@ public class FsSettings {
     private Fs fs;
     private Server server;
     private Elasticsearch elasticsearch;
+    private Metrics metrics;
 
     public FsSettings() {
 
     }
 
-    private FsSettings(String name, Fs fs, Server server, Elasticsearch elasticsearch) {
+    private FsSettings(String name, Fs fs, Server server, Elasticsearch elasticsearch, Metrics metrics) {
         this.name = name;
         this.fs = fs;
         this.server = server;
         this.elasticsearch = elasticsearch;
+        this.metrics = metrics;
     }
 
     public static Builder builder(String name) {
@@ -46,6 +48,7 @@ public class FsSettings {
         private Fs fs = Fs.DEFAULT;
         private Server server = null;
         private Elasticsearch elasticsearch = Elasticsearch.DEFAULT;
+        private Metrics metrics = null;
 
         private Builder setName(String name) {
             this.name = name;
@@ -67,8 +70,13 @@ public class FsSettings {
             return this;
         }
 
+        public Builder setMetrics(Metrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
         public FsSettings build() {
-            return new FsSettings(name, fs, server, elasticsearch);
+            return new FsSettings(name, fs, server, elasticsearch, metrics);
         }
     }
 
@@ -104,6 +112,14 @@ public class FsSettings {
         this.elasticsearch = elasticsearch;
     }
 
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -114,6 +130,7 @@ public class FsSettings {
         if (name != null ? !name.equals(that.name) : that.name != null) return false;
         if (fs != null ? !fs.equals(that.fs) : that.fs != null) return false;
         if (server != null ? !server.equals(that.server) : that.server != null) return false;
+        if (metrics != null ? !metrics.equals(that.metrics) : that.metrics != null) return false;
         return !(elasticsearch != null ? !elasticsearch.equals(that.elasticsearch) : that.elasticsearch != null);
 
     }
@@ -124,6 +141,7 @@ public class FsSettings {
         result = 31 * result + (fs != null ? fs.hashCode() : 0);
         result = 31 * result + (server != null ? server.hashCode() : 0);
         result = 31 * result + (elasticsearch != null ? elasticsearch.hashCode() : 0);
+        result = 31 * result + (metrics != null ? metrics.hashCode() : 0);
         return result;
     }
 }
@@ -23,17 +23,23 @@ import fr.pilato.elasticsearch.crawler.fs.FsCrawlerImpl.PROTOCOL;
 
 public class Server {
 
+    public static final int DEFAULT_SESSIONS = 1;
+    public static final int DEFAULT_CHANNELS = 4;
+
     public Server() {
 
     }
 
-    private Server(String hostname, int port, String username, String password, String protocol, String pemPath) {
+    private Server(String hostname, int port, String username, String password, String protocol, String pemPath,
+                   int sessions, int channels) {
         this.hostname = hostname;
         this.port = port;
         this.username = username;
         this.password = password;
         this.protocol = protocol;
         this.pemPath = pemPath;
+        this.sessions = sessions;
+        this.channels = channels;
     }
 
     private String hostname;
@@ -42,6 +48,8 @@ public class Server {
     private String password;
     private String protocol;
     private String pemPath;
+    private int sessions = DEFAULT_SESSIONS;
+    private int channels = DEFAULT_CHANNELS;
 
     public String getHostname() {
         return hostname;
@@ -91,6 +99,22 @@ public class Server {
         this.pemPath = pemPath;
     }
 
+    public int getSessions() {
+        return sessions;
+    }
+
+    public void setSessions(int sessions) {
+        this.sessions = sessions;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public void setChannels(int channels) {
+        this.channels = channels;
+    }
+
     public static Builder builder() {
         return new Builder();
     }
@@ -102,6 +126,8 @@ public class Server {
         private String password = null;
         private String protocol = PROTOCOL.LOCAL;
         private String pemPath = null;
+        private int sessions = DEFAULT_SESSIONS;
+        private int channels = DEFAULT_CHANNELS;
 
         public Builder setHostname(String hostname) {
             this.hostname = hostname;
@@ -133,8 +159,18 @@ public class Server {
             return this;
         }
 
+        public Builder setSessions(int sessions) {
+            this.sessions = sessions;
+            return this;
+        }
+
+        public Builder setChannels(int channels) {
+            this.channels = channels;
+            return this;
+        }
+
         public Server build() {
-            return new Server(hostname, port, username, password, protocol, pemPath);
+            return new Server(hostname, port, username, password, protocol, pemPath, sessions, channels);
         }
     }
 
@@ -146,6 +182,8 @@ public class Server {
         Server server = (Server) o;
 
         if (port != server.port) return false;
+        if (sessions != server.sessions) return false;
+        if (channels != server.channels) return false;
         if (hostname != null ? !hostname.equals(server.hostname) : server.hostname != null) return false;
         if (username != null ? !username.equals(server.username) : server.username != null) return false;
         if (password != null ? !password.equals(server.password) : server.password != null) return false;
@@ -162,6 +200,8 @@ public class Server {
         result = 31 * result + (password != null ? password.hashCode() : 0);
         result = 31 * result + (protocol != null ? protocol.hashCode() : 0);
         result = 31 * result + (pemPath != null ? pemPath.hashCode() : 0);
+        result = 31 * result + sessions;
+        result = 31 * result + channels;
         return result;
     }
 }
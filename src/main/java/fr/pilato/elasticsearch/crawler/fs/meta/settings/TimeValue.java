@@ -190,11 +190,11 @@ public class TimeValue {
         }
         try {
             String lowerSValue = sValue.toLowerCase(Locale.ROOT).trim();
-            long duration = Long.parseLong(lowerSValue.substring(0, lowerSValue.length() - 1));
             TimeUnit unit;
+            int suffixLength = 1;
             if (lowerSValue.endsWith("ms")) {
                 // Well, with ms, we need to substring 2 chars
-                duration = Long.parseLong(lowerSValue.substring(0, lowerSValue.length() - 2));
+                suffixLength = 2;
                 unit = TimeUnit.MILLISECONDS;
             } else if (lowerSValue.endsWith("s")) {
                 unit = TimeUnit.SECONDS;
@@ -207,6 +207,7 @@ public class TimeValue {
             } else {
                 throw new IllegalArgumentException("Failed to parse timevalue [" + sValue + "]: unit is missing or unrecognized");
             }
+            long duration = Long.parseLong(lowerSValue.substring(0, lowerSValue.length() - suffixLength));
             return new TimeValue(duration, unit);
         } catch (NumberFormatException e) {
             throw new IllegalArgumentException("Failed to parse timevalue [" + sValue + "].");
@@ -0,0 +1,428 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.metrics;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Metrics of a crawler. They are updated for every file so recording a value only updates
+ * {@link java.util.concurrent.atomic.LongAdder}s.
+ *
+ * Metrics are exposed over JMX as fr.pilato.elasticsearch.crawler.fs:type=Crawler,name={job_name}
+ * and can be written in the Prometheus text format.
+ */
+public class CrawlerMetrics implements CrawlerMetricsMXBean {
+
+    private static final Logger logger = LogManager.getLogger(CrawlerMetrics.class);
+
+    public static final String JMX_DOMAIN = "fr.pilato.elasticsearch.crawler.fs";
+
+    private final String name;
+    private final String label;
+
+    private final Counter filesListed = new Counter();
+    private final Counter filesIndexed = new Counter();
+    private final Counter filesSkipped = new Counter();
+    private final Counter filesDeleted = new Counter();
+    private final Counter bytesRead = new Counter();
+    private final Counter bulkFailures = new Counter();
+    private final Counter bulkBodyBytes = new Counter();
+    private final Counter bulkBodyCompressedBytes = new Counter();
+    private final Counter extractionCacheHits = new Counter();
+    private final Counter extractionCacheMisses = new Counter();
+    private final Histogram extractionTime = new Histogram(Histogram.DURATION_BUCKETS);
+    private final Histogram bulkTime = new Histogram(Histogram.DURATION_BUCKETS);
+    private final Histogram bulkSize = new Histogram(Histogram.SIZE_BUCKETS);
+
+    private volatile LongSupplier extractionQueueDepth = () -> 0;
+    private volatile LongSupplier bulkPendingActions = () -> 0;
+    private volatile LongSupplier bulkRunning = () -> 0;
+    private volatile LongSupplier bulkMaxActions = () -> 0;
+    private volatile LongSupplier bulkMaxBytes = () -> 0;
+    private volatile LongSupplier bulkMaxConcurrency = () -> 0;
+    private volatile LongSupplier spoolSize = () -> 0;
+    private volatile LongSupplier nodesActive = () -> 0;
+    private volatile LongSupplier nodesTotal = () -> 0;
+
+    private ObjectName objectName;
+
+    public CrawlerMetrics(String name) {
+        this.name = name;
+        this.label = "job=\"" + escape(name) + "\"";
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Files and directories have been found while listing a directory
+     * @param count number of entries
+     */
+    public void filesListed(int count) {
+        filesListed.add(count);
+    }
+
+    public void fileIndexed(long size) {
+        filesIndexed.inc();
+        bytesRead.add(size);
+    }
+
+    /**
+     * A file has been ignored because it is excluded or because it has not changed
+     */
+    public void fileSkipped() {
+        filesSkipped.inc();
+    }
+
+    public void fileDeleted() {
+        filesDeleted.inc();
+    }
+
+    public void extraction(long millis) {
+        extractionTime.observe(millis);
+    }
+
+    /**
+     * The content of a file has been found in the extraction cache
+     */
+    public void extractionCacheHit() {
+        extractionCacheHits.inc();
+    }
+
+    /**
+     * The content of a file had to be extracted although we have an extraction cache
+     */
+    public void extractionCacheMiss() {
+        extractionCacheMisses.inc();
+    }
+
+    public void bulk(long millis, long sizeInBytes, boolean failed) {
+        bulkTime.observe(millis);
+        bulkSize.observe(sizeInBytes);
+        if (failed) {
+            bulkFailures.inc();
+        }
+    }
+
+    /**
+     * A bulk body has been compressed
+     * @param uncompressed size before compression
+     * @param compressed size sent over the network
+     */
+    public void bulkCompression(long uncompressed, long compressed) {
+        bulkBodyBytes.add(uncompressed);
+        bulkBodyCompressedBytes.add(compressed);
+    }
+
+    public void setExtractionQueueDepth(LongSupplier extractionQueueDepth) {
+        this.extractionQueueDepth = extractionQueueDepth;
+    }
+
+    public void setBulkPendingActions(LongSupplier bulkPendingActions) {
+        this.bulkPendingActions = bulkPendingActions;
+    }
+
+    public void setBulkRunning(LongSupplier bulkRunning) {
+        this.bulkRunning = bulkRunning;
+    }
+
+    public void setBulkMaxActions(LongSupplier bulkMaxActions) {
+        this.bulkMaxActions = bulkMaxActions;
+    }
+
+    public void setBulkMaxBytes(LongSupplier bulkMaxBytes) {
+        this.bulkMaxBytes = bulkMaxBytes;
+    }
+
+    public void setBulkMaxConcurrency(LongSupplier bulkMaxConcurrency) {
+        this.bulkMaxConcurrency = bulkMaxConcurrency;
+    }
+
+    public void setSpoolSize(LongSupplier spoolSize) {
+        this.spoolSize = spoolSize;
+    }
+
+    public void setNodesActive(LongSupplier nodesActive) {
+        this.nodesActive = nodesActive;
+    }
+
+    public void setNodesTotal(LongSupplier nodesTotal) {
+        this.nodesTotal = nodesTotal;
+    }
+
+    @Override
+    public long getFilesListed() {
+        return filesListed.get();
+    }
+
+    @Override
+    public long getFilesIndexed() {
+        return filesIndexed.get();
+    }
+
+    @Override
+    public long getFilesSkipped() {
+        return filesSkipped.get();
+    }
+
+    @Override
+    public long getFilesDeleted() {
+        return filesDeleted.get();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    @Override
+    public long getExtractionCount() {
+        return extractionTime.getCount();
+    }
+
+    @Override
+    public double getExtractionMeanMillis() {
+        return extractionTime.getMean();
+    }
+
+    @Override
+    public long getExtractionCacheHits() {
+        return extractionCacheHits.get();
+    }
+
+    @Override
+    public long getExtractionCacheMisses() {
+        return extractionCacheMisses.get();
+    }
+
+    @Override
+    public long getBulkCount() {
+        return bulkTime.getCount();
+    }
+
+    @Override
+    public double getBulkMeanMillis() {
+        return bulkTime.getMean();
+    }
+
+    @Override
+    public double getBulkMeanBytes() {
+        return bulkSize.getMean();
+    }
+
+    @Override
+    public long getBulkFailures() {
+        return bulkFailures.get();
+    }
+
+    @Override
+    public double getBulkCompressionRatio() {
+        long uncompressed = bulkBodyBytes.get();
+        return uncompressed == 0 ? 1.0 : (double) bulkBodyCompressedBytes.get() / uncompressed;
+    }
+
+    @Override
+    public long getExtractionQueueDepth() {
+        return extractionQueueDepth.getAsLong();
+    }
+
+    @Override
+    public long getBulkPendingActions() {
+        return bulkPendingActions.getAsLong();
+    }
+
+    @Override
+    public long getBulkRunning() {
+        return bulkRunning.getAsLong();
+    }
+
+    @Override
+    public long getBulkMaxActions() {
+        return bulkMaxActions.getAsLong();
+    }
+
+    @Override
+    public long getBulkMaxBytes() {
+        return bulkMaxBytes.getAsLong();
+    }
+
+    @Override
+    public long getBulkMaxConcurrency() {
+        return bulkMaxConcurrency.getAsLong();
+    }
+
+    @Override
+    public long getSpoolSizeBytes() {
+        return spoolSize.getAsLong();
+    }
+
+    @Override
+    public long getNodesActive() {
+        return nodesActive.getAsLong();
+    }
+
+    @Override
+    public long getNodesTotal() {
+        return nodesTotal.getAsLong();
+    }
+
+    /**
+     * Register the metrics in the platform MBean server. Errors are logged and ignored.
+     */
+    public synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=Crawler,name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                // A previous crawler with the same name has not been closed
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (Exception e) {
+            logger.warn("Can not register metrics for [{}] in JMX: {}", name, e.getMessage());
+            logger.debug("", e);
+        }
+    }
+
+    public synchronized void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception e) {
+            logger.debug("Can not unregister metrics for [{}] from JMX", name, e);
+        }
+        objectName = null;
+    }
+
+    /**
+     * Write metrics in the Prometheus text format. All the samples of a metric are written together.
+     * @param out where to write
+     * @param metrics metrics of one or more crawlers
+     */
+    public static void writePrometheus(StringBuilder out, Collection<CrawlerMetrics> metrics) {
+        counter(out, metrics, "fscrawler_files_listed_total", "Files and directories listed",
+                m -> m.filesListed.get());
+        counter(out, metrics, "fscrawler_files_indexed_total", "Files sent to elasticsearch",
+                m -> m.filesIndexed.get());
+        counter(out, metrics, "fscrawler_files_skipped_total", "Files ignored because excluded or not modified",
+                m -> m.filesSkipped.get());
+        counter(out, metrics, "fscrawler_files_deleted_total", "Files removed from elasticsearch",
+                m -> m.filesDeleted.get());
+        counter(out, metrics, "fscrawler_bytes_read_total", "Size of the files sent to elasticsearch",
+                m -> m.bytesRead.get());
+        counter(out, metrics, "fscrawler_bulk_failures_total", "Bulks which failed or had failed items",
+                m -> m.bulkFailures.get());
+        counter(out, metrics, "fscrawler_bulk_body_bytes_total", "Size of the compressed bulk bodies before compression",
+                m -> m.bulkBodyBytes.get());
+        counter(out, metrics, "fscrawler_bulk_body_compressed_bytes_total", "Size of the compressed bulk bodies",
+                m -> m.bulkBodyCompressedBytes.get());
+        counter(out, metrics, "fscrawler_extraction_cache_hits_total", "Files found in the extraction cache",
+                m -> m.extractionCacheHits.get());
+        counter(out, metrics, "fscrawler_extraction_cache_misses_total", "Files not found in the extraction cache",
+                m -> m.extractionCacheMisses.get());
+        histogram(out, metrics, "fscrawler_extraction_duration_seconds", "Time to extract the content of a file",
+                m -> m.extractionTime, 1000.0);
+        histogram(out, metrics, "fscrawler_bulk_duration_seconds", "Time to execute a bulk", m -> m.bulkTime, 1000.0);
+        histogram(out, metrics, "fscrawler_bulk_size_bytes", "Estimated size of a bulk", m -> m.bulkSize, 1.0);
+        gauge(out, metrics, "fscrawler_extraction_queue_depth", "Files waiting for an extraction worker",
+                CrawlerMetrics::getExtractionQueueDepth);
+        gauge(out, metrics, "fscrawler_bulk_pending_actions", "Actions waiting for the next bulk",
+                CrawlerMetrics::getBulkPendingActions);
+        gauge(out, metrics, "fscrawler_bulk_running", "Bulks being executed", CrawlerMetrics::getBulkRunning);
+        gauge(out, metrics, "fscrawler_bulk_max_actions", "Current maximum number of actions of a bulk",
+                CrawlerMetrics::getBulkMaxActions);
+        gauge(out, metrics, "fscrawler_bulk_max_bytes", "Current maximum estimated size of a bulk",
+                CrawlerMetrics::getBulkMaxBytes);
+        gauge(out, metrics, "fscrawler_bulk_max_concurrency", "Current maximum number of bulks executed at once",
+                CrawlerMetrics::getBulkMaxConcurrency);
+        gauge(out, metrics, "fscrawler_spool_size_bytes", "Size of the bulks waiting in the spool",
+                CrawlerMetrics::getSpoolSizeBytes);
+        gauge(out, metrics, "fscrawler_elasticsearch_nodes_active", "Elasticsearch nodes considered as active",
+                CrawlerMetrics::getNodesActive);
+        gauge(out, metrics, "fscrawler_elasticsearch_nodes", "Elasticsearch nodes", CrawlerMetrics::getNodesTotal);
+    }
+
+    private static void header(StringBuilder out, String metric, String help, String type) {
+        out.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+    }
+
+    private static void counter(StringBuilder out, Collection<CrawlerMetrics> metrics, String metric, String help,
+                                ToLongFunction<CrawlerMetrics> value) {
+        header(out, metric, help, "counter");
+        for (CrawlerMetrics m : metrics) {
+            out.append(metric).append('{').append(m.label).append("} ").append(value.applyAsLong(m)).append('\n');
+        }
+    }
+
+    private static void gauge(StringBuilder out, Collection<CrawlerMetrics> metrics, String metric, String help,
+                              ToLongFunction<CrawlerMetrics> value) {
+        header(out, metric, help, "gauge");
+        for (CrawlerMetrics m : metrics) {
+            out.append(metric).append('{').append(m.label).append("} ").append(value.applyAsLong(m)).append('\n');
+        }
+    }
+
+    private static void histogram(StringBuilder out, Collection<CrawlerMetrics> metrics, String metric, String help,
+                                  Function<CrawlerMetrics, Histogram> value, double divisor) {
+        header(out, metric, help, "histogram");
+        for (CrawlerMetrics m : metrics) {
+            Histogram histogram = value.apply(m);
+            long[] bounds = histogram.getBounds();
+            long[] buckets = histogram.getBuckets();
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += buckets[i];
+                out.append(metric).append("_bucket{").append(m.label).append(",le=\"")
+                        .append(format(bounds[i] / divisor)).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += buckets[bounds.length];
+            out.append(metric).append("_bucket{").append(m.label).append(",le=\"+Inf\"} ").append(cumulative)
+                    .append('\n');
+            out.append(metric).append("_sum{").append(m.label).append("} ").append(format(histogram.getSum() / divisor))
+                    .append('\n');
+            out.append(metric).append("_count{").append(m.label).append("} ").append(cumulative).append('\n');
+        }
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value)) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
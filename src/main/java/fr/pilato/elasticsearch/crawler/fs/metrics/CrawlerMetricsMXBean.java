@@ -0,0 +1,75 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.metrics;
+
+/**
+ * Crawler metrics exposed over JMX
+ */
+public interface CrawlerMetricsMXBean {
+
+    long getFilesListed();
+
+    long getFilesIndexed();
+
+    long getFilesSkipped();
+
+    long getFilesDeleted();
+
+    long getBytesRead();
+
+    long getExtractionCount();
+
+    double getExtractionMeanMillis();
+
+    long getExtractionCacheHits();
+
+    long getExtractionCacheMisses();
+
+    long getBulkCount();
+
+    double getBulkMeanMillis();
+
+    double getBulkMeanBytes();
+
+    long getBulkFailures();
+
+    /**
+     * @return size of the compressed bulk bodies divided by their size before compression, 1 if nothing was compressed
+     */
+    double getBulkCompressionRatio();
+
+    long getExtractionQueueDepth();
+
+    long getBulkPendingActions();
+
+    long getBulkRunning();
+
+    long getBulkMaxActions();
+
+    long getBulkMaxBytes();
+
+    long getBulkMaxConcurrency();
+
+    long getSpoolSizeBytes();
+
+    long getNodesActive();
+
+    long getNodesTotal();
+}
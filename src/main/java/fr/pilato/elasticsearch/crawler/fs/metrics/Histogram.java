@@ -0,0 +1,96 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts values in fixed buckets, like Prometheus histograms. Recording a value does not allocate
+ * and does not lock.
+ */
+public class Histogram {
+
+    /**
+     * Buckets for durations in milliseconds
+     */
+    public static final long[] DURATION_BUCKETS = { 1, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000,
+            60000 };
+
+    /**
+     * Buckets for sizes in bytes
+     */
+    public static final long[] SIZE_BUCKETS = { 1024, 10 * 1024, 100 * 1024, 1024 * 1024, 5 * 1024 * 1024,
+            10 * 1024 * 1024, 50 * 1024 * 1024, 100 * 1024 * 1024 };
+
+    private final long[] bounds;
+    // One more bucket for the values greater than the last bound
+    private final LongAdder[] buckets;
+    private final LongAdder sum = new LongAdder();
+
+    public Histogram(long[] bounds) {
+        this.bounds = bounds.clone();
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void observe(long value) {
+        int i = 0;
+        while (i < bounds.length && value > bounds[i]) {
+            i++;
+        }
+        buckets[i].increment();
+        sum.add(value);
+    }
+
+    public long[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * @return the number of values in each bucket, not cumulative. The last one is for the values
+     * greater than the last bound.
+     */
+    public long[] getBuckets() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) getSum() / count;
+    }
+}
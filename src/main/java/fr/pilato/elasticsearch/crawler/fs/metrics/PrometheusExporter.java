@@ -0,0 +1,97 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Serves crawler metrics in the Prometheus text format on http://host:port/metrics
+ */
+public class PrometheusExporter {
+
+    private static final Logger logger = LogManager.getLogger(PrometheusExporter.class);
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final CopyOnWriteArrayList<CrawlerMetrics> metrics = new CopyOnWriteArrayList<>();
+    private final HttpServer server;
+
+    public PrometheusExporter(String host, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        server.createContext("/metrics", this::handle);
+        server.start();
+        logger.info("Metrics available on http://{}:{}/metrics", host, getPort());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Expose metrics. Metrics which are already exposed are ignored so jobs can share some metrics.
+     * @param crawlerMetrics the metrics to expose
+     */
+    public void add(CrawlerMetrics crawlerMetrics) {
+        metrics.addIfAbsent(crawlerMetrics);
+    }
+
+    public void remove(CrawlerMetrics crawlerMetrics) {
+        metrics.remove(crawlerMetrics);
+    }
+
+    /**
+     * @return all the metrics in the Prometheus text format
+     */
+    public String scrape() {
+        StringBuilder sb = new StringBuilder();
+        CrawlerMetrics.writePrometheus(sb, metrics);
+        return sb.toString();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    public void close() {
+        server.stop(0);
+    }
+}
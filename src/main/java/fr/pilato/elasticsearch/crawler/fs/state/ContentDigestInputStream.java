@@ -0,0 +1,190 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.state;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Computes the SHA-256 hash of a content while it's being read, and the hash of its first
+ * {@link #PREFIX_SIZE} bytes. The prefix hash lets us guess that we have already seen a content before
+ * reading it fully.
+ */
+public class ContentDigestInputStream extends FilterInputStream {
+
+    public static final int PREFIX_SIZE = 64 * 1024;
+
+    /**
+     * Number of hexadecimal characters of the prefix hash we keep
+     */
+    private static final int PREFIX_HASH_LENGTH = 16;
+
+    private final MessageDigest digest = FileStateStore.newDigest();
+    private final MessageDigest prefixDigest = FileStateStore.newDigest();
+    private long position;
+    private boolean eof;
+    private String hash;
+    private String prefixHash;
+
+    public ContentDigestInputStream(InputStream in) {
+        super(in);
+    }
+
+    private void update(byte[] b, int off, int len) {
+        digest.update(b, off, len);
+        if (position < PREFIX_SIZE) {
+            prefixDigest.update(b, off, (int) Math.min(len, PREFIX_SIZE - position));
+        }
+        position += len;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            eof = true;
+        } else {
+            update(new byte[] { (byte) b }, 0, 1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = in.read(b, off, len);
+        if (read == -1) {
+            eof = true;
+        } else {
+            update(b, off, read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes must be hashed as well
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        // Not supported
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /**
+     * Read the first {@link #PREFIX_SIZE} bytes of the content, or less if the content is smaller
+     * @return what we have read
+     * @throws IOException in case of error while reading
+     */
+    public byte[] readPrefix() throws IOException {
+        if (position != 0) {
+            throw new IllegalStateException("content has already been read");
+        }
+        byte[] prefix = new byte[PREFIX_SIZE];
+        int length = 0;
+        while (length < PREFIX_SIZE) {
+            int read = read(prefix, length, PREFIX_SIZE - length);
+            if (read == -1) {
+                break;
+            }
+            length += read;
+        }
+        return length == PREFIX_SIZE ? prefix : Arrays.copyOf(prefix, length);
+    }
+
+    /**
+     * Read what is left of the content
+     * @return the hash of the whole content
+     * @throws IOException in case of error while reading
+     */
+    public String drain() throws IOException {
+        byte[] buffer = new byte[8192];
+        while (!eof) {
+            read(buffer, 0, buffer.length);
+        }
+        return hash();
+    }
+
+    /**
+     * Read what is left of the content and copy it
+     * @param copy where we write what we read
+     * @return the hash of the whole content
+     * @throws IOException in case of error while reading or writing
+     */
+    public String drain(OutputStream copy) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (!eof) {
+            int read = read(buffer, 0, buffer.length);
+            if (read > 0) {
+                copy.write(buffer, 0, read);
+            }
+        }
+        return hash();
+    }
+
+    /**
+     * @return the hexadecimal hash of the whole content. The content must have been fully read.
+     */
+    public String hash() {
+        if (!eof) {
+            throw new IllegalStateException("content has not been fully read");
+        }
+        if (hash == null) {
+            hash = FileStateStore.toHex(digest);
+        }
+        return hash;
+    }
+
+    /**
+     * @return a short hexadecimal hash of the first {@link #PREFIX_SIZE} bytes. They must have been read.
+     */
+    public String prefixHash() {
+        if (position < PREFIX_SIZE && !eof) {
+            throw new IllegalStateException("beginning of the content has not been read");
+        }
+        if (prefixHash == null) {
+            prefixHash = FileStateStore.toHex(prefixDigest).substring(0, PREFIX_HASH_LENGTH);
+        }
+        return prefixHash;
+    }
+}
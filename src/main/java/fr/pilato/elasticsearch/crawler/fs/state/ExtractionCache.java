@@ -0,0 +1,350 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.state;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static fr.pilato.elasticsearch.crawler.fs.meta.MetaParser.mapper;
+
+/**
+ * On disk cache of what Tika extracted from files, so we don't extract the same content twice.
+ *
+ * Entries are keyed by the size and the SHA-256 hash of the content and by the maximum number of characters
+ * we extracted. The key also contains the hash of the beginning of the content (see
+ * {@link ContentDigestInputStream#prefixHash()}), so we can know that we probably have a content in the cache
+ * before reading it fully. Each entry is a json file in ~/.fscrawler/{job_name}_cache. When the cache is bigger
+ * than its maximum size, the least recently used entries are removed. The last modified date of the entry files
+ * keeps track of their last use across restarts.
+ *
+ * A content can be locked while it's being extracted so other threads wait for its extraction instead of
+ * extracting it as well.
+ */
+public class ExtractionCache {
+
+    private static final Logger logger = LogManager.getLogger(ExtractionCache.class);
+
+    public static final String DIR_SUFFIX = "_cache";
+
+    private static final String EXTENSION = ".json";
+    private static final String TMP_EXTENSION = ".tmp";
+
+    private final Path dir;
+    private final long maxSizeInBytes;
+
+    /**
+     * Size on disk of every entry, from the least to the most recently used
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Number of entries for every content size and prefix hash
+     */
+    private final Map<String, Integer> prefixes = new HashMap<>();
+
+    /**
+     * Contents being extracted, by size and prefix hash
+     */
+    private final Set<String> locked = new HashSet<>();
+
+    private long sizeInBytes;
+
+    public ExtractionCache(Path dir, long maxSizeInBytes) throws IOException {
+        this.dir = dir;
+        this.maxSizeInBytes = maxSizeInBytes;
+        Files.createDirectories(dir);
+        load();
+    }
+
+    private void load() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TMP_EXTENSION)) {
+                    // An entry we did not finish to write
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(EXTENSION)) {
+                    files.add(file);
+                }
+            }
+        }
+
+        // Least recently used entries first
+        Map<Path, FileTime> lastUse = new HashMap<>();
+        for (Path file : files) {
+            lastUse.put(file, Files.getLastModifiedTime(file));
+        }
+        files.sort((f1, f2) -> lastUse.get(f1).compareTo(lastUse.get(f2)));
+
+        synchronized (this) {
+            for (Path file : files) {
+                String key = file.getFileName().toString();
+                key = key.substring(0, key.length() - EXTENSION.length());
+                if (prefix(key) == null) {
+                    logger.debug("ignoring unknown file [{}] in [{}]", file.getFileName(), dir);
+                    continue;
+                }
+                added(key, Files.size(file));
+            }
+            evict();
+        }
+        logger.debug("[{}] extractions loaded from [{}]", entries.size(), dir);
+    }
+
+    private static String prefix(long contentSize, String prefixHash) {
+        return contentSize + "-" + prefixHash;
+    }
+
+    private static String key(long contentSize, String prefixHash, String hash, int indexedChars) {
+        return prefix(contentSize, prefixHash) + "-" + hash + "-" + indexedChars;
+    }
+
+    /**
+     * @return the size and prefix hash part of a key or null if it's not a valid key
+     */
+    private static String prefix(String key) {
+        // indexedChars might be -1
+        String[] parts = key.split("-", 4);
+        if (parts.length != 4) {
+            return null;
+        }
+        try {
+            Long.parseLong(parts[0]);
+            Integer.parseInt(parts[3]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return parts[0] + "-" + parts[1];
+    }
+
+    private void added(String key, long size) {
+        entries.put(key, size);
+        prefixes.merge(prefix(key), 1, Integer::sum);
+        sizeInBytes += size;
+    }
+
+    private void removed(String key, long size) {
+        prefixes.computeIfPresent(prefix(key), (k, count) -> count == 1 ? null : count - 1);
+        sizeInBytes -= size;
+        try {
+            Files.deleteIfExists(dir.resolve(key + EXTENSION));
+        } catch (IOException e) {
+            logger.debug("can not remove [{}] from [{}]: {}", key, dir, e.getMessage());
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (sizeInBytes > maxSizeInBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            removed(eldest.getKey(), eldest.getValue());
+            logger.trace("evicted [{}] from [{}]", eldest.getKey(), dir);
+        }
+    }
+
+    /**
+     * @param contentSize size of a content
+     * @param prefixHash hash of the beginning of the content
+     * @return true if we have an entry for a content of the same size which starts the same way
+     */
+    public synchronized boolean mightContain(long contentSize, String prefixHash) {
+        return prefixes.containsKey(prefix(contentSize, prefixHash));
+    }
+
+    /**
+     * Wait until no other thread is extracting a content of the same size which starts the same way, and
+     * lock it. A thread which was waiting can then find the content in the cache.
+     * @param contentSize size of the content
+     * @param prefixHash hash of the beginning of the content
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void lock(long contentSize, String prefixHash) throws InterruptedException {
+        String prefix = prefix(contentSize, prefixHash);
+        synchronized (locked) {
+            while (!locked.add(prefix)) {
+                locked.wait();
+            }
+        }
+    }
+
+    public void unlock(long contentSize, String prefixHash) {
+        synchronized (locked) {
+            locked.remove(prefix(contentSize, prefixHash));
+            locked.notifyAll();
+        }
+    }
+
+    /**
+     * Get a previous extraction
+     * @param contentSize size of the content
+     * @param prefixHash hash of the beginning of the content
+     * @param hash SHA-256 hash of the content
+     * @param indexedChars maximum number of characters extracted
+     * @return the extraction or null if we don't have it
+     */
+    public Extraction get(long contentSize, String prefixHash, String hash, int indexedChars) {
+        String key = key(contentSize, prefixHash, hash, indexedChars);
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                return null;
+            }
+        }
+
+        Path file = dir.resolve(key + EXTENSION);
+        try {
+            Extraction extraction = mapper.readValue(file.toFile(), Extraction.class);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return extraction;
+        } catch (IOException e) {
+            logger.debug("can not read [{}] from [{}]: {}", key, dir, e.getMessage());
+            synchronized (this) {
+                Long size = entries.remove(key);
+                if (size != null) {
+                    removed(key, size);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Add an extraction. Extractions which are bigger than the cache are ignored.
+     * @param contentSize size of the content
+     * @param prefixHash hash of the beginning of the content
+     * @param hash SHA-256 hash of the content
+     * @param indexedChars maximum number of characters extracted
+     * @param extraction what we extracted
+     * @throws IOException in case of error while writing the entry
+     */
+    public void put(long contentSize, String prefixHash, String hash, int indexedChars, Extraction extraction)
+            throws IOException {
+        String key = key(contentSize, prefixHash, hash, indexedChars);
+        byte[] json = mapper.writeValueAsBytes(extraction);
+        if (json.length > maxSizeInBytes) {
+            logger.trace("extraction [{}] is too big for the cache", key);
+            return;
+        }
+
+        Path tmp = dir.resolve(key + EXTENSION + TMP_EXTENSION);
+        Files.write(tmp, json);
+        synchronized (this) {
+            Files.move(tmp, dir.resolve(key + EXTENSION), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Long previous = entries.remove(key);
+            if (previous != null) {
+                prefixes.computeIfPresent(prefix(key), (k, count) -> count == 1 ? null : count - 1);
+                sizeInBytes -= previous;
+            }
+            added(key, json.length);
+            evict();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    /**
+     * What Tika extracted from a file
+     */
+    public static class Extraction {
+        private String content;
+        private String contentType;
+        private String contentLength;
+        private String author;
+        private String title;
+        private String keywords;
+
+        public String getContent() {
+            return content;
+        }
+
+        public void setContent(String content) {
+            this.content = content;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public void setContentType(String contentType) {
+            this.contentType = contentType;
+        }
+
+        /**
+         * @return the content length found by Tika or null
+         */
+        public String getContentLength() {
+            return contentLength;
+        }
+
+        public void setContentLength(String contentLength) {
+            this.contentLength = contentLength;
+        }
+
+        public String getAuthor() {
+            return author;
+        }
+
+        public void setAuthor(String author) {
+            this.author = author;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+
+        /**
+         * @return comma delimited keywords or null
+         */
+        public String getKeywords() {
+            return keywords;
+        }
+
+        public void setKeywords(String keywords) {
+            this.keywords = keywords;
+        }
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.state;
+
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.TimeValue;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Local store of the state of every file and directory we have sent to elasticsearch.
+ *
+ * Entries are kept on disk in a hash table, ~/.fscrawler/{job_name}_state.db (see {@link StateTable}), so the
+ * memory we need does not depend on the number of files.
+ *
+ * Changes are first kept in memory as pending changes. The crawler {@link #drain()}s them, waits for elasticsearch
+ * to acknowledge the documents they come from and then {@link #commit(List)}s them, or forgets them if some
+ * documents have been lost, so the files are sent again by the next scan.
+ * Committed changes are appended to a log, ~/.fscrawler/{job_name}_state.log, before being applied to the table.
+ * The log is replayed when the store is opened, so changes are not lost if we stop before the table is written
+ * on disk. Each line of the log is either a new state for an entry or the removal of an entry:
+ * <pre>
+ * P	id	f|d	lastModified	size	hash
+ * D	id
+ * </pre>
+ *
+ * During a scan, every entry found on disk is marked as seen. Entries which have not been seen
+ * at the end of a full scan belong to files or directories which have been removed.
+ */
+public class FileStateStore implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger(FileStateStore.class);
+
+    public static final String EXTENSION = "_state.log";
+    public static final String TABLE_EXTENSION = "_state.db";
+
+    /**
+     * We should commit when we have this number of pending changes
+     */
+    static final int COMMIT_CHANGES = 10000;
+    /**
+     * We should commit pending changes older than this
+     */
+    private static final long COMMIT_INTERVAL_MILLIS = TimeValue.timeValueMinutes(1).millis();
+    /**
+     * We write the table on disk and empty the log when it has this number of lines
+     */
+    private static final int LOG_MAX_LINES = 100000;
+
+    private static final String PUT = "P";
+    private static final String DELETE = "D";
+    private static final String FILE = "f";
+    private static final String DIRECTORY = "d";
+    private static final String NO_HASH = "-";
+
+    private final Path log;
+    private final StateTable table;
+    private final List<String> pending = new ArrayList<>();
+    private long pendingSince;
+    private long logLines;
+
+    public FileStateStore(Path root, String jobname) throws IOException {
+        this.log = root.resolve(jobname + EXTENSION);
+        this.table = StateTable.open(root.resolve(jobname + TABLE_EXTENSION));
+        try {
+            replay();
+        } catch (IOException e) {
+            table.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Apply the changes of the log which might not be in the table yet. The log of previous versions, which
+     * did not have a table, is loaded the same way.
+     */
+    private void replay() throws IOException {
+        if (Files.notExists(log)) {
+            logger.debug("no local state log found in [{}].", log);
+            return;
+        }
+
+        long lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                apply(line);
+            }
+        }
+        if (lines > 0) {
+            // Some changes were already in the table so its header might be wrong
+            table.recount();
+            logger.debug("[{}] changes replayed from [{}]", lines, log);
+        }
+        writeTable();
+        logger.debug("[{}] entries in local state", table.size());
+    }
+
+    private void apply(String line) throws IOException {
+        String[] fields = line.split("\t");
+        try {
+            if (PUT.equals(fields[0]) && fields.length == 6) {
+                table.put(fields[1], new FileState(DIRECTORY.equals(fields[2]), Long.parseLong(fields[3]),
+                        Long.parseLong(fields[4]), NO_HASH.equals(fields[5]) ? null : fields[5]));
+            } else if (DELETE.equals(fields[0]) && fields.length == 2) {
+                table.remove(fields[1]);
+            } else {
+                // Probably the last line of the log has not been fully written
+                logger.debug("ignoring malformed line [{}] in [{}]", line, log);
+            }
+        } catch (IllegalArgumentException e) {
+            logger.debug("ignoring malformed line [{}] in [{}]", line, log);
+        }
+    }
+
+    /**
+     * Start a new scan. Entries which are not seen during this scan will be reported by
+     * {@link #forEachUnseen(BiConsumer)}.
+     */
+    public void startScan() throws IOException {
+        table.startScan();
+    }
+
+    /**
+     * Get the known state of an entry and mark it as seen during the current scan. Pending changes
+     * are not taken into account.
+     * @param id entry id
+     * @return the known state or null if we never saw this entry
+     */
+    public FileState seen(String id) throws IOException {
+        return table.get(id, true);
+    }
+
+    /**
+     * Get the known state of an entry. Pending changes are not taken into account.
+     * @param id entry id
+     * @return the known state or null if we never saw this entry
+     */
+    public FileState get(String id) throws IOException {
+        return table.get(id, false);
+    }
+
+    /**
+     * Store the new state of an entry once committed
+     * @param id entry id
+     * @param state the state
+     */
+    public void put(String id, FileState state) {
+        StateTable.checkId(id);
+        append(PUT + "\t" + id + "\t" + (state.isDirectory() ? DIRECTORY : FILE) + "\t" + state.getLastModified() +
+                "\t" + state.getSize() + "\t" + (state.getHash() == null ? NO_HASH : state.getHash()));
+    }
+
+    /**
+     * Remove an entry once committed
+     * @param id entry id
+     * @return the known state or null if we did not know this entry
+     */
+    public FileState remove(String id) throws IOException {
+        FileState state = table.get(id, false);
+        append(DELETE + "\t" + id);
+        return state;
+    }
+
+    /**
+     * Call the consumer for every entry which has not been seen during the current scan. The consumer can
+     * {@link #remove(String)} entries and commit changes, as long as no entry is added meanwhile.
+     */
+    public void forEachUnseen(BiConsumer<String, FileState> consumer) throws IOException {
+        table.forEachUnseen(consumer);
+    }
+
+    private void append(String line) {
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                pendingSince = System.currentTimeMillis();
+            }
+            pending.add(line);
+        }
+    }
+
+    /**
+     * @return true if we have too many pending changes or if they are too old
+     */
+    public boolean isCommitDue() {
+        synchronized (pending) {
+            return pending.size() >= COMMIT_CHANGES ||
+                    (!pending.isEmpty() && System.currentTimeMillis() - pendingSince >= COMMIT_INTERVAL_MILLIS);
+        }
+    }
+
+    /**
+     * @return the pending changes, which are not pending anymore
+     */
+    public List<String> drain() {
+        synchronized (pending) {
+            List<String> changes = new ArrayList<>(pending);
+            pending.clear();
+            return changes;
+        }
+    }
+
+    /**
+     * Write all the pending changes
+     * @throws IOException in case of error while writing
+     */
+    public void commit() throws IOException {
+        commit(drain());
+    }
+
+    /**
+     * Write changes returned by {@link #drain()}
+     * @throws IOException in case of error while writing
+     */
+    public synchronized void commit(List<String> changes) throws IOException {
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(log, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE)) {
+            for (String line : changes) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+        logLines += changes.size();
+        for (String line : changes) {
+            apply(line);
+        }
+        logger.trace("[{}] changes written to [{}]", changes.size(), log);
+
+        if (logLines >= LOG_MAX_LINES) {
+            writeTable();
+        }
+    }
+
+    /**
+     * Make sure the table is on disk so we don't need the log anymore
+     */
+    private void writeTable() throws IOException {
+        table.force();
+        Files.deleteIfExists(log);
+        logLines = 0;
+    }
+
+    public long size() {
+        return table.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            commit();
+            writeTable();
+        } finally {
+            table.close();
+        }
+    }
+
+    /**
+     * @return a new digest used to compute content hashes
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every java platform must support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the hexadecimal representation of a digest
+     */
+    public static String toHex(MessageDigest digest) {
+        byte[] bytes = digest.digest();
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Compute the hash of a whole stream
+     * @param stream the stream to read. It's not closed.
+     * @return the hexadecimal hash
+     * @throws IOException in case of error while reading
+     */
+    public static String hash(InputStream stream) throws IOException {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return toHex(digest);
+    }
+
+    /**
+     * State of a file or a directory
+     */
+    public static class FileState {
+        private final boolean directory;
+        private final long lastModified;
+        private final long size;
+        private final String hash;
+
+        public FileState(boolean directory, long lastModified, long size, String hash) {
+            this.directory = directory;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.hash = hash;
+        }
+
+        public static FileState file(long lastModified, long size, String hash) {
+            return new FileState(false, lastModified, size, hash);
+        }
+
+        public static FileState directory(long lastModified) {
+            return new FileState(true, lastModified, 0, null);
+        }
+
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the SHA-256 hash of the content or null if unknown
+         */
+        public String getHash() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("FileState{");
+            sb.append("directory=").append(directory);
+            sb.append(", lastModified=").append(lastModified);
+            sb.append(", size=").append(size);
+            sb.append(", hash='").append(hash).append('\'');
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.state;
+
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.TimeValue;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of a scan, so a crawler which has been stopped during a scan can resume it instead of
+ * starting over.
+ *
+ * The checkpoint is an append-only log, ~/.fscrawler/{job_name}_checkpoint.log. The first line holds the
+ * date the scan started and the date of the previous scan. Each other line holds the id of a directory
+ * whose files have all been acknowledged by elasticsearch:
+ * <pre>
+ * S	scanStart	lastScanDate|-
+ * C	id
+ * </pre>
+ *
+ * A directory is complete when it has been listed and all its files have been indexed. The crawler
+ * writes complete directories every checkpoint interval, after the bulk processor has been flushed.
+ * The log is removed at the end of the scan.
+ */
+public class ScanCheckpoint {
+
+    private static final Logger logger = LogManager.getLogger(ScanCheckpoint.class);
+
+    public static final String EXTENSION = "_checkpoint.log";
+
+    private static final String START = "S";
+    private static final String COMPLETE = "C";
+    private static final String NO_DATE = "-";
+
+    private final Path log;
+    private final Instant scanStart;
+    private final Instant lastScanDate;
+    private final long intervalMillis;
+
+    /**
+     * Directories completed during a previous run of this scan
+     */
+    private final Set<String> completed;
+
+    /**
+     * Number of things we wait for before a directory is complete: its listing and its files being indexed
+     */
+    private final Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+
+    /**
+     * Directories completed since the last checkpoint
+     */
+    private final List<String> done = new ArrayList<>();
+
+    private volatile long lastCheckpoint = System.currentTimeMillis();
+
+    private ScanCheckpoint(Path log, Instant scanStart, Instant lastScanDate, TimeValue interval, Set<String> completed) {
+        this.log = log;
+        this.scanStart = scanStart;
+        this.lastScanDate = lastScanDate;
+        this.intervalMillis = interval.millis();
+        this.completed = completed;
+    }
+
+    /**
+     * Read the checkpoint of an interrupted scan
+     * @param root config dir
+     * @param jobname job name
+     * @param interval minimum time between two checkpoints
+     * @return the checkpoint or null if the last scan has not been interrupted
+     * @throws IOException in case of error while reading
+     */
+    public static ScanCheckpoint load(Path root, String jobname, TimeValue interval) throws IOException {
+        Path log = root.resolve(jobname + EXTENSION);
+        if (Files.notExists(log)) {
+            return null;
+        }
+
+        Instant scanStart = null;
+        Instant lastScanDate = null;
+        Set<String> completed = new HashSet<>();
+        try (BufferedReader reader = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                try {
+                    if (START.equals(fields[0]) && fields.length == 3 && scanStart == null) {
+                        scanStart = Instant.ofEpochMilli(Long.parseLong(fields[1]));
+                        lastScanDate = NO_DATE.equals(fields[2]) ? null : Instant.ofEpochMilli(Long.parseLong(fields[2]));
+                    } else if (COMPLETE.equals(fields[0]) && fields.length == 2) {
+                        completed.add(fields[1]);
+                    } else {
+                        // Probably the last line of the log has not been fully written
+                        logger.debug("ignoring malformed line [{}] in [{}]", line, log);
+                    }
+                } catch (NumberFormatException e) {
+                    logger.debug("ignoring malformed line [{}] in [{}]", line, log);
+                }
+            }
+        }
+
+        if (scanStart == null) {
+            logger.debug("no scan start found in [{}]. Ignoring the checkpoint.", log);
+            Files.delete(log);
+            return null;
+        }
+        logger.debug("[{}] complete directories loaded from [{}]", completed.size(), log);
+        return new ScanCheckpoint(log, scanStart, lastScanDate, interval, completed);
+    }
+
+    /**
+     * Start the checkpoint of a new scan
+     * @param root config dir
+     * @param jobname job name
+     * @param interval minimum time between two checkpoints
+     * @param scanStart date the scan started
+     * @param lastScanDate date of the previous scan, null if it's the first one
+     * @return the checkpoint
+     * @throws IOException in case of error while writing
+     */
+    public static ScanCheckpoint start(Path root, String jobname, TimeValue interval, Instant scanStart,
+                                       Instant lastScanDate) throws IOException {
+        Path log = root.resolve(jobname + EXTENSION);
+        String line = START + "\t" + scanStart.toEpochMilli() + "\t" +
+                (lastScanDate == null ? NO_DATE : Long.toString(lastScanDate.toEpochMilli()));
+        Files.write(log, (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        return new ScanCheckpoint(log, scanStart, lastScanDate, interval, new HashSet<>());
+    }
+
+    public Instant getScanStart() {
+        return scanStart;
+    }
+
+    /**
+     * @return the date of the scan before this one, null if this is the first scan
+     */
+    public Instant getLastScanDate() {
+        return lastScanDate;
+    }
+
+    /**
+     * @return the number of directories completed during a previous run of this scan
+     */
+    public int resumed() {
+        return completed.size();
+    }
+
+    /**
+     * @param id directory id
+     * @return true if the files of this directory have been indexed during a previous run of this scan
+     */
+    public boolean isCompleted(String id) {
+        return completed.contains(id);
+    }
+
+    /**
+     * We start listing a directory
+     * @param id directory id
+     */
+    public void startDirectory(String id) {
+        running.put(id, new AtomicInteger(1));
+    }
+
+    /**
+     * A file of a directory has been sent to the indexing pipeline
+     * @param id directory id
+     */
+    public void startFile(String id) {
+        AtomicInteger counter = running.get(id);
+        if (counter != null) {
+            counter.incrementAndGet();
+        }
+    }
+
+    /**
+     * A file of a directory has been sent to the bulk processor
+     * @param id directory id
+     */
+    public void fileDone(String id) {
+        release(id);
+    }
+
+    /**
+     * All the files of a directory have been listed
+     * @param id directory id
+     */
+    public void directoryListed(String id) {
+        release(id);
+    }
+
+    private void release(String id) {
+        AtomicInteger counter = running.get(id);
+        if (counter != null && counter.decrementAndGet() == 0) {
+            running.remove(id);
+            synchronized (done) {
+                done.add(id);
+            }
+        }
+    }
+
+    /**
+     * @return true if the last checkpoint is older than the checkpoint interval
+     */
+    public boolean isDue() {
+        return System.currentTimeMillis() - lastCheckpoint >= intervalMillis;
+    }
+
+    /**
+     * @return directories completed since the last call. They must be sent to elasticsearch before they are
+     * written with {@link #write(Collection)}.
+     */
+    public List<String> drain() {
+        synchronized (done) {
+            List<String> ids = new ArrayList<>(done);
+            done.clear();
+            return ids;
+        }
+    }
+
+    /**
+     * Write complete directories
+     * @param ids directories whose files have been acknowledged by elasticsearch
+     * @throws IOException in case of error while writing
+     */
+    public void write(Collection<String> ids) throws IOException {
+        lastCheckpoint = System.currentTimeMillis();
+        if (ids.isEmpty()) {
+            return;
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(log, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE)) {
+            for (String id : ids) {
+                writer.write(COMPLETE + "\t" + id);
+                writer.newLine();
+            }
+        }
+        logger.trace("[{}] complete directories written to [{}]", ids.size(), log);
+    }
+
+    /**
+     * The scan is over. We remove the checkpoint.
+     * @throws IOException in case of error while removing the log
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(log);
+    }
+}
@@ -0,0 +1,526 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.state;
+
+import fr.pilato.elasticsearch.crawler.fs.state.FileStateStore.FileState;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Hash table of {@link FileState} stored in a file, so the local state does not need to fit in memory.
+ *
+ * The file starts with a header followed by fixed size records:
+ * <pre>
+ * status (1) | flags (1) | id length (1) | id (32) | padding (5) | lastModified (8) | size (8) | scan (4) | padding (4) | hash (32)
+ * </pre>
+ * Records are found with linear probing on the hash of their id. Removed records are kept as tombstones until
+ * the table is rebuilt, which happens when it's too full. Records are read and written with positional IO so
+ * only the OS cache holds the table in memory.
+ *
+ * Each record also holds the number of the last scan which saw it, so we can find the removed entries at the
+ * end of a scan without keeping anything in memory.
+ */
+class StateTable implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger(StateTable.class);
+
+    static final int MAX_ID_LENGTH = 32;
+
+    private static final int MAGIC = 0x46535354;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 96;
+    private static final long INITIAL_CAPACITY = 1024;
+    private static final double MAX_LOAD = 0.7;
+    /**
+     * Number of records we read at once when we go through the whole table
+     */
+    private static final int CHUNK_RECORDS = 256;
+
+    private static final int STATUS = 0;
+    private static final int FLAGS = 1;
+    private static final int ID_LENGTH = 2;
+    private static final int ID = 3;
+    private static final int LAST_MODIFIED = 40;
+    private static final int SIZE = 48;
+    private static final int SCAN = 56;
+    private static final int HASH = 64;
+    private static final int HASH_LENGTH = 32;
+
+    private static final byte EMPTY = 0;
+    private static final byte LIVE = 1;
+    private static final byte REMOVED = 2;
+
+    private static final byte DIRECTORY = 1;
+    private static final byte HAS_HASH = 2;
+
+    private final Path file;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private long capacity;
+    private long live;
+    private long removed;
+    private int scan;
+
+    private StateTable(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Open a table, creating it if it does not exist
+     */
+    static StateTable open(Path file) throws IOException {
+        StateTable table = new StateTable(file);
+        if (Files.notExists(file)) {
+            table.create(INITIAL_CAPACITY, 0);
+        } else {
+            table.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            table.readHeader();
+        }
+        return table;
+    }
+
+    private void create(long capacity, int scan) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.capacity = capacity;
+        this.live = 0;
+        this.removed = 0;
+        this.scan = scan;
+        // Unwritten records are read as zeros, which means empty
+        write(ByteBuffer.allocate(1), HEADER_SIZE + capacity * RECORD_SIZE - 1);
+        writeHeader();
+    }
+
+    private void readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        read(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException(file + " is not a local state table");
+        }
+        capacity = header.getLong(8);
+        live = header.getLong(16);
+        removed = header.getLong(24);
+        scan = header.getInt(32);
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putLong(8, capacity);
+        header.putLong(16, live);
+        header.putLong(24, removed);
+        header.putInt(32, scan);
+        write(header, 0);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the id can not be stored in the table
+     */
+    static byte[] checkId(String id) {
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0 || bytes.length > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("id [" + id + "] must have between 1 and " + MAX_ID_LENGTH + " bytes");
+        }
+        return bytes;
+    }
+
+    /**
+     * Start a new scan
+     */
+    void startScan() throws IOException {
+        lock.writeLock().lock();
+        try {
+            scan++;
+            writeHeader();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Get an entry
+     * @param markSeen true to mark the entry as seen by the current scan
+     * @return the state or null if the entry does not exist
+     */
+    FileState get(String id, boolean markSeen) throws IOException {
+        byte[] bytes = checkId(id);
+        lock.readLock().lock();
+        try {
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            long slot = find(bytes, record);
+            if (slot < 0) {
+                return null;
+            }
+            if (markSeen && record.getInt(SCAN) != scan) {
+                // Two threads can only write the same value here
+                ByteBuffer value = ByteBuffer.allocate(4);
+                value.putInt(0, scan);
+                write(value, position(slot) + SCAN);
+            }
+            return decode(record);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add or replace an entry. It's seen by the current scan.
+     */
+    void put(String id, FileState state) throws IOException {
+        byte[] bytes = checkId(id);
+        lock.writeLock().lock();
+        try {
+            if (live + removed + 1 > capacity * MAX_LOAD) {
+                rebuild();
+            }
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            long slot = find(bytes, record);
+            if (slot < 0) {
+                slot = -slot - 1;
+                read(record, position(slot));
+                if (record.get(STATUS) == REMOVED) {
+                    removed--;
+                }
+                live++;
+            }
+            write(encode(bytes, state, scan), position(slot));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove an entry
+     * @return true if the entry existed
+     */
+    boolean remove(String id) throws IOException {
+        byte[] bytes = checkId(id);
+        lock.writeLock().lock();
+        try {
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            long slot = find(bytes, record);
+            if (slot < 0) {
+                return false;
+            }
+            write(ByteBuffer.wrap(new byte[]{REMOVED}), position(slot) + STATUS);
+            live--;
+            removed++;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Call the consumer for every entry which has not been seen by the current scan. The table is read by
+     * chunks so the consumer can change the table, as long as it does not add entries.
+     */
+    void forEachUnseen(BiConsumer<String, FileState> consumer) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_RECORDS * RECORD_SIZE);
+        List<String> ids = new ArrayList<>();
+        List<FileState> states = new ArrayList<>();
+        for (long first = 0; ; first += CHUNK_RECORDS) {
+            lock.readLock().lock();
+            try {
+                if (first >= capacity) {
+                    return;
+                }
+                chunk.clear();
+                chunk.limit((int) (Math.min(CHUNK_RECORDS, capacity - first) * RECORD_SIZE));
+                read(chunk, position(first));
+                for (int offset = 0; offset < chunk.limit(); offset += RECORD_SIZE) {
+                    chunk.position(offset);
+                    ByteBuffer record = chunk.slice();
+                    record.limit(RECORD_SIZE);
+                    if (record.get(STATUS) == LIVE && record.getInt(SCAN) != scan) {
+                        ids.add(new String(record.array(), record.arrayOffset() + ID, record.get(ID_LENGTH),
+                                StandardCharsets.UTF_8));
+                        states.add(decode(record));
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            for (int i = 0; i < ids.size(); i++) {
+                consumer.accept(ids.get(i), states.get(i));
+            }
+            ids.clear();
+            states.clear();
+        }
+    }
+
+    /**
+     * @return the number of entries
+     */
+    long size() {
+        lock.readLock().lock();
+        try {
+            return live;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Count the entries again, when the header might not be up to date
+     */
+    void recount() throws IOException {
+        lock.writeLock().lock();
+        try {
+            long live = 0;
+            long removed = 0;
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_RECORDS * RECORD_SIZE);
+            for (long first = 0; first < capacity; first += CHUNK_RECORDS) {
+                chunk.clear();
+                chunk.limit((int) (Math.min(CHUNK_RECORDS, capacity - first) * RECORD_SIZE));
+                read(chunk, position(first));
+                for (int offset = 0; offset < chunk.limit(); offset += RECORD_SIZE) {
+                    byte status = chunk.get(offset + STATUS);
+                    if (status == LIVE) {
+                        live++;
+                    } else if (status == REMOVED) {
+                        removed++;
+                    }
+                }
+            }
+            this.live = live;
+            this.removed = removed;
+            writeHeader();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Write the header and make sure everything is on disk
+     */
+    void force() throws IOException {
+        lock.writeLock().lock();
+        try {
+            writeHeader();
+            channel.force(false);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    /**
+     * Copy the live entries to a new table, bigger if needed, without the tombstones
+     */
+    private void rebuild() throws IOException {
+        long newCapacity = capacity;
+        while (live + 1 > newCapacity * MAX_LOAD / 2) {
+            newCapacity *= 2;
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        StateTable rebuilt = new StateTable(tmp);
+        rebuilt.create(newCapacity, scan);
+
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_RECORDS * RECORD_SIZE);
+        ByteBuffer existing = ByteBuffer.allocate(RECORD_SIZE);
+        for (long first = 0; first < capacity; first += CHUNK_RECORDS) {
+            chunk.clear();
+            chunk.limit((int) (Math.min(CHUNK_RECORDS, capacity - first) * RECORD_SIZE));
+            read(chunk, position(first));
+            for (int offset = 0; offset < chunk.limit(); offset += RECORD_SIZE) {
+                if (chunk.get(offset + STATUS) != LIVE) {
+                    continue;
+                }
+                byte[] id = new byte[chunk.get(offset + ID_LENGTH)];
+                chunk.position(offset + ID);
+                chunk.get(id);
+                long slot = -rebuilt.find(id, existing) - 1;
+                chunk.position(offset);
+                ByteBuffer record = chunk.slice();
+                record.limit(RECORD_SIZE);
+                rebuilt.write(record, position(slot));
+                rebuilt.live++;
+            }
+        }
+        rebuilt.writeHeader();
+        rebuilt.channel.force(false);
+        rebuilt.channel.close();
+
+        channel.close();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        logger.debug("[{}] rebuilt from [{}] to [{}] records with [{}] entries", file, capacity, newCapacity, live);
+        capacity = newCapacity;
+        removed = 0;
+    }
+
+    /**
+     * Look for an entry
+     * @param record filled with the record when found
+     * @return the slot of the entry, or -(slot + 1) where slot is where the entry should be added
+     */
+    private long find(byte[] id, ByteBuffer record) throws IOException {
+        long mask = capacity - 1;
+        long slot = hash(id) & mask;
+        long firstRemoved = -1;
+        for (long i = 0; i < capacity; i++) {
+            read(record, position(slot));
+            byte status = record.get(STATUS);
+            if (status == EMPTY) {
+                return -(firstRemoved >= 0 ? firstRemoved : slot) - 1;
+            }
+            if (status == REMOVED) {
+                if (firstRemoved < 0) {
+                    firstRemoved = slot;
+                }
+            } else if (matches(record, id)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        // The table is full of tombstones. We can't be there without one.
+        return -firstRemoved - 1;
+    }
+
+    private static boolean matches(ByteBuffer record, byte[] id) {
+        if (record.get(ID_LENGTH) != id.length) {
+            return false;
+        }
+        for (int i = 0; i < id.length; i++) {
+            if (record.get(ID + i) != id[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * FNV-1a followed by the murmur3 finalizer so close ids are spread over the table
+     */
+    private static long hash(byte[] id) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : id) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static ByteBuffer encode(byte[] id, FileState state, int scan) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        byte flags = state.isDirectory() ? DIRECTORY : 0;
+        byte[] hash = parseHash(state.getHash());
+        if (hash != null) {
+            flags |= HAS_HASH;
+            record.position(HASH);
+            record.put(hash);
+        }
+        record.put(STATUS, LIVE);
+        record.put(FLAGS, flags);
+        record.put(ID_LENGTH, (byte) id.length);
+        record.position(ID);
+        record.put(id);
+        record.putLong(LAST_MODIFIED, state.getLastModified());
+        record.putLong(SIZE, state.getSize());
+        record.putInt(SCAN, scan);
+        record.clear();
+        return record;
+    }
+
+    private static FileState decode(ByteBuffer record) {
+        byte flags = record.get(FLAGS);
+        String hash = null;
+        if ((flags & HAS_HASH) != 0) {
+            StringBuilder sb = new StringBuilder(HASH_LENGTH * 2);
+            for (int i = 0; i < HASH_LENGTH; i++) {
+                byte b = record.get(HASH + i);
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            hash = sb.toString();
+        }
+        return new FileState((flags & DIRECTORY) != 0, record.getLong(LAST_MODIFIED), record.getLong(SIZE), hash);
+    }
+
+    /**
+     * @return the bytes of a SHA-256 hexadecimal hash, or null if it's not one. We then don't keep it.
+     */
+    private static byte[] parseHash(String hash) {
+        if (hash == null || hash.length() != HASH_LENGTH * 2) {
+            return null;
+        }
+        byte[] bytes = new byte[HASH_LENGTH];
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            int high = Character.digit(hash.charAt(i * 2), 16);
+            int low = Character.digit(hash.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    private static long position(long slot) {
+        return HEADER_SIZE + slot * RECORD_SIZE;
+    }
+
+    private void read(ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position() - start) < 0) {
+                throw new EOFException("Unexpected end of " + file);
+            }
+        }
+        buffer.position(start);
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position() - start);
+        }
+        buffer.position(start);
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Includes and excludes rules compiled once so we can check millions of files without building
+ * any regular expression.
+ *
+ * A rule is a wildcard pattern where {@code *} matches any characters and {@code ?} matches zero or one character.
+ * Rules like {@code *.pdf}, {@code resume*} or {@code .snapshots} are checked with simple string
+ * comparisons. Other rules are merged into a single regular expression.
+ *
+ * A rule starting with {@code /} is matched against the path of the file relative to the crawled
+ * directory, like {@code /archives/2015}. In such a rule, {@code *} does not match {@code /} but
+ * {@code **} does. When a path rule excludes a directory, its content is never listed.
+ */
+public class FileMatcher {
+
+    private static final FileMatcher ALL = new FileMatcher(null, null);
+
+    private final Rules nameIncludes;
+    private final Rules nameExcludes;
+    private final Rules pathIncludes;
+    private final Rules pathExcludes;
+    private final boolean noRules;
+    private final boolean noIncludes;
+
+    private FileMatcher(Collection<String> includes, Collection<String> excludes) {
+        nameIncludes = Rules.names(includes);
+        nameExcludes = Rules.names(excludes);
+        pathIncludes = Rules.paths(includes);
+        pathExcludes = Rules.paths(excludes);
+        noIncludes = nameIncludes.isEmpty() && pathIncludes.isEmpty();
+        noRules = noIncludes && nameExcludes.isEmpty() && pathExcludes.isEmpty();
+    }
+
+    /**
+     * Compile includes and excludes rules
+     * @param includes include rules, may be null
+     * @param excludes exclude rules, may be null
+     * @return the matcher
+     */
+    public static FileMatcher compile(Collection<String> includes, Collection<String> excludes) {
+        if ((includes == null || includes.isEmpty()) && (excludes == null || excludes.isEmpty())) {
+            return ALL;
+        }
+        return new FileMatcher(includes, excludes);
+    }
+
+    /**
+     * Check a file name. Path rules are ignored.
+     * @param filename The filename to check
+     * @return true if the file can be indexed
+     */
+    public boolean isIndexable(String filename) {
+        return isIndexable(null, filename, false);
+    }
+
+    /**
+     * Check a file or a directory.
+     * @param path path relative to the crawled directory, starting with /. If null, path rules are ignored.
+     * @param filename The filename to check
+     * @param directory true if this is a directory. Directories are always kept when we have path include rules,
+     *                  as files matching them may be found below.
+     * @return true if the file or directory can be indexed
+     */
+    public boolean isIndexable(String path, String filename, boolean directory) {
+        // Ignore temporary files
+        if (filename.contains("~")) {
+            return false;
+        }
+
+        // No rules ? Fine, we index everything
+        if (noRules) {
+            return true;
+        }
+
+        // Exclude rules : we know that whatever includes rules are, we should exclude matching files
+        if (nameExcludes.matches(filename)) {
+            return false;
+        }
+        if (path != null && pathExcludes.matches(normalize(path))) {
+            return false;
+        }
+
+        // Include rules : we should add document if it match include rules
+        if (noIncludes) {
+            return true;
+        }
+        if (nameIncludes.matches(filename)) {
+            return true;
+        }
+        if (!pathIncludes.isEmpty()) {
+            if (directory) {
+                return true;
+            }
+            if (path != null && pathIncludes.matches(normalize(path))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String normalize(String path) {
+        path = path.replace('\\', '/');
+        if (path.length() > 1 && path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
+    /**
+     * A list of rules. We first try the rules which can be checked with string comparisons.
+     */
+    private static class Rules {
+        private static final String[] EMPTY = new String[0];
+
+        private final Set<String> exact;
+        private final String[] prefixes;
+        private final String[] suffixes;
+        private final String[] contains;
+        private final Pattern others;
+
+        private Rules(Set<String> exact, List<String> prefixes, List<String> suffixes, List<String> contains,
+                      List<String> regexes) {
+            this.exact = exact;
+            this.prefixes = prefixes.toArray(EMPTY);
+            this.suffixes = suffixes.toArray(EMPTY);
+            this.contains = contains.toArray(EMPTY);
+            this.others = regexes.isEmpty() ? null : Pattern.compile(String.join("|", regexes));
+        }
+
+        static Rules names(Collection<String> rules) {
+            Set<String> exact = new HashSet<>();
+            List<String> prefixes = new ArrayList<>();
+            List<String> suffixes = new ArrayList<>();
+            List<String> contains = new ArrayList<>();
+            List<String> regexes = new ArrayList<>();
+            if (rules != null) {
+                for (String rule : rules) {
+                    if (rule.startsWith("/")) {
+                        continue;
+                    }
+                    if (rule.indexOf('?') >= 0) {
+                        regexes.add(toRegex(rule, false));
+                        continue;
+                    }
+                    int first = rule.indexOf('*');
+                    if (first < 0) {
+                        exact.add(rule);
+                        continue;
+                    }
+                    // We only have leading and / or trailing stars
+                    String literal = trimStars(rule);
+                    if (literal.indexOf('*') >= 0) {
+                        regexes.add(toRegex(rule, false));
+                    } else if (literal.isEmpty()) {
+                        // * matches everything
+                        prefixes.add("");
+                    } else if (first > 0) {
+                        prefixes.add(literal);
+                    } else if (rule.endsWith("*")) {
+                        contains.add(literal);
+                    } else {
+                        suffixes.add(literal);
+                    }
+                }
+            }
+            return new Rules(exact, prefixes, suffixes, contains, regexes);
+        }
+
+        static Rules paths(Collection<String> rules) {
+            Set<String> exact = new HashSet<>();
+            List<String> regexes = new ArrayList<>();
+            if (rules != null) {
+                for (String rule : rules) {
+                    if (!rule.startsWith("/")) {
+                        continue;
+                    }
+                    rule = normalize(rule);
+                    if (rule.indexOf('*') < 0 && rule.indexOf('?') < 0) {
+                        exact.add(rule);
+                    } else {
+                        regexes.add(toRegex(rule, true));
+                    }
+                }
+            }
+            return new Rules(exact, new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), regexes);
+        }
+
+        private static String trimStars(String rule) {
+            int start = 0;
+            int end = rule.length();
+            while (start < end && rule.charAt(start) == '*') start++;
+            while (end > start && rule.charAt(end - 1) == '*') end--;
+            return rule.substring(start, end);
+        }
+
+        /**
+         * Transform a rule to a regular expression. Anything which is not a wildcard is quoted.
+         */
+        private static String toRegex(String rule, boolean path) {
+            StringBuilder regex = new StringBuilder("(?:");
+            StringBuilder literal = new StringBuilder();
+            for (int i = 0; i < rule.length(); i++) {
+                char c = rule.charAt(i);
+                if (c != '*' && c != '?') {
+                    literal.append(c);
+                    continue;
+                }
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                if (c == '?') {
+                    regex.append(path ? "[^/]?" : ".?");
+                } else if (path && i + 1 < rule.length() && rule.charAt(i + 1) == '*') {
+                    regex.append(".*");
+                    i++;
+                } else {
+                    regex.append(path ? "[^/]*" : ".*");
+                }
+            }
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+            }
+            return regex.append(")").toString();
+        }
+
+        boolean isEmpty() {
+            return exact.isEmpty() && prefixes.length == 0 && suffixes.length == 0 && contains.length == 0
+                    && others == null;
+        }
+
+        boolean matches(String value) {
+            if (exact.contains(value)) {
+                return true;
+            }
+            for (String prefix : prefixes) {
+                if (value.startsWith(prefix)) return true;
+            }
+            for (String suffix : suffixes) {
+                if (value.endsWith(suffix)) return true;
+            }
+            for (String part : contains) {
+                if (value.contains(part)) return true;
+            }
+            return others != null && others.matcher(value).matches();
+        }
+    }
+}
@@ -75,6 +75,7 @@ public class FsCrawlerUtil extends MetaParser {
             public static final String FILENAME = "filename";
             public static final String URL = "url";
             public static final String INDEXED_CHARS = "indexed_chars";
+            public static final String CHECKSUM = "checksum";
         }
 
         public static final String PATH = "path";
@@ -167,51 +168,10 @@ public class FsCrawlerUtil extends MetaParser {
      * @param filename The filename to scan
      * @param includes include rules, may be empty not null
      * @param excludes exclude rules, may be empty not null
+     * @see FileMatcher which should be used when checking many files with the same rules
      */
     public static boolean isIndexable(String filename, List<String> includes, List<String> excludes) {
-        logger.debug("filename = [{}], includes = [{}], excludes = [{}]", filename, includes, excludes);
-
-        // Ignore temporary files
-        if (filename.contains("~")) {
-            logger.trace("filename contains ~");
-            return false;
-        }
-
-        // No rules ? Fine, we index everything
-        if ((includes == null || includes.isEmpty()) && (excludes == null || excludes.isEmpty())) {
-            logger.trace("no rules");
-            return true;
-        }
-
-        // Exclude rules : we know that whatever includes rules are, we should exclude matching files
-        if (excludes != null) {
-            for (String exclude : excludes) {
-                String regex = exclude.replace("?", ".?").replace("*", ".*?");
-                logger.trace("regex is [{}]", regex);
-                if (filename.matches(regex)) {
-                    logger.trace("does match exclude regex");
-                    return false;
-                }
-            }
-        }
-
-        // Include rules : we should add document if it match include rules
-        if (includes == null || includes.isEmpty()) {
-            logger.trace("no include rules");
-            return true;
-        }
-
-        for (String include : includes) {
-            String regex = include.replace("?", ".?").replace("*", ".*?");
-            logger.trace("regex is [{}]", regex);
-            if (filename.matches(regex)) {
-                logger.trace("does match include regex");
-                return true;
-            }
-        }
-
-        logger.trace("does not match any include pattern");
-        return false;
+        return FileMatcher.compile(includes, excludes).isIndexable(filename);
     }
 
     public static String computeVirtualPathName(ScanStatistic stats,
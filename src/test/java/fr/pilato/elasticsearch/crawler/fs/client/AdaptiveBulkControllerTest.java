@@ -0,0 +1,116 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.client;
+
+import fr.pilato.elasticsearch.crawler.fs.AbstractFSCrawlerTest;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.TimeValue;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class AdaptiveBulkControllerTest extends AbstractFSCrawlerTest {
+
+    private static AdaptiveBulkController controller() {
+        // Bulks grow by 100 actions and 1000 bytes
+        return new AdaptiveBulkController(100, 2100, 1000, 21000, 4, TimeValue.timeValueSeconds(1));
+    }
+
+    @Test
+    public void testStart() {
+        AdaptiveBulkController controller = controller();
+        controller.start(10, 100000, 10);
+        assertThat(controller.getActions(), is(100));
+        assertThat(controller.getBytes(), is(21000L));
+        assertThat(controller.getConcurrency(), is(4));
+
+        controller.start(-1, -1, 0);
+        assertThat(controller.getActions(), is(2100));
+        assertThat(controller.getBytes(), is(21000L));
+        assertThat(controller.getConcurrency(), is(0));
+
+        AdaptiveBulkController defaults = new AdaptiveBulkController(0, 0, 0, 0, 0, null);
+        defaults.start(100, 5 * 1024 * 1024, 1);
+        assertThat(defaults.getActions(), is(100));
+        assertThat(defaults.getBytes(), is(5L * 1024 * 1024));
+        assertThat(defaults.getConcurrency(), is(1));
+        assertThat(defaults.getMaxConcurrency(), is(AdaptiveBulkController.DEFAULT_MAX_CONCURRENCY));
+    }
+
+    @Test
+    public void testAdditiveIncrease() {
+        AdaptiveBulkController controller = controller();
+        controller.start(1000, 10000, 1);
+
+        // A bulk sent by the flush interval does not change anything
+        controller.onBulk(controller.generation(), false, 10, false);
+        assertThat(controller.getActions(), is(1000));
+        assertThat(controller.getBytes(), is(10000L));
+
+        // Full bulks executed in time make the bulks grow
+        controller.onBulk(controller.generation(), true, 10, false);
+        assertThat(controller.getActions(), is(1100));
+        assertThat(controller.getBytes(), is(11000L));
+        controller.onBulk(controller.generation(), true, 10, false);
+        assertThat(controller.getActions(), is(1200));
+        assertThat(controller.getBytes(), is(12000L));
+        assertThat(controller.getConcurrency(), is(1));
+
+        // When bulks can not grow anymore, more bulks are executed at the same time
+        for (int i = 0; i < 20; i++) {
+            controller.onBulk(controller.generation(), true, 10, false);
+        }
+        assertThat(controller.getActions(), is(2100));
+        assertThat(controller.getBytes(), is(21000L));
+        assertThat(controller.getConcurrency(), is(4));
+    }
+
+    @Test
+    public void testMultiplicativeDecrease() {
+        AdaptiveBulkController controller = controller();
+        controller.start(2000, 20000, 4);
+
+        // A slow bulk halves the size of the bulks
+        long generation = controller.generation();
+        controller.onBulk(generation, true, 1500, false);
+        assertThat(controller.getActions(), is(1000));
+        assertThat(controller.getBytes(), is(10000L));
+        assertThat(controller.getConcurrency(), is(4));
+
+        // Bulks started with the previous limits are ignored
+        controller.onBulk(generation, true, 10, true);
+        assertThat(controller.getActions(), is(1000));
+        assertThat(controller.getConcurrency(), is(4));
+
+        // Rejections also halve the number of bulks executed at the same time
+        controller.onBulk(controller.generation(), true, 10, true);
+        assertThat(controller.getActions(), is(500));
+        assertThat(controller.getBytes(), is(5000L));
+        assertThat(controller.getConcurrency(), is(2));
+
+        // Limits do not go under the minimum
+        for (int i = 0; i < 10; i++) {
+            controller.onBulk(controller.generation(), false, 10, true);
+        }
+        assertThat(controller.getActions(), is(100));
+        assertThat(controller.getBytes(), is(1000L));
+        assertThat(controller.getConcurrency(), is(1));
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.client;
+
+import fr.pilato.elasticsearch.crawler.fs.AbstractFSCrawlerTest;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class BulkSpoolTest extends AbstractFSCrawlerTest {
+
+    private Path spoolDir() throws IOException {
+        return folder.newFolder().toPath().resolve(getCurrentTestName() + BulkSpool.DIR_SUFFIX);
+    }
+
+    private static BulkRequest bulk(String... ids) {
+        BulkRequest request = new BulkRequest();
+        for (String id : ids) {
+            request.add(new IndexRequest("docs", "doc", id).source("{\n  \"id\" : \"" + id + "\"\n}"));
+        }
+        return request;
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        BulkSpool spool = new BulkSpool(spoolDir(), 1024 * 1024);
+        assertThat(spool.isEmpty(), is(true));
+        assertThat(spool.oldest(), nullValue());
+
+        BulkRequest request = bulk("1", "2");
+        request.add(new DeleteRequest("docs", "doc", "3"));
+        request.add(new IndexRequest("docs", "folder", null).source("{\"foo\":\"bar\"}"));
+        spool.write(request);
+        spool.write(bulk("4"));
+        assertThat(spool.segments(), is(2));
+
+        long first = spool.oldest();
+        BulkRequest read = spool.read(first);
+        assertThat(read.numberOfActions(), is(4));
+        assertThat(read.getRequests().get(0).getId(), is("1"));
+        // New lines have been removed from the source
+        assertThat(((IndexRequest) read.getRequests().get(0)).content(), is("{  \"id\" : \"1\"}"));
+        assertThat(read.getRequests().get(2), instanceOf(DeleteRequest.class));
+        assertThat(read.getRequests().get(2).getId(), is("3"));
+        assertThat(read.getRequests().get(3).getType(), is("folder"));
+        assertThat(read.getRequests().get(3).getId(), nullValue());
+
+        spool.remove(first);
+        assertThat(spool.segments(), is(1));
+        assertThat(spool.read(spool.oldest()).getRequests().get(0).getId(), is("4"));
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        Path dir = spoolDir();
+        BulkSpool spool = new BulkSpool(dir, 1024 * 1024);
+        for (int i = 0; i < 12; i++) {
+            spool.write(bulk("id" + i));
+        }
+        long size = spool.sizeInBytes();
+        // A segment which was being written when we stopped
+        Files.write(dir.resolve("00000000000000000012.ndjson.tmp"), "{\"index\":".getBytes(StandardCharsets.UTF_8));
+
+        spool = new BulkSpool(dir, 1024 * 1024);
+        assertThat(spool.segments(), is(12));
+        assertThat(spool.sizeInBytes(), is(size));
+        assertThat(Files.exists(dir.resolve("00000000000000000012.ndjson.tmp")), is(false));
+
+        // Segments are read in order, even when their number has more digits
+        for (int i = 0; i < 12; i++) {
+            long segment = spool.oldest();
+            assertThat(spool.read(segment).getRequests().get(0).getId(), is("id" + i));
+            spool.remove(segment);
+        }
+        assertThat(spool.isEmpty(), is(true));
+        assertThat(spool.sizeInBytes(), is(0L));
+
+        // New segments come after the old ones
+        spool.write(bulk("new"));
+        assertThat(spool.oldest(), is(12L));
+    }
+
+    @Test
+    public void testReplace() throws IOException {
+        BulkSpool spool = new BulkSpool(spoolDir(), 1024 * 1024);
+        spool.write(bulk("1", "2", "3"));
+        spool.write(bulk("4"));
+        long first = spool.oldest();
+        long size = spool.sizeInBytes();
+
+        spool.replace(first, bulk("2"));
+        assertThat(spool.oldest(), is(first));
+        assertThat(spool.read(first).numberOfActions(), is(1));
+        assertThat(spool.sizeInBytes() < size, is(true));
+    }
+
+    @Test
+    public void testFull() throws IOException, InterruptedException {
+        BulkSpool spool = new BulkSpool(spoolDir(), 100);
+        spool.write(bulk("1"));
+        assertThat(spool.isFull(), is(false));
+        spool.write(bulk("2", "3"));
+        assertThat(spool.isFull(), is(true));
+        assertThat(spool.awaitNotFull(10), is(false));
+
+        spool.remove(spool.oldest());
+        spool.remove(spool.oldest());
+        assertThat(spool.awaitNotFull(10), is(true));
+    }
+
+    @Test
+    public void testCorruptedSegment() throws IOException {
+        Path dir = spoolDir();
+        Files.createDirectories(dir);
+        Files.write(dir.resolve("00000000000000000000.ndjson"),
+                "{\"index\":{\"_index\":\"docs\",\"_type\":\"doc\",\"_id\":\"1\"}}\n".getBytes(StandardCharsets.UTF_8));
+
+        BulkSpool spool = new BulkSpool(dir, 1024 * 1024);
+        try {
+            spool.read(spool.oldest());
+        } catch (IOException e) {
+            assertThat(e.getMessage(), is("missing source for [docs/doc/1]"));
+        }
+        spool.discard(0);
+        assertThat(spool.isEmpty(), is(true));
+        assertThat(Files.exists(dir.resolve("00000000000000000000.ndjson.corrupted")), is(true));
+    }
+
+    @Test
+    public void testParseBulkResponse() throws IOException {
+        String json = "{\"took\":3,\"errors\":true,\"items\":[" +
+                "{\"index\":{\"_index\":\"docs\",\"_type\":\"doc\",\"_id\":\"1\",\"_version\":1,\"status\":201}}," +
+                "{\"delete\":{\"_index\":\"docs\",\"_type\":\"doc\",\"_id\":\"2\",\"found\":false,\"status\":404}}," +
+                "{\"index\":{\"_index\":\"docs\",\"_type\":\"doc\",\"_id\":\"3\",\"status\":400," +
+                "\"error\":{\"type\":\"mapper_parsing_exception\",\"reason\":\"failed to parse\"}}}," +
+                "{\"index\":{\"_index\":\"docs\",\"_type\":\"doc\",\"_id\":\"4\",\"status\":429," +
+                "\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"}}}]}";
+        BulkResponse response = BulkResponse.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        assertThat(response.hasFailures(), is(true));
+        BulkResponse.BulkItemResponse[] items = response.getItems();
+        assertThat(items.length, is(4));
+        assertThat(items[0].isFailed(), is(false));
+        assertThat(items[0].getOpType(), is("index"));
+        assertThat(items[0].getStatus(), is(201));
+        // Deleting a missing document is fine
+        assertThat(items[1].isFailed(), is(false));
+        assertThat(items[1].getOpType(), is("delete"));
+        assertThat(items[2].isFailed(), is(true));
+        assertThat(items[2].isRetryable(), is(false));
+        assertThat(items[2].getFailureMessage(), is("mapper_parsing_exception: failed to parse"));
+        assertThat(items[3].isFailed(), is(true));
+        assertThat(items[3].isRetryable(), is(true));
+        assertThat(items[3].getId(), is("4"));
+    }
+}
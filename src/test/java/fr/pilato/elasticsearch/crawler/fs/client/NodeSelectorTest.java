@@ -0,0 +1,154 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.fs.client;
+
+import fr.pilato.elasticsearch.crawler.fs.AbstractFSCrawlerTest;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.Elasticsearch.Node;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class NodeSelectorTest extends AbstractFSCrawlerTest {
+
+    private static Node node(int port, boolean active) {
+        Node node = Node.builder().setHost("127.0.0.1").setPort(port).build();
+        node.active(active);
+        return node;
+    }
+
+    @Test
+    public void testSameLoadInTurn() {
+        NodeSelector selector = new NodeSelector(node -> true);
+        selector.add(node(9200, true));
+        selector.add(node(9201, true));
+        selector.add(node(9202, true));
+
+        Set<Integer> ports = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            ports.add(selector.select().getPort());
+        }
+        assertThat(ports.size(), is(3));
+    }
+
+    @Test
+    public void testLeastLoaded() {
+        NodeSelector selector = new NodeSelector(node -> true);
+        Node busy = node(9200, true);
+        Node idle = node(9201, true);
+        selector.add(busy);
+        selector.add(idle);
+
+        // Two requests are running on the first node
+        selector.begin(busy);
+        selector.begin(busy);
+        for (int i = 0; i < 10; i++) {
+            assertThat(selector.select(), is(idle));
+        }
+        assertThat(selector.inFlight(busy), is(2));
+    }
+
+    @Test
+    public void testSlowestNodeIsAvoided() throws InterruptedException {
+        NodeSelector selector = new NodeSelector(node -> true);
+        Node slow = node(9200, true);
+        Node fast = node(9201, true);
+        selector.add(slow);
+        selector.add(fast);
+
+        selector.end(slow, selector.begin(slow) - 50_000_000, true);
+        selector.end(fast, selector.begin(fast), true);
+        assertThat(selector.latencyMillis(slow) >= 50, is(true));
+        for (int i = 0; i < 10; i++) {
+            assertThat(selector.select(), is(fast));
+        }
+    }
+
+    @Test
+    public void testFailedNode() {
+        AtomicInteger probes = new AtomicInteger();
+        NodeSelector selector = new NodeSelector(node -> {
+            probes.incrementAndGet();
+            return true;
+        });
+        Node failing = node(9200, true);
+        Node running = node(9201, true);
+        selector.add(failing);
+        selector.add(running);
+
+        selector.failed(failing);
+        assertThat(selector.countActive(), is(1));
+        for (int i = 0; i < 10; i++) {
+            assertThat(selector.select(), is(running));
+        }
+        // We never wait for the failed node while another one is active
+        assertThat(probes.get(), is(0));
+
+        // Until the background check finds it again
+        selector.checkNodes();
+        assertThat(failing.active(), is(true));
+        assertThat(selector.countActive(), is(2));
+    }
+
+    @Test
+    public void testNoActiveNode() {
+        AtomicInteger probes = new AtomicInteger();
+        Node node = node(9200, false);
+        NodeSelector selector = new NodeSelector(n -> probes.incrementAndGet() > 1);
+        selector.add(node);
+
+        // Nothing answers
+        assertThat(selector.select(), nullValue());
+        // The node is back
+        assertThat(selector.select(), is(node));
+        assertThat(probes.get(), is(2));
+    }
+
+    @Test
+    public void testAddTwice() {
+        NodeSelector selector = new NodeSelector(node -> true);
+        assertThat(selector.add(node(9200, true)), is(true));
+        assertThat(selector.add(node(9200, true)), is(false));
+        assertThat(selector.nodes().size(), is(1));
+    }
+
+    @Test
+    public void testParsePublishAddress() {
+        Node node = ElasticsearchClient.parsePublishAddress("10.0.0.1:9200");
+        assertThat(node.getHost(), is("10.0.0.1"));
+        assertThat(node.getPort(), is(9200));
+
+        node = ElasticsearchClient.parsePublishAddress("myhost/10.0.0.1:9201");
+        assertThat(node.getHost(), is("10.0.0.1"));
+        assertThat(node.getPort(), is(9201));
+
+        node = ElasticsearchClient.parsePublishAddress("[::1]:9202");
+        assertThat(node.getHost(), is("::1"));
+        assertThat(node.getPort(), is(9202));
+
+        assertThat(ElasticsearchClient.parsePublishAddress("foo"), nullValue());
+        assertThat(ElasticsearchClient.parsePublishAddress("foo:bar"), nullValue());
+    }
+}
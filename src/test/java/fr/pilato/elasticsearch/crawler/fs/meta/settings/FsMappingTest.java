@@ -132,6 +132,11 @@ public class FsMappingTest extends AbstractFSCrawlerTest {
                 "          \"type\": \"string\",\n" +
                 "          \"store\": true,\n" +
                 "          \"index\": \"no\"\n" +
+                "        },\n" +
+                "        \"checksum\": {\n" +
+                "          \"type\": \"string\",\n" +
+                "          \"store\": true,\n" +
+                "          \"index\": \"not_analyzed\"\n" +
                 "        }\n" +
                 "      }\n" +
                 "    },\n" +
@@ -20,6 +20,8 @@
 package fr.pilato.elasticsearch.crawler.fs.meta.settings;
 
 import fr.pilato.elasticsearch.crawler.fs.AbstractFSCrawlerTest;
+import fr.pilato.elasticsearch.crawler.fs.SignTool;
+import fr.pilato.elasticsearch.crawler.fs.client.ElasticsearchClient;
 import org.elasticsearch.common.logging.support.LoggerMessageFormat;
 import org.junit.Test;
 
@@ -43,6 +45,19 @@ public class FsSettingsParserTest extends AbstractFSCrawlerTest {
             .setRemoveDeleted(true)
             .setUpdateRate(TimeValue.timeValueMinutes(5))
             .setIndexContent(true)
+            .setParallelism(4)
+            .setExtractionThreads(4)
+            .setExtractionQueueSize(1000)
+            .setLocalState(true)
+            .setExtractionCacheSizeBytes(10 * 1024 * 1024)
+            .setExtractionProcesses(2)
+            .setExtractionTimeout(TimeValue.timeValueSeconds(30))
+            .setExtractionHeapBytes(512 * 1024 * 1024)
+            .setAddChecksum(true)
+            .setCheckpointInterval(TimeValue.timeValueMinutes(5))
+            .setRecentFirst(true)
+            .setWatch(true)
+            .setIdHash(SignTool.MURMUR3)
             .build();
     private static final Elasticsearch ELASTICSEARCH_EMPTY = Elasticsearch.builder().build();
     private static final Elasticsearch ELASTICSEARCH_FULL = Elasticsearch.builder()
@@ -52,6 +67,23 @@ public class FsSettingsParserTest extends AbstractFSCrawlerTest {
                     .build())
             .setBulkSize(1000)
             .setFlushInterval(TimeValue.timeValueSeconds(5))
+            .setConcurrentRequests(4)
+            .setBulkSizeBytes(10 * 1024 * 1024)
+            .setTransport(ElasticsearchClient.TRANSPORT_POOLED)
+            .setMaxConnectionsPerNode(20)
+            .setConnectTimeout(TimeValue.timeValueSeconds(5))
+            .setSocketTimeout(TimeValue.timeValueMinutes(1))
+            .setCompressionLevel(6)
+            .setHealthCheckInterval(TimeValue.timeValueSeconds(30))
+            .setSniff(true)
+            .setSpoolSizeBytes(100 * 1024 * 1024)
+            .setAdaptiveBulk(true)
+            .setBulkSizeMin(50)
+            .setBulkSizeMax(2000)
+            .setBulkSizeBytesMin(2 * 1024 * 1024)
+            .setBulkSizeBytesMax(30 * 1024 * 1024)
+            .setConcurrentRequestsMax(8)
+            .setBulkLatencyTarget(TimeValue.timeValueMillis(500))
             .setIndex("docs")
             .setType("doc")
             .build();
@@ -63,6 +95,13 @@ public class FsSettingsParserTest extends AbstractFSCrawlerTest {
             .setPort(22)
             .setProtocol("SSH")
             .setPemPath("/path/to/pemfile")
+            .setSessions(2)
+            .setChannels(8)
+            .build();
+
+    private static final Metrics METRICS_FULL = Metrics.builder()
+            .setHost("0.0.0.0")
+            .setPort(9400)
             .build();
 
 
@@ -168,6 +207,23 @@ public class FsSettingsParserTest extends AbstractFSCrawlerTest {
         );
     }
 
+    @Test
+    public void testParseSettingsServerDefaults() throws IOException {
+        FsSettings settings = FsSettingsParser.fromJson("{\"name\":\"test\",\"server\":{\"hostname\":\"localhost\"," +
+                "\"protocol\":\"ssh\"}}");
+        assertThat(settings.getServer().getSessions(), is(Server.DEFAULT_SESSIONS));
+        assertThat(settings.getServer().getChannels(), is(Server.DEFAULT_CHANNELS));
+    }
+
+    @Test
+    public void testParseSettingsMetrics() throws IOException {
+        settingsTester(
+                FsSettings.builder(getCurrentTestName())
+                        .setMetrics(METRICS_FULL)
+                        .build()
+        );
+    }
+
     @Test
     public void testParseCompleteSettings() throws IOException {
         settingsTester(
@@ -175,6 +231,7 @@ public class FsSettingsParserTest extends AbstractFSCrawlerTest {
                         .setElasticsearch(ELASTICSEARCH_FULL)
                         .setServer(SERVER_FULL)
                         .setFs(FS_FULL)
+                        .setMetrics(METRICS_FULL)
                         .build()
         );
     }
@@ -55,6 +55,8 @@ public abstract class AbstractMonoNodeITest extends AbstractITest {
                                         .put("cluster.name", "fscrawler-integration-tests")
                                         .put("transport.tcp.port", TRANSPORT_TEST_PORT)
                                         .put("http.port", HTTP_TEST_PORT)
+                                        // Accept compressed bulks and compress responses
+                                        .put("http.compression", true)
                         )
                         .node();
             } catch (BindHttpException|BindTransportException e) {
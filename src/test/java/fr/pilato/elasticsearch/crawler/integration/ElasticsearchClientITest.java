@@ -19,17 +19,30 @@
 
 package fr.pilato.elasticsearch.crawler.integration;
 
+import fr.pilato.elasticsearch.crawler.fs.client.AdaptiveBulkController;
 import fr.pilato.elasticsearch.crawler.fs.client.BulkProcessor;
+import fr.pilato.elasticsearch.crawler.fs.client.BulkSpool;
+import fr.pilato.elasticsearch.crawler.fs.client.DeleteRequest;
 import fr.pilato.elasticsearch.crawler.fs.client.ElasticsearchClient;
 import fr.pilato.elasticsearch.crawler.fs.client.IndexRequest;
+import fr.pilato.elasticsearch.crawler.fs.client.SearchRequest;
 import fr.pilato.elasticsearch.crawler.fs.client.SearchResponse;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.Elasticsearch;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.TimeValue;
+import fr.pilato.elasticsearch.crawler.fs.metrics.CrawlerMetrics;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
@@ -112,6 +125,33 @@ public class ElasticsearchClientITest extends AbstractMonoNodeITest {
         assertThat(response.getHits().getTotal(), is(1L));
     }
 
+    @Test
+    public void testScan() throws IOException {
+        client.admin().indices().prepareCreate(getCurrentTestName()).get();
+        client.admin().cluster().prepareHealth(getCurrentTestName()).setWaitForYellowStatus().get();
+        for (int i = 0; i < 25; i++) {
+            client.prepareIndex(getCurrentTestName(), "doc", "id" + i)
+                    .setSource("foo", i % 5 == 0 ? "bar" : "baz", "number", i).get();
+        }
+        client.admin().indices().prepareRefresh(getCurrentTestName()).get();
+
+        // We read all the docs with pages of 10 docs
+        Set<String> ids = new HashSet<>();
+        long total = elasticsearchClient.scan(getCurrentTestName(), "doc",
+                SearchRequest.builder().setSize(10).setSource("number").build(), hit -> {
+                    ids.add(hit.getId());
+                    assertThat(hit.getSource().containsKey("number"), is(true));
+                    assertThat(hit.getSource().containsKey("foo"), is(false));
+                });
+        assertThat(total, is(25L));
+        assertThat(ids.size(), is(25));
+
+        // With a query
+        total = elasticsearchClient.scan(getCurrentTestName(), "doc",
+                SearchRequest.builder().setQuery("foo:bar").setSize(2).build(), hit -> {});
+        assertThat(total, is(5L));
+    }
+
     @Test
     public void testBulkWithTime() throws IOException, InterruptedException {
         // Create the index first
@@ -165,6 +205,306 @@ public class ElasticsearchClientITest extends AbstractMonoNodeITest {
         assertThat(response.getHits().getTotal(), is(10L));
     }
 
+    @Test
+    public void testBulkWithConcurrentRequests() throws IOException, InterruptedException {
+        // Create the index first
+        client.admin().indices().prepareCreate(getCurrentTestName()).get();
+        client.admin().cluster().prepareHealth(getCurrentTestName()).setWaitForYellowStatus().get();
+
+        BulkProcessor bulkProcessor = BulkProcessor.builder(elasticsearchClient)
+                .setBulkActions(10)
+                .setConcurrentRequests(2)
+                .build();
+        for (int i = 0; i < 100; i++) {
+            bulkProcessor.add(new IndexRequest(getCurrentTestName(), "doc", "id" + i).source("{\"foo\":\"bar\"}"));
+        }
+
+        // Closing the bulk processor waits for all the running bulks
+        bulkProcessor.close();
+
+        client.admin().indices().prepareRefresh(getCurrentTestName()).get();
+
+        SearchResponse response = elasticsearchClient.search(getCurrentTestName(), "doc", (String) null);
+        assertThat(response.getHits().getTotal(), is(100L));
+    }
+
+    @Test
+    public void testBulkFlush() throws IOException, InterruptedException {
+        // Create the index first
+        client.admin().indices().prepareCreate(getCurrentTestName()).get();
+        client.admin().cluster().prepareHealth(getCurrentTestName()).setWaitForYellowStatus().get();
+
+        BulkProcessor bulkProcessor = BulkProcessor.builder(elasticsearchClient)
+                .setBulkActions(1000)
+                .setConcurrentRequests(2)
+                .build();
+        for (int i = 0; i < 15; i++) {
+            bulkProcessor.add(new IndexRequest(getCurrentTestName(), "doc", "id" + i).source("{\"foo\":\"bar\"}"));
+        }
+
+        // Flushing sends pending actions and waits for the running bulks
+        bulkProcessor.flush();
+        assertThat(bulkProcessor.pendingActions(), is(0));
+        assertThat(bulkProcessor.runningBulks(), is(0));
+        assertThat(bulkProcessor.lostBulks(), is(0L));
+
+        client.admin().indices().prepareRefresh(getCurrentTestName()).get();
+
+        SearchResponse response = elasticsearchClient.search(getCurrentTestName(), "doc", (String) null);
+        assertThat(response.getHits().getTotal(), is(15L));
+        bulkProcessor.close();
+    }
+
+    @Test
+    public void testAdaptiveBulk() throws IOException, InterruptedException {
+        // Create the index first
+        client.admin().indices().prepareCreate(getCurrentTestName()).get();
+        client.admin().cluster().prepareHealth(getCurrentTestName()).setWaitForYellowStatus().get();
+
+        // Bulks grow by 4 actions after each full bulk and start with 10 actions
+        AdaptiveBulkController adaptive = new AdaptiveBulkController(10, 100, 1024 * 1024, 20 * 1024 * 1024, 2,
+                TimeValue.timeValueSeconds(30));
+        BulkProcessor bulkProcessor = BulkProcessor.builder(elasticsearchClient)
+                .setBulkActions(10)
+                .setConcurrentRequests(1)
+                .setAdaptive(adaptive)
+                .build();
+        assertThat(bulkProcessor.getBulkActions(), is(10));
+        assertThat(bulkProcessor.getConcurrentRequests(), is(1));
+
+        for (int i = 0; i < 2000; i++) {
+            bulkProcessor.add(new IndexRequest(getCurrentTestName(), "doc", "id" + i).source("{\"foo\":\"bar\"}"));
+        }
+        bulkProcessor.flush();
+
+        // The local node is fast enough so bulks have grown to the maximum, then more bulks are sent at once
+        assertThat(bulkProcessor.getBulkActions(), is(100));
+        assertThat(bulkProcessor.getConcurrentRequests(), is(2));
+        assertThat(bulkProcessor.lostBulks(), is(0L));
+
+        client.admin().indices().prepareRefresh(getCurrentTestName()).get();
+
+        SearchResponse response = elasticsearchClient.search(getCurrentTestName(), "doc", (String) null);
+        assertThat(response.getHits().getTotal(), is(2000L));
+        bulkProcessor.close();
+    }
+
+    @Test
+    public void testBulkWithSizeInBytes() throws IOException, InterruptedException {
+        // Create the index first
+        client.admin().indices().prepareCreate(getCurrentTestName()).get();
+        client.admin().cluster().prepareHealth(getCurrentTestName()).setWaitForYellowStatus().get();
+
+        // Sources are bigger than the bulk size in bytes so each request is flushed immediately
+        BulkProcessor bulkProcessor = BulkProcessor.builder(elasticsearchClient)
+                .setBulkActions(100)
+                .setBulkSize(10)
+                .build();
+        for (int i = 0; i < 5; i++) {
+            // Pretty printed sources must be sent on a single line
+            bulkProcessor.add(new IndexRequest(getCurrentTestName(), "doc", "id" + i)
+                    .source("{\n  \"foo\" : \"bar\",\r\n  \"number\" : " + i + "\n}"));
+        }
+
+        client.admin().indices().prepareRefresh(getCurrentTestName()).get();
+
+        SearchResponse response = elasticsearchClient.search(getCurrentTestName(), "doc", (String) null);
+        assertThat(response.getHits().getTotal(), is(5L));
+
+        bulkProcessor.close();
+    }
+
+    @Test
+    public void testBulkWithPooledTransport() throws IOException, InterruptedException {
+        // Create the index first
+        client.admin().indices().prepareCreate(getCurrentTestName()).get();
+        client.admin().cluster().prepareHealth(getCurrentTestName()).setWaitForYellowStatus().get();
+
+        // We have more concurrent bulks than connections so they have to share the pool
+        ElasticsearchClient pooledClient = ElasticsearchClient.builder()
+                .setTransport(ElasticsearchClient.TRANSPORT_POOLED)
+                .setMaxConnectionsPerNode(2)
+                .build();
+        pooledClient.addNode(Elasticsearch.Node.builder().setHost("127.0.0.1").setPort(HTTP_TEST_PORT).build());
+        try {
+            BulkProcessor bulkProcessor = BulkProcessor.builder(pooledClient)
+                    .setBulkActions(10)
+                    .setConcurrentRequests(4)
+                    .build();
+            for (int i = 0; i < 100; i++) {
+                bulkProcessor.add(new IndexRequest(getCurrentTestName(), "doc", "id" + i).source("{\"foo\":\"bar\"}"));
+            }
+            bulkProcessor.close();
+
+            client.admin().indices().prepareRefresh(getCurrentTestName()).get();
+
+            // We read all the docs with small pages so we run many requests with the same connections
+            long total = pooledClient.scan(getCurrentTestName(), "doc", SearchRequest.builder().setSize(5).build(), hit -> {});
+            assertThat(total, is(100L));
+        } finally {
+            pooledClient.close();
+        }
+    }
+
+    @Test
+    public void testBulkWithCompression() throws IOException, InterruptedException {
+        // Create the index first
+        client.admin().indices().prepareCreate(getCurrentTestName()).get();
+        client.admin().cluster().prepareHealth(getCurrentTestName()).setWaitForYellowStatus().get();
+
+        CrawlerMetrics metrics = new CrawlerMetrics(getCurrentTestName());
+        ElasticsearchClient compressingClient = ElasticsearchClient.builder()
+                .setCompressionLevel(6)
+                .setMetrics(metrics)
+                .build();
+        compressingClient.addNode(Elasticsearch.Node.builder().setHost("127.0.0.1").setPort(HTTP_TEST_PORT).build());
+
+        BulkProcessor bulkProcessor = BulkProcessor.simpleBulkProcessor(compressingClient, 10, null);
+        for (int i = 0; i < 10; i++) {
+            bulkProcessor.add(new IndexRequest(getCurrentTestName(), "doc", "id" + i)
+                    .source("{\"foo\":\"the same text again and again and again and again\"}"));
+        }
+        bulkProcessor.close();
+
+        client.admin().indices().prepareRefresh(getCurrentTestName()).get();
+
+        SearchResponse response = elasticsearchClient.search(getCurrentTestName(), "doc", (String) null);
+        assertThat(response.getHits().getTotal(), is(10L));
+        assertThat(metrics.getBulkCompressionRatio(), lessThan(0.5));
+    }
+
+    @Test
+    public void testBulkWithSpool() throws IOException, InterruptedException {
+        // Create the index first
+        client.admin().indices().prepareCreate(getCurrentTestName()).get();
+        client.admin().cluster().prepareHealth(getCurrentTestName()).setWaitForYellowStatus().get();
+
+        Path spoolDir = rootTmpDir.resolve(getCurrentTestName() + BulkSpool.DIR_SUFFIX);
+
+        // Nothing is running on this port
+        int deadPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            deadPort = socket.getLocalPort();
+        }
+        ElasticsearchClient deadClient = ElasticsearchClient.builder().build();
+        deadClient.addNode(Elasticsearch.Node.builder().setHost("127.0.0.1").setPort(deadPort).build());
+
+        BulkSpool spool = new BulkSpool(spoolDir, 1024 * 1024);
+        BulkProcessor bulkProcessor = BulkProcessor.builder(deadClient)
+                .setBulkActions(10)
+                .setSpool(spool)
+                .build();
+        for (int i = 0; i < 25; i++) {
+            bulkProcessor.add(new IndexRequest(getCurrentTestName(), "doc", "id" + i).source("{\"foo\":\"bar\"}"));
+        }
+        bulkProcessor.close();
+        deadClient.close();
+
+        // All the bulks are waiting on disk
+        assertThat(spool.segments(), is(3));
+
+        // We restart with the same spool and elasticsearch is available again
+        ElasticsearchClient liveClient = ElasticsearchClient.builder().build();
+        liveClient.addNode(Elasticsearch.Node.builder().setHost("127.0.0.1").setPort(HTTP_TEST_PORT).build());
+        BulkSpool reopened = new BulkSpool(spoolDir, 1024 * 1024);
+        bulkProcessor = BulkProcessor.builder(liveClient)
+                .setBulkActions(10)
+                .setSpool(reopened)
+                .build();
+        try {
+            assertThat(awaitBusy(reopened::isEmpty), is(true));
+            bulkProcessor.add(new IndexRequest(getCurrentTestName(), "doc", "id25").source("{\"foo\":\"bar\"}"));
+        } finally {
+            bulkProcessor.close();
+            liveClient.close();
+        }
+
+        client.admin().indices().prepareRefresh(getCurrentTestName()).get();
+        SearchResponse response = elasticsearchClient.search(getCurrentTestName(), "doc", (String) null);
+        assertThat(response.getHits().getTotal(), is(26L));
+    }
+
+    @Test
+    public void testConcurrentBulksWithSpool() throws Exception {
+        // Create the index first
+        client.admin().indices().prepareCreate(getCurrentTestName()).get();
+        client.admin().cluster().prepareHealth(getCurrentTestName()).setWaitForYellowStatus().get();
+
+        // A proxy which rejects the first bulk once the second one has been executed
+        CountDownLatch deleteExecuted = new CountDownLatch(1);
+        AtomicBoolean rejected = new AtomicBoolean();
+        ElasticsearchProxy proxy = new ElasticsearchProxy(HTTP_TEST_PORT, (exchange, body) -> {
+            boolean bulk = ElasticsearchProxy.isBulk(exchange);
+            if (bulk && new String(body, StandardCharsets.UTF_8).contains("\"delete\"")) {
+                ElasticsearchProxy.forward(HTTP_TEST_PORT, exchange, body);
+                deleteExecuted.countDown();
+                return true;
+            }
+            if (bulk && rejected.compareAndSet(false, true)) {
+                try {
+                    deleteExecuted.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                String item = "{\"index\":{\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\"}}}";
+                ElasticsearchProxy.respond(exchange, "{\"took\":1,\"errors\":true,\"items\":[" + item + "," + item + "]}");
+                return true;
+            }
+            return false;
+        });
+
+        ElasticsearchClient proxyClient = ElasticsearchClient.builder().build();
+        proxyClient.addNode(Elasticsearch.Node.builder().setHost("127.0.0.1")
+                .setPort(proxy.getPort()).build());
+        BulkSpool spool = new BulkSpool(rootTmpDir.resolve(getCurrentTestName() + BulkSpool.DIR_SUFFIX), 1024 * 1024);
+        BulkProcessor bulkProcessor = BulkProcessor.builder(proxyClient)
+                .setBulkActions(2)
+                .setConcurrentRequests(2)
+                .setSpool(spool)
+                .build();
+        try {
+            // Both bulks are running at the same time. The first one fails after the second one succeeded.
+            bulkProcessor.add(new IndexRequest(getCurrentTestName(), "doc", "id1").source("{\"foo\":\"bar\"}"));
+            bulkProcessor.add(new IndexRequest(getCurrentTestName(), "doc", "id2").source("{\"foo\":\"bar\"}"));
+            bulkProcessor.add(new DeleteRequest(getCurrentTestName(), "doc", "id1"));
+            bulkProcessor.add(new IndexRequest(getCurrentTestName(), "doc", "id3").source("{\"foo\":\"bar\"}"));
+            bulkProcessor.flush();
+            assertThat(rejected.get(), is(true));
+
+            // The first bulk is replayed before the second one so the deleted document stays deleted
+            assertThat(awaitBusy(spool::isEmpty), is(true));
+        } finally {
+            bulkProcessor.close();
+            proxyClient.close();
+            proxy.close();
+        }
+
+        client.admin().indices().prepareRefresh(getCurrentTestName()).get();
+        assertThat(client.prepareGet(getCurrentTestName(), "doc", "id1").get().isExists(), is(false));
+        SearchResponse response = elasticsearchClient.search(getCurrentTestName(), "doc", (String) null);
+        assertThat(response.getHits().getTotal(), is(2L));
+    }
+
+    @Test
+    public void testUnknownCompressionLevel() {
+        try {
+            ElasticsearchClient.builder().setCompressionLevel(10).build();
+            fail("we should reject compression levels above 9");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("compression level must be between 0 and 9. Got [10]."));
+        }
+    }
+
+    @Test
+    public void testUnknownTransport() {
+        try {
+            ElasticsearchClient.builder().setTransport("foo").build();
+            fail("we should reject unknown transports");
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("unknown transport [foo]. Expecting [net] or [pooled]."));
+        }
+    }
+
     @Test
     public void testFindVersion() throws IOException {
         String version = elasticsearchClient.findVersion();
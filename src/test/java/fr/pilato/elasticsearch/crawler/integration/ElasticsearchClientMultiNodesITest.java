@@ -173,4 +173,21 @@ public class ElasticsearchClientMultiNodesITest extends AbstractMultiNodesITest
         assertThat(response.getHits().getTotal(), is(10L));
     }
 
+
+    @Test
+    public void testSniff() throws IOException {
+        ElasticsearchClient sniffingClient = ElasticsearchClient.builder().setSniff(true).build();
+        try {
+            // We only know one node
+            sniffingClient.addNode(Elasticsearch.Node.builder().setHost("127.0.0.1").setPort(HTTP_TEST_PORT).build());
+            assertThat(sniffingClient.sniff(), is(NUMBER_OF_NODES - 1));
+            assertThat(sniffingClient.countNodes(), is(NUMBER_OF_NODES));
+            assertThat(sniffingClient.countActiveNodes(), is(NUMBER_OF_NODES));
+
+            // Nothing new
+            assertThat(sniffingClient.sniff(), is(0));
+        } finally {
+            sniffingClient.close();
+        }
+    }
 }
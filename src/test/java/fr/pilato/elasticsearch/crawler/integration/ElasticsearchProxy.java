@@ -0,0 +1,128 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.integration;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * A HTTP proxy in front of a test node. Tests can look at each request before it is forwarded
+ * and answer some of them by themselves.
+ */
+class ElasticsearchProxy implements Closeable {
+
+    interface Handler {
+        /**
+         * @return true if the request has been answered, false to forward it to the node
+         */
+        boolean handle(HttpExchange exchange, byte[] body) throws IOException;
+    }
+
+    private final HttpServer server;
+
+    ElasticsearchProxy(int nodePort, Handler handler) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            byte[] body = readFully(exchange.getRequestBody());
+            if (!handler.handle(exchange, body)) {
+                forward(nodePort, exchange, body);
+            }
+        });
+        server.start();
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    static boolean isBulk(HttpExchange exchange) {
+        return exchange.getRequestURI().getPath().endsWith("/_bulk");
+    }
+
+    /**
+     * Send a request to the test node and copy its response
+     */
+    static void forward(int nodePort, HttpExchange exchange, byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + nodePort +
+                exchange.getRequestURI()).openConnection();
+        connection.setRequestMethod(exchange.getRequestMethod());
+        if (body.length > 0) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", exchange.getRequestHeaders().getFirst("Content-Type"));
+            try (OutputStream os = connection.getOutputStream()) {
+                os.write(body);
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream content = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        byte[] response = content != null ? readFully(content) : new byte[0];
+        if (connection.getContentType() != null) {
+            exchange.getResponseHeaders().add("Content-Type", connection.getContentType());
+        }
+        if ("HEAD".equals(exchange.getRequestMethod()) || response.length == 0) {
+            exchange.sendResponseHeaders(status, -1);
+        } else {
+            exchange.sendResponseHeaders(status, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
+        }
+        exchange.close();
+    }
+
+    /**
+     * Answer a request without calling the test node
+     */
+    static void respond(HttpExchange exchange, String json) throws IOException {
+        byte[] response = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(200, response.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(response);
+        }
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -19,8 +19,11 @@
 
 package fr.pilato.elasticsearch.crawler.integration;
 
+import fr.pilato.elasticsearch.crawler.fs.FsCrawlerDaemon;
 import fr.pilato.elasticsearch.crawler.fs.FsCrawlerImpl;
+import fr.pilato.elasticsearch.crawler.fs.SignTool;
 import fr.pilato.elasticsearch.crawler.fs.client.ElasticsearchClient;
+import fr.pilato.elasticsearch.crawler.fs.meta.job.FsJob;
 import fr.pilato.elasticsearch.crawler.fs.meta.job.FsJobFileHandler;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.Elasticsearch;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.Fs;
@@ -30,6 +33,11 @@ import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettingsParser;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.Percentage;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.Server;
 import fr.pilato.elasticsearch.crawler.fs.meta.settings.TimeValue;
+import fr.pilato.elasticsearch.crawler.fs.metrics.CrawlerMetrics;
+import fr.pilato.elasticsearch.crawler.fs.state.ContentDigestInputStream;
+import fr.pilato.elasticsearch.crawler.fs.state.ExtractionCache;
+import fr.pilato.elasticsearch.crawler.fs.state.FileStateStore;
+import fr.pilato.elasticsearch.crawler.fs.state.ScanCheckpoint;
 import fr.pilato.elasticsearch.crawler.fs.util.FsCrawlerUtil;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.search.SearchRequestBuilder;
@@ -43,21 +51,35 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import javax.management.ObjectName;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.notNullValue;
 import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assume.assumeThat;
 
 /**
  * Test all crawler settings
@@ -467,6 +489,25 @@ public class FsCrawlerImplAllParametersTest extends AbstractMonoNodeITest {
         countTestHelper(getCrawlerName(), null, 1, currentTestResourceDir, null);
     }
 
+    @Test
+    public void test_remove_deleted_path() throws Exception {
+        Fs fs = startCrawlerDefinition()
+                .addInclude("/subdir/*")
+                .setRemoveDeleted(true)
+                .build();
+        startCrawler(getCrawlerName(), fs, endCrawlerDefinition(getCrawlerName()), null);
+
+        // We should have the two docs of /subdir first
+        countTestHelper(getCrawlerName(), null, 2, currentTestResourceDir, null);
+
+        // We remove a file
+        logger.info(" ---> Removing file subdir/deleted_roottxtfile.txt");
+        Files.delete(currentTestResourceDir.resolve("subdir").resolve("deleted_roottxtfile.txt"));
+
+        // We expect to have one file
+        countTestHelper(getCrawlerName(), null, 1, currentTestResourceDir, null);
+    }
+
     @Test
     public void test_remove_deleted_disabled() throws Exception {
         Fs fs = startCrawlerDefinition()
@@ -485,6 +526,33 @@ public class FsCrawlerImplAllParametersTest extends AbstractMonoNodeITest {
         countTestHelper(getCrawlerName(), null, 2, currentTestResourceDir, null);
     }
 
+    @Test
+    public void test_remove_deleted_dir() throws Exception {
+        Fs fs = startCrawlerDefinition()
+                .setRemoveDeleted(true)
+                .build();
+        startCrawler(getCrawlerName(), fs, endCrawlerDefinition(getCrawlerName()), null);
+
+        // We should have two docs and two folders (root and subdir) first
+        countTestHelper(getCrawlerName(), null, 2, currentTestResourceDir, null);
+        assertThat(awaitBusy(() -> countFolders(getCrawlerName()) == 2), is(true));
+
+        // We remove a whole directory
+        logger.info(" ---> Removing dir subdir");
+        Files.delete(currentTestResourceDir.resolve("subdir").resolve("subdirfile.txt"));
+        Files.delete(currentTestResourceDir.resolve("subdir"));
+
+        // We expect to have one file and the root folder only
+        countTestHelper(getCrawlerName(), null, 1, currentTestResourceDir, null);
+        assertThat(awaitBusy(() -> countFolders(getCrawlerName()) == 1), is(true));
+    }
+
+    private long countFolders(String indexName) {
+        refresh();
+        return client.prepareSearch(indexName).setTypes(FsCrawlerUtil.INDEX_TYPE_FOLDER).setSize(0).get()
+                .getHits().getTotalHits();
+    }
+
     /**
      * Test case for https://github.com/dadoonet/fscrawler/issues/110
      * @throws Exception In case something is wrong
@@ -640,6 +708,288 @@ public class FsCrawlerImplAllParametersTest extends AbstractMonoNodeITest {
         countTestHelper(getCrawlerName(), null, 2);
     }
 
+    @Test
+    public void test_parallel_crawl() throws Exception {
+        // We don't want a second run to overwrite the job statistics
+        Fs fs = startCrawlerDefinition(TimeValue.timeValueMinutes(1))
+                .setParallelism(4)
+                .build();
+        startCrawler(getCrawlerName(), fs, endCrawlerDefinition(getCrawlerName()), null);
+
+        // We expect to have five files
+        countTestHelper(getCrawlerName(), null, 5);
+
+        // Statistics must have been updated by all crawling threads
+        FsJob fsJob = new FsJobFileHandler(metadataDir).read(getCrawlerName());
+        assertThat(fsJob.getIndexed(), is(5L));
+    }
+
+    @Test
+    public void test_extraction_pool() throws Exception {
+        Fs fs = startCrawlerDefinition(TimeValue.timeValueMinutes(1))
+                .setExtractionThreads(2)
+                .setExtractionQueueSize(1)
+                .build();
+        startCrawler(getCrawlerName(), fs, endCrawlerDefinition(getCrawlerName()), null);
+
+        // We expect to have four files
+        countTestHelper(getCrawlerName(), null, 4);
+
+        // Content has been extracted by the workers
+        countTestHelper(getCrawlerName(), "figure", 1);
+        countTestHelper(getCrawlerName(), "words", 1);
+
+        FsJob fsJob = new FsJobFileHandler(metadataDir).read(getCrawlerName());
+        assertThat(fsJob.getIndexed(), is(4L));
+    }
+
+    @Test
+    public void test_checksum() throws Exception {
+        Fs fs = startCrawlerDefinition()
+                .setAddChecksum(true)
+                .build();
+        startCrawler(getCrawlerName(), fs, endCrawlerDefinition(getCrawlerName()), null);
+
+        // sha256sum roottxtfile.txt
+        countTestHelper(getCrawlerName(),
+                "file.checksum:fd1c9fc5b84e227c8f603e76436db03f969d47668d60bfe93b4df09aa85a3d20", 1);
+    }
+
+    @Test
+    public void test_extraction_processes() throws Exception {
+        Fs fs = startCrawlerDefinition(TimeValue.timeValueMinutes(1))
+                .setExtractionThreads(2)
+                .setExtractionProcesses(2)
+                .build();
+        startCrawler(getCrawlerName(), fs, endCrawlerDefinition(getCrawlerName()), null);
+
+        // We expect to have four files
+        countTestHelper(getCrawlerName(), null, 4);
+
+        // Content and metadata have been extracted by the processes
+        countTestHelper(getCrawlerName(), "figure", 1);
+        countTestHelper(getCrawlerName(), "words", 1);
+        countTestHelper(getCrawlerName(), "file.content_type:\"application/vnd.oasis.opendocument.text\"", 1);
+    }
+
+    @Test
+    public void test_local_state() throws Exception {
+        Fs fs = startCrawlerDefinition()
+                .setLocalState(true)
+                .build();
+        startCrawler(getCrawlerName(), fs, endCrawlerDefinition(getCrawlerName()), null);
+
+        // We should have three docs first
+        countTestHelper(getCrawlerName(), null, 3, currentTestResourceDir, null);
+
+        // The local state has been written
+        assertThat(awaitBusy(() -> Files.exists(metadataDir.resolve(getCrawlerName() + FileStateStore.EXTENSION))),
+                is(true));
+
+        // We add a copy of a file which keeps an old date and we remove another file
+        logger.info(" ---> Adding old_roottxtfile.txt with an old date and removing deleted_roottxtfile.txt");
+        Path copy = Files.copy(currentTestResourceDir.resolve("roottxtfile.txt"),
+                currentTestResourceDir.resolve("old_roottxtfile.txt"));
+        Files.setLastModifiedTime(copy, FileTime.from(Instant.now().minus(10, ChronoUnit.DAYS)));
+        Files.delete(currentTestResourceDir.resolve("deleted_roottxtfile.txt"));
+
+        countTestHelper(getCrawlerName(), "file.filename:old_roottxtfile.txt", 1, currentTestResourceDir, null);
+        countTestHelper(getCrawlerName(), null, 3, currentTestResourceDir, null);
+
+        // We remove a whole directory
+        logger.info(" ---> Removing dir subdir");
+        Files.delete(currentTestResourceDir.resolve("subdir").resolve("subdirfile.txt"));
+        Files.delete(currentTestResourceDir.resolve("subdir"));
+
+        countTestHelper(getCrawlerName(), null, 2, currentTestResourceDir, null);
+    }
+
+    @Test
+    public void test_checkpoint() throws Exception {
+        Fs fs = startCrawlerDefinition(TimeValue.timeValueMinutes(1))
+                .setCheckpointInterval(TimeValue.timeValueSeconds(0))
+                .build();
+
+        // A previous run of the crawler has been stopped after indexing the "done" directory
+        Instant scanStart = Instant.now().minus(1, ChronoUnit.HOURS).truncatedTo(ChronoUnit.MILLIS);
+        ScanCheckpoint checkpoint = ScanCheckpoint.start(metadataDir, getCrawlerName(), fs.getCheckpointInterval(),
+                scanStart, null);
+        String done = currentTestResourceDir.resolve("done").toString() + File.separator;
+        checkpoint.write(Collections.singletonList(SignTool.getInstance(fs.getIdHash()).id(done)));
+
+        startCrawler(getCrawlerName(), fs, endCrawlerDefinition(getCrawlerName()), null);
+
+        // Only todo/roottxtfile.txt has been indexed by the resumed scan
+        countTestHelper(getCrawlerName(), null, 1);
+        countTestHelper(getCrawlerName(), "path.real:*todo*", 1);
+
+        // The scan is over and keeps the date of the interrupted scan
+        FsJob fsJob = new FsJobFileHandler(metadataDir).read(getCrawlerName());
+        assertThat(fsJob.getLastrun(), is(scanStart.minus(2, ChronoUnit.SECONDS)));
+        assertThat(Files.exists(metadataDir.resolve(getCrawlerName() + ScanCheckpoint.EXTENSION)), is(false));
+    }
+
+    @Test
+    public void test_recent_first() throws Exception {
+        List<String> order = crawlOrder(true);
+
+        // The recent directory is crawled before every old one
+        assertThat(order.size(), is(21));
+        assertThat(order.get(0), is("recent"));
+    }
+
+    @Test
+    public void test_recent_first_disabled() throws Exception {
+        List<String> order = crawlOrder(false);
+
+        // Directories are crawled in the order the file system lists them
+        List<String> listed = new ArrayList<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(currentTestResourceDir)) {
+            for (Path dir : dirs) {
+                listed.add(dir.getFileName().toString());
+            }
+        }
+        assertThat(order, is(listed));
+
+        // So the recent directory is not crawled first, unless the file system happens to list it first
+        assumeThat(listed.get(0), not("recent"));
+        assertThat(order.get(0), not("recent"));
+    }
+
+    /**
+     * Only the recent directory has been modified lately. Old directories are created after it.
+     * @return the directories in the order their file has been sent to elasticsearch
+     */
+    private List<String> crawlOrder(boolean recentFirst) throws Exception {
+        FileTime old = FileTime.from(Instant.now().minus(365, ChronoUnit.DAYS));
+        for (int i = 0; i < 20; i++) {
+            Path dir = Files.createDirectory(currentTestResourceDir.resolve("archive" + i));
+            Path file = Files.copy(currentTestResourceDir.resolve("recent").resolve("roottxtfile.txt"),
+                    dir.resolve("roottxtfile.txt"));
+            Files.setLastModifiedTime(file, old);
+            Files.setLastModifiedTime(dir, old);
+        }
+
+        // Bulks of one document are sent one after the other, so the proxy sees the crawl order
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        Pattern real = Pattern.compile("\"" + FsCrawlerUtil.Doc.Path.REAL + "\"\\s*:\\s*\"([^\"]*roottxtfile\\.txt)\"");
+        try (ElasticsearchProxy proxy = new ElasticsearchProxy(HTTP_TEST_PORT, (exchange, body) -> {
+            if (ElasticsearchProxy.isBulk(exchange)) {
+                Matcher matcher = real.matcher(new String(body, StandardCharsets.UTF_8));
+                while (matcher.find()) {
+                    order.add(Paths.get(matcher.group(1)).getParent().getFileName().toString());
+                }
+            }
+            return false;
+        })) {
+            Fs fs = startCrawlerDefinition(TimeValue.timeValueMinutes(1))
+                    .setRecentFirst(recentFirst)
+                    .build();
+            Elasticsearch elasticsearch = Elasticsearch.builder()
+                    .setIndex(getCrawlerName())
+                    .addNode(Elasticsearch.Node.builder().setHost("127.0.0.1").setPort(proxy.getPort()).build())
+                    .setBulkSize(1)
+                    .setConcurrentRequests(0)
+                    .build();
+            startCrawler(getCrawlerName(), fs, elasticsearch, null);
+
+            countTestHelper(getCrawlerName(), null, 21);
+        }
+        return new ArrayList<>(order);
+    }
+
+    @Test
+    public void test_extraction_cache() throws Exception {
+        Fs fs = startCrawlerDefinition()
+                .setExtractionCacheSizeBytes(1024 * 1024)
+                .setAddChecksum(true)
+                .build();
+        startCrawler(getCrawlerName(), fs, endCrawlerDefinition(getCrawlerName()), null);
+
+        // Both files have the same content
+        countTestHelper(getCrawlerName(), "content:words", 2);
+        countTestHelper(getCrawlerName(),
+                "file.checksum:fd1c9fc5b84e227c8f603e76436db03f969d47668d60bfe93b4df09aa85a3d20", 2);
+
+        CrawlerMetrics metrics = crawler.getMetrics();
+        assertThat(awaitBusy(() -> metrics.getFilesIndexed() == 2), is(true));
+        assertThat(metrics.getExtractionCount(), is(1L));
+        assertThat(metrics.getExtractionCacheMisses(), is(1L));
+        assertThat(metrics.getExtractionCacheHits(), is(1L));
+        assertThat(Files.exists(metadataDir.resolve(getCrawlerName() + ExtractionCache.DIR_SUFFIX)), is(true));
+
+        // Touching a file does not extract it again
+        logger.info(" ---> Touching roottxtfile.txt");
+        Files.setLastModifiedTime(currentTestResourceDir.resolve("roottxtfile.txt"), FileTime.from(Instant.now()));
+
+        assertThat(awaitBusy(() -> metrics.getExtractionCacheHits() >= 2), is(true));
+        assertThat(metrics.getExtractionCount(), is(1L));
+        assertThat(metrics.getExtractionCacheMisses(), is(1L));
+        countTestHelper(getCrawlerName(), "content:words", 2);
+    }
+
+    @Test
+    public void test_extraction_cache_same_prefix() throws Exception {
+        // Two files with the same size which only differ after the beginning we use to find known contents
+        StringBuilder prefix = new StringBuilder();
+        while (prefix.length() < ContentDigestInputStream.PREFIX_SIZE) {
+            prefix.append("same words again ");
+        }
+        Files.write(currentTestResourceDir.resolve("alpha.txt"), (prefix + "alpha").getBytes(StandardCharsets.UTF_8));
+        Files.write(currentTestResourceDir.resolve("omega.txt"), (prefix + "omega").getBytes(StandardCharsets.UTF_8));
+
+        Fs fs = startCrawlerDefinition()
+                .setExtractionCacheSizeBytes(1024 * 1024)
+                .build();
+        startCrawler(getCrawlerName(), fs, endCrawlerDefinition(getCrawlerName()), null);
+
+        // Both files are extracted with their own content
+        countTestHelper(getCrawlerName(), "content:alpha", 1);
+        countTestHelper(getCrawlerName(), "content:omega", 1);
+
+        CrawlerMetrics metrics = crawler.getMetrics();
+        assertThat(awaitBusy(() -> metrics.getFilesIndexed() == 3), is(true));
+        assertThat(metrics.getExtractionCount(), is(3L));
+        assertThat(metrics.getExtractionCacheHits(), is(0L));
+    }
+
+    @Test
+    public void test_watch() throws Exception {
+        // We don't want a full scan to find the changes
+        Fs fs = startCrawlerDefinition(TimeValue.timeValueMinutes(10))
+                .setWatch(true)
+                .build();
+        startCrawler(getCrawlerName(), fs, endCrawlerDefinition(getCrawlerName()), null);
+
+        // We should have one doc first
+        countTestHelper(getCrawlerName(), null, 1, currentTestResourceDir, null);
+
+        logger.info(" ---> Adding a copy of roottxtfile.txt");
+        Files.copy(currentTestResourceDir.resolve("roottxtfile.txt"),
+                currentTestResourceDir.resolve("new_roottxtfile.txt"));
+        countTestHelper(getCrawlerName(), null, 2, currentTestResourceDir, null);
+
+        logger.info(" ---> Adding a new dir with one file");
+        Path subdir = Files.createDirectory(currentTestResourceDir.resolve("subdir"));
+        Files.copy(currentTestResourceDir.resolve("roottxtfile.txt"), subdir.resolve("subdirfile.txt"));
+        countTestHelper(getCrawlerName(), "file.filename:subdirfile.txt", 1, currentTestResourceDir, null);
+
+        logger.info(" ---> Updating a file in the new dir");
+        Files.write(subdir.resolve("subdirfile.txt"), "This file has been modified".getBytes("UTF-8"));
+        countTestHelper(getCrawlerName(), "modified", 1, currentTestResourceDir, null);
+
+        logger.info(" ---> Removing new_roottxtfile.txt");
+        Files.delete(currentTestResourceDir.resolve("new_roottxtfile.txt"));
+        countTestHelper(getCrawlerName(), null, 2, currentTestResourceDir, null);
+        assertThat(awaitBusy(() -> countFolders(getCrawlerName()) == 2), is(true));
+
+        logger.info(" ---> Removing the new dir");
+        Files.delete(subdir.resolve("subdirfile.txt"));
+        Files.delete(subdir);
+        countTestHelper(getCrawlerName(), null, 1, currentTestResourceDir, null);
+        assertThat(awaitBusy(() -> countFolders(getCrawlerName()) == 1), is(true));
+    }
+
     @Test
     public void test_ignore_dir() throws Exception {
         Fs fs = startCrawlerDefinition()
@@ -651,6 +1001,42 @@ public class FsCrawlerImplAllParametersTest extends AbstractMonoNodeITest {
         countTestHelper(getCrawlerName(), null, 1);
     }
 
+    @Test
+    public void test_metrics() throws Exception {
+        startCrawler();
+
+        // We expect to have two files
+        countTestHelper(getCrawlerName(), null, 2);
+
+        CrawlerMetrics metrics = crawler.getMetrics();
+        assertThat(awaitBusy(() -> metrics.getFilesIndexed() == 2), is(true));
+        // roottxtfile.txt, subdir, ~ignored.txt and subdir/roottxtfile.txt
+        assertThat(metrics.getFilesListed(), is(4L));
+        assertThat(metrics.getFilesSkipped(), is(1L));
+        assertThat(metrics.getExtractionCount(), is(2L));
+        assertThat(metrics.getBulkCount(), greaterThan(0L));
+        assertThat(metrics.getNodesActive(), is(1L));
+
+        // Metrics are available over JMX
+        ObjectName name = new ObjectName(CrawlerMetrics.JMX_DOMAIN + ":type=Crawler,name=" +
+                ObjectName.quote(getCrawlerName()));
+        assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "FilesIndexed"), is(2L));
+
+        crawler.close();
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(name), is(false));
+    }
+
+    @Test
+    public void test_exclude_path() throws Exception {
+        Fs fs = startCrawlerDefinition()
+                .addExclude("/subdir/archive")
+                .build();
+        startCrawler(getCrawlerName(), fs, endCrawlerDefinition(getCrawlerName()), null);
+
+        // We expect to have /archive/roottxtfile.txt and /subdir/roottxtfile.txt
+        countTestHelper(getCrawlerName(), null, 2);
+    }
+
     @Test
     public void test_multiple_crawlers() throws Exception {
         Fs fs1 = startCrawlerDefinition(currentTestResourceDir.resolve("crawler1").toString()).build();
@@ -663,6 +1049,71 @@ public class FsCrawlerImplAllParametersTest extends AbstractMonoNodeITest {
         countTestHelper(getCrawlerName() + "_2", null, 1);
     }
 
+    @Test
+    public void test_daemon() throws Exception {
+        List<FsSettings> jobs = new ArrayList<>();
+        for (String job : new String[] { "1", "2" }) {
+            Fs fs = startCrawlerDefinition(currentTestResourceDir.resolve("crawler" + job).toString())
+                    .setExtractionThreads(1)
+                    .build();
+            jobs.add(FsSettings.builder(getCrawlerName() + "_" + job)
+                    .setFs(fs)
+                    .setElasticsearch(endCrawlerDefinition(getCrawlerName() + "_" + job))
+                    .build());
+        }
+
+        FsCrawlerDaemon daemon = new FsCrawlerDaemon(metadataDir, jobs, 1);
+        try {
+            assertThat(daemon.start(), is(2));
+
+            // We should have one doc in index 1...
+            countTestHelper(getCrawlerName() + "_1", null, 1);
+            // We should have one doc in index 2...
+            countTestHelper(getCrawlerName() + "_2", null, 1);
+
+            // Both jobs send their documents with the same client and bulk processor
+            assertThat(daemon.getClusterMetrics().size(), is(1));
+            CrawlerMetrics cluster = daemon.getClusterMetrics().get(0);
+            assertThat(awaitBusy(() -> cluster.getBulkCount() > 1), is(true));
+            for (FsCrawlerImpl crawler : daemon.getCrawlers()) {
+                assertThat(awaitBusy(() -> crawler.getMetrics().getFilesIndexed() == 1), is(true));
+            }
+        } finally {
+            daemon.close();
+        }
+    }
+
+    @Test
+    public void test_daemon_adaptive_bulk() throws Exception {
+        List<FsSettings> jobs = new ArrayList<>();
+        for (String job : new String[] { "1", "2" }) {
+            Fs fs = startCrawlerDefinition(currentTestResourceDir.resolve("crawler" + job).toString())
+                    .setExtractionThreads(1)
+                    .build();
+            Elasticsearch elasticsearch = endCrawlerDefinition(getCrawlerName() + "_" + job);
+            elasticsearch.setAdaptiveBulk(true);
+            // Only the adaptive settings are different
+            elasticsearch.setBulkLatencyTarget(TimeValue.timeValueMillis("1".equals(job) ? 500 : 1000));
+            jobs.add(FsSettings.builder(getCrawlerName() + "_" + job)
+                    .setFs(fs)
+                    .setElasticsearch(elasticsearch)
+                    .build());
+        }
+
+        FsCrawlerDaemon daemon = new FsCrawlerDaemon(metadataDir, jobs, 1);
+        try {
+            assertThat(daemon.start(), is(2));
+
+            countTestHelper(getCrawlerName() + "_1", null, 1);
+            countTestHelper(getCrawlerName() + "_2", null, 1);
+
+            // Each job has its own client and bulk processor
+            assertThat(daemon.getClusterMetrics().size(), is(2));
+        } finally {
+            daemon.close();
+        }
+    }
+
     @Test
     public void test_filename_analyzer() throws Exception {
         startCrawler();
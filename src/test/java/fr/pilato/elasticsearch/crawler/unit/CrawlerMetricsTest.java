@@ -0,0 +1,122 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.unit;
+
+import fr.pilato.elasticsearch.crawler.fs.metrics.CrawlerMetrics;
+import fr.pilato.elasticsearch.crawler.fs.metrics.Histogram;
+import fr.pilato.elasticsearch.crawler.fs.metrics.PrometheusExporter;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+
+public class CrawlerMetricsTest {
+
+    @Test
+    public void histogram() {
+        Histogram histogram = new Histogram(new long[] { 10, 100 });
+        histogram.observe(0);
+        histogram.observe(10);
+        histogram.observe(11);
+        histogram.observe(1000);
+        assertThat(histogram.getBuckets(), is(new long[] { 2, 1, 1 }));
+        assertThat(histogram.getCount(), is(4L));
+        assertThat(histogram.getSum(), is(1021L));
+        assertThat(histogram.getMean(), is(255.25));
+    }
+
+    @Test
+    public void prometheus() throws Exception {
+        CrawlerMetrics metrics = new CrawlerMetrics("job_1");
+        metrics.filesListed(10);
+        metrics.fileIndexed(1000);
+        metrics.fileIndexed(24);
+        metrics.fileSkipped();
+        metrics.extraction(30);
+        metrics.bulk(120, 2048, true);
+        metrics.setNodesActive(() -> 1);
+
+        CrawlerMetrics other = new CrawlerMetrics("job \"2\"");
+
+        PrometheusExporter exporter = new PrometheusExporter("127.0.0.1", 0);
+        try {
+            exporter.add(metrics);
+            exporter.add(other);
+
+            String body = get("http://127.0.0.1:" + exporter.getPort() + "/metrics");
+            assertThat(body, is(exporter.scrape()));
+            assertThat(body, containsString("# TYPE fscrawler_files_listed_total counter\n" +
+                    "fscrawler_files_listed_total{job=\"job_1\"} 10\n" +
+                    "fscrawler_files_listed_total{job=\"job \\\"2\\\"\"} 0\n"));
+            assertThat(body, containsString("fscrawler_files_indexed_total{job=\"job_1\"} 2\n"));
+            assertThat(body, containsString("fscrawler_bytes_read_total{job=\"job_1\"} 1024\n"));
+            assertThat(body, containsString("fscrawler_files_skipped_total{job=\"job_1\"} 1\n"));
+            assertThat(body, containsString("fscrawler_bulk_failures_total{job=\"job_1\"} 1\n"));
+            assertThat(body, containsString("fscrawler_extraction_duration_seconds_bucket{job=\"job_1\",le=\"0.025\"} 0\n" +
+                    "fscrawler_extraction_duration_seconds_bucket{job=\"job_1\",le=\"0.05\"} 1\n"));
+            assertThat(body, containsString("fscrawler_extraction_duration_seconds_bucket{job=\"job_1\",le=\"+Inf\"} 1\n" +
+                    "fscrawler_extraction_duration_seconds_sum{job=\"job_1\"} 0.03\n" +
+                    "fscrawler_extraction_duration_seconds_count{job=\"job_1\"} 1\n"));
+            assertThat(body, containsString("fscrawler_bulk_size_bytes_sum{job=\"job_1\"} 2048\n"));
+            assertThat(body, containsString("fscrawler_elasticsearch_nodes_active{job=\"job_1\"} 1\n"));
+        } finally {
+            exporter.close();
+        }
+    }
+
+    @Test
+    public void jmx() throws Exception {
+        CrawlerMetrics metrics = new CrawlerMetrics("jmx_test");
+        metrics.fileIndexed(100);
+        metrics.registerMBean();
+        ObjectName name = new ObjectName(CrawlerMetrics.JMX_DOMAIN + ":type=Crawler,name=\"jmx_test\"");
+        try {
+            assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "FilesIndexed"), is(1L));
+            assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "BytesRead"), is(100L));
+        } finally {
+            metrics.unregisterMBean();
+        }
+        assertThat(ManagementFactory.getPlatformMBeanServer().isRegistered(name), is(false));
+    }
+
+    private static String get(String url) throws Exception {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        assertThat(connection.getResponseCode(), is(200));
+        assertThat(connection.getContentType(), containsString("text/plain"));
+        try (InputStream is = connection.getInputStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.unit;
+
+import fr.pilato.elasticsearch.crawler.fs.state.ContentDigestInputStream;
+import fr.pilato.elasticsearch.crawler.fs.state.ExtractionCache;
+import fr.pilato.elasticsearch.crawler.fs.state.ExtractionCache.Extraction;
+import fr.pilato.elasticsearch.crawler.fs.state.FileStateStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * We want to test the extraction cache and how we hash contents
+ */
+public class ExtractionCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Extraction extraction(String content) {
+        Extraction extraction = new Extraction();
+        extraction.setContent(content);
+        extraction.setContentType("text/plain; charset=ISO-8859-1");
+        extraction.setTitle("title");
+        extraction.setKeywords("foo,bar");
+        return extraction;
+    }
+
+    @Test
+    public void testGetAndReload() throws IOException {
+        Path dir = folder.getRoot().toPath().resolve("test" + ExtractionCache.DIR_SUFFIX);
+        ExtractionCache cache = new ExtractionCache(dir, 1024 * 1024);
+        assertThat(cache.mightContain(10, "ab"), is(false));
+
+        cache.put(10, "ab", "abcd", 100000, extraction("some words"));
+        assertThat(cache.mightContain(10, "ab"), is(true));
+        assertThat(cache.mightContain(11, "ab"), is(false));
+        assertThat(cache.mightContain(10, "ef"), is(false));
+        // The hash and the number of extracted characters are part of the key
+        assertThat(cache.get(10, "ab", "abef", 100000), nullValue());
+        assertThat(cache.get(10, "ab", "abcd", 10), nullValue());
+
+        // Files we did not finish to write or we don't know
+        Files.write(dir.resolve("10-ef-efgh-100000.json.tmp"), "{\"content\":".getBytes("UTF-8"));
+        Files.write(dir.resolve("foo.json"), "{}".getBytes("UTF-8"));
+
+        cache = new ExtractionCache(dir, 1024 * 1024);
+        assertThat(cache.size(), is(1));
+        assertThat(Files.exists(dir.resolve("10-ef-efgh-100000.json.tmp")), is(false));
+        Extraction extraction = cache.get(10, "ab", "abcd", 100000);
+        assertThat(extraction, notNullValue());
+        assertThat(extraction.getContent(), is("some words"));
+        assertThat(extraction.getContentType(), is("text/plain; charset=ISO-8859-1"));
+        assertThat(extraction.getTitle(), is("title"));
+        assertThat(extraction.getKeywords(), is("foo,bar"));
+        assertThat(extraction.getAuthor(), nullValue());
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        Path dir = folder.getRoot().toPath().resolve("test" + ExtractionCache.DIR_SUFFIX);
+        ExtractionCache cache = new ExtractionCache(dir, 1024 * 1024);
+        cache.put(1, "a", "a", -1, extraction("1"));
+        long entrySize = cache.sizeInBytes();
+
+        // Room for 3 entries
+        cache = new ExtractionCache(dir, entrySize * 3);
+        // Unlimited extraction is part of the key
+        assertThat(cache.get(1, "a", "a", -1), notNullValue());
+        cache.put(2, "b", "b", -1, extraction("2"));
+        cache.put(3, "c", "c", -1, extraction("3"));
+        // We use the first one so the second one is the least recently used
+        assertThat(cache.get(1, "a", "a", -1), notNullValue());
+        cache.put(4, "d", "d", -1, extraction("4"));
+
+        assertThat(cache.size(), is(3));
+        assertThat(cache.sizeInBytes(), is(entrySize * 3));
+        assertThat(cache.mightContain(2, "b"), is(false));
+        assertThat(cache.get(2, "b", "b", -1), nullValue());
+        assertThat(cache.get(1, "a", "a", -1), notNullValue());
+        assertThat(cache.get(4, "d", "d", -1), notNullValue());
+
+        // An entry which is bigger than the cache is ignored
+        cache.put(5, "e", "e", -1, extraction(new String(new char[(int) entrySize * 3])));
+        assertThat(cache.mightContain(5, "e"), is(false));
+        assertThat(cache.size(), is(3));
+    }
+
+    @Test
+    public void testLock() throws Exception {
+        ExtractionCache cache = new ExtractionCache(folder.getRoot().toPath(), 1024 * 1024);
+        cache.lock(10, "ab");
+        // Another content can be extracted at the same time
+        cache.lock(10, "ef");
+        cache.unlock(10, "ef");
+
+        // The same content waits until we have extracted it
+        CountDownLatch locked = new CountDownLatch(1);
+        AtomicBoolean found = new AtomicBoolean();
+        Thread thread = new Thread(() -> {
+            try {
+                cache.lock(10, "ab");
+                found.set(cache.mightContain(10, "ab"));
+                cache.unlock(10, "ab");
+                locked.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        assertThat(locked.await(100, TimeUnit.MILLISECONDS), is(false));
+
+        cache.put(10, "ab", "abcd", 100000, extraction("some words"));
+        cache.unlock(10, "ab");
+        assertThat(locked.await(10, TimeUnit.SECONDS), is(true));
+        assertThat(found.get(), is(true));
+    }
+
+    @Test
+    public void testContentDigest() throws IOException {
+        byte[] content = new byte[ContentDigestInputStream.PREFIX_SIZE + 100];
+        new Random().nextBytes(content);
+        String hash = FileStateStore.hash(new ByteArrayInputStream(content));
+
+        ContentDigestInputStream digest = new ContentDigestInputStream(new ByteArrayInputStream(content));
+        byte[] prefix = digest.readPrefix();
+        assertThat(prefix.length, is(ContentDigestInputStream.PREFIX_SIZE));
+        String prefixHash = digest.prefixHash();
+        assertThat(digest.drain(), is(hash));
+
+        // Same beginning, another end
+        content[content.length - 1]++;
+        digest = new ContentDigestInputStream(new ByteArrayInputStream(content));
+        digest.readPrefix();
+        assertThat(digest.prefixHash(), is(prefixHash));
+        assertThat(digest.drain(), not(hash));
+
+        // A small content
+        digest = new ContentDigestInputStream(new ByteArrayInputStream("foo".getBytes("UTF-8")));
+        assertThat(digest.readPrefix().length, is(3));
+        assertThat(digest.drain(), is(FileStateStore.hash(new ByteArrayInputStream("foo".getBytes("UTF-8")))));
+        assertThat(digest.prefixHash().length(), is(16));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.unit;
+
+import fr.pilato.elasticsearch.crawler.fs.ExtractionPool;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+/**
+ * We want to test the quotas of the jobs sharing an extraction pool
+ */
+public class ExtractionPoolTest {
+
+    @Test
+    public void testJobQuota() throws Exception {
+        ExtractionPool shared = new ExtractionPool("test", 4, 0);
+        try {
+            ExtractionPool job1 = shared.forJob("job1", 1);
+            ExtractionPool job2 = shared.forJob("job2", 2);
+
+            // job1 fills its quota
+            CountDownLatch release = new CountDownLatch(1);
+            job1.submit(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            });
+            assertThat(job1.pendingTasks(), is(1));
+
+            // job2 still gets workers from the shared pool
+            AtomicInteger done = new AtomicInteger();
+            job2.submit(done::incrementAndGet);
+            job2.submit(done::incrementAndGet);
+            job2.awaitCompletion();
+            assertThat(done.get(), is(2));
+            assertThat(job2.pendingTasks(), is(0));
+            assertThat(shared.pendingTasks(), is(1));
+
+            // job1 is blocked until its first task is done
+            CountDownLatch submitted = new CountDownLatch(1);
+            Thread producer = new Thread(() -> {
+                try {
+                    job1.submit(done::incrementAndGet);
+                    submitted.countDown();
+                } catch (InterruptedException ignored) {
+                }
+            });
+            producer.start();
+            assertThat(submitted.await(200, TimeUnit.MILLISECONDS), is(false));
+            release.countDown();
+            assertThat(submitted.await(10, TimeUnit.SECONDS), is(true));
+            producer.join();
+            job1.awaitCompletion();
+            assertThat(done.get(), is(3));
+
+            // Closing a job does not stop the shared workers
+            job1.close();
+            job2.submit(done::incrementAndGet);
+            job2.awaitCompletion();
+            assertThat(done.get(), is(4));
+        } finally {
+            shared.close();
+        }
+    }
+
+    @Test
+    public void testPriority() throws Exception {
+        ExtractionPool pool = new ExtractionPool("test", 1, 10);
+        try {
+            // We keep the only worker busy
+            CountDownLatch release = new CountDownLatch(1);
+            pool.submit(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            });
+
+            List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+            pool.submit(() -> order.add(1), 1);
+            pool.submit(() -> order.add(3), 3);
+            pool.submit(() -> order.add(0));
+            pool.submit(() -> order.add(2), 2);
+            pool.submit(() -> order.add(-1));
+            release.countDown();
+            pool.awaitCompletion();
+
+            // Tasks with the same priority run in the order they have been submitted
+            assertThat(order, contains(3, 2, 1, 0, -1));
+        } finally {
+            pool.close();
+        }
+    }
+}
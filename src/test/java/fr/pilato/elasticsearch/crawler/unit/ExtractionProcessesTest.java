@@ -0,0 +1,99 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.unit;
+
+import fr.pilato.elasticsearch.crawler.fs.ExtractionProcesses;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.TimeValue;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.fail;
+
+/**
+ * We want to test extracting content in child processes
+ */
+public class ExtractionProcessesTest {
+
+    private static InputStream text(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testExtractText() throws Exception {
+        try (ExtractionProcesses processes = new ExtractionProcesses("test", 1, ExtractionProcesses.DEFAULT_HEAP_BYTES,
+                ExtractionProcesses.DEFAULT_TIMEOUT)) {
+            Metadata metadata = new Metadata();
+            String content = processes.extractText(text("This file contains some words."), metadata, 100000);
+            assertThat(content, containsString("This file contains some words."));
+            assertThat(metadata.get(Metadata.CONTENT_TYPE), startsWith("text/plain"));
+
+            // The same process is used for the next file, with a limit this time
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 100000; i++) {
+                sb.append("word ");
+            }
+            content = processes.extractText(text(sb.toString()), new Metadata(), 10);
+            assertThat(content, is("word word "));
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        try (ExtractionProcesses processes = new ExtractionProcesses("test", 1, ExtractionProcesses.DEFAULT_HEAP_BYTES,
+                TimeValue.timeValueSeconds(5))) {
+            // A first extraction so the process is already running
+            processes.extractText(text("first"), new Metadata(), 100000);
+
+            // A file which takes forever to read
+            InputStream slow = new FilterInputStream(text("slow")) {
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    try {
+                        Thread.sleep(6000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return super.read(b, off, len);
+                }
+            };
+            try {
+                processes.extractText(slow, new Metadata(), 100000);
+                fail("extraction should have timed out");
+            } catch (TikaException e) {
+                assertThat(e.getMessage(), containsString("extraction took more than"));
+            }
+
+            // A new process is started for the next file
+            String content = processes.extractText(text("This file contains some words."), new Metadata(), 100000);
+            assertThat(content, containsString("This file contains some words."));
+        }
+    }
+}
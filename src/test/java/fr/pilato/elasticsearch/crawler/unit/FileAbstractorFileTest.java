@@ -0,0 +1,95 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.unit;
+
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractModel;
+import fr.pilato.elasticsearch.crawler.fs.fileabstractor.FileAbstractorFile;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.Fs;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * We want to test listing local files
+ */
+public class FileAbstractorFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Map<String, FileAbstractModel> listFiles(boolean attributesSupport) throws Exception {
+        Path root = folder.getRoot().toPath();
+        Path file = Files.write(root.resolve("file.txt"), "Hello world".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.from(Instant.ofEpochMilli(1000000000000L)));
+        Files.createDirectory(root.resolve("dir"));
+
+        FileAbstractorFile abstractor = new FileAbstractorFile(FsSettings.builder("test")
+                .setFs(Fs.builder().setAttributesSupport(attributesSupport).build())
+                .build());
+        Collection<FileAbstractModel> files = abstractor.getFiles(root.toString());
+        Map<String, FileAbstractModel> models = new HashMap<>();
+        for (FileAbstractModel model : files) {
+            models.put(model.name, model);
+        }
+        assertThat(models.size(), is(2));
+        return models;
+    }
+
+    @Test
+    public void testListFiles() throws Exception {
+        Map<String, FileAbstractModel> models = listFiles(false);
+
+        FileAbstractModel file = models.get("file.txt");
+        assertThat(file.file, is(true));
+        assertThat(file.directory, is(false));
+        assertThat(file.size, is(11L));
+        assertThat(file.lastModifiedDate, is(Instant.ofEpochMilli(1000000000000L)));
+        assertThat(file.path, is(folder.getRoot().toPath().toString()));
+        assertThat(file.fullpath, is(new File(folder.getRoot(), "file.txt").getAbsolutePath()));
+        assertThat(file.owner, nullValue());
+        assertThat(file.group, nullValue());
+
+        FileAbstractModel dir = models.get("dir");
+        assertThat(dir.file, is(false));
+        assertThat(dir.directory, is(true));
+    }
+
+    @Test
+    public void testListFilesWithAttributes() throws Exception {
+        Map<String, FileAbstractModel> models = listFiles(true);
+        assertThat(models.get("file.txt").owner, notNullValue());
+    }
+}
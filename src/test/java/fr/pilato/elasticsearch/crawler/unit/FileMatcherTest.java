@@ -0,0 +1,93 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.unit;
+
+import fr.pilato.elasticsearch.crawler.fs.util.FileMatcher;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class FileMatcherTest {
+
+    @Test
+    public void no_rules() {
+        FileMatcher matcher = FileMatcher.compile(null, Collections.emptyList());
+        assertThat(matcher.isIndexable("test.doc"), is(true));
+        assertThat(matcher.isIndexable("/a/b", "b", true), is(true));
+        assertThat(matcher.isIndexable("~test.doc"), is(false));
+    }
+
+    @Test
+    public void fast_paths() {
+        FileMatcher matcher = FileMatcher.compile(Arrays.asList("*.pdf", "report*", "*draft*", "README"), null);
+        assertThat(matcher.isIndexable("test.pdf"), is(true));
+        assertThat(matcher.isIndexable("testpdf"), is(false));
+        assertThat(matcher.isIndexable("report.doc"), is(true));
+        assertThat(matcher.isIndexable("my_draft_1.doc"), is(true));
+        assertThat(matcher.isIndexable("README"), is(true));
+        assertThat(matcher.isIndexable("README.md"), is(false));
+        assertThat(matcher.isIndexable("test.doc"), is(false));
+    }
+
+    @Test
+    public void wildcards() {
+        FileMatcher matcher = FileMatcher.compile(null, Arrays.asList("my.d?c*.xls", "a*b*c", "*"));
+        assertThat(matcher.isIndexable("my.doc.xls"), is(false));
+        assertThat(matcher.isIndexable("my.dc.xls"), is(false));
+        assertThat(matcher.isIndexable("anything"), is(false));
+
+        matcher = FileMatcher.compile(null, Arrays.asList("my.d?c*.xls", "a*b*c"));
+        assertThat(matcher.isIndexable("my.douc.xls"), is(true));
+        assertThat(matcher.isIndexable("a_b_c"), is(false));
+        assertThat(matcher.isIndexable("a_c_b"), is(true));
+        // Regular expression characters are not special
+        assertThat(matcher.isIndexable("my_doc_xls"), is(true));
+    }
+
+    @Test
+    public void path_excludes() {
+        FileMatcher matcher = FileMatcher.compile(null, Arrays.asList("/archives/", "/*/tmp", "/logs/**/*.log"));
+        assertThat(matcher.isIndexable("/archives", "archives", true), is(false));
+        assertThat(matcher.isIndexable("/foo/archives", "archives", true), is(true));
+        assertThat(matcher.isIndexable("/foo/tmp", "tmp", true), is(false));
+        assertThat(matcher.isIndexable("/foo/bar/tmp", "tmp", true), is(true));
+        assertThat(matcher.isIndexable("/logs/2016/06/app.log", "app.log", false), is(false));
+        assertThat(matcher.isIndexable("/logs/app.log", "app.log", false), is(true));
+        assertThat(matcher.isIndexable("\\foo\\tmp", "tmp", true), is(false));
+        // Without a path, path rules are ignored
+        assertThat(matcher.isIndexable("tmp"), is(true));
+    }
+
+    @Test
+    public void path_includes() {
+        FileMatcher matcher = FileMatcher.compile(Arrays.asList("/docs/*.pdf", "*.txt"), Collections.singletonList("*_old*"));
+        assertThat(matcher.isIndexable("/docs/test.pdf", "test.pdf", false), is(true));
+        assertThat(matcher.isIndexable("/other/test.pdf", "test.pdf", false), is(false));
+        assertThat(matcher.isIndexable("/other/test.txt", "test.txt", false), is(true));
+        assertThat(matcher.isIndexable("/docs/test_old.pdf", "test_old.pdf", false), is(false));
+        // Directories are crawled as they may contain files matching path rules
+        assertThat(matcher.isIndexable("/other", "other", true), is(true));
+        assertThat(matcher.isIndexable("/other_old", "other_old", true), is(false));
+    }
+}
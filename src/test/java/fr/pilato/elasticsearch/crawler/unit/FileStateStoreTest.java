@@ -0,0 +1,222 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.unit;
+
+import fr.pilato.elasticsearch.crawler.fs.state.FileStateStore;
+import fr.pilato.elasticsearch.crawler.fs.state.FileStateStore.FileState;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasKey;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * We want to test the local state store
+ */
+public class FileStateStoreTest {
+
+    private static final String HASH = "2c26b46b68ffc68ff99b453c1d30413413422d706483bfa0f98a5e886266e7ae";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReloadState() throws IOException {
+        Path root = folder.getRoot().toPath();
+        try (FileStateStore store = new FileStateStore(root, "test")) {
+            store.startScan();
+            store.put("file1", FileState.file(1000L, 10L, HASH));
+            store.put("file2", FileState.file(2000L, 20L, null));
+            store.put("dir1", FileState.directory(3000L));
+        }
+
+        try (FileStateStore store = new FileStateStore(root, "test")) {
+            assertThat(store.size(), is(3L));
+            FileState file1 = store.seen("file1");
+            assertThat(file1, notNullValue());
+            assertThat(file1.isDirectory(), is(false));
+            assertThat(file1.getLastModified(), is(1000L));
+            assertThat(file1.getSize(), is(10L));
+            assertThat(file1.getHash(), is(HASH));
+            assertThat(store.seen("file2").getHash(), nullValue());
+            assertThat(store.seen("dir1").isDirectory(), is(true));
+            assertThat(store.seen("unknown"), nullValue());
+        }
+    }
+
+    @Test
+    public void testRemoveUnseen() throws IOException {
+        Path root = folder.getRoot().toPath();
+        try (FileStateStore store = new FileStateStore(root, "test")) {
+            store.startScan();
+            store.put("file1", FileState.file(1000L, 10L, null));
+            store.put("file2", FileState.file(2000L, 20L, null));
+
+            store.commit();
+
+            // Next scan only sees file1
+            store.startScan();
+            store.seen("file1");
+            Map<String, FileState> removed = new HashMap<>();
+            store.forEachUnseen((id, state) -> {
+                removed.put(id, state);
+                try {
+                    store.remove(id);
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            });
+            assertThat(removed.size(), is(1));
+            assertThat(removed, hasKey("file2"));
+            store.commit();
+            assertThat(store.size(), is(1L));
+        }
+
+        // Removal has been persisted
+        try (FileStateStore store = new FileStateStore(root, "test")) {
+            assertThat(store.size(), is(1L));
+            assertThat(store.seen("file2"), nullValue());
+        }
+    }
+
+    @Test
+    public void testIgnorePartialLine() throws IOException {
+        Path root = folder.getRoot().toPath();
+        try (FileStateStore store = new FileStateStore(root, "test")) {
+            store.startScan();
+            store.put("file1", FileState.file(1000L, 10L, null));
+        }
+
+        // Simulate a crash while writing
+        Files.write(root.resolve("test" + FileStateStore.EXTENSION), "P\tfile2\tf\t20".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        try (FileStateStore store = new FileStateStore(root, "test")) {
+            assertThat(store.size(), is(1L));
+            assertThat(store.seen("file1"), notNullValue());
+        }
+    }
+
+    @Test
+    public void testPendingChanges() throws IOException {
+        Path root = folder.getRoot().toPath();
+        try (FileStateStore store = new FileStateStore(root, "test")) {
+            store.startScan();
+            store.put("file1", FileState.file(1000L, 10L, null));
+            // Pending changes are not visible
+            assertThat(store.seen("file1"), nullValue());
+            assertThat(store.isCommitDue(), is(false));
+
+            List<String> changes = store.drain();
+            assertThat(changes.size(), is(1));
+            store.put("file2", FileState.file(2000L, 20L, null));
+            store.commit(changes);
+            assertThat(store.seen("file1"), notNullValue());
+
+            // Changes which are drained but never committed are lost
+            store.drain();
+        }
+
+        try (FileStateStore store = new FileStateStore(root, "test")) {
+            assertThat(store.size(), is(1L));
+            assertThat(store.seen("file2"), nullValue());
+        }
+    }
+
+    @Test
+    public void testLogReplay() throws IOException {
+        Path root = folder.getRoot().toPath();
+        Path log = root.resolve("test" + FileStateStore.EXTENSION);
+        // A log written by a process which stopped before writing the table
+        Files.write(log, ("P\tfile1\tf\t1000\t10\t" + HASH + "\nP\tdir1\td\t3000\t0\t-\nD\tdir1\n")
+                .getBytes(StandardCharsets.UTF_8));
+
+        try (FileStateStore store = new FileStateStore(root, "test")) {
+            assertThat(store.size(), is(1L));
+            assertThat(store.seen("file1").getHash(), is(HASH));
+            assertThat(store.seen("dir1"), nullValue());
+        }
+
+        // The changes are in the table so we don't need the log anymore
+        assertThat(Files.exists(log), is(false));
+        assertThat(Files.exists(root.resolve("test" + FileStateStore.TABLE_EXTENSION)), is(true));
+    }
+
+    @Test
+    public void testManyEntries() throws IOException {
+        Path root = folder.getRoot().toPath();
+        try (FileStateStore store = new FileStateStore(root, "test")) {
+            store.startScan();
+            // The table has to grow many times
+            for (int i = 0; i < 20000; i++) {
+                store.put("file" + i, FileState.file(i, 10L, null));
+            }
+            store.commit();
+            // And to drop removed entries
+            for (int i = 0; i < 20000; i += 2) {
+                store.remove("file" + i);
+            }
+            store.commit();
+            for (int i = 0; i < 5000; i++) {
+                store.put("new" + i, FileState.file(i, 20L, null));
+            }
+            store.commit();
+            assertThat(store.size(), is(15000L));
+        }
+
+        try (FileStateStore store = new FileStateStore(root, "test")) {
+            assertThat(store.size(), is(15000L));
+            assertThat(store.seen("file0"), nullValue());
+            assertThat(store.seen("file1999").getLastModified(), is(1999L));
+            assertThat(store.seen("new4999").getSize(), is(20L));
+
+            // Entries we did not see are found without loading everything in memory
+            store.startScan();
+            for (int i = 1; i < 20000; i += 2) {
+                store.seen("file" + i);
+            }
+            Map<String, FileState> unseen = new HashMap<>();
+            store.forEachUnseen(unseen::put);
+            assertThat(unseen.size(), is(5000));
+            assertThat(unseen, hasKey("new0"));
+        }
+    }
+
+    @Test
+    public void testHash() throws IOException {
+        // echo -n "foo" | shasum -a 256
+        assertThat(FileStateStore.hash(new ByteArrayInputStream("foo".getBytes(StandardCharsets.UTF_8))),
+                is("2c26b46b68ffc68ff99b453c1d30413413422d706483bfa0f98a5e886266e7ae"));
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.unit;
+
+import fr.pilato.elasticsearch.crawler.fs.FsCrawlerImpl;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.Elasticsearch;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.Fs;
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.FsSettings;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class FsCrawlerImplTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDefaultSettingsAreNotShared() {
+        Path config = folder.getRoot().toPath();
+        FsSettings job1 = FsSettings.builder("job1").build();
+        FsSettings job2 = FsSettings.builder("job2").build();
+        new FsCrawlerImpl(config, job1);
+        new FsCrawlerImpl(config, job2);
+
+        // Each job uses its own index
+        assertThat(job1.getElasticsearch().getIndex(), is("job1"));
+        assertThat(job2.getElasticsearch().getIndex(), is("job2"));
+        assertThat(job1.getElasticsearch().getNodes(), is(Elasticsearch.DEFAULT.getNodes()));
+        assertThat(job1.getFs().getUrl(), is(Fs.DEFAULT_DIR));
+
+        // The default settings have not been changed
+        assertThat(job1.getElasticsearch(), not(sameInstance(Elasticsearch.DEFAULT)));
+        assertThat(job1.getFs(), not(sameInstance(Fs.DEFAULT)));
+        assertThat(job1.getFs(), not(sameInstance(job2.getFs())));
+        assertThat(Elasticsearch.DEFAULT.getIndex(), nullValue());
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.unit;
+
+import fr.pilato.elasticsearch.crawler.fs.meta.settings.TimeValue;
+import fr.pilato.elasticsearch.crawler.fs.state.ScanCheckpoint;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * We want to test the scan checkpoints
+ */
+public class ScanCheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testResume() throws IOException {
+        Path root = folder.getRoot().toPath();
+        TimeValue interval = TimeValue.timeValueSeconds(0);
+        assertThat(ScanCheckpoint.load(root, "test", interval), nullValue());
+
+        Instant scanStart = Instant.ofEpochMilli(2000L);
+        Instant lastScanDate = Instant.ofEpochMilli(1000L);
+        ScanCheckpoint checkpoint = ScanCheckpoint.start(root, "test", interval, scanStart, lastScanDate);
+
+        // dir1 has one file being indexed
+        checkpoint.startDirectory("dir1");
+        checkpoint.startFile("dir1");
+        checkpoint.directoryListed("dir1");
+        // dir2 has no file to index
+        checkpoint.startDirectory("dir2");
+        checkpoint.directoryListed("dir2");
+        assertThat(checkpoint.isDue(), is(true));
+
+        List<String> ids = checkpoint.drain();
+        assertThat(ids, contains("dir2"));
+        checkpoint.write(ids);
+
+        checkpoint.fileDone("dir1");
+        ids = checkpoint.drain();
+        assertThat(ids, contains("dir1"));
+        assertThat(checkpoint.drain(), empty());
+
+        // The crawler stops before writing dir1
+        checkpoint = ScanCheckpoint.load(root, "test", interval);
+        assertThat(checkpoint, notNullValue());
+        assertThat(checkpoint.getScanStart(), is(scanStart));
+        assertThat(checkpoint.getLastScanDate(), is(lastScanDate));
+        assertThat(checkpoint.resumed(), is(1));
+        assertThat(checkpoint.isCompleted("dir1"), is(false));
+        assertThat(checkpoint.isCompleted("dir2"), is(true));
+
+        // The scan is over
+        checkpoint.delete();
+        assertThat(ScanCheckpoint.load(root, "test", interval), nullValue());
+    }
+
+    @Test
+    public void testFirstScan() throws IOException {
+        Path root = folder.getRoot().toPath();
+        ScanCheckpoint.start(root, "test", TimeValue.timeValueMinutes(1), Instant.ofEpochMilli(2000L), null);
+
+        ScanCheckpoint checkpoint = ScanCheckpoint.load(root, "test", TimeValue.timeValueMinutes(1));
+        assertThat(checkpoint.getLastScanDate(), nullValue());
+        assertThat(checkpoint.isDue(), is(false));
+    }
+
+    @Test
+    public void testPartialLine() throws IOException {
+        Path root = folder.getRoot().toPath();
+        TimeValue interval = TimeValue.timeValueMinutes(1);
+        ScanCheckpoint checkpoint = ScanCheckpoint.start(root, "test", interval, Instant.ofEpochMilli(2000L), null);
+        checkpoint.startDirectory("dir1");
+        checkpoint.directoryListed("dir1");
+        checkpoint.write(checkpoint.drain());
+
+        // The crawler died while writing a line
+        Files.write(root.resolve("test" + ScanCheckpoint.EXTENSION), "C".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        checkpoint = ScanCheckpoint.load(root, "test", interval);
+        assertThat(checkpoint.resumed(), is(1));
+        assertThat(checkpoint.isCompleted("dir1"), is(true));
+    }
+}
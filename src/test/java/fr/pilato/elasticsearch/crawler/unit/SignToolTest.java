@@ -0,0 +1,87 @@
+/*
+ * Licensed to David Pilato (the "Author") under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. Author licenses this
+ * file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package fr.pilato.elasticsearch.crawler.unit;
+
+import fr.pilato.elasticsearch.crawler.fs.SignTool;
+import org.junit.Test;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class SignToolTest {
+
+    /**
+     * The implementation used by previous versions
+     */
+    private static String previousSign(String toSign) throws NoSuchAlgorithmException {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        md.update(toSign.getBytes());
+
+        String key = "";
+        byte b[] = md.digest();
+        for (byte aB : b) {
+            long t = aB < 0 ? 256 + aB : aB;
+            key += Long.toHexString(t);
+        }
+
+        return key;
+    }
+
+    @Test
+    public void legacy_is_compatible() throws NoSuchAlgorithmException {
+        for (String path : new String[] { "", "/", "/tmp/es", "/tmp/es/roottxtfile.txt", "c:\\tmp\\es\\",
+                "/tmp/\u00e9l\u00e8ve/na\u00efve.pdf" }) {
+            assertThat(SignTool.sign(path), is(previousSign(path)));
+            assertThat(SignTool.getInstance(null).id(path), is(previousSign(path)));
+            assertThat(SignTool.getInstance(SignTool.LEGACY).id(path), is(previousSign(path)));
+        }
+        for (int i = 0; i < 1000; i++) {
+            String path = "/tmp/es/" + i;
+            assertThat(SignTool.sign(path), is(previousSign(path)));
+        }
+    }
+
+    @Test
+    public void md5() {
+        assertThat(SignTool.getInstance(SignTool.MD5).id(""), is("d41d8cd98f00b204e9800998ecf8427e"));
+        assertThat(SignTool.getInstance("MD5").id("hello"), is("5d41402abc4b2a76b9719d911017c592"));
+    }
+
+    @Test
+    public void murmur3() {
+        SignTool signTool = SignTool.getInstance(SignTool.MURMUR3);
+        assertThat(signTool.id(""), is("00000000000000000000000000000000"));
+        assertThat(signTool.id("hello"), is("cbd8a7b341bd9b025b1e906a48ae1d19"));
+        // We check every tail length
+        String text = "The quick brown fox jumps over the lazy dog";
+        for (int i = 0; i < 32; i++) {
+            assertThat(signTool.id(text.substring(0, i)).length(), is(32));
+        }
+        assertThat(signTool.id(text), is(signTool.id(text)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknown_algorithm() {
+        SignTool.getInstance("sha1");
+    }
+}